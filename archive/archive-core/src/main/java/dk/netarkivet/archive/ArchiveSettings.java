@@ -56,6 +56,12 @@ public class ArchiveSettings {
      */
     public static String ARCREPOSITORY_UPLOAD_RETRIES = "settings.archive.arcrepository.uploadRetries";
 
+    /**
+     * <b>settings.archive.arcrepository.listenerConsumers</b>: <br>
+     * The number of messages on the arcrepository queue the ArcRepositoryServer handles at a time.
+     */
+    public static String ARCREPOSITORY_LISTENER_CONSUMERS = "settings.archive.arcrepository.listenerConsumers";
+
     /**
      * <b>settings.archive.bitarchive.minSpaceLeft</b>: <br>
      * The minimum amount of bytes left *in any dir* that we will allow a bitarchive machine to accept uploads with.
@@ -108,6 +114,44 @@ public class ArchiveSettings {
      */
     public static String BITARCHIVE_BATCH_JOB_TIMEOUT = "settings.archive.bitarchive.batchMessageTimeout";
 
+    /**
+     * <b>settings.archive.bitarchive.batchAggregationThreads</b>: <br>
+     * The number of threads the BitarchiveMonitorServer uses for downloading the results of batch jobs from the
+     * bitarchives and aggregating them, so replies from different bitarchives are downloaded concurrently.
+     */
+    public static String BITARCHIVE_BATCH_AGGREGATION_THREADS = "settings.archive.bitarchive.batchAggregationThreads";
+
+    /**
+     * <b>settings.archive.bitarchive.listenerConsumers</b>: <br>
+     * The number of messages on the queue shared by the bitarchives the BitarchiveServer handles at a time, so e.g. a
+     * slow GetMessage does not hold up the others. Messages on the topic to all bitarchives are handled one at a time.
+     */
+    public static String BITARCHIVE_LISTENER_CONSUMERS = "settings.archive.bitarchive.listenerConsumers";
+
+    /**
+     * <b>settings.archive.bitarchive.fixityVerificationWindow</b>: <br>
+     * The number of milliseconds a checksum read from a file on the bitarchive is trusted, as long as the size,
+     * modification time and inode of the file are unchanged. Within this window, checksum jobs are answered from the
+     * fixity cache of the bitarchive, while the files are reread on a rolling schedule spread evenly over the window.
+     * 0 disables the fixity cache, so checksum jobs read every file.
+     */
+    public static String BITARCHIVE_FIXITY_VERIFICATION_WINDOW = "settings.archive.bitarchive.fixityVerificationWindow";
+
+    /**
+     * <b>settings.archive.bitarchive.fixityVerificationInterval</b>: <br>
+     * The number of milliseconds between the rolling verification passes of the fixity cache. Each pass rereads the
+     * least recently verified files, up to the share of the archive that falls on one interval of the verification
+     * window.
+     */
+    public static String BITARCHIVE_FIXITY_VERIFICATION_INTERVAL =
+            "settings.archive.bitarchive.fixityVerificationInterval";
+
+    /**
+     * <b>settings.archive.bitarchive.fixityCacheFile</b>: <br>
+     * The file where the fixity cache of the bitarchive is persisted.
+     */
+    public static String BITARCHIVE_FIXITY_CACHE_FILE = "settings.archive.bitarchive.fixityCacheFile";
+
     /**
      * <b>settings.archive.bitarchive.thisCredentials</b>: <br>
      * Credentials to enter in the GUI for "deleting" ARC files in this bit archive.
@@ -300,6 +344,20 @@ public class ArchiveSettings {
      * The default is false
      */
     public static String CHECKSUM_USE_PRECOMPUTED_CHECKSUM_DURING_UPLOAD= "settings.archive.checksum.usePrecomputedChecksumDuringUpload";
+
+    /**
+     * <b>settings.archive.checksum.snapshotInterval</b>: <br>
+     * The number of entries added to the checksum file of a FileChecksumArchive before a new snapshot of the archive
+     * is written. At startup the snapshot is loaded, and only the entries added after it are read from the checksum
+     * file. 0 disables snapshots, so the whole checksum file is read at startup.
+     */
+    public static String CHECKSUM_SNAPSHOT_INTERVAL = "settings.archive.checksum.snapshotInterval";
+
+    /**
+     * <b>settings.archive.checksum.listenerConsumers</b>: <br>
+     * The number of messages on the checksum replica queue the ChecksumFileServer handles at a time.
+     */
+    public static String CHECKSUM_LISTENER_CONSUMERS = "settings.archive.checksum.listenerConsumers";
     
     
     /**
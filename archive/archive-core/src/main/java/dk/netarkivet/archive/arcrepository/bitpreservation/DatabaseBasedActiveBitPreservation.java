@@ -27,12 +27,15 @@ import java.sql.Date;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.archive.arcrepository.distribute.JMSArcRepositoryClient;
 import dk.netarkivet.archive.arcrepositoryadmin.BitPreservationDAO;
 import dk.netarkivet.archive.arcrepositoryadmin.ReplicaCacheDatabase;
 import dk.netarkivet.archive.arcrepositoryadmin.ReplicaFileInfo;
@@ -250,13 +253,22 @@ public final class DatabaseBasedActiveBitPreservation implements ActiveBitPreser
         // retrieve the ArcRepositoryClient before using it in the for-loop.
         PreservationArcRepositoryClient arcClient = ArcRepositoryClientFactory.getPreservationInstance();
 
-        // retrieve the checksum status for the file for all the replicas
-        for (Replica replica : Replica.getKnown()) {
-            // retrieve the checksum.
-            String checksum = arcClient.getChecksum(replica.getId(), filename);
-
-            // insert the checksum results for the file into the database.
-            cache.updateChecksumInformationForFileOnReplica(filename, checksum, replica);
+        // request the checksum status for the file from all the replicas at once
+        Map<Replica, CompletableFuture<String>> checksums = new LinkedHashMap<Replica, CompletableFuture<String>>();
+        try {
+            for (Replica replica : Replica.getKnown()) {
+                checksums.put(replica, JMSArcRepositoryClient.requestChecksum(arcClient, replica.getId(), filename));
+            }
+            for (Map.Entry<Replica, CompletableFuture<String>> checksum : checksums.entrySet()) {
+                // insert the checksum results for the file into the database.
+                cache.updateChecksumInformationForFileOnReplica(filename,
+                        JMSArcRepositoryClient.waitFor(checksum.getValue()), checksum.getKey());
+            }
+        } finally {
+            // stop waiting for the remaining replies if one failed.
+            for (CompletableFuture<String> checksum : checksums.values()) {
+                checksum.cancel(false);
+            }
         }
 
         // Vote for the specific file.
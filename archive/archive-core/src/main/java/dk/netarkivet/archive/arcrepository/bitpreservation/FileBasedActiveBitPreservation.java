@@ -31,10 +31,12 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.archive.arcrepository.distribute.JMSArcRepositoryClient;
 import dk.netarkivet.archive.arcrepositoryadmin.AdminData;
 import dk.netarkivet.archive.arcrepositoryadmin.ArcRepositoryEntry;
 import dk.netarkivet.archive.arcrepositoryadmin.ReadOnlyAdminData;
@@ -282,13 +284,18 @@ public class FileBasedActiveBitPreservation implements ActiveBitPreservation, Cl
         // initialise the resulting map.
         Map<String, List<String>> res = new HashMap<String, List<String>>();
 
+        Map<String, CompletableFuture<String>> checksums = new HashMap<String, CompletableFuture<String>>();
         try {
             PreservationArcRepositoryClient arcClient = ArcRepositoryClientFactory.getPreservationInstance();
-            // for each file extract the checksum through a checksum message
-            // and then put it into the resulting map.
+            // request the checksum of each file through a checksum message, without waiting for the replies.
             for (String file : filenames) {
+                checksums.put(file, JMSArcRepositoryClient.requestChecksum(arcClient, rep.getId(), file));
+            }
+            // then extract the checksums and put them into the resulting map.
+            for (Map.Entry<String, CompletableFuture<String>> entry : checksums.entrySet()) {
+                String file = entry.getKey();
                 // retrieve the checksum from the replica.
-                String checksum = arcClient.getChecksum(rep.getId(), file);
+                String checksum = JMSArcRepositoryClient.waitFor(entry.getValue());
 
                 // put the checksum into a list, or make empty list if the
                 // checksum was not retrieved.
@@ -309,6 +316,11 @@ public class FileBasedActiveBitPreservation implements ActiveBitPreservation, Cl
         } catch (NetarkivetException e) {
             // This is not critical. Log and continue.
             log.warn("The retrieval of checksums from a checksum archive was not successful.", e);
+        } finally {
+            // stop waiting for the remaining replies if one failed.
+            for (CompletableFuture<String> checksum : checksums.values()) {
+                checksum.cancel(false);
+            }
         }
 
         return res;
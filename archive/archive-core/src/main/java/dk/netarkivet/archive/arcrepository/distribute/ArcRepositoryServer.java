@@ -28,6 +28,7 @@ import java.util.Collections;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.archive.ArchiveSettings;
 import dk.netarkivet.archive.arcrepository.ArcRepository;
 import dk.netarkivet.archive.arcrepository.bitpreservation.AdminDataMessage;
 import dk.netarkivet.archive.bitarchive.distribute.BatchMessage;
@@ -70,7 +71,8 @@ public class ArcRepositoryServer extends ArchiveMessageHandler implements Cleanu
         this.ar = ar;
         ChannelID channel = Channels.getTheRepos();
         log.info("Listening for arc repository messages on channel '{}'", channel);
-        JMSConnectionFactory.getInstance().setListener(channel, this);
+        JMSConnectionFactory.getInstance().setListener(channel, this,
+                Settings.getInt(ArchiveSettings.ARCREPOSITORY_LISTENER_CONSUMERS));
     }
 
     /**
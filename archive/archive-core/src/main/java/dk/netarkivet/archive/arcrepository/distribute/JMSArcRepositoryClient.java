@@ -24,6 +24,10 @@ package dk.netarkivet.archive.arcrepository.distribute;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -48,6 +52,7 @@ import dk.netarkivet.common.distribute.Synchronizer;
 import dk.netarkivet.common.distribute.arcrepository.ArcRepositoryClient;
 import dk.netarkivet.common.distribute.arcrepository.BatchStatus;
 import dk.netarkivet.common.distribute.arcrepository.BitarchiveRecord;
+import dk.netarkivet.common.distribute.arcrepository.PreservationArcRepositoryClient;
 import dk.netarkivet.common.distribute.arcrepository.Replica;
 import dk.netarkivet.common.distribute.arcrepository.ReplicaStoreState;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
@@ -165,30 +170,49 @@ public class JMSArcRepositoryClient extends Synchronizer implements ArcRepositor
      * @throws IOFailure If a wrong message is returned or the get operation failed.
      */
     public BitarchiveRecord get(String arcfile, long index) throws ArgumentNotValid, IOFailure {
+        return waitFor(getAsync(arcfile, index));
+    }
+
+    /**
+     * Sends a GetMessage on the "TheArcrepos" queue without waiting for the reply. The future is completed with null if
+     * no message is returned within Settings.ARCREPOSITORY_GET_TIMEOUT. Cancelling the future stops waiting for the
+     * reply.
+     *
+     * @param arcfile The name of a file.
+     * @param index The offset of the wanted record in the file
+     * @return The future BitarchiveRecord-object. It fails with an IOFailure if a wrong message is returned or the get
+     * operation failed.
+     * @throws ArgumentNotValid If the given arcfile is null or empty, or the given index is negative.
+     */
+    public CompletableFuture<BitarchiveRecord> getAsync(final String arcfile, final long index)
+            throws ArgumentNotValid {
         ArgumentNotValid.checkNotNullOrEmpty(arcfile, "arcfile");
         ArgumentNotValid.checkNotNegative(index, "index");
         log.debug("Requesting get of record '{}:{}'", arcfile, index);
-        long start = System.currentTimeMillis();
+        final long start = System.currentTimeMillis();
         GetMessage requestGetMsg = new GetMessage(Channels.getTheRepos(), replyQ, arcfile, index);
-        NetarkivetMessage replyNetMsg = sendAndWaitForOneReply(requestGetMsg, getTimeout);
-        long timePassed = System.currentTimeMillis() - start;
-        if (replyNetMsg != null) {
+        CompletableFuture<NetarkivetMessage> reply = sendAsync(requestGetMsg, getTimeout);
+        return cancelWith(reply, reply.handle((replyNetMsg, failure) -> {
+            if (failure instanceof TimeoutException) {
+                log.info("Request for record({}:{}) timed out after {} seconds. Returning null BitarchiveRecord",
+                        arcfile, index, (getTimeout / MILLISECONDS_PER_SECOND));
+                return null;
+            } else if (failure != null) {
+                throw new CompletionException(failure);
+            }
+            long timePassed = System.currentTimeMillis() - start;
             log.debug("Reply received after {} seconds", (timePassed / MILLISECONDS_PER_SECOND));
-        } else if (replyNetMsg == null) {
-            log.info("Request for record({}:{}) timed out after {} seconds. Returning null BitarchiveRecord", arcfile,
-                    index, (getTimeout / MILLISECONDS_PER_SECOND));
-            return null;
-        }
-        GetMessage replyGetMsg;
-        try {
-            replyGetMsg = (GetMessage) replyNetMsg;
-        } catch (ClassCastException e) {
-            throw new IOFailure("Received invalid argument reply: '" + replyNetMsg + "'", e);
-        }
-        if (!replyGetMsg.isOk()) {
-            throw new IOFailure("GetMessage failed: '" + replyGetMsg.getErrMsg() + "'");
-        }
-        return replyGetMsg.getRecord();
+            GetMessage replyGetMsg;
+            try {
+                replyGetMsg = (GetMessage) replyNetMsg;
+            } catch (ClassCastException e) {
+                throw new IOFailure("Received invalid argument reply: '" + replyNetMsg + "'", e);
+            }
+            if (!replyGetMsg.isOk()) {
+                throw new IOFailure("GetMessage failed: '" + replyGetMsg.getErrMsg() + "'");
+            }
+            return replyGetMsg.getRecord();
+        }));
     }
 
     /**
@@ -333,23 +357,45 @@ public class JMSArcRepositoryClient extends Synchronizer implements ArcRepositor
      */
     public BatchStatus batch(FileBatchJob job, String replicaId, String batchId, String... args) throws IOFailure,
             ArgumentNotValid {
+        return waitFor(batchAsync(job, replicaId, batchId, args));
+    }
+
+    /**
+     * Starts a batch job on each file in the ArcRepository without waiting for it to end. This lets a batch job run on
+     * several replicas at the same time. Cancelling the future stops waiting for the reply, but not the batch job.
+     *
+     * @param job An object that implements the FileBatchJob interface.
+     * @param replicaId The archive to execute the job on.
+     * @param batchId The id for the batch process.
+     * @param args The arguments for the batchjob. This is allowed to be null.
+     * @return The future status of the batch job after it ended. It fails with an IOFailure if no result file is
+     * returned.
+     * @throws ArgumentNotValid If the job is null or the replicaId is either null or the empty string.
+     * @see #batch(FileBatchJob, String, String, String...)
+     */
+    public CompletableFuture<BatchStatus> batchAsync(final FileBatchJob job, String replicaId, String batchId,
+            String... args) throws ArgumentNotValid {
         ArgumentNotValid.checkNotNull(job, "FileBatchJob job");
         ArgumentNotValid.checkNotNullOrEmpty(replicaId, "String replicaId");
 
         log.debug("Starting batchjob '{}' running on replica '{}'", job, replicaId);
-        BatchMessage bMsg = new BatchMessage(Channels.getTheRepos(), replyQ, job, replicaId, batchId, args);
+        final BatchMessage bMsg = new BatchMessage(Channels.getTheRepos(), replyQ, job, replicaId, batchId, args);
         log.debug("Sending batchmessage to queue '{}' with replyqueue set to '{}'", Channels.getTheRepos(), replyQ);
-        BatchReplyMessage brMsg = (BatchReplyMessage) sendAndWaitForOneReply(bMsg, 0);
-        if (!brMsg.isOk()) {
-            String msg = "The batch job '" + bMsg + "' resulted in the following " + "error: " + brMsg.getErrMsg();
-            log.warn(msg);
-            if (brMsg.getResultFile() == null) {
-                // If no result is available at all, this is non-recoverable
-                throw new IOFailure(msg);
+        CompletableFuture<NetarkivetMessage> reply = sendAsync(bMsg, 0);
+        return cancelWith(reply, reply.thenApply(replyNetMsg -> {
+            BatchReplyMessage brMsg = (BatchReplyMessage) replyNetMsg;
+            if (!brMsg.isOk()) {
+                String msg = "The batch job '" + bMsg + "' resulted in the following " + "error: "
+                        + brMsg.getErrMsg();
+                log.warn(msg);
+                if (brMsg.getResultFile() == null) {
+                    // If no result is available at all, this is non-recoverable
+                    throw new IOFailure(msg);
+                }
             }
-        }
-        return new BatchStatus(brMsg.getFilesFailed(), brMsg.getNoOfFilesProcessed(), brMsg.getResultFile(),
-                job.getExceptions());
+            return new BatchStatus(brMsg.getFilesFailed(), brMsg.getNoOfFilesProcessed(), brMsg.getResultFile(),
+                    job.getExceptions());
+        }));
     }
 
     /**
@@ -552,36 +598,67 @@ public class JMSArcRepositoryClient extends Synchronizer implements ArcRepositor
      * @throws ArgumentNotValid If either the replicaId of the filename is null or empty.
      */
     public String getChecksum(String replicaId, String filename) throws ArgumentNotValid, IOFailure {
+        return waitFor(getChecksumAsync(replicaId, filename));
+    }
+
+    /**
+     * Requests the checksum of a specific file without waiting for the reply. This lets the checksum be requested from
+     * several replicas at the same time. Cancelling the future stops waiting for the reply.
+     *
+     * @param replicaId The ID of the replica to send the message.
+     * @param filename The name of the file for whom the checksum should be retrieved.
+     * @return The future checksum of the file in the replica. It fails with an IOFailure if the reply is not of type
+     * GetChecksumMessage.
+     * @throws ArgumentNotValid If either the replicaId of the filename is null or empty.
+     * @see #getChecksum(String, String)
+     */
+    public CompletableFuture<String> getChecksumAsync(String replicaId, String filename) throws ArgumentNotValid {
         ArgumentNotValid.checkNotNullOrEmpty(replicaId, "String replicaId");
         ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
         log.debug("Sending GetChecksumMessage to replica '{}' for file '{}'.", replicaId, filename);
         // time this.
-        long start = System.currentTimeMillis();
+        final long start = System.currentTimeMillis();
         // make and send the message to the replica.
         GetChecksumMessage gcsMsg = new GetChecksumMessage(Channels.getTheRepos(), replyQ, filename, replicaId);
-        NetarkivetMessage replyNetMsg = sendAndWaitForOneReply(gcsMsg, 0);
-        // calculate and log the time spent on handling the message.
-        long timePassed = System.currentTimeMillis() - start;
-        log.debug("Reply received after {} seconds.", (timePassed / MILLISECONDS_PER_SECOND));
-        // check whether the output was valid.
-        if (replyNetMsg == null) {
-            throw new IOFailure("Request for checksum timed out after " + (getTimeout / MILLISECONDS_PER_SECOND)
-                    + " seconds.");
-        }
+        CompletableFuture<NetarkivetMessage> reply = sendAsync(gcsMsg, 0);
+        return cancelWith(reply, reply.thenApply(replyNetMsg -> {
+            // calculate and log the time spent on handling the message.
+            long timePassed = System.currentTimeMillis() - start;
+            log.debug("Reply received after {} seconds.", (timePassed / MILLISECONDS_PER_SECOND));
+
+            // convert to the expected type of message.
+            GetChecksumMessage replyCSMsg;
+            try {
+                replyCSMsg = (GetChecksumMessage) replyNetMsg;
+            } catch (ClassCastException e) {
+                throw new IOFailure("Received invalid reply message: '" + replyNetMsg, e);
+            }
 
-        // convert to the expected type of message.
-        GetChecksumMessage replyCSMsg;
-        try {
-            replyCSMsg = (GetChecksumMessage) replyNetMsg;
-        } catch (ClassCastException e) {
-            throw new IOFailure("Received invalid reply message: '" + replyNetMsg, e);
-        }
+            if (!replyCSMsg.isOk()) {
+                log.warn("The reply message for retrieval of checksum was not OK. Tries to extract checksum anyway. "
+                        + "{}", replyCSMsg.getErrMsg());
+            }
+            return replyCSMsg.getChecksum();
+        }));
+    }
 
-        if (!replyCSMsg.isOk()) {
-            log.warn("The reply message for retrieval of checksum was not OK. Tries to extract checksum anyway. {}",
-                    replyCSMsg.getErrMsg());
+    /**
+     * Requests the checksum of a specific file from an arc repository client. A JMSArcRepositoryClient does not wait for
+     * the reply; other clients return a future that is already completed.
+     *
+     * @param arcClient The client to request the checksum from.
+     * @param replicaId The ID of the replica to send the message.
+     * @param filename The name of the file for whom the checksum should be retrieved.
+     * @return The future checksum of the file in the replica.
+     * @throws ArgumentNotValid If arcClient is null, or either the replicaId of the filename is null or empty.
+     */
+    public static CompletableFuture<String> requestChecksum(PreservationArcRepositoryClient arcClient,
+            String replicaId, String filename) throws ArgumentNotValid {
+        ArgumentNotValid.checkNotNull(arcClient, "PreservationArcRepositoryClient arcClient");
+        if (arcClient instanceof JMSArcRepositoryClient) {
+            return ((JMSArcRepositoryClient) arcClient).getChecksumAsync(replicaId, filename);
         }
-        return replyCSMsg.getChecksum();
+        return CompletableFuture.completedFuture(arcClient.getChecksum(replicaId, filename));
     }
 
     /**
@@ -631,4 +708,27 @@ public class JMSArcRepositoryClient extends Synchronizer implements ArcRepositor
         }
     }
 
+    /**
+     * Wait for the reply to a request sent with one of the asynchronous methods. Exceptions thrown while handling the
+     * reply are rethrown.
+     *
+     * @param reply The future result of the request.
+     * @param <T> The type of result.
+     * @return The result.
+     * @throws IOFailure If interrupted while waiting, or if getting the result failed with a checked exception.
+     */
+    public static <T> T waitFor(CompletableFuture<T> reply) throws IOFailure {
+        try {
+            return reply.get();
+        } catch (InterruptedException e) {
+            reply.cancel(false);
+            throw new IOFailure("Interrupted while waiting for reply", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOFailure("Failed getting reply", e.getCause());
+        }
+    }
+
 }
@@ -26,6 +26,9 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
 
 import org.archive.io.ArchiveReader;
@@ -34,6 +37,7 @@ import org.archive.io.ArchiveRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.archive.ArchiveSettings;
 import dk.netarkivet.common.distribute.RemoteFile;
 import dk.netarkivet.common.distribute.RemoteFileFactory;
 import dk.netarkivet.common.distribute.arcrepository.BatchStatus;
@@ -43,7 +47,9 @@ import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.PermissionDenied;
 import dk.netarkivet.common.exceptions.UnknownID;
 import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.batch.BatchLocalFiles;
+import dk.netarkivet.common.utils.batch.ChecksumJob;
 import dk.netarkivet.common.utils.batch.FileBatchJob;
 
 /**
@@ -55,6 +61,9 @@ public class Bitarchive {
     /** Administrative data for the current bitarchive. */
     private BitarchiveAdmin admin;
 
+    /** The cache of checksums of the files in this bitarchive, or null if fixity verification is disabled. */
+    private FixityCache fixityCache;
+
     /** Logging output place. */
     protected static final Logger log = LoggerFactory.getLogger(Bitarchive.class);
 
@@ -70,12 +79,23 @@ public class Bitarchive {
     private Bitarchive() throws PermissionDenied {
         log.debug("Starting bit archive");
         admin = BitarchiveAdmin.getInstance();
+        long verificationWindow = Settings.getLong(ArchiveSettings.BITARCHIVE_FIXITY_VERIFICATION_WINDOW);
+        if (verificationWindow > 0) {
+            fixityCache = new FixityCache(new File(Settings.get(ArchiveSettings.BITARCHIVE_FIXITY_CACHE_FILE)),
+                    verificationWindow, Settings.getLong(ArchiveSettings.BITARCHIVE_FIXITY_VERIFICATION_INTERVAL),
+                    admin::getFiles);
+            fixityCache.start();
+        }
     }
 
     /**
      * Release all resources allocated by the bitarchive Ensures that all admin data and log data are flushed.
      */
     public void close() {
+        if (fixityCache != null) {
+            fixityCache.close();
+            fixityCache = null;
+        }
         admin.close();
         instance = null;
     }
@@ -85,7 +105,8 @@ public class Bitarchive {
      *
      * @param arcfile The name of an Archive file.
      * @param index Index of the Archive record in the file
-     * @return A BitarchiveRecord object for the record in question. This record contains the data from the file.
+     * @return A BitarchiveRecord object for the record in question. This record contains the data from the file, or a
+     * handle for streaming it from the file.
      * @throws ArgumentNotValid If arcfile is null/empty, or if index is out of bounds
      * @throws IOFailure If there were problems reading the arcfile.
      * @throws UnknownID Does it really, and when ?
@@ -112,7 +133,7 @@ public class Bitarchive {
             File in = barc.getFilePath();
             arcReader = ArchiveReaderFactory.get(in);
             arc = arcReader.get(index);
-            BitarchiveRecord result = new BitarchiveRecord(arc, arcfile);
+            BitarchiveRecord result = new BitarchiveRecord(arc, arcfile, in);
 
             // release resources locked
             log.info("GET: Got {} bytes of data from {}:{}", result.getLength(), arcfile, index);
@@ -200,6 +221,13 @@ public class Bitarchive {
                 // Run the batch job
                 log.debug("Batch: Job {} started at {}", job, new Date());
                 File[] processFiles = admin.getFilesMatching(job.getFilenamePattern());
+                if (job.hasSortedOutput()) {
+                    // Lets the bitarchive monitor merge the results instead of concatenating them.
+                    Arrays.sort(processFiles, Comparator.comparing(file -> mergeKey(job, file)));
+                }
+                if (fixityCache != null && job instanceof ChecksumJob) {
+                    ((ChecksumJob) job).setChecksumSource(fixityCache);
+                }
 
                 final BatchLocalFiles localBatchRunner = new BatchLocalFiles(processFiles);
                 localBatchRunner.run(job, os);
@@ -227,6 +255,18 @@ public class Bitarchive {
         return returnStatus;
     }
 
+    /**
+     * The key a file is sorted by for a job with sorted output. FileUtils.mergeSortedFiles compares the lines byte by
+     * byte, reading them as ISO-8859-1, so the start of the line is compared the same way here.
+     *
+     * @param job A job with sorted output.
+     * @param file A file to process.
+     * @return The start of the line written for the file, with each byte as a char.
+     */
+    private static String mergeKey(FileBatchJob job, File file) {
+        return new String(job.getSortedOutputKey(file).getBytes(), StandardCharsets.ISO_8859_1);
+    }
+
     /**
      * Copies a remote file into the bitarchive storage and returns the storage position of the file.
      *
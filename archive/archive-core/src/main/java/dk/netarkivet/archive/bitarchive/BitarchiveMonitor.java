@@ -23,9 +23,11 @@
 package dk.netarkivet.archive.bitarchive;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -37,6 +39,11 @@ import java.util.Observable;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -62,6 +69,10 @@ import dk.netarkivet.common.utils.batch.FileBatchJob;
  * <p>
  * We wait for replies from bitarchives that are considered live when the batch begins. A bitarchive is considered live
  * if we have heard any activity from it within a time specified in settings.
+ * <p>
+ * The results of the bitarchives are downloaded concurrently into separate segments as the replies arrive. When the
+ * batch ends, the segments are merged into one sorted result if the batch job has sorted output, and concatenated
+ * otherwise, before observers are notified.
  */
 public class BitarchiveMonitor extends Observable implements CleanupIF {
 
@@ -90,6 +101,9 @@ public class BitarchiveMonitor extends Observable implements CleanupIF {
     /** Logger for this class. */
     private static final Logger log = LoggerFactory.getLogger(BitarchiveMonitor.class);
 
+    /** Downloads the results of bitarchive replies, and aggregates the results of ended batch jobs. */
+    private final ExecutorService aggregationExecutor;
+
     /**
      * Initialises the bitarchive monitor. During this, the acceptable delay between signs of life and the timeout
      * setting for batchjobs are read and logged.
@@ -97,6 +111,16 @@ public class BitarchiveMonitor extends Observable implements CleanupIF {
     private BitarchiveMonitor() {
         acceptableSignOfLifeDelay = Settings.getLong(ArchiveSettings.BITARCHIVE_ACCEPTABLE_HEARTBEAT_DELAY);
         log.info("Bitarchive liveness times out after {} milliseconds.", acceptableSignOfLifeDelay);
+        int aggregationThreads = Settings.getInt(ArchiveSettings.BITARCHIVE_BATCH_AGGREGATION_THREADS);
+        final AtomicInteger threadCount = new AtomicInteger();
+        aggregationExecutor = Executors.newFixedThreadPool(Math.max(1, aggregationThreads), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "BatchAggregation-" + threadCount.incrementAndGet());
+                thread.setDaemon(IS_DAEMON);
+                return thread;
+            }
+        });
     }
 
     /**
@@ -140,11 +164,28 @@ public class BitarchiveMonitor extends Observable implements CleanupIF {
      */
     public void registerBatch(String requestID, ChannelID requestReplyTo, String bitarchiveBatchID, long timeout)
             throws ArgumentNotValid {
+        registerBatch(requestID, requestReplyTo, bitarchiveBatchID, timeout, false);
+    }
+
+    /**
+     * Register a new batch sent to the bitarchives, whose results may be merged rather than concatenated.
+     *
+     * @param requestID The ID of the batch request.
+     * @param requestReplyTo The replyTo channel of the batch request.
+     * @param bitarchiveBatchID The ID of the batch job sent on to the bit archives.
+     * @param timeout Timeout of specific batch job.
+     * @param sortedOutput Whether the results of each bitarchive are sorted, so they can be merged into one sorted
+     * result.
+     * @throws ArgumentNotValid If any argument is null, or either string is empty.
+     * @see FileBatchJob#hasSortedOutput()
+     */
+    public void registerBatch(String requestID, ChannelID requestReplyTo, String bitarchiveBatchID, long timeout,
+            boolean sortedOutput) throws ArgumentNotValid {
         ArgumentNotValid.checkNotNullOrEmpty(requestID, "String requestID");
         ArgumentNotValid.checkNotNull(requestReplyTo, "ChannelID requestReplyTo");
         ArgumentNotValid.checkNotNullOrEmpty(bitarchiveBatchID, "String bitarchiveBatchID");
         BatchJobStatus bjs = new BatchJobStatus(requestID, requestReplyTo, bitarchiveBatchID,
-                getRunningBitarchiveIDs(), timeout);
+                getRunningBitarchiveIDs(), timeout, sortedOutput);
         runningBatchJobs.put(bitarchiveBatchID, bjs);
         log.info("Registered Batch job from {} with timeout {}. Number of outstanding batchjobs are now: {}",
                 requestID, timeout, runningBatchJobs.size());
@@ -237,9 +278,10 @@ public class BitarchiveMonitor extends Observable implements CleanupIF {
     }
 
     /**
-     * Closes this BitarchiveMonitor cleanly. Currently does nothing.
+     * Closes this BitarchiveMonitor cleanly, stopping the aggregation of batch results.
      */
     public void cleanup() {
+        aggregationExecutor.shutdownNow();
         instance = null;
     }
 
@@ -276,9 +318,18 @@ public class BitarchiveMonitor extends Observable implements CleanupIF {
         /** A string with a concatenation of errors. This error message is null, if the job is successful. */
         public String errorMessages;
 
-        /** A File with a concatenation of results from replies received so far. */
+        /**
+         * A File with the aggregated results of the replies. It is filled in when the batch ends, before observers are
+         * notified.
+         */
         public final File batchResultFile;
 
+        /** Whether the results of the bitarchives are sorted, and should be merged rather than concatenated. */
+        private final boolean sortedOutput;
+
+        /** The downloads of the results of the replies received so far, each completing with a segment file. */
+        private final List<CompletableFuture<File>> segments = new ArrayList<CompletableFuture<File>>();
+
         /** A list of the exceptions that occurred during processing. */
         public final List<FileBatchJob.ExceptionOccurrence> exceptions;
 
@@ -294,11 +345,13 @@ public class BitarchiveMonitor extends Observable implements CleanupIF {
          * @param bitarchiveBatchID The ID of the job sent to bitarchives.
          * @param missingRespondents List of all live bitarchives, used to know which bitarchives to await reply from.
          * @param timeout Timeout for Batch job
+         * @param sortedOutput Whether the results of the bitarchives should be merged rather than concatenated.
          * @throws IOFailure if a file for batch results cannot be made.
          */
         private BatchJobStatus(String originalRequestID, ChannelID originalRequestReplyTo, String bitarchiveBatchID,
-                Set<String> missingRespondents, long timeout) throws IOFailure {
+                Set<String> missingRespondents, long timeout, boolean sortedOutput) throws IOFailure {
             this.originalRequestID = originalRequestID;
+            this.sortedOutput = sortedOutput;
             this.originalRequestReplyTo = originalRequestReplyTo;
             this.bitarchiveBatchID = bitarchiveBatchID;
             this.missingRespondents = missingRespondents;
@@ -326,7 +379,7 @@ public class BitarchiveMonitor extends Observable implements CleanupIF {
          *
          * @param errMsg A message describing what went wrong.
          */
-        public void appendError(String errMsg) {
+        public synchronized void appendError(String errMsg) {
             if (this.errorMessages == null) {
                 this.errorMessages = errMsg;
             } else {
@@ -337,8 +390,9 @@ public class BitarchiveMonitor extends Observable implements CleanupIF {
         /**
          * Updates the status with info from a bitarchive reply.
          * <p>
-         * This will add the results given to the status, and if this was the last remaining bitarchive, also sends a
-         * notification to all observers of the bitarchive monitor.
+         * This will add the results given to the status, and start downloading the result file of the bitarchive. If
+         * this was the last remaining bitarchive, the results are aggregated and observers of the bitarchive monitor
+         * are notified once all downloads have finished.
          *
          * @param bitarchiveID The ID of the bitarchive that has replied
          * @param numberOfFilesProcessed The number of files processed by that bit archive.
@@ -351,7 +405,9 @@ public class BitarchiveMonitor extends Observable implements CleanupIF {
             if (notifyInitiated) {
                 log.debug("The reply for batch job: '{}' from bitarchive '{}' arrived after we had started replying. "
                         + "Ignoring this reply.", bitarchiveBatchID, bitarchiveID);
-                remoteFile.cleanup();
+                if (remoteFile != null) {
+                    remoteFile.cleanup();
+                }
                 return;
             }
             // found is set to true, if bitarchiveID was among
@@ -369,7 +425,9 @@ public class BitarchiveMonitor extends Observable implements CleanupIF {
                 this.filesFailed.addAll(failedFiles);
             }
 
-            appendRemoteFileToAggregateFile(remoteFile);
+            if (remoteFile != null) {
+                segments.add(downloadSegment(remoteFile));
+            }
             this.exceptions.addAll(this.exceptions);
 
             // In case the batch reply contains an error, the final
@@ -387,55 +445,101 @@ public class BitarchiveMonitor extends Observable implements CleanupIF {
         }
 
         /**
-         * Append a remotefile to the batch result aggregate file. Adds info on errors while concatenating to the batch
-         * status.
+         * Start downloading a remotefile into a segment file of its own. Adds info on errors while downloading to the
+         * batch status.
          *
          * @param rf A remotefile to read from
+         * @return The download, completing with the segment file, or with null if the download failed.
          */
-        private void appendRemoteFileToAggregateFile(RemoteFile rf) {
-            if (rf != null) {
-                OutputStream aggregateStream = null;
+        private CompletableFuture<File> downloadSegment(final RemoteFile rf) {
+            return CompletableFuture.supplyAsync(() -> {
+                File segment = null;
                 try {
-                    aggregateStream = new FileOutputStream(batchResultFile, true);
-                    rf.appendTo(aggregateStream);
-
+                    segment = File.createTempFile(bitarchiveBatchID, "batch_segment", FileUtils.getTempDir());
+                    try (OutputStream segmentStream = new FileOutputStream(segment)) {
+                        rf.appendTo(segmentStream);
+                    }
                     try {
                         rf.cleanup();
                     } catch (IOFailure e) {
                         log.warn("Could not remove remotefile '{}'", rf, e);
                         // Harmless, though. Continue
                     }
-                } catch (IOFailure e) {
-                    String errMsg = "Exception while aggregating batch output for " + rf.getName() + ": "
-                            + ExceptionUtils.getStackTrace(e);
-                    appendError(errMsg);
-                } catch (IOException e) {
-                    String errMsg = "Exception while aggregating batch output for " + rf.getName() + ": "
-                            + ExceptionUtils.getStackTrace(e);
-                    appendError(errMsg);
-                } finally {
-                    if (aggregateStream != null) {
-                        try {
-                            aggregateStream.close();
-                        } catch (IOException e) {
-                            String errMsg = "Exception while aggregating batch output for " + rf.getName() + ": "
-                                    + ExceptionUtils.getStackTrace(e);
-                            appendError(errMsg);
+                    return segment;
+                } catch (IOFailure | IOException e) {
+                    appendError("Exception while aggregating batch output for " + rf.getName() + ": "
+                            + ExceptionUtils.getStackTrace(e));
+                    if (segment != null) {
+                        FileUtils.remove(segment);
+                    }
+                    return null;
+                }
+            }, aggregationExecutor);
+        }
+
+        /**
+         * Aggregate the downloaded segments into the batch result file, merging them if the results are sorted and
+         * concatenating them otherwise. The segments are deleted afterwards. Adds info on errors while aggregating to
+         * the batch status.
+         *
+         * @param downloads The downloads of the segments, which must all have completed.
+         */
+        private void aggregateSegments(List<CompletableFuture<File>> downloads) {
+            List<File> segmentFiles = new ArrayList<File>(downloads.size());
+            for (CompletableFuture<File> download : downloads) {
+                File segment = download.join();
+                if (segment != null) {
+                    segmentFiles.add(segment);
+                }
+            }
+            try {
+                if (sortedOutput) {
+                    FileUtils.mergeSortedFiles(segmentFiles, batchResultFile);
+                } else {
+                    try (FileChannel out = new FileOutputStream(batchResultFile, true).getChannel()) {
+                        for (File segment : segmentFiles) {
+                            try (FileChannel in = new FileInputStream(segment).getChannel()) {
+                                long position = 0;
+                                long size = in.size();
+                                while (position < size) {
+                                    position += in.transferTo(position, size - position, out);
+                                }
+                            }
                         }
                     }
                 }
+            } catch (IOFailure | IOException e) {
+                appendError("Exception while aggregating batch output for " + bitarchiveBatchID + ": "
+                        + ExceptionUtils.getStackTrace(e));
+            } finally {
+                for (File segment : segmentFiles) {
+                    FileUtils.remove(segment);
+                }
             }
         }
 
         /**
          * Checks whether this batch job is already being notified about. If not, it notifies observers with this batch
-         * status.
+         * status, once the results received so far have been downloaded and aggregated.
          */
         private synchronized void notifyBatchEnded() {
             if (!notifyInitiated) {
                 notifyInitiated = true;
                 batchTimeoutTask.cancel();
-                BitarchiveMonitor.this.notifyBatchEnded(this);
+                final List<CompletableFuture<File>> downloads = new ArrayList<CompletableFuture<File>>(segments);
+                CompletableFuture<Void> allDownloaded = CompletableFuture.allOf(downloads
+                        .toArray(new CompletableFuture<?>[downloads.size()]));
+                allDownloaded.whenCompleteAsync((ignored, t) -> {
+                    try {
+                        aggregateSegments(downloads);
+                    } catch (RuntimeException e) {
+                        log.warn("Unable to aggregate the results of batch job '{}'", bitarchiveBatchID, e);
+                        appendError("Unable to aggregate the results of batch job " + bitarchiveBatchID + ": "
+                                + ExceptionUtils.getStackTrace(e));
+                    } finally {
+                        BitarchiveMonitor.this.notifyBatchEnded(this);
+                    }
+                }, aggregationExecutor);
             }
         }
 
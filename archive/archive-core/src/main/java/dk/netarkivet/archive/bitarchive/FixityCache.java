@@ -0,0 +1,485 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.bitarchive;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.management.SingleMBeanObject;
+import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.batch.ChecksumJob;
+
+/**
+ * A persisted cache of the checksums of the files in a bitarchive, used for answering checksum jobs without reading
+ * every file.
+ * <p>
+ * For each file the cache holds the size, modification time and file key (the inode on Unix) of the file when it was
+ * last read, the MD5 and SHA-1 digests calculated in that read, and the time of the read. A cached MD5 is used as long
+ * as the file is unchanged and the read is less than the verification window old. Otherwise the file is read again.
+ * <p>
+ * To keep the cache fresh without reading the whole archive at once, a verification pass runs every verification
+ * interval. It rereads the least recently verified files, up to the share of the bytes in the archive that falls on
+ * one interval of the window, so every file is reread about once per window, with the I/O spread evenly over it. An
+ * unchanged file whose checksum differs from the cached one is logged as a warning.
+ */
+public class FixityCache implements ChecksumJob.ChecksumSource, FixityCacheMBean {
+
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(FixityCache.class);
+
+    /** The separator between the fields of a line in the cache file. */
+    private static final String SEPARATOR = "\t";
+    /** The number of fields of a line in the cache file. */
+    private static final int FIELDS = 7;
+    /** The file key of a file on a file system without file keys. */
+    private static final String NO_FILE_KEY = "-";
+
+    /** The file the cache is persisted in. */
+    private final File cacheFile;
+    /** The number of milliseconds a read checksum is trusted. */
+    private final long verificationWindow;
+    /** The number of milliseconds between verification passes. */
+    private final long verificationInterval;
+    /** Lists the files in the bitarchive. */
+    private final Supplier<File[]> archiveFiles;
+    /** The cached checksums, by the absolute path of the file. */
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    /** Whether the cache has changed since it was last persisted. */
+    private final AtomicBoolean changed = new AtomicBoolean();
+
+    /** The number of checksums answered from the cache. */
+    private final AtomicLong cacheHits = new AtomicLong();
+    /** The number of files read. */
+    private final AtomicLong fullReads = new AtomicLong();
+    /** The number of bytes read. */
+    private final AtomicLong bytesRead = new AtomicLong();
+    /** The time spent reading, in nanoseconds. */
+    private final AtomicLong readNanos = new AtomicLong();
+    /** The number of files at the last verification pass. */
+    private volatile int fileCount;
+    /** The number of verified files at the last verification pass. */
+    private volatile int verifiedFileCount;
+    /** The fraction of verified bytes at the last verification pass. */
+    private volatile double coverage;
+
+    /** Runs the verification passes, once started. */
+    private ScheduledExecutorService verifier;
+    /** The registration of this cache as an MBean, once started. */
+    private SingleMBeanObject<FixityCacheMBean> mBean;
+
+    /**
+     * Create a fixity cache, loading the persisted cache if it exists.
+     *
+     * @param cacheFile The file the cache is persisted in.
+     * @param verificationWindow The number of milliseconds a read checksum is trusted.
+     * @param verificationInterval The number of milliseconds between verification passes.
+     * @param archiveFiles Lists the files in the bitarchive.
+     * @throws ArgumentNotValid If an argument is null, or the window or interval is not positive.
+     */
+    public FixityCache(File cacheFile, long verificationWindow, long verificationInterval,
+            Supplier<File[]> archiveFiles) {
+        ArgumentNotValid.checkNotNull(cacheFile, "File cacheFile");
+        ArgumentNotValid.checkPositive(verificationWindow, "long verificationWindow");
+        ArgumentNotValid.checkPositive(verificationInterval, "long verificationInterval");
+        ArgumentNotValid.checkNotNull(archiveFiles, "Supplier<File[]> archiveFiles");
+        this.cacheFile = cacheFile;
+        this.verificationWindow = verificationWindow;
+        this.verificationInterval = verificationInterval;
+        this.archiveFiles = archiveFiles;
+        load();
+    }
+
+    /**
+     * Start the verification passes and register the cache as an MBean.
+     */
+    public synchronized void start() {
+        if (verifier != null) {
+            return;
+        }
+        verifier = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "FixityVerifier");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        verifier.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    verifyDue();
+                } catch (RuntimeException e) {
+                    log.warn("Fixity verification pass failed", e);
+                }
+            }
+        }, verificationInterval, verificationInterval, TimeUnit.MILLISECONDS);
+        try {
+            mBean = new SingleMBeanObject<FixityCacheMBean>("dk.netarkivet.archive.bitarchive", this,
+                    FixityCacheMBean.class, ManagementFactory.getPlatformMBeanServer());
+            mBean.getNameProperties().put("name", "FixityCache");
+            mBean.register();
+        } catch (RuntimeException e) {
+            log.warn("Could not register the fixity cache as an MBean", e);
+            mBean = null;
+        }
+        log.info("Started fixity cache of {} files with a verification window of {} ms", entries.size(),
+                verificationWindow);
+    }
+
+    /**
+     * Stop the verification passes, unregister the MBean and persist the cache.
+     */
+    public synchronized void close() {
+        if (verifier != null) {
+            verifier.shutdownNow();
+            try {
+                verifier.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            verifier = null;
+        }
+        if (mBean != null) {
+            mBean.unregister();
+            mBean = null;
+        }
+        save();
+    }
+
+    /**
+     * Get the MD5 checksum of a file, from the cache if the file is unchanged and was read within the verification
+     * window, and otherwise by reading the file.
+     *
+     * @param file A file in the bitarchive.
+     * @return The MD5 checksum of the file.
+     * @throws IOFailure If the file cannot be read.
+     */
+    @Override
+    public String getMd5(File file) throws IOFailure {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        FileState state = FileState.of(file);
+        Entry entry = entries.get(file.getAbsolutePath());
+        if (entry != null && entry.state.equals(state) && isFresh(entry, System.currentTimeMillis())) {
+            cacheHits.incrementAndGet();
+            return entry.md5;
+        }
+        return verify(file, state).md5;
+    }
+
+    /**
+     * Read a file, calculating its MD5 and SHA-1 digests in one pass, and cache the digests unless the file changed
+     * while it was read.
+     *
+     * @param file The file.
+     * @param before The state of the file before it was read.
+     * @return The new entry.
+     */
+    private Entry verify(File file, FileState before) {
+        long start = System.nanoTime();
+        String[] digests = ChecksumCalculator.calculateMd5AndSha1(file);
+        readNanos.addAndGet(System.nanoTime() - start);
+        fullReads.incrementAndGet();
+        bytesRead.addAndGet(before.size);
+        Entry entry = new Entry(before, digests[0], digests[1], System.currentTimeMillis());
+        if (FileState.of(file).equals(before)) {
+            Entry previous = entries.put(file.getAbsolutePath(), entry);
+            if (previous != null && previous.state.equals(before) && !previous.md5.equals(entry.md5)) {
+                log.warn("The checksum of the unchanged file '{}' has changed from {} to {} since it was verified "
+                        + "at {}", file, previous.md5, entry.md5, new Date(previous.verifiedAt));
+            }
+            changed.set(true);
+        } else {
+            log.info("The file '{}' changed while it was read, so its checksum is not cached", file);
+        }
+        return entry;
+    }
+
+    /**
+     * Run a verification pass: forget the files no longer in the bitarchive, and reread the least recently verified
+     * files, up to the share of the archive that falls on one verification interval. Finally the cache is persisted.
+     */
+    void verifyDue() {
+        long now = System.currentTimeMillis();
+        File[] files = archiveFiles.get();
+        Set<String> present = new HashSet<String>();
+        List<Candidate> candidates = new ArrayList<Candidate>(files.length);
+        long totalBytes = 0;
+        long verifiedBytes = 0;
+        int verified = 0;
+        for (File file : files) {
+            present.add(file.getAbsolutePath());
+            FileState state;
+            try {
+                state = FileState.of(file);
+            } catch (IOFailure e) {
+                log.warn("Cannot read the attributes of '{}'", file, e);
+                continue;
+            }
+            totalBytes += state.size;
+            Entry entry = entries.get(file.getAbsolutePath());
+            boolean unchanged = entry != null && entry.state.equals(state);
+            boolean fresh = unchanged && isFresh(entry, now);
+            if (fresh) {
+                verifiedBytes += state.size;
+                verified++;
+            }
+            candidates.add(new Candidate(file, state, unchanged ? entry.verifiedAt : 0L, fresh));
+        }
+        if (entries.keySet().retainAll(present)) {
+            changed.set(true);
+        }
+
+        Collections.sort(candidates, new Comparator<Candidate>() {
+            @Override
+            public int compare(Candidate c1, Candidate c2) {
+                return Long.compare(c1.verifiedAt, c2.verifiedAt);
+            }
+        });
+        long budget = Math.max(1L, (long) Math.ceil((double) totalBytes * verificationInterval / verificationWindow));
+        long read = 0;
+        int reread = 0;
+        for (Candidate candidate : candidates) {
+            if (read >= budget || Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            try {
+                verify(candidate.file, candidate.state);
+                read += candidate.state.size;
+                reread++;
+                if (!candidate.fresh) {
+                    verifiedBytes += candidate.state.size;
+                    verified++;
+                }
+            } catch (IOFailure e) {
+                log.warn("Cannot verify the checksum of '{}'", candidate.file, e);
+            }
+        }
+
+        fileCount = files.length;
+        verifiedFileCount = verified;
+        coverage = totalBytes == 0 ? 1.0 : (double) verifiedBytes / totalBytes;
+        save();
+        log.info("Fixity verification pass reread {} files ({} bytes). {} of {} files verified within the window",
+                reread, read, verified, files.length);
+    }
+
+    /**
+     * @return Whether an entry was read within the verification window.
+     */
+    private boolean isFresh(Entry entry, long now) {
+        return now - entry.verifiedAt < verificationWindow;
+    }
+
+    /**
+     * Load the persisted cache, if it exists. Malformed lines are logged and ignored.
+     */
+    private void load() {
+        if (!cacheFile.isFile()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(cacheFile))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                String[] fields = line.split(SEPARATOR);
+                if (fields.length != FIELDS) {
+                    log.warn("Ignoring malformed line '{}' in the fixity cache '{}'", line, cacheFile);
+                    continue;
+                }
+                try {
+                    FileState state = new FileState(Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3]);
+                    entries.put(fields[0], new Entry(state, fields[4], fields[5], Long.parseLong(fields[6])));
+                } catch (NumberFormatException e) {
+                    log.warn("Ignoring malformed line '{}' in the fixity cache '{}'", line, cacheFile);
+                }
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Could not read the fixity cache '" + cacheFile + "'", e);
+        }
+        log.info("Loaded {} entries from the fixity cache '{}'", entries.size(), cacheFile);
+    }
+
+    /**
+     * Persist the cache, if it has changed. The cache is written to a temporary file, which is then moved over the
+     * cache file.
+     */
+    synchronized void save() {
+        if (!changed.getAndSet(false)) {
+            return;
+        }
+        File tmpFile = new File(cacheFile.getAbsoluteFile().getParentFile(), cacheFile.getName() + ".tmp");
+        try (Writer writer = new BufferedWriter(new FileWriter(tmpFile))) {
+            for (Map.Entry<String, Entry> cached : entries.entrySet()) {
+                Entry entry = cached.getValue();
+                writer.write(cached.getKey() + SEPARATOR + entry.state.size + SEPARATOR + entry.state.lastModified
+                        + SEPARATOR + entry.state.fileKey + SEPARATOR + entry.md5 + SEPARATOR + entry.sha1
+                        + SEPARATOR + entry.verifiedAt + "\n");
+            }
+        } catch (IOException e) {
+            changed.set(true);
+            log.warn("Could not persist the fixity cache to '{}'", cacheFile, e);
+            return;
+        }
+        FileUtils.moveFile(tmpFile, cacheFile);
+    }
+
+    @Override
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    @Override
+    public int getVerifiedFileCount() {
+        return verifiedFileCount;
+    }
+
+    @Override
+    public double getCoverage() {
+        return coverage;
+    }
+
+    @Override
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    @Override
+    public long getFullReads() {
+        return fullReads.get();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    @Override
+    public double getThroughputMBPerSecond() {
+        long nanos = readNanos.get();
+        return nanos == 0 ? 0.0 : (bytesRead.get() / (1024.0 * 1024.0)) / (nanos / 1e9);
+    }
+
+    /** The size, modification time and file key of a file. */
+    private static final class FileState {
+        private final long size;
+        private final long lastModified;
+        private final String fileKey;
+
+        private FileState(long size, long lastModified, String fileKey) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+        }
+
+        /**
+         * @param file A file.
+         * @return The current state of the file.
+         * @throws IOFailure If the attributes of the file cannot be read.
+         */
+        private static FileState of(File file) throws IOFailure {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                Object fileKey = attributes.fileKey();
+                return new FileState(attributes.size(), attributes.lastModifiedTime().toMillis(),
+                        fileKey == null ? NO_FILE_KEY : fileKey.toString().replace(SEPARATOR, " "));
+            } catch (IOException e) {
+                throw new IOFailure("Could not read the attributes of '" + file + "'", e);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FileState)) {
+                return false;
+            }
+            FileState other = (FileState) o;
+            return size == other.size && lastModified == other.lastModified && fileKey.equals(other.fileKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (size ^ lastModified) ^ fileKey.hashCode();
+        }
+    }
+
+    /** A cached checksum of a file. */
+    private static final class Entry {
+        private final FileState state;
+        private final String md5;
+        private final String sha1;
+        private final long verifiedAt;
+
+        private Entry(FileState state, String md5, String sha1, long verifiedAt) {
+            this.state = state;
+            this.md5 = md5;
+            this.sha1 = sha1;
+            this.verifiedAt = verifiedAt;
+        }
+    }
+
+    /** A file considered for rereading in a verification pass. */
+    private static final class Candidate {
+        private final File file;
+        private final FileState state;
+        private final long verifiedAt;
+        private final boolean fresh;
+
+        private Candidate(File file, FileState state, long verifiedAt, boolean fresh) {
+            this.file = file;
+            this.state = state;
+            this.verifiedAt = verifiedAt;
+            this.fresh = fresh;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.bitarchive;
+
+/**
+ * The fixity coverage and throughput of a {@link FixityCache}, as exposed through JMX.
+ */
+public interface FixityCacheMBean {
+
+    /**
+     * @return The number of files in the bitarchive at the last verification pass.
+     */
+    int getFileCount();
+
+    /**
+     * @return The number of files in the bitarchive that were verified within the verification window at the last
+     * verification pass.
+     */
+    int getVerifiedFileCount();
+
+    /**
+     * @return The fraction of the bytes in the bitarchive that were verified within the verification window at the
+     * last verification pass.
+     */
+    double getCoverage();
+
+    /**
+     * @return The number of checksums answered from the cache.
+     */
+    long getCacheHits();
+
+    /**
+     * @return The number of files read to calculate their checksums.
+     */
+    long getFullReads();
+
+    /**
+     * @return The number of bytes read to calculate checksums.
+     */
+    long getBytesRead();
+
+    /**
+     * @return The average number of megabytes read per second while calculating checksums.
+     */
+    double getThroughputMBPerSecond();
+}
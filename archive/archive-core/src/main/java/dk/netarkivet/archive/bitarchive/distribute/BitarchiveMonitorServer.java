@@ -22,9 +22,13 @@
  */
 package dk.netarkivet.archive.bitarchive.distribute;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -160,7 +164,8 @@ public class BitarchiveMonitorServer extends ArchiveMessageHandler implements Ob
             if (batchTimeout <= 0) {
                 batchTimeout = Settings.getLong(ArchiveSettings.BITARCHIVE_BATCH_JOB_TIMEOUT);
             }
-            bamon.registerBatch(inbMsg.getID(), inbMsg.getReplyTo(), outbMsg.getID(), batchTimeout);
+            bamon.registerBatch(inbMsg.getID(), inbMsg.getReplyTo(), outbMsg.getID(), batchTimeout,
+                    inbMsg.getJob().hasSortedOutput());
             batchjobs.put(inbMsg.getID(), inbMsg.getJob());
         } catch (Exception e) {
             log.warn("Trouble while handling batch request '{}'", inbMsg, e);
@@ -411,7 +416,7 @@ public class BitarchiveMonitorServer extends ArchiveMessageHandler implements Ob
             if (batchTimeout <= 0) {
                 batchTimeout = Settings.getLong(ArchiveSettings.BITARCHIVE_BATCH_JOB_TIMEOUT);
             }
-            bamon.registerBatch(msg.getID(), msg.getReplyTo(), outbMsg.getID(), batchTimeout);
+            bamon.registerBatch(msg.getID(), msg.getReplyTo(), outbMsg.getID(), batchTimeout, job.hasSortedOutput());
             batchjobs.put(msg.getID(), job);
             // Remember that the message is a batch conversion.
             log.info("{}", outbMsg);
@@ -486,7 +491,12 @@ public class BitarchiveMonitorServer extends ArchiveMessageHandler implements Ob
                 log.info("Post processing batchjob results for '{}' with id '{}'", bj.getClass().getName(),
                         bjs.originalRequestID);
                 // perform the post process, and handle whether it succeeded.
-                if (bj.postProcess(new FileInputStream(bjs.batchResultFile), new FileOutputStream(postFile))) {
+                boolean postProcessed;
+                try (InputStream input = new BufferedInputStream(new FileInputStream(bjs.batchResultFile));
+                        OutputStream output = new BufferedOutputStream(new FileOutputStream(postFile))) {
+                    postProcessed = bj.postProcess(input, output);
+                }
+                if (postProcessed) {
                     log.debug("Post processing finished.");
                 } else {
                     log.debug("No post processing. Using concatenated file.");
@@ -145,7 +145,7 @@ public class BitarchiveServer extends ArchiveMessageHandler implements CleanupIF
         con.setListener(allBa, this);
         baa = BitarchiveAdmin.getInstance();
         if (baa.hasEnoughSpace() && !baa.isReadonlyMode()) {
-            con.setListener(anyBa, this);
+            con.setListener(anyBa, this, Settings.getInt(ArchiveSettings.BITARCHIVE_LISTENER_CONSUMERS));
             listening = true;
         } else {
         	if (baa.isReadonlyMode()) {
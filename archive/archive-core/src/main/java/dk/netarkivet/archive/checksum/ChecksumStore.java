@@ -0,0 +1,612 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.checksum;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IllegalState;
+
+/**
+ * A compact in-memory map from filenames to checksums, used by the {@link FileChecksumArchive}.
+ * <p>
+ * Checksums consisting of 32 lower case hex digits (MD5) are kept as two longs in a primitive array, any other checksum
+ * is kept as a string on the side. The filenames are kept as UTF-8 in a single byte arena, front coded against the
+ * previous filename in blocks of {@link #BLOCK_SIZE} entries, so the prefix shared by the files of a harvest job is
+ * only stored once per block. An open addressing table of primitive longs maps the hash of a filename to its entry.
+ * <p>
+ * Entries are only ever appended, changing the checksum of a filename updates its entry. Since nothing below the size
+ * of the store is moved, a {@link View} can be read without holding any lock while new entries are added. It is up to
+ * the caller to ensure that no checksums are changed while a view is read.
+ */
+final class ChecksumStore {
+
+    /** The number of entries in a front coding block. */
+    static final int BLOCK_SIZE = 16;
+    /** The number of hex digits in a checksum that is kept in binary form. */
+    private static final int DIGEST_HEX_LENGTH = 32;
+    /** The largest fraction of the hash table that may be used before it is doubled. */
+    private static final double MAX_LOAD_FACTOR = 0.75;
+    /** The largest array length that can safely be allocated. */
+    private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+    /** The maximum number of bytes mapped at a time when reading a snapshot. */
+    private static final int MAP_CHUNK_SIZE = 1 << 28;
+    /** The hex digits used for writing the binary checksums. */
+    private static final char[] HEX_DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd',
+            'e', 'f'};
+
+    /** The front coded filenames. */
+    private byte[] names;
+    /** The number of bytes used in names. */
+    private int namesLength;
+    /** The offset in names of the first entry of each block. */
+    private int[] blockOffsets;
+    /** The binary checksums, two longs per entry. */
+    private long[] digests;
+    /** The checksums that cannot be kept in binary form, by entry. */
+    private final Map<Integer, String> otherChecksums;
+    /** The hash table. Each slot holds the filename hash in the high int and entry + 1 in the low int, 0 if free. */
+    private long[] table;
+    /** The number of entries. */
+    private int size;
+    /** The length of the longest filename in bytes. */
+    private int maxNameLength;
+    /** The filename of the last entry, which the next entry is front coded against. */
+    private byte[] lastName;
+
+    /**
+     * Create an empty store.
+     */
+    ChecksumStore() {
+        names = new byte[1024];
+        blockOffsets = new int[16];
+        digests = new long[2 * BLOCK_SIZE];
+        otherChecksums = new HashMap<Integer, String>();
+        table = new long[32];
+        lastName = new byte[0];
+    }
+
+    /**
+     * @return The number of entries.
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @param filename A filename.
+     * @return The checksum of the filename, or null if the filename has no entry.
+     */
+    synchronized String get(String filename) {
+        int entry = find(filename.getBytes(StandardCharsets.UTF_8));
+        return entry < 0 ? null : checksum(entry);
+    }
+
+    /**
+     * @param filename A filename.
+     * @return Whether the filename has an entry.
+     */
+    synchronized boolean contains(String filename) {
+        return find(filename.getBytes(StandardCharsets.UTF_8)) >= 0;
+    }
+
+    /**
+     * Add an entry, or change the checksum of an existing entry.
+     *
+     * @param filename The filename.
+     * @param checksum The checksum of the file.
+     * @return The previous checksum of the filename, or null if it had no entry.
+     * @throws ArgumentNotValid If the filename or checksum is null or empty.
+     * @throws IllegalState If the store cannot hold any more entries.
+     */
+    synchronized String put(String filename, String checksum) throws ArgumentNotValid, IllegalState {
+        ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
+        ArgumentNotValid.checkNotNullOrEmpty(checksum, "String checksum");
+        byte[] name = filename.getBytes(StandardCharsets.UTF_8);
+        int entry = find(name);
+        if (entry >= 0) {
+            String previous = checksum(entry);
+            setChecksum(entry, checksum);
+            return previous;
+        }
+        if (size + 1 > table.length * MAX_LOAD_FACTOR) {
+            resizeTable(table.length << 1);
+        }
+        entry = append(name);
+        setChecksum(entry, checksum);
+        insert(table, hash(name, name.length), entry);
+        return null;
+    }
+
+    /**
+     * Take a view of the current entries.
+     *
+     * @return The view.
+     */
+    synchronized View view() {
+        return new View(names, namesLength, blockOffsets, digests, new HashMap<Integer, String>(otherChecksums), table,
+                size, maxNameLength);
+    }
+
+    /**
+     * Find the entry of a filename.
+     *
+     * @param name The UTF-8 bytes of the filename.
+     * @return The entry, or -1 if the filename has no entry.
+     */
+    private int find(byte[] name) {
+        int hash = hash(name, name.length);
+        int mask = table.length - 1;
+        NameDecoder decoder = null;
+        for (int slot = slot(hash, mask); table[slot] != 0; slot = (slot + 1) & mask) {
+            if ((int) (table[slot] >>> 32) == hash) {
+                int entry = (int) table[slot] - 1;
+                if (decoder == null) {
+                    decoder = new NameDecoder(names, maxNameLength);
+                }
+                decoder.seek(blockOffsets, entry);
+                if (decoder.matches(name)) {
+                    return entry;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Append the filename of a new entry to the arena.
+     *
+     * @param name The UTF-8 bytes of the filename.
+     * @return The new entry.
+     */
+    private int append(byte[] name) {
+        int entry = size;
+        if (entry >= MAX_ARRAY_LENGTH / 2) {
+            throw new IllegalState("The checksum store cannot hold more than " + entry + " entries");
+        }
+        int shared = 0;
+        if (entry % BLOCK_SIZE == 0) {
+            int block = entry / BLOCK_SIZE;
+            if (block == blockOffsets.length) {
+                blockOffsets = Arrays.copyOf(blockOffsets, newLength(blockOffsets.length, block + 1));
+            }
+            blockOffsets[block] = namesLength;
+        } else {
+            int maxShared = Math.min(lastName.length, name.length);
+            while (shared < maxShared && lastName[shared] == name[shared]) {
+                shared++;
+            }
+        }
+        int suffix = name.length - shared;
+        // Two varints of at most 5 bytes each, and the suffix.
+        long required = (long) namesLength + 10 + suffix;
+        if (required > names.length) {
+            if (required > MAX_ARRAY_LENGTH) {
+                throw new IllegalState("The checksum store cannot hold more than " + namesLength + " bytes of names");
+            }
+            names = Arrays.copyOf(names, newLength(names.length, (int) required));
+        }
+        namesLength = writeVInt(names, namesLength, shared);
+        namesLength = writeVInt(names, namesLength, suffix);
+        System.arraycopy(name, shared, names, namesLength, suffix);
+        namesLength += suffix;
+        if (2 * (entry + 1) > digests.length) {
+            digests = Arrays.copyOf(digests, newLength(digests.length, 2 * (entry + 1)));
+        }
+        lastName = name;
+        maxNameLength = Math.max(maxNameLength, name.length);
+        size++;
+        return entry;
+    }
+
+    /**
+     * Set the checksum of an entry, in binary form if possible.
+     */
+    private void setChecksum(int entry, String checksum) {
+        if (isHexDigest(checksum)) {
+            digests[2 * entry] = parseHex(checksum, 0);
+            digests[2 * entry + 1] = parseHex(checksum, DIGEST_HEX_LENGTH / 2);
+            otherChecksums.remove(entry);
+        } else {
+            digests[2 * entry] = 0L;
+            digests[2 * entry + 1] = 0L;
+            otherChecksums.put(entry, checksum);
+        }
+    }
+
+    /**
+     * @return The checksum of an entry.
+     */
+    private String checksum(int entry) {
+        return checksum(digests, otherChecksums, entry);
+    }
+
+    private static String checksum(long[] digests, Map<Integer, String> otherChecksums, int entry) {
+        String other = otherChecksums.get(entry);
+        if (other != null) {
+            return other;
+        }
+        char[] hex = new char[DIGEST_HEX_LENGTH];
+        writeHex(digests[2 * entry], hex, 0);
+        writeHex(digests[2 * entry + 1], hex, DIGEST_HEX_LENGTH / 2);
+        return new String(hex);
+    }
+
+    /**
+     * Double the hash table. The hashes are kept in the table, so no filenames need to be decoded.
+     *
+     * @param capacity The new capacity, a power of two.
+     */
+    private void resizeTable(int capacity) {
+        if (capacity <= 0 || capacity > MAX_ARRAY_LENGTH) {
+            throw new IllegalState("The checksum store cannot hold more than " + size + " entries");
+        }
+        long[] newTable = new long[capacity];
+        for (long slot : table) {
+            if (slot != 0) {
+                insert(newTable, (int) (slot >>> 32), (int) slot - 1);
+            }
+        }
+        table = newTable;
+    }
+
+    private static void insert(long[] table, int hash, int entry) {
+        int mask = table.length - 1;
+        int slot = slot(hash, mask);
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = ((long) hash << 32) | (entry + 1L);
+    }
+
+    private static int slot(int hash, int mask) {
+        int h = hash * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * FNV-1a hash of the first bytes of an array.
+     */
+    private static int hash(byte[] bytes, int length) {
+        int hash = 0x811C9DC5;
+        for (int i = 0; i < length; i++) {
+            hash = (hash ^ (bytes[i] & 0xFF)) * 0x01000193;
+        }
+        return hash;
+    }
+
+    private static int newLength(int length, int required) {
+        return (int) Math.min(MAX_ARRAY_LENGTH, Math.max((long) required, length + (length >> 1)));
+    }
+
+    private static int writeVInt(byte[] bytes, int position, int value) {
+        while ((value & ~0x7F) != 0) {
+            bytes[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[position++] = (byte) value;
+        return position;
+    }
+
+    private static boolean isHexDigest(String checksum) {
+        if (checksum.length() != DIGEST_HEX_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < DIGEST_HEX_LENGTH; i++) {
+            char c = checksum.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long parseHex(String hex, int start) {
+        long value = 0L;
+        for (int i = start; i < start + DIGEST_HEX_LENGTH / 2; i++) {
+            value = (value << 4) | Character.digit(hex.charAt(i), 16);
+        }
+        return value;
+    }
+
+    private static void writeHex(long value, char[] hex, int start) {
+        for (int i = start + DIGEST_HEX_LENGTH / 2 - 1; i >= start; i--) {
+            hex[i] = HEX_DIGITS[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+    }
+
+    /**
+     * Read a store written by {@link View#writeSnapshot(DataOutputStream)}. The sections of the snapshot are memory
+     * mapped and copied directly into the arrays of the store.
+     *
+     * @param channel A channel of the snapshot file.
+     * @param position The position of the store in the file.
+     * @return The store.
+     * @throws IOException If the snapshot cannot be read or is inconsistent.
+     */
+    static ChecksumStore readSnapshot(FileChannel channel, long position) throws IOException {
+        final int headerLength = 6 * (Integer.SIZE / Byte.SIZE);
+        if (channel.size() < position + headerLength) {
+            throw new IOException("The snapshot is truncated");
+        }
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, position, headerLength);
+        int size = header.getInt();
+        int namesLength = header.getInt();
+        int maxNameLength = header.getInt();
+        int tableLength = header.getInt();
+        int otherCount = header.getInt();
+        int blocks = header.getInt();
+        if (size < 0 || namesLength < 0 || maxNameLength < 0 || otherCount < 0 || otherCount > size
+                || blocks != (size + BLOCK_SIZE - 1) / BLOCK_SIZE || tableLength < 32
+                || Integer.bitCount(tableLength) != 1 || size > tableLength * MAX_LOAD_FACTOR) {
+            throw new IOException("The snapshot header is inconsistent");
+        }
+        long sectionsLength = (long) namesLength + 4L * blocks + 16L * size + 8L * tableLength;
+        if (channel.size() < position + headerLength + sectionsLength) {
+            throw new IOException("The snapshot is truncated");
+        }
+
+        ChecksumStore store = new ChecksumStore();
+        store.size = size;
+        store.namesLength = namesLength;
+        store.maxNameLength = maxNameLength;
+        long offset = position + headerLength;
+        store.names = new byte[Math.max(namesLength, 1024)];
+        for (int done = 0; done < namesLength;) {
+            int n = Math.min(MAP_CHUNK_SIZE, namesLength - done);
+            channel.map(FileChannel.MapMode.READ_ONLY, offset, n).get(store.names, done, n);
+            done += n;
+            offset += n;
+        }
+        store.blockOffsets = new int[Math.max(blocks, 16)];
+        for (int done = 0; done < blocks;) {
+            int n = Math.min(MAP_CHUNK_SIZE / 4, blocks - done);
+            channel.map(FileChannel.MapMode.READ_ONLY, offset, 4L * n).asIntBuffer().get(store.blockOffsets, done, n);
+            done += n;
+            offset += 4L * n;
+        }
+        store.digests = new long[Math.max(2 * size, 2 * BLOCK_SIZE)];
+        for (int done = 0; done < 2 * size;) {
+            int n = Math.min(MAP_CHUNK_SIZE / 8, 2 * size - done);
+            channel.map(FileChannel.MapMode.READ_ONLY, offset, 8L * n).asLongBuffer().get(store.digests, done, n);
+            done += n;
+            offset += 8L * n;
+        }
+        store.table = new long[tableLength];
+        for (int done = 0; done < tableLength;) {
+            int n = Math.min(MAP_CHUNK_SIZE / 8, tableLength - done);
+            channel.map(FileChannel.MapMode.READ_ONLY, offset, 8L * n).asLongBuffer().get(store.table, done, n);
+            done += n;
+            offset += 8L * n;
+        }
+        ByteBuffer others = channel.map(FileChannel.MapMode.READ_ONLY, offset, channel.size() - offset);
+        for (int i = 0; i < otherCount; i++) {
+            int entry = others.getInt();
+            byte[] checksum = new byte[others.getShort() & 0xFFFF];
+            others.get(checksum);
+            store.otherChecksums.put(entry, new String(checksum, StandardCharsets.UTF_8));
+        }
+        if (size > 0) {
+            NameDecoder decoder = new NameDecoder(store.names, maxNameLength);
+            decoder.seek(store.blockOffsets, size - 1);
+            store.lastName = decoder.toBytes();
+        }
+        return store;
+    }
+
+    /**
+     * A read-only view of the entries of a store at the time the view was taken.
+     */
+    static final class View {
+        private final byte[] names;
+        private final int namesLength;
+        private final int[] blockOffsets;
+        private final long[] digests;
+        private final Map<Integer, String> otherChecksums;
+        private final long[] table;
+        private final int size;
+        private final int maxNameLength;
+
+        private View(byte[] names, int namesLength, int[] blockOffsets, long[] digests,
+                Map<Integer, String> otherChecksums, long[] table, int size, int maxNameLength) {
+            this.names = names;
+            this.namesLength = namesLength;
+            this.blockOffsets = blockOffsets;
+            this.digests = digests;
+            this.otherChecksums = otherChecksums;
+            this.table = table;
+            this.size = size;
+            this.maxNameLength = maxNameLength;
+        }
+
+        /**
+         * @return The number of entries in the view.
+         */
+        int size() {
+            return size;
+        }
+
+        /**
+         * Write the filenames, one per line, in the order they were added.
+         *
+         * @param out The writer to write to.
+         * @throws IOException If writing fails.
+         */
+        void writeFilenames(Writer out) throws IOException {
+            NameDecoder decoder = new NameDecoder(names, maxNameLength);
+            for (int entry = 0; entry < size; entry++) {
+                decoder.next();
+                out.write(decoder.toString());
+                out.write('\n');
+            }
+        }
+
+        /**
+         * Write the entries, one per line, in the order they were added.
+         *
+         * @param out The writer to write to.
+         * @param separator The separator between the filename and the checksum.
+         * @throws IOException If writing fails.
+         */
+        void writeEntries(Writer out, String separator) throws IOException {
+            NameDecoder decoder = new NameDecoder(names, maxNameLength);
+            for (int entry = 0; entry < size; entry++) {
+                decoder.next();
+                out.write(decoder.toString());
+                out.write(separator);
+                out.write(checksum(digests, otherChecksums, entry));
+                out.write('\n');
+            }
+        }
+
+        /**
+         * Write the view in the form read by {@link ChecksumStore#readSnapshot(FileChannel, long)}: a header, the
+         * arena, the block offsets, the digests and the hash table as they are kept in memory, followed by the other
+         * checksums.
+         *
+         * @param out The stream to write to.
+         * @throws IOException If writing fails.
+         */
+        void writeSnapshot(DataOutputStream out) throws IOException {
+            // The table may have grown since the view was taken, but only entries below size are used.
+            int blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            long[] viewTable = table;
+            if (hasNewerEntries(viewTable)) {
+                viewTable = new long[viewTable.length];
+                for (long slot : table) {
+                    if (slot != 0 && (int) slot - 1 < size) {
+                        insert(viewTable, (int) (slot >>> 32), (int) slot - 1);
+                    }
+                }
+            }
+            out.writeInt(size);
+            out.writeInt(namesLength);
+            out.writeInt(maxNameLength);
+            out.writeInt(viewTable.length);
+            out.writeInt(otherChecksums.size());
+            out.writeInt(blocks);
+            out.write(names, 0, namesLength);
+            for (int i = 0; i < blocks; i++) {
+                out.writeInt(blockOffsets[i]);
+            }
+            for (int i = 0; i < 2 * size; i++) {
+                out.writeLong(digests[i]);
+            }
+            for (long slot : viewTable) {
+                out.writeLong(slot);
+            }
+            for (Map.Entry<Integer, String> other : otherChecksums.entrySet()) {
+                byte[] checksum = other.getValue().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(other.getKey());
+                out.writeShort(checksum.length);
+                out.write(checksum);
+            }
+        }
+
+        private boolean hasNewerEntries(long[] table) {
+            for (long slot : table) {
+                if (slot != 0 && (int) slot - 1 >= size) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Decodes front coded filenames, either one after another from the start of the arena, or by seeking to an entry.
+     */
+    private static final class NameDecoder {
+        private final byte[] names;
+        private final byte[] name;
+        private int position;
+        private int length;
+
+        NameDecoder(byte[] names, int maxNameLength) {
+            this.names = names;
+            this.name = new byte[maxNameLength];
+        }
+
+        /**
+         * Decode the next filename.
+         */
+        void next() {
+            int shared = readVInt();
+            int suffix = readVInt();
+            System.arraycopy(names, position, name, shared, suffix);
+            position += suffix;
+            length = shared + suffix;
+        }
+
+        /**
+         * Decode the filename of an entry, starting from the first entry in its block.
+         */
+        void seek(int[] blockOffsets, int entry) {
+            position = blockOffsets[entry / BLOCK_SIZE];
+            for (int i = entry % BLOCK_SIZE; i >= 0; i--) {
+                next();
+            }
+        }
+
+        boolean matches(byte[] other) {
+            if (other.length != length) {
+                return false;
+            }
+            for (int i = length - 1; i >= 0; i--) {
+                if (other[i] != name[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        byte[] toBytes() {
+            return Arrays.copyOf(name, length);
+        }
+
+        @Override
+        public String toString() {
+            return new String(name, 0, length, StandardCharsets.UTF_8);
+        }
+
+        private int readVInt() {
+            int value = 0;
+            for (int shift = 0;; shift += 7) {
+                byte b = names[position++];
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+    }
+}
@@ -22,17 +22,26 @@
  */
 package dk.netarkivet.archive.checksum;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Collections;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
 
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
@@ -60,6 +69,10 @@ import dk.netarkivet.common.utils.batch.ChecksumJob;
  * <b>'filename' + ## + 'checksum'</b> <br>
  * The lines are not sorted.
  * <p>
+ * The archive is kept in memory in a compact {@link ChecksumStore}. The checksum file works as an append log of the
+ * store, which is regularly written to a snapshot file next to it. At startup the snapshot is loaded, and only the
+ * lines appended to the checksum file after the snapshot was written are read.
+ * <p>
  * If no file exists when the class is instantiated then it will be created, and if an 'admin.data' file exists, then it
  * will be loaded and put into the archive file.
  */
@@ -81,6 +94,17 @@ public final class FileChecksumArchive implements ChecksumArchive {
     private static final String WRONG_FILENAME_PREFIX = "removed_";
     /** The suffix to the removedEntryFile. */
     private static final String WRONG_FILENAME_SUFFIX = ".checksum";
+    /** The suffix to the snapshot file. */
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+    /** Identifies a snapshot file. */
+    private static final int SNAPSHOT_MAGIC = 0x4E415343;
+    /** The version of the snapshot format. */
+    private static final int SNAPSHOT_VERSION = 1;
+    /** The length of the snapshot header: magic, version, checksum file length and check value. */
+    private static final int SNAPSHOT_HEADER_LENGTH = 24;
+    /** The number of bytes of the checksum file before the snapshot position used for the check value. */
+    private static final int SNAPSHOT_CHECK_LENGTH = 4096;
 
     /** The logger used by this class. */
     private static final Logger log = LoggerFactory.getLogger(FileChecksumArchive.class);
@@ -98,6 +122,12 @@ public final class FileChecksumArchive implements ChecksumArchive {
      */
     private File wrongEntryFile;
 
+    /**
+     * The snapshot of the archive. It contains the length of the checksum file at the time of the snapshot, and a check
+     * value of the end of the checksum file at that length, followed by the {@link ChecksumStore}.
+     */
+    private File snapshotFile;
+
     /**
      * The last modified date for the checksum file. This variable is used for determining whether to reload the archive
      * from the checksum file, when they are synchronized. This has to be updated whenever the checksum file is changed.
@@ -105,16 +135,29 @@ public final class FileChecksumArchive implements ChecksumArchive {
     private long lastModifiedChecksumFile;
 
     /**
-     * This map consists of the archive loaded into the memory. It is faster to use a memory archive than the the
-     * checksum file, though all entries must exist both in the file and the memory.
-     * <p>
-     * Map(file -> checksum).
+     * The archive loaded into the memory. It is faster to use a memory archive than the the checksum file, though all
+     * entries must exist both in the file and the memory.
      */
-    private Map<String, String> checksumArchive = Collections.synchronizedMap(new HashMap<String, String>());
+    private volatile ChecksumStore checksumArchive = new ChecksumStore();
 
     /** The minimum space left. */
     private long minSpaceLeft;
 
+    /** The number of entries added to the checksum file before a new snapshot is written. 0 disables snapshots. */
+    private final int snapshotInterval;
+
+    /** The number of entries added to the checksum file since the last snapshot. */
+    private long entriesSinceSnapshot;
+
+    /** Incremented whenever the checksum file is recreated, so a snapshot taken before is not installed after. */
+    private long checksumFileGeneration;
+
+    /**
+     * Exports and snapshots read the memory archive without holding the instance lock, while corrections, which change
+     * existing entries, wait for them.
+     */
+    private final ReadWriteLock correctionLock = new ReentrantReadWriteLock();
+
     /**
      * Method for obtaining the current singleton instance of this class. If the instance of this class has not yet been
      * constructed, then it will be initialised.
@@ -146,9 +189,11 @@ public final class FileChecksumArchive implements ChecksumArchive {
             log.warn(msg);
             throw new ArgumentNotValid(msg);
         }
+        snapshotInterval = Math.max(0, Settings.getInt(ArchiveSettings.CHECKSUM_SNAPSHOT_INTERVAL));
 
         // Initialize the archive and bad-entry files.
         initializeFiles();
+        snapshotIfDue();
     }
 
     /**
@@ -224,9 +269,11 @@ public final class FileChecksumArchive implements ChecksumArchive {
 
         // get the name of the file and initialise it.
         checksumFile = new File(checksumDir, makeChecksumFileName());
+        snapshotFile = new File(checksumDir, makeSnapshotFileName());
 
         // Create file is checksumFile does not exist.
         if (!checksumFile.exists()) {
+            deleteSnapshot();
             try {
                 checksumFile.createNewFile();
                 lastModifiedChecksumFile = checksumFile.lastModified();
@@ -243,54 +290,56 @@ public final class FileChecksumArchive implements ChecksumArchive {
         }
 
         // If the archive is new or otherwise empty, then try to load admin.data
-        if (checksumArchive.isEmpty()) {
+        if (checksumArchive.size() == 0) {
             loadAdminData();
         }
     }
 
     /**
-     * Loads an existing checksum archive file into the memory. This will go through every line, and if the line is
-     * valid, then it is loaded into the checksumArchive map in the memory. If the line is invalid then a warning is
-     * issued and the line is put into the wrongEntryFile.
+     * Loads an existing checksum archive file into the memory. If a snapshot matching the checksum file exists, then it
+     * is loaded and only the lines after the snapshot position are read. Otherwise the whole file is read. If a line is
+     * valid, then it is loaded into the checksumArchive in the memory. If the line is invalid then a warning is issued
+     * and the line is put into the wrongEntryFile.
      * <p>
      * If a bad entry is found, then the archive file has to be recreated afterwards, since the bad entry otherwise
      * still would be in the archive file.
      */
-    private void loadFile() {
+    private synchronized void loadFile() {
         // Checks whether a bad entry was found, to decide whether the archive
         // file should be recreated.
         boolean recreate = false;
+        long entries = 0;
 
-        // extract all the data from the file.
-        List<String> entries;
-
-        // This should be synchronized to prevent reading the file while it is
-        // being written.
-        synchronized (this) {
-            entries = FileUtils.readListFromFile(checksumFile);
-        }
+        checksumArchive = new ChecksumStore();
+        long position = loadSnapshot();
 
-        String filename;
-        String checksum;
-
-        // go through all entries and extract their filename and checksum.
-        for (String record : entries) {
-            try {
-                KeyValuePair<String, String> entry = ChecksumJob.parseLine(record);
-                // extract the filename and checksum
-                filename = entry.getKey();
-                checksum = entry.getValue();
-                // If their are extracted correct, then they will be put
-                // into the archive.
-                checksumArchive.put(filename, checksum);
-            } catch (IllegalState e) {
-                log.warn("An invalid entry in the loaded file: '{}' This will be put in the wrong entry file.", record,
-                        e);
-                // put into wrongEntryFile!
-                appendWrongRecordToWrongEntryFile(record);
-                recreate = true;
+        // go through all entries after the snapshot and extract their filename
+        // and checksum.
+        try (FileInputStream in = new FileInputStream(checksumFile)) {
+            in.getChannel().position(position);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+            for (String record = reader.readLine(); record != null; record = reader.readLine()) {
+                try {
+                    KeyValuePair<String, String> entry = ChecksumJob.parseLine(record);
+                    // If their are extracted correct, then they will be put
+                    // into the archive.
+                    checksumArchive.put(entry.getKey(), entry.getValue());
+                    entries++;
+                } catch (ArgumentNotValid e) {
+                    log.warn("An invalid entry in the loaded file: '{}' This will be put in the wrong entry file.",
+                            record, e);
+                    // put into wrongEntryFile!
+                    appendWrongRecordToWrongEntryFile(record);
+                    recreate = true;
+                }
             }
+        } catch (IOException e) {
+            String msg = "Could not read data from " + checksumFile.getAbsolutePath();
+            log.warn(msg, e);
+            throw new IOFailure(msg, e);
         }
+        log.info("Loaded {} entries from the checksum file '{}' after position {}", entries, checksumFile, position);
+        entriesSinceSnapshot = entries;
 
         // If a bad entry is found, then the archive file should be recreated.
         // Otherwise the bad entries might still be in the archive file next
@@ -303,6 +352,112 @@ public final class FileChecksumArchive implements ChecksumArchive {
         lastModifiedChecksumFile = checksumFile.lastModified();
     }
 
+    /**
+     * Loads the snapshot into the memory archive, if snapshots are enabled and the snapshot matches the checksum file.
+     *
+     * @return The position in the checksum file of the first line not in the snapshot, or 0 if no snapshot was loaded.
+     */
+    private long loadSnapshot() {
+        if (snapshotInterval == 0 || !snapshotFile.isFile()) {
+            return 0L;
+        }
+        try (RandomAccessFile snapshot = new RandomAccessFile(snapshotFile, "r")) {
+            FileChannel channel = snapshot.getChannel();
+            if (channel.size() < SNAPSHOT_HEADER_LENGTH) {
+                throw new IOException("The snapshot is truncated");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, SNAPSHOT_HEADER_LENGTH);
+            if (header.getInt() != SNAPSHOT_MAGIC || header.getInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Unknown snapshot format");
+            }
+            long position = header.getLong();
+            long checkValue = header.getLong();
+            if (position < 0 || position > checksumFile.length() || checkValue != checkValue(position)) {
+                log.info("The snapshot '{}' does not match the checksum file. Reading the whole checksum file.",
+                        snapshotFile);
+                return 0L;
+            }
+            checksumArchive = ChecksumStore.readSnapshot(channel, SNAPSHOT_HEADER_LENGTH);
+            log.info("Loaded {} entries from the snapshot '{}'", checksumArchive.size(), snapshotFile);
+            return position;
+        } catch (IOException e) {
+            log.warn("Cannot load the snapshot '{}'. Reading the whole checksum file.", snapshotFile, e);
+            checksumArchive = new ChecksumStore();
+            return 0L;
+        }
+    }
+
+    /**
+     * Writes a new snapshot, if enough entries have been added since the last one. The snapshot is written from a view
+     * of the memory archive without holding the instance lock, so this must not be called while holding it.
+     */
+    private void snapshotIfDue() {
+        ChecksumStore.View view;
+        long position;
+        long generation;
+        synchronized (this) {
+            if (snapshotInterval == 0 || entriesSinceSnapshot < snapshotInterval) {
+                return;
+            }
+            view = checksumArchive.view();
+            position = checksumFile.length();
+            generation = checksumFileGeneration;
+            entriesSinceSnapshot = 0;
+        }
+        File tmpFile = new File(snapshotFile.getParentFile(), snapshotFile.getName() + ".tmp");
+        correctionLock.readLock().lock();
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeLong(position);
+                out.writeLong(checkValue(position));
+                view.writeSnapshot(out);
+            }
+            synchronized (this) {
+                if (generation == checksumFileGeneration) {
+                    FileUtils.moveFile(tmpFile, snapshotFile);
+                    log.info("Wrote snapshot of {} entries to '{}'", view.size(), snapshotFile);
+                }
+            }
+        } catch (IOException e) {
+            // The checksum file still holds all entries, so this is not fatal.
+            log.warn("Cannot write the snapshot '{}'.", snapshotFile, e);
+        } finally {
+            correctionLock.readLock().unlock();
+            FileUtils.remove(tmpFile);
+        }
+    }
+
+    /**
+     * Deletes the snapshot, if it exists.
+     */
+    private void deleteSnapshot() {
+        if (snapshotFile.exists() && !snapshotFile.delete()) {
+            log.warn("Cannot delete the snapshot '{}'.", snapshotFile);
+        }
+    }
+
+    /**
+     * Calculates the check value identifying the checksum file a snapshot was taken from: a CRC32 of the bytes of the
+     * checksum file just before the snapshot position.
+     *
+     * @param position The snapshot position.
+     * @return The check value.
+     * @throws IOException If the checksum file cannot be read.
+     */
+    private long checkValue(long position) throws IOException {
+        int length = (int) Math.min(position, SNAPSHOT_CHECK_LENGTH);
+        byte[] bytes = new byte[length];
+        try (RandomAccessFile file = new RandomAccessFile(checksumFile, "r")) {
+            file.seek(position - length);
+            file.readFully(bytes);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
     /**
      * This function is made for the converting the checksum part of admin.data to an actual checksum replica. If no
      * usable admin.data file is found, then we start with an empty archive.
@@ -356,11 +511,12 @@ public final class FileChecksumArchive implements ChecksumArchive {
                     String uploadState = entryData[2];
 
                     if (uploadState.equals(ReplicaStoreState.UPLOAD_COMPLETED.toString())) {
-                        if (checksumArchive.containsKey(filename)) {
+                        if (checksumArchive.contains(filename)) {
                             recreate = true;
                         }
                         checksumArchive.put(filename, checksum);
                         appendEntryToFile(filename, checksum);
+                        entriesSinceSnapshot++;
                         log.debug("AdminData line inserted: {}", line);
                     } else {
                         log.trace("AdminData line ignored: {}", line);
@@ -387,7 +543,7 @@ public final class FileChecksumArchive implements ChecksumArchive {
     /**
      * Recreates the archive file from the memory. Makes a new file which contains the entire archive, and then move the
      * new archive file on top of the old one. This is used when to recreate the archive file, when an record has been
-     * removed.
+     * removed. The snapshot no longer matches the archive file, so it is deleted and a new one is made due.
      *
      * @throws IOFailure If a problem occur when writing the new file.
      */
@@ -403,6 +559,9 @@ public final class FileChecksumArchive implements ChecksumArchive {
             // This should be synchronized, so no new entries can be made
             // while recreating the archive file.
             synchronized (this) {
+                checksumFileGeneration++;
+                deleteSnapshot();
+
                 // initialize and create the file.
                 File recreateFile = new File(checksumFile.getParentFile(), makeRecreateFileName());
                 if (!recreateFile.createNewFile()) {
@@ -410,19 +569,14 @@ public final class FileChecksumArchive implements ChecksumArchive {
                 }
 
                 // put the archive into the file.
-                FileWriter fw = new FileWriter(recreateFile);
-                try {
-                    for (Map.Entry<String, String> entry : checksumArchive.entrySet()) {
-                        String record = entry.getKey() + CHECKSUM_SEPARATOR + entry.getValue();
-                        fw.append(record + "\n");
-                    }
-                } finally {
-                    fw.flush();
-                    fw.close();
+                try (Writer out = new BufferedWriter(new FileWriter(recreateFile))) {
+                    checksumArchive.view().writeEntries(out, CHECKSUM_SEPARATOR);
                 }
 
                 // Move the file.
                 FileUtils.moveFile(recreateFile, checksumFile);
+                lastModifiedChecksumFile = checksumFile.lastModified();
+                entriesSinceSnapshot = Math.max(entriesSinceSnapshot, snapshotInterval);
             }
         } catch (IOException e) {
             String errMsg = "The checksum file has not been recreated as attempted. "
@@ -450,6 +604,15 @@ public final class FileChecksumArchive implements ChecksumArchive {
         return RECREATE_PREFIX + Settings.get(CommonSettings.USE_REPLICA_ID) + RECREATE_SUFFIX;
     }
 
+    /**
+     * Creates the string for the name of the snapshot file. E.g. checksum_REPLICA.snapshot.
+     *
+     * @return The name of the snapshot file.
+     */
+    private String makeSnapshotFileName() {
+        return FILENAME_PREFIX + Settings.get(CommonSettings.USE_REPLICA_ID) + SNAPSHOT_SUFFIX;
+    }
+
     /**
      * Creates the string for the name of the wrongEntryFile. E.g. removed_REPLICA.checksum
      *
@@ -563,15 +726,42 @@ public final class FileChecksumArchive implements ChecksumArchive {
             input = file.getInputStream();
             synchronizeMemoryWithFile();
             String checksum = calculateChecksum(input);
+            addEntry(filename, checksum);
+        } finally {
+            if (input != null) {
+                IOUtils.closeQuietly(input);
+            }
+        }
 
-            if (checksumArchive.containsKey(filename)) {
-                if (checksumArchive.get(filename).equals(checksum)) {
+    }
+    
+    public void upload(String checksum, String filename) throws ArgumentNotValid, IllegalState {
+        // Validate arguments.
+        ArgumentNotValid.checkNotNull(checksum, "String checksum");
+        ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
+
+        synchronizeMemoryWithFile();
+        addEntry(filename, checksum);
+    }
+
+    /**
+     * Adds an entry to the checksum file and the memory archive, unless the file already is archived.
+     *
+     * @param filename The name of the arcFile.
+     * @param checksum The checksum of the file.
+     * @throws IllegalState If the file already within the archive but with a different checksum.
+     */
+    private void addEntry(String filename, String checksum) throws IllegalState {
+        synchronized (this) {
+            String archivedChecksum = checksumArchive.get(filename);
+            if (archivedChecksum != null) {
+                if (archivedChecksum.equals(checksum)) {
                     log.warn("Cannot upload arcfile '{}', it is already archived with the same checksum: '{}",
                             filename, checksum);
                 } else {
                     throw new IllegalState("Cannot upload arcfile '" + filename
                             + "', it is already archived with different checksum." + " Archive checksum: '"
-                            + checksumArchive.get(filename) + "' and the uploaded file has: '" + checksum + "'.");
+                            + archivedChecksum + "' and the uploaded file has: '" + checksum + "'.");
                 }
 
                 // It is considered a success that it already is within the archive,
@@ -582,38 +772,9 @@ public final class FileChecksumArchive implements ChecksumArchive {
             // otherwise put the file into memory and file.
             appendEntryToFile(filename, checksum);
             checksumArchive.put(filename, checksum);
-        } finally {
-            if (input != null) {
-                IOUtils.closeQuietly(input);
-            }
-        }
-
-    }
-    
-    public void upload(String checksum, String filename) throws ArgumentNotValid, IllegalState {
-        // Validate arguments.
-        ArgumentNotValid.checkNotNull(checksum, "String checksum");
-        ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
-
-        synchronizeMemoryWithFile();
-        if (checksumArchive.containsKey(filename)) {
-        	if (checksumArchive.get(filename).equals(checksum)) {
-        		log.warn("Cannot upload arcfile '{}', it is already archived with the same checksum: '{}",
-        				filename, checksum);
-        	} else {
-        		throw new IllegalState("Cannot upload arcfile '" + filename
-        				+ "', it is already archived with different checksum." + " Archive checksum: '"
-        				+ checksumArchive.get(filename) + "' and the uploaded file has: '" + checksum + "'.");
-        	}
-
-        	// It is considered a success that it already is within the archive,
-        	// thus do not throw an exception.
-        	return;
+            entriesSinceSnapshot++;
         }
-
-        // otherwise put the file into memory and file.
-        appendEntryToFile(filename, checksum);
-        checksumArchive.put(filename, checksum);
+        snapshotIfDue();
     }
 
     /**
@@ -645,7 +806,7 @@ public final class FileChecksumArchive implements ChecksumArchive {
         ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
 
         // Return whether the archive contains an entry with the filename.
-        return checksumArchive.containsKey(filename);
+        return checksumArchive.contains(filename);
     }
 
     /**
@@ -695,34 +856,43 @@ public final class FileChecksumArchive implements ChecksumArchive {
         synchronizeMemoryWithFile();
 
         // If no file entry exists, then IllegalState
-        if (!checksumArchive.containsKey(filename)) {
+        if (!checksumArchive.contains(filename)) {
             String errMsg = "No file entry for file '" + filename + "'.";
             log.error(errMsg);
             throw new IllegalState(errMsg);
         }
 
-        // retrieve the checksum
-        String currentChecksum = checksumArchive.get(filename);
-
-        // Calculate the new checksum and verify that it is different.
+        // Calculate the new checksum.
         String newChecksum = calculateChecksum(correctFile);
-        if (newChecksum.equals(currentChecksum)) {
-            // This should never occur.
-            throw new IllegalState("The checksum of the old 'bad' entry is "
-                    + " the same as the checksum of the new correcting entry");
-        }
 
-        // Make entry in the wrongEntryFile.
-        String badEntry = ChecksumJob.makeLine(filename, currentChecksum);
-        appendWrongRecordToWrongEntryFile(badEntry);
+        // Changing an existing entry must wait for exports and snapshots
+        // reading the memory archive.
+        String badEntry;
+        correctionLock.writeLock().lock();
+        try {
+            synchronized (this) {
+                // retrieve the checksum and verify that it is different.
+                String currentChecksum = checksumArchive.get(filename);
+                if (newChecksum.equals(currentChecksum)) {
+                    // This should never occur.
+                    throw new IllegalState("The checksum of the old 'bad' entry is "
+                            + " the same as the checksum of the new correcting entry");
+                }
 
-        // Correct the bad entry, by changing the value to the newChecksum.'
-        // Since the checksumArchive is a hashmap, then putting an existing
-        // entry with a new value will override the existing one.
-        checksumArchive.put(filename, newChecksum);
+                // Make entry in the wrongEntryFile.
+                badEntry = ChecksumJob.makeLine(filename, currentChecksum);
+                appendWrongRecordToWrongEntryFile(badEntry);
 
-        // Recreate the archive file.
-        recreateArchiveFile();
+                // Correct the bad entry, by changing the value to the newChecksum.
+                checksumArchive.put(filename, newChecksum);
+
+                // Recreate the archive file.
+                recreateArchiveFile();
+            }
+        } finally {
+            correctionLock.writeLock().unlock();
+        }
+        snapshotIfDue();
 
         // Make the file containing the bad entry be returned in the
         // CorrectMessage.
@@ -748,7 +918,8 @@ public final class FileChecksumArchive implements ChecksumArchive {
 
     /**
      * Method for retrieving the archive as a temporary file containing the checksum entries. Each line should contain
-     * one checksum entry in the format produced by the ChecksumJob.
+     * one checksum entry in the format produced by the ChecksumJob. The entries are written from a view of the memory
+     * archive, so uploads are not blocked while the file is written.
      *
      * @return A temporary checksum file, which is a copy of the archive file.
      * @throws IOFailure If problems occurs during the creation of the file.
@@ -757,11 +928,12 @@ public final class FileChecksumArchive implements ChecksumArchive {
     public File getArchiveAsFile() throws IOFailure {
         synchronizeMemoryWithFile();
 
+        correctionLock.readLock().lock();
         try {
             // create new temporary file of the archive.
             File tempFile = File.createTempFile("tmp", "tmp", FileUtils.getTempDir());
-            synchronized (this) {
-                FileUtils.copyFile(checksumFile, tempFile);
+            try (Writer out = new BufferedWriter(new FileWriter(tempFile))) {
+                checksumArchive.view().writeEntries(out, CHECKSUM_SEPARATOR);
             }
 
             return tempFile;
@@ -769,6 +941,8 @@ public final class FileChecksumArchive implements ChecksumArchive {
             String msg = "Cannot create the output file containing all the entries of this archive.";
             log.warn(msg);
             throw new IOFailure(msg);
+        } finally {
+            correctionLock.readLock().unlock();
         }
     }
 
@@ -784,19 +958,10 @@ public final class FileChecksumArchive implements ChecksumArchive {
 
         try {
             File tempFile = File.createTempFile("tmp", "tmp", FileUtils.getTempDir());
-            FileWriter fw = new FileWriter(tempFile);
-
-            try {
-                // put the content into the file.
-                for (String filename : checksumArchive.keySet()) {
-                    fw.append(filename);
-                    fw.append("\n");
-                }
-
-            } finally {
-                // flush and close the file, before returning it.
-                fw.flush();
-                fw.close();
+            // put the content into the file. The filenames never change, so
+            // this does not need to wait for corrections.
+            try (Writer out = new BufferedWriter(new FileWriter(tempFile))) {
+                checksumArchive.view().writeFilenames(out);
             }
             return tempFile;
         } catch (IOException e) {
@@ -812,19 +977,20 @@ public final class FileChecksumArchive implements ChecksumArchive {
      * The timestamp of last communication with the file (read/write) will be checked whether it corresponds the 'last
      * modified' date of the file. If they are different, then the memory archive is reloaded from the file.
      */
-    private synchronized void synchronizeMemoryWithFile() {
+    private void synchronizeMemoryWithFile() {
         log.debug("Synchronizing memory archive with file archive.");
 
-        // Check if the checksum file has changed since last access.
-        if (checksumFile.lastModified() > lastModifiedChecksumFile) {
-            log.warn("Archive in memory out of sync with archive in file.");
+        synchronized (this) {
+            // Check if the checksum file has changed since last access.
+            if (checksumFile.lastModified() > lastModifiedChecksumFile) {
+                log.warn("Archive in memory out of sync with archive in file.");
 
-            // The archive is then reloaded by clearing the current memory
-            // archive and loading the file again.
-            checksumArchive.clear();
-            // The 'last modified' is reset during loading.
-            loadFile();
+                // The archive is then reloaded from the snapshot and the file.
+                // The 'last modified' is reset during loading.
+                loadFile();
+            }
         }
+        snapshotIfDue();
     }
 
     /**
@@ -834,9 +1000,7 @@ public final class FileChecksumArchive implements ChecksumArchive {
     public void cleanup() {
         checksumFile = null;
         instance = null;
-        if (checksumArchive != null) {
-            checksumArchive.clear();
-        }
+        checksumArchive = new ChecksumStore();
     }
 
 }
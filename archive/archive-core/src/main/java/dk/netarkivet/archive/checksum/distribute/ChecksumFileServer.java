@@ -99,7 +99,7 @@ public class ChecksumFileServer extends ChecksumArchiveServer {
         theCR = Channels.getTheCR();
 
         // Start listening to the channel.
-        jmsCon.setListener(theCR, this);
+        jmsCon.setListener(theCR, this, Settings.getInt(ArchiveSettings.CHECKSUM_LISTENER_CONSUMERS));
 
         // create the application identifier
         checksumAppId = createAppId();
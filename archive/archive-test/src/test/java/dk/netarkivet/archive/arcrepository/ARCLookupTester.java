@@ -37,9 +37,14 @@ import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.archive.format.arc.ARCConstants;
 import org.archive.io.arc.ARCReader;
@@ -210,6 +215,41 @@ public class ARCLookupTester {
         assertEquals("Should have found right offset", 1941, key.getOffset());
     }
 
+    /**
+     * Test that lookups neither fail nor give wrong results while the index is repeatedly changed, and that a result
+     * is the same when it comes from the cache.
+     */
+    @Test
+    public void testLuceneLookupWhileChangingIndex() throws Exception {
+        final Method luceneLookup = ReflectUtils.getPrivateMethod(ARCLookup.class, "luceneLookup", String.class);
+        final AtomicBoolean changing = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> lookups = new ArrayList<Future<Integer>>();
+            for (int t = 0; t < 4; t++) {
+                lookups.add(executor.submit(() -> {
+                    int count = 0;
+                    while (changing.get() || count == 0) {
+                        ARCKey key = (ARCKey) luceneLookup.invoke(lookup, "http://www.raeder.dk/robots.txt");
+                        assertEquals("Should have found right offset", 1941, key.getOffset());
+                        assertNull("Should get null key on not found", luceneLookup.invoke(lookup, "http://foo.bar"));
+                        count++;
+                    }
+                    return count;
+                }));
+            }
+            for (int i = 0; i < 50; i++) {
+                lookup.setIndex(TestInfo.DISTRIBUTE_ARCREPOSITORY_INDEX_DIR_2_3);
+            }
+            changing.set(false);
+            for (Future<Integer> lookupCount : lookups) {
+                assertTrue("Lookups should succeed while the index is changed", lookupCount.get() > 0);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     /**
      * Test that asking for a given URL makes ARCArchiveAccess ask the right stuff in the arc repository client and
      * returns it correctly.
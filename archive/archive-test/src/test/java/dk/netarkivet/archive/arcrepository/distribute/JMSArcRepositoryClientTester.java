@@ -40,6 +40,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import javax.jms.JMSException;
 import javax.jms.Message;
@@ -777,6 +778,36 @@ public class JMSArcRepositoryClientTester {
         assertEquals("Unexpected checksum sent back", "checksum", res);
     }
 
+    /**
+     * Cancelling the future of an asynchronous request stops waiting for the reply, so the request does not keep a
+     * place among the requests awaiting a reply.
+     */
+    @Test
+    public void testCancelAsyncRequests() {
+        FileBatchJob job = new FileBatchJob() {
+            public void finish(OutputStream os) {
+            }
+
+            public boolean processFile(File file, OutputStream os) {
+                return true;
+            }
+
+            public void initialize(OutputStream os) {
+            }
+        };
+        List<CompletableFuture<?>> requests = new ArrayList<CompletableFuture<?>>();
+        requests.add(arc.getChecksumAsync("ONE", "filename"));
+        requests.add(JMSArcRepositoryClient.requestChecksum(arc, "ONE", "filename"));
+        requests.add(arc.getAsync("filename", 0));
+        requests.add(arc.batchAsync(job, "ONE", "batchId"));
+        assertEquals("All requests should await a reply", requests.size(), arc.getPendingReplyCount());
+        for (CompletableFuture<?> request : requests) {
+            request.cancel(false);
+            assertTrue(request.isCancelled());
+        }
+        assertEquals("Cancelled requests should not await a reply", 0, arc.getPendingReplyCount());
+    }
+
     @Test
     @Ignore
     public void testCorrect() throws InterruptedException, IOException, NoSuchFieldException, IllegalArgumentException,
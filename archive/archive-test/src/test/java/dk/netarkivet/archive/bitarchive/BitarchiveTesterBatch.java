@@ -34,6 +34,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.junit.After;
@@ -48,6 +49,7 @@ import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.StreamUtils;
 import dk.netarkivet.common.utils.SystemUtils;
 import dk.netarkivet.common.utils.batch.ARCBatchFilter;
+import dk.netarkivet.common.utils.batch.ChecksumJob;
 import dk.netarkivet.common.utils.batch.FileBatchJob;
 import dk.netarkivet.testutils.FileAsserts;
 
@@ -170,6 +172,29 @@ public class BitarchiveTesterBatch extends BitarchiveTestCase {
         assertEquals("Number of processed files is incorrect", ARCHIVE_SIZE, job.processedFileList.size());
     }
 
+    /**
+     * Test that a job with sorted output writes its lines in the byte order the bitarchive monitor merges them in, also
+     * when a filename is the start of another: "x" comes before "x!", but "x!##..." comes before "x##...".
+     */
+    @Test
+    public void testSortedOutputWithPrefixFilenames() {
+        File fileDir = new File(TestInfo.WORKING_DIR, "filedir");
+        FileUtils.copyFile(new File(fileDir, "Upload1.ARC"), new File(fileDir, "Upload1.ARC!"));
+        FileUtils.copyFile(new File(fileDir, "Upload1.ARC"), new File(fileDir, "Upload1.ARC-"));
+        // reinitialize bitarchive
+        Bitarchive.getInstance().close();
+        archive = Bitarchive.getInstance();
+        BatchStatus lbs = archive.batch(TestInfo.baAppId, new ChecksumJob());
+        lbs.getResultFile().copyTo(TestInfo.BATCH_OUTPUT_FILE);
+        List<String> lines = FileUtils.readListFromFile(TestInfo.BATCH_OUTPUT_FILE);
+        assertEquals("Should have a line for each file", ARCHIVE_SIZE + 2, lines.size());
+        List<String> sorted = new ArrayList<String>(lines);
+        Collections.sort(sorted);
+        assertEquals("The lines should be in byte order", sorted, lines);
+        assertTrue("The line of Upload1.ARC! should come first, but got " + lines,
+                lines.get(0).startsWith("Upload1.ARC!##"));
+    }
+
     /** Test that filters work in BatchJobs. */
     @Test
     public void testBatchCodeFiltersWork() {
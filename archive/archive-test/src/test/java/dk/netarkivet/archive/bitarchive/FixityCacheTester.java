@@ -0,0 +1,135 @@
+/*
+ * #%L
+ * Netarchivesuite - archive - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.bitarchive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * Unittests for the class FixityCache.
+ */
+public class FixityCacheTester {
+
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    private File dir;
+    private File cacheFile;
+    private File file1;
+    private File file2;
+    private Supplier<File[]> archiveFiles;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("fixitycache").toFile();
+        cacheFile = new File(dir, "fixity.cache");
+        file1 = new File(dir, "1-1-20200101000000-00000-host.arc");
+        file2 = new File(dir, "1-1-20200101000000-00001-host.arc");
+        FileUtils.writeBinaryFile(file1, "The first file".getBytes());
+        FileUtils.writeBinaryFile(file2, "The second file".getBytes());
+        archiveFiles = new Supplier<File[]>() {
+            @Override
+            public File[] get() {
+                return new File[] {file1, file2};
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(dir);
+    }
+
+    @Test
+    public void testAnswersUnchangedFilesFromCache() {
+        FixityCache cache = new FixityCache(cacheFile, HOUR, HOUR, archiveFiles);
+        assertEquals(ChecksumCalculator.calculateMd5(file1), cache.getMd5(file1));
+        assertEquals(ChecksumCalculator.calculateMd5(file1), cache.getMd5(file1));
+        assertEquals(1L, cache.getFullReads());
+        assertEquals(1L, cache.getCacheHits());
+        assertEquals(file1.length(), cache.getBytesRead());
+    }
+
+    @Test
+    public void testRereadsChangedFiles() {
+        FixityCache cache = new FixityCache(cacheFile, HOUR, HOUR, archiveFiles);
+        cache.getMd5(file1);
+        FileUtils.writeBinaryFile(file1, "The first file, changed".getBytes());
+        file1.setLastModified(file1.lastModified() + 10000);
+        assertEquals(ChecksumCalculator.calculateMd5(file1), cache.getMd5(file1));
+        assertEquals(2L, cache.getFullReads());
+        assertEquals(0L, cache.getCacheHits());
+    }
+
+    @Test
+    public void testRereadsFilesOutsideWindow() throws InterruptedException {
+        FixityCache cache = new FixityCache(cacheFile, 1L, HOUR, archiveFiles);
+        cache.getMd5(file1);
+        Thread.sleep(5);
+        cache.getMd5(file1);
+        assertEquals(2L, cache.getFullReads());
+        assertEquals(0L, cache.getCacheHits());
+    }
+
+    @Test
+    public void testPersistence() {
+        FixityCache cache = new FixityCache(cacheFile, HOUR, HOUR, archiveFiles);
+        cache.getMd5(file1);
+        cache.close();
+        assertTrue("The cache should have been persisted", cacheFile.isFile());
+
+        FixityCache reloaded = new FixityCache(cacheFile, HOUR, HOUR, archiveFiles);
+        assertEquals(ChecksumCalculator.calculateMd5(file1), reloaded.getMd5(file1));
+        assertEquals("The reloaded cache should not read the file again", 0L, reloaded.getFullReads());
+        assertEquals(1L, reloaded.getCacheHits());
+    }
+
+    @Test
+    public void testVerificationPass() {
+        // With a window of four intervals, a pass rereads a quarter of the bytes, which here is one file.
+        FixityCache cache = new FixityCache(cacheFile, 4 * HOUR, HOUR, archiveFiles);
+        cache.verifyDue();
+        assertEquals(2, cache.getFileCount());
+        assertEquals(1, cache.getVerifiedFileCount());
+        assertEquals(1L, cache.getFullReads());
+        assertTrue(cache.getCoverage() > 0.0 && cache.getCoverage() < 1.0);
+
+        cache.verifyDue();
+        assertEquals(2, cache.getVerifiedFileCount());
+        assertEquals(1.0, cache.getCoverage(), 0.0);
+        assertEquals(ChecksumCalculator.calculateMd5(file2), cache.getMd5(file2));
+        assertEquals(2L, cache.getFullReads());
+        assertEquals(1L, cache.getCacheHits());
+    }
+}
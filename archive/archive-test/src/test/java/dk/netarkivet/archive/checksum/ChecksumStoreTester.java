@@ -0,0 +1,156 @@
+/*
+ * #%L
+ * Netarchivesuite - archive - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.checksum;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * Unittests for the class ChecksumStore.
+ */
+public class ChecksumStoreTester {
+
+    private File snapshot;
+
+    @Before
+    public void setUp() throws IOException {
+        snapshot = File.createTempFile("checksumstore", ".snapshot");
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.remove(snapshot);
+    }
+
+    @Test
+    public void testPutAndGet() {
+        ChecksumStore store = new ChecksumStore();
+        assertNull(store.put("1-1-20200101000000-00000-host.arc", TestInfo.TEST1_CHECKSUM));
+        assertNull(store.put("1-1-20200101000000-00001-host.arc", "checksum2"));
+        assertNull(store.put("1-1-20200101000000-00002-høst.arc", TestInfo.TEST2_CHECKSUM.toUpperCase()));
+        assertEquals(3, store.size());
+        assertEquals(TestInfo.TEST1_CHECKSUM, store.get("1-1-20200101000000-00000-host.arc"));
+        assertEquals("Checksums that are not MD5 in lower case should be kept as they are", "checksum2",
+                store.get("1-1-20200101000000-00001-host.arc"));
+        assertEquals(TestInfo.TEST2_CHECKSUM.toUpperCase(), store.get("1-1-20200101000000-00002-høst.arc"));
+        assertNull(store.get("1-1-20200101000000-00003-host.arc"));
+        assertFalse(store.contains("1-1-20200101000000-0000"));
+
+        assertEquals("checksum2", store.put("1-1-20200101000000-00001-host.arc", TestInfo.TEST2_CHECKSUM));
+        assertEquals("Changing a checksum should not add an entry", 3, store.size());
+        assertEquals(TestInfo.TEST2_CHECKSUM, store.get("1-1-20200101000000-00001-host.arc"));
+    }
+
+    @Test
+    public void testManyEntries() throws IOException {
+        ChecksumStore store = new ChecksumStore();
+        Map<String, String> expected = fill(store, 10000);
+        assertEntries(expected, store);
+
+        StringWriter filenames = new StringWriter();
+        store.view().writeFilenames(filenames);
+        assertEquals(expected.size(), filenames.toString().split("\n").length);
+        StringWriter entries = new StringWriter();
+        store.view().writeEntries(entries, "##");
+        for (String line : entries.toString().split("\n")) {
+            String[] parts = line.split("##");
+            assertEquals(expected.get(parts[0]), parts[1]);
+        }
+    }
+
+    @Test
+    public void testSnapshot() throws IOException {
+        ChecksumStore store = new ChecksumStore();
+        Map<String, String> expected = fill(store, 5000);
+        ChecksumStore.View view = store.view();
+        // Entries added after the view was taken are not in the snapshot.
+        store.put("after-the-view.arc", TestInfo.TEST1_CHECKSUM);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(snapshot)))) {
+            out.writeLong(42L);
+            view.writeSnapshot(out);
+        }
+
+        ChecksumStore loaded;
+        try (RandomAccessFile in = new RandomAccessFile(snapshot, "r")) {
+            loaded = ChecksumStore.readSnapshot(in.getChannel(), 8L);
+        }
+        assertEntries(expected, loaded);
+        assertFalse(loaded.contains("after-the-view.arc"));
+
+        // The loaded store can be added to.
+        Map<String, String> more = fill(loaded, 100);
+        expected.putAll(more);
+        assertEntries(expected, loaded);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedSnapshot() throws IOException {
+        ChecksumStore store = new ChecksumStore();
+        fill(store, 100);
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(snapshot))) {
+            store.view().writeSnapshot(out);
+        }
+        try (RandomAccessFile in = new RandomAccessFile(snapshot, "rw")) {
+            in.setLength(in.length() / 2);
+            ChecksumStore.readSnapshot(in.getChannel(), 0L);
+        }
+    }
+
+    private static Map<String, String> fill(ChecksumStore store, int entries) {
+        Map<String, String> added = new HashMap<String, String>();
+        int start = store.size();
+        for (int i = start; i < start + entries; i++) {
+            String filename = (i / 100) + "-" + (i / 100) + "-20200101120000" + i + "-00000-host.warc.gz";
+            String checksum = i % 10 == 0 ? "checksum" + i : String.format("%032x", i * 2654435761L);
+            assertNull(store.put(filename, checksum));
+            added.put(filename, checksum);
+        }
+        return added;
+    }
+
+    private static void assertEntries(Map<String, String> expected, ChecksumStore store) {
+        assertEquals(expected.size(), store.size());
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            assertTrue(store.contains(entry.getKey()));
+            assertEquals(entry.getValue(), store.get(entry.getKey()));
+        }
+    }
+}
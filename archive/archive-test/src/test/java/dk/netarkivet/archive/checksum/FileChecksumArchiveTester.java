@@ -239,4 +239,42 @@ public class FileChecksumArchiveTester {
             adminFile.delete();
         }
     }
+
+    /**
+     * Checks that the archive is restored from the snapshot and the entries added to the checksum file after it, and
+     * that a snapshot not matching the checksum file is ignored.
+     */
+    @Test
+    public void testRestartFromSnapshot() throws IOException {
+        Settings.set(ArchiveSettings.CHECKSUM_SNAPSHOT_INTERVAL, "2");
+        FileChecksumArchive.getInstance().cleanup();
+        fca = FileChecksumArchive.getInstance();
+        File snapshot = new File(TestInfo.CHECKSUM_DIR, "checksum_THREE.snapshot");
+        assertFalse("No snapshot should be written for an empty archive", snapshot.exists());
+
+        fca.upload(TestInfo.TEST1_CHECKSUM, "TEST1.arc");
+        fca.upload("checksum2", "TEST2.arc");
+        assertTrue("A snapshot should be written after two entries", snapshot.isFile());
+        long snapshotLength = snapshot.length();
+        fca.upload(TestInfo.TEST2_CHECKSUM, "TEST3.arc");
+        assertEquals("The snapshot should not be rewritten after three entries", snapshotLength, snapshot.length());
+
+        fca.cleanup();
+        fca = FileChecksumArchive.getInstance();
+        assertEquals(TestInfo.TEST1_CHECKSUM, fca.getChecksum("TEST1.arc"));
+        assertEquals("checksum2", fca.getChecksum("TEST2.arc"));
+        assertEquals("The entry after the snapshot should be read from the checksum file", TestInfo.TEST2_CHECKSUM,
+                fca.getChecksum("TEST3.arc"));
+        assertEquals(3, FileUtils.readListFromFile(fca.getAllFilenames()).size());
+
+        // Replace the checksum file, so it no longer matches the snapshot.
+        fca.cleanup();
+        FileWriter fw = new FileWriter(new File(TestInfo.CHECKSUM_DIR, "checksum_THREE.md5"));
+        fw.append("TEST4.arc##" + TestInfo.TEST1_CHECKSUM + "\n");
+        fw.close();
+        fca = FileChecksumArchive.getInstance();
+        assertFalse("TEST1.arc is only in the snapshot", fca.hasEntry("TEST1.arc"));
+        assertEquals(TestInfo.TEST1_CHECKSUM, fca.getChecksum("TEST4.arc"));
+        assertEquals(1, FileUtils.readListFromFile(fca.getArchiveAsFile()).size());
+    }
 }
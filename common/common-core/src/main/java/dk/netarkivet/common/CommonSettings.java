@@ -79,6 +79,22 @@ public class CommonSettings {
      */
     public static String JMS_BROKER_RETRIES = "settings.common.jms.retries";
 
+    /**
+     * <b>settings.common.jms.codec.class</b>: <br>
+     * The class used to wrap messages for sending. Must implement dk.netarkivet.common.distribute.MessageCodec. The
+     * default, dk.netarkivet.common.distribute.ObjectMessageCodec, sends ObjectMessages.
+     * dk.netarkivet.common.distribute.BinaryMessageCodec sends smaller BytesMessages, but requires all applications to
+     * run the same version of the message classes. Messages are received whichever codec the sender used.
+     */
+    public static String JMS_MESSAGE_CODEC = "settings.common.jms.codec.class";
+
+    /**
+     * <b>settings.common.jms.codec.compressionThreshold</b>: <br>
+     * The size in bytes from which messages are compressed by dk.netarkivet.common.distribute.BinaryMessageCodec. 0
+     * means never.
+     */
+    public static String JMS_COMPRESSION_THRESHOLD = "settings.common.jms.codec.compressionThreshold";
+
     /**
      * <b>settings.common.http.port</b>: <br>
      * The *unique* (per host) port number that may or may not be used to serve http.
@@ -417,6 +433,22 @@ public class CommonSettings {
      */
     public static String BITARCHIVE_LIMIT_FOR_RECORD_DATATRANSFER_IN_FILE = "settings.common.repository.limitForRecordDatatransferInFile";
 
+    /**
+     * <b>settings.common.repository.limitForRecordDatatransferStreamed</b>: <br>
+     * When the length of a record read from a local archive file exceeds this number, the contents of the record are
+     * not copied, but streamed from the archive file over HTTP when the receiver reads them, using the
+     * HTTPRemoteFile port. A negative value disables streaming.
+     */
+    public static String BITARCHIVE_LIMIT_FOR_RECORD_DATATRANSFER_STREAMED = "settings.common.repository.limitForRecordDatatransferStreamed";
+
+    /**
+     * <b>settings.common.repository.streamedRecordTimeout</b>: <br>
+     * The number of milliseconds a record registered for streaming is kept after it was registered or last read. A
+     * record is normally unregistered when the receiver closes the stream, so this only removes the records of
+     * receivers that never read or close them.
+     */
+    public static String BITARCHIVE_STREAMED_RECORD_TIMEOUT = "settings.common.repository.streamedRecordTimeout";
+
     /**
      * <b>settings.common.replicas</b>: <br>
      * The entire settings for all replicas in the environment. NOTE: settings for checksum replicas are not use yet
@@ -671,6 +703,13 @@ public class CommonSettings {
      */
     public static String HADOOP_MAPRED_ENABLE_UBERTASK = "settings.common.hadoop.mapred.enableUbertask";
 
+    /**
+     * The maximum number of harvest jobs covered by a single Hadoop job when extracting metadata for many jobs at
+     * once, e.g. when building an index over many jobs. A value of 1 or less disables the multi job extraction, so
+     * a Hadoop job is submitted for each harvest job.
+     */
+    public static String HADOOP_MAPRED_MULTIJOB_BATCHSIZE = "settings.common.hadoop.mapred.multiJobBatchSize";
+
     /**
      * Here we enable separate queues for interactive jobs (started by clicking in the NAS GUI) and batch jobs.
      * If set to valid queuenames for the hadoop cluster, this ensures that there is always some minimum capacity
@@ -0,0 +1,246 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.distribute;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.Settings;
+
+/**
+ * A codec wrapping a NetarkivetMessage in a BytesMessage in a compact binary form.
+ * <p>
+ * The message starts with a header giving the format version and whether the rest is compressed. The rest is the
+ * NetarkivetMessage in Java serialization, except that classes are described by their name and serialVersionUID only,
+ * and the receiver uses its own description of the class. This removes the field descriptions that make up most of a
+ * small serialized message, but requires sender and receiver to have compatible versions of the classes, which is
+ * checked using the serialVersionUID. Messages of at least {@link CommonSettings#JMS_COMPRESSION_THRESHOLD} bytes are
+ * compressed.
+ */
+public class BinaryMessageCodec implements MessageCodec {
+
+    /** Marks the start of a message in this format. */
+    private static final int MAGIC = 0x4E41534D;
+    /** The version of the format written. Receivers refuse messages in formats they do not know. */
+    static final byte FORMAT_VERSION = 1;
+    /** Flag marking that the payload is compressed. */
+    private static final byte FLAG_COMPRESSED = 1;
+
+    /** The size in bytes from which messages are compressed, 0 for never. */
+    private final int compressionThreshold;
+
+    /**
+     * Create a codec compressing messages from the size given by {@link CommonSettings#JMS_COMPRESSION_THRESHOLD}.
+     */
+    public BinaryMessageCodec() {
+        this(Settings.getInt(CommonSettings.JMS_COMPRESSION_THRESHOLD));
+    }
+
+    /**
+     * Create a codec compressing messages from the given size.
+     *
+     * @param compressionThreshold The size in bytes from which messages are compressed, 0 for never.
+     * @throws ArgumentNotValid If compressionThreshold is negative.
+     */
+    public BinaryMessageCodec(int compressionThreshold) {
+        ArgumentNotValid.checkNotNegative(compressionThreshold, "int compressionThreshold");
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    @Override
+    public Message encode(Session session, NetarkivetMessage msg) throws JMSException {
+        BytesMessage message = session.createBytesMessage();
+        message.writeBytes(toBytes(msg));
+        return message;
+    }
+
+    /**
+     * Read the object from a BytesMessage written by this codec.
+     *
+     * @param msg The message.
+     * @return The object in the message.
+     * @throws JMSException If the message cannot be read.
+     * @throws IOFailure If the message is not in a known format, or the object cannot be read.
+     */
+    public static Object decode(BytesMessage msg) throws JMSException {
+        ArgumentNotValid.checkNotNull(msg, "BytesMessage msg");
+        byte[] bytes = new byte[(int) msg.getBodyLength()];
+        msg.readBytes(bytes);
+        return fromBytes(bytes);
+    }
+
+    /**
+     * Write a NetarkivetMessage in the format of this codec.
+     *
+     * @param msg The message.
+     * @return The message in the format of this codec.
+     * @throws IOFailure If the message cannot be serialized.
+     */
+    public byte[] toBytes(NetarkivetMessage msg) {
+        ArgumentNotValid.checkNotNull(msg, "NetarkivetMessage msg");
+        try {
+            ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new CompactObjectOutputStream(serialized)) {
+                out.writeObject(msg);
+            }
+            boolean compress = compressionThreshold > 0 && serialized.size() >= compressionThreshold;
+            ByteArrayOutputStream result = new ByteArrayOutputStream(serialized.size() / (compress ? 4 : 1) + 6);
+            DataOutputStream header = new DataOutputStream(result);
+            header.writeInt(MAGIC);
+            header.writeByte(FORMAT_VERSION);
+            header.writeByte(compress ? FLAG_COMPRESSED : 0);
+            header.flush();
+            if (compress) {
+                Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+                try (OutputStream out = new DeflaterOutputStream(result, deflater)) {
+                    serialized.writeTo(out);
+                } finally {
+                    deflater.end();
+                }
+            } else {
+                serialized.writeTo(result);
+            }
+            return result.toByteArray();
+        } catch (IOException e) {
+            throw new IOFailure("Unable to serialize message '" + msg + "'", e);
+        }
+    }
+
+    /**
+     * Read an object written in the format of this codec.
+     *
+     * @param bytes The object in the format of this codec.
+     * @return The object.
+     * @throws IOFailure If the bytes are not in a known format, or the object cannot be read.
+     */
+    public static Object fromBytes(byte[] bytes) {
+        ArgumentNotValid.checkNotNull(bytes, "byte[] bytes");
+        try {
+            DataInputStream header = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (bytes.length < 6 || header.readInt() != MAGIC) {
+                throw new IOFailure("Not a binary encoded message");
+            }
+            byte version = header.readByte();
+            if (version != FORMAT_VERSION) {
+                throw new IOFailure("Unknown message format version " + version + ", expected " + FORMAT_VERSION);
+            }
+            boolean compressed = (header.readByte() & FLAG_COMPRESSED) != 0;
+            InputStream payload = compressed ? new InflaterInputStream(header) : header;
+            try (ObjectInputStream in = new CompactObjectInputStream(payload)) {
+                return in.readObject();
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IOFailure("Unable to deserialize message", e);
+        }
+    }
+
+    /**
+     * An ObjectOutputStream describing classes by their name and serialVersionUID only.
+     */
+    private static class CompactObjectOutputStream extends ObjectOutputStream {
+        /**
+         * @param out The stream to write to.
+         * @throws IOException If the stream header cannot be written.
+         */
+        CompactObjectOutputStream(OutputStream out) throws IOException {
+            super(out);
+        }
+
+        @Override
+        protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+            writeUTF(desc.getName());
+            writeLong(desc.getSerialVersionUID());
+        }
+    }
+
+    /**
+     * An ObjectInputStream reading classes described by a CompactObjectOutputStream, using the local description of
+     * each class.
+     */
+    private static class CompactObjectInputStream extends ObjectInputStream {
+        /**
+         * @param in The stream to read from.
+         * @throws IOException If the stream header cannot be read.
+         */
+        CompactObjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            String name = readUTF();
+            long serialVersionUID = readLong();
+            ObjectStreamClass local = ObjectStreamClass.lookupAny(loadClass(name));
+            if (local.getSerialVersionUID() != serialVersionUID) {
+                throw new InvalidClassException(name, "local class incompatible: stream classdesc serialVersionUID = "
+                        + serialVersionUID + ", local class serialVersionUID = " + local.getSerialVersionUID());
+            }
+            return local;
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            return loadClass(desc.getName());
+        }
+
+        /**
+         * Load a class, preferring the context class loader, as the web applications do.
+         *
+         * @param name The name of the class.
+         * @return The class.
+         * @throws ClassNotFoundException If the class cannot be found.
+         */
+        private static Class<?> loadClass(String name) throws ClassNotFoundException {
+            ClassLoader loader = Thread.currentThread().getContextClassLoader();
+            if (loader != null) {
+                try {
+                    return Class.forName(name, false, loader);
+                } catch (ClassNotFoundException e) {
+                    // Fall back to the loader of this class.
+                }
+            }
+            return Class.forName(name, false, BinaryMessageCodec.class.getClassLoader());
+        }
+    }
+
+}
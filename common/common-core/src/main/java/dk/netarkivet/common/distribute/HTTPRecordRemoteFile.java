@@ -0,0 +1,327 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.distribute;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.StreamUtils;
+import dk.netarkivet.common.utils.SystemUtils;
+
+/**
+ * A remote file for the payload of a single record in an archive file, streamed over HTTP from the host holding the
+ * archive file. The record is registered in the {@link HTTPRemoteFileRegistry} of that host, and is only read from the
+ * archive file while the receiver reads the stream, so the payload is neither copied to a file nor held in memory on
+ * either side. If the connection breaks or ends before the whole payload is read, the stream is resumed from the
+ * position reached using an HTTP Range request.
+ * <p>
+ * The remote file can be read once. It is cleaned up when the stream is closed.
+ */
+@SuppressWarnings({"serial"})
+public class HTTPRecordRemoteFile implements RemoteFile {
+
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(HTTPRecordRemoteFile.class);
+
+    /** The number of times a broken stream is resumed. */
+    private static final int MAX_RESUMES = 3;
+
+    /** The name of the host this record originated on. */
+    private final String hostname;
+    /** The archive file containing the record. */
+    private final File archiveFile;
+    /** The offset of the record in the archive file. */
+    private final long offset;
+    /** The length of the payload of the record. */
+    private final long length;
+    /** The url that exposes the payload. */
+    private final URL url;
+    /** Set when the remote file has been cleaned up. */
+    private boolean cleanedUp = false;
+
+    /**
+     * Register the payload of a record for streaming.
+     *
+     * @param archiveFile The ARC or WARC file containing the record.
+     * @param offset The offset of the record in the archive file.
+     * @param length The length of the payload of the record.
+     * @throws ArgumentNotValid on null or unreadable file, or negative offset or length.
+     */
+    protected HTTPRecordRemoteFile(File archiveFile, long offset, long length) {
+        this.hostname = SystemUtils.getLocalHostName();
+        this.archiveFile = archiveFile;
+        this.offset = offset;
+        this.length = length;
+        this.url = HTTPRemoteFileRegistry.getInstance().registerRecord(archiveFile, offset, length);
+    }
+
+    /**
+     * Register the payload of a record for streaming.
+     *
+     * @param archiveFile The ARC or WARC file containing the record.
+     * @param offset The offset of the record in the archive file.
+     * @param length The length of the payload of the record.
+     * @return A remote file streaming the payload.
+     * @throws ArgumentNotValid on null or unreadable file, or negative offset or length.
+     */
+    public static HTTPRecordRemoteFile getInstance(File archiveFile, long offset, long length) {
+        return new HTTPRecordRemoteFile(archiveFile, offset, length);
+    }
+
+    /**
+     * Write the payload to a file.
+     *
+     * @param destFile The file to write the payload to.
+     * @throws ArgumentNotValid on null destFile.
+     * @throws IOFailure on I/O trouble transferring the payload.
+     */
+    @Override
+    public void copyTo(File destFile) {
+        ArgumentNotValid.checkNotNull(destFile, "File destFile");
+        try (OutputStream out = new FileOutputStream(destFile)) {
+            appendTo(out);
+        } catch (IOException e) {
+            throw new IOFailure("Unable to write record from '" + url + "' to '" + destFile + "'", e);
+        }
+    }
+
+    /**
+     * Write the payload to an output stream as it is received.
+     *
+     * @param out The stream to write the payload to. It is not closed.
+     * @throws ArgumentNotValid on null out.
+     * @throws IOFailure on I/O trouble transferring the payload.
+     */
+    @Override
+    public void appendTo(OutputStream out) {
+        ArgumentNotValid.checkNotNull(out, "OutputStream out");
+        StreamUtils.copyInputStreamToOutputStream(getInputStream(), out);
+    }
+
+    /**
+     * Get an input stream of the payload. Closing the stream cleans up this remote file.
+     *
+     * @return An input stream of the payload.
+     * @throws IOFailure on I/O trouble connecting to the sending host.
+     */
+    @Override
+    public InputStream getInputStream() {
+        return getInputStream(0);
+    }
+
+    /**
+     * Get an input stream of the payload from a given position. Closing the stream cleans up this remote file.
+     *
+     * @param start The position in the payload to start from.
+     * @return An input stream of the rest of the payload.
+     * @throws ArgumentNotValid on negative start.
+     * @throws IOFailure on I/O trouble connecting to the sending host.
+     */
+    public InputStream getInputStream(long start) {
+        ArgumentNotValid.checkNotNegative(start, "long start");
+        try {
+            return new ResumingInputStream(start);
+        } catch (IOException e) {
+            throw new IOFailure("Unable to get inputstream for record at " + offset + " in '" + archiveFile
+                    + "' from '" + url + "'", e);
+        }
+    }
+
+    /**
+     * Open a connection to the payload.
+     *
+     * @param start The position in the payload to start from.
+     * @return The stream of the payload from the position.
+     * @throws IOException If the connection fails or a range is not served.
+     */
+    InputStream open(long start) throws IOException {
+        URLConnection urlConnection = url.openConnection();
+        // ensure not getting some cached version
+        urlConnection.setUseCaches(false);
+        if (start > 0) {
+            urlConnection.setRequestProperty("Range", "bytes=" + start + "-");
+            if (urlConnection instanceof HttpURLConnection
+                    && ((HttpURLConnection) urlConnection).getResponseCode() != 206) {
+                throw new IOException("Range from " + start + " not served by '" + url + "': "
+                        + ((HttpURLConnection) urlConnection).getResponseCode());
+            }
+        }
+        return urlConnection.getInputStream();
+    }
+
+    /**
+     * Get the name of the archive file containing the record.
+     *
+     * @return The name of the archive file.
+     */
+    @Override
+    public String getName() {
+        return archiveFile.getName();
+    }
+
+    /**
+     * Checksums are not supported.
+     *
+     * @return null.
+     */
+    @Override
+    public String getChecksum() {
+        return null;
+    }
+
+    /**
+     * Unregister the record at the sending host. This method does not throw exceptions, but will warn on errors.
+     */
+    @Override
+    public synchronized void cleanup() {
+        if (cleanedUp) {
+            return;
+        }
+        cleanedUp = true;
+        try {
+            URL cleanupUrl = new URL(url.getProtocol(), url.getHost(), url.getPort(), url.getPath()
+                    + HTTPRemoteFileRegistry.UNREGISTER_URL_POSTFIX);
+            URLConnection urlConnection = cleanupUrl.openConnection();
+            urlConnection.setUseCaches(false);
+            urlConnection.connect();
+            urlConnection.getInputStream().close();
+        } catch (IOException e) {
+            log.warn("Unable to cleanup record at {} in '{}' on {} with URL '{}'", offset, archiveFile, hostname, url,
+                    e);
+        }
+    }
+
+    /**
+     * Get the length of the payload.
+     *
+     * @return The length of the payload.
+     */
+    @Override
+    public long getSize() {
+        return length;
+    }
+
+    /**
+     * A stream of the payload, which reconnects from the position reached if reading fails or the connection ends
+     * before the end of the payload, and cleans up the remote file when closed.
+     */
+    private class ResumingInputStream extends InputStream {
+        /** The current connection. */
+        private InputStream in;
+        /** The position in the payload. */
+        private long position;
+        /** The number of times the stream has been resumed. */
+        private int resumes = 0;
+        /** Buffer for reading a single byte. */
+        private final byte[] singleByte = new byte[1];
+
+        /**
+         * Connect to the payload.
+         *
+         * @param start The position in the payload to start from.
+         * @throws IOException If the connection fails.
+         */
+        ResumingInputStream(long start) throws IOException {
+            position = start;
+            in = open(start);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int n = read(singleByte, 0, 1);
+            return n < 0 ? -1 : singleByte[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (true) {
+                if (position >= length) {
+                    return -1;
+                }
+                IOException failure;
+                try {
+                    int n = in.read(b, off, (int) Math.min(len, length - position));
+                    if (n > 0) {
+                        position += n;
+                        return n;
+                    }
+                    failure = new IOException("Connection to '" + url + "' ended at position " + position + " of "
+                            + length);
+                } catch (IOException e) {
+                    failure = e;
+                }
+                if (resumes >= MAX_RESUMES) {
+                    throw new IOException("Record from '" + url + "' truncated at position " + position + " of "
+                            + length + " after " + resumes + " resumes", failure);
+                }
+                resume(failure);
+            }
+        }
+
+        /**
+         * Reconnect from the position reached.
+         *
+         * @param failure The reason the current connection is given up.
+         * @throws IOException If reconnecting fails.
+         */
+        private void resume(IOException failure) throws IOException {
+            resumes++;
+            log.info("Reading record from '{}' failed at position {}. Resuming (attempt {} of {})", url, position,
+                    resumes, MAX_RESUMES, failure);
+            try {
+                in.close();
+            } catch (IOException closeFailure) {
+                log.debug("Ignoring failure to close broken connection to '{}'", url, closeFailure);
+            }
+            in = open(position);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return in.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                in.close();
+            } finally {
+                cleanup();
+            }
+        }
+    }
+}
@@ -24,11 +24,14 @@ package dk.netarkivet.common.distribute;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Random;
 
@@ -36,6 +39,9 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.archive.io.ArchiveReader;
+import org.archive.io.ArchiveReaderFactory;
+import org.archive.io.ArchiveRecord;
 import org.mortbay.jetty.Request;
 import org.mortbay.jetty.Server;
 
@@ -44,6 +50,8 @@ import org.mortbay.jetty.handler.AbstractHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.Constants;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.utils.CleanupHook;
@@ -56,6 +64,9 @@ import dk.netarkivet.common.utils.SystemUtils;
  * This is a registry for HTTP remote file, meant for serving registered files to remote hosts. The embedded webserver
  * handling remote files for HTTPRemoteFile point-to-point communication. Optimised to use direct transfer on local
  * machine.
+ * <p>
+ * Besides whole files, the payload of single records in archive files can be registered. These are read from the
+ * archive file when requested, and support requests for a single byte range of the payload.
  */
 public class HTTPRemoteFileRegistry implements CleanupIF {
 
@@ -80,11 +91,14 @@ public class HTTPRemoteFileRegistry implements CleanupIF {
     /** Instance to create random URLs. */
     private final Random random;
 
+    /** Milliseconds a registered record is kept after it was registered or last read. Read from settings. */
+    private final long recordTimeout;
+
     /**
      * Postfix to add to an URL to get cleanup URL. We are not using query string, because it behaves strangely in
      * HttpServletRequest.
      */
-    private static final String UNREGISTER_URL_POSTFIX = "/unregister";
+    static final String UNREGISTER_URL_POSTFIX = "/unregister";
 
     /** The embedded webserver. */
     protected Server server;
@@ -101,6 +115,7 @@ public class HTTPRemoteFileRegistry implements CleanupIF {
         localHostName = SystemUtils.getLocalHostName();
         registeredFiles = Collections.synchronizedMap(new HashMap<URL, FileInfo>());
         random = new Random();
+        recordTimeout = Settings.getLong(CommonSettings.BITARCHIVE_STREAMED_RECORD_TIMEOUT);
         startServer();
         cleanupHook = new CleanupHook(this);
         Runtime.getRuntime().addShutdownHook(cleanupHook);
@@ -161,23 +176,85 @@ public class HTTPRemoteFileRegistry implements CleanupIF {
         if (!file.isFile() && file.canRead()) {
             throw new ArgumentNotValid("File '" + file + "' is not a readable file");
         }
+        URL url = registerFileInfo(new FileInfo(file, deletable));
+        log.debug("Registered file '{}' with URL '{}'", file.getPath(), url);
+        return url;
+    }
+
+    /**
+     * Register the payload of a record in an archive file for serving to an endpoint. The payload is read from the
+     * archive file when requested, so the file must not be removed while registered. The registration is kept, so
+     * the receiver can resume a broken transfer, until the receiver unregisters it. Registrations that have not been
+     * read for the time given by the setting {@link CommonSettings#BITARCHIVE_STREAMED_RECORD_TIMEOUT} are removed
+     * when records are registered.
+     *
+     * @param archiveFile The ARC or WARC file containing the record.
+     * @param offset The offset of the record in the archive file.
+     * @param length The length of the payload of the record.
+     * @return The URL it will be served as. It will be uniquely generated.
+     * @throws ArgumentNotValid on null or unreadable file, or negative offset or length.
+     * @throws IOFailure on any trouble registerring the record
+     */
+    public URL registerRecord(File archiveFile, long offset, long length) {
+        ArgumentNotValid.checkNotNull(archiveFile, "File archiveFile");
+        ArgumentNotValid.checkNotNegative(offset, "long offset");
+        ArgumentNotValid.checkNotNegative(length, "long length");
+        if (!archiveFile.isFile() || !archiveFile.canRead()) {
+            throw new ArgumentNotValid("File '" + archiveFile + "' is not a readable file");
+        }
+        expireRecords(System.currentTimeMillis());
+        URL url = registerFileInfo(new FileInfo(archiveFile, offset, length));
+        log.debug("Registered record at offset {} in '{}' with URL '{}'", offset, archiveFile.getPath(), url);
+        return url;
+    }
+
+    /**
+     * Register file information under a new random and unique URL.
+     *
+     * @param fileInfo The information to register.
+     * @return The URL.
+     * @throws IOFailure if the URL cannot be created
+     */
+    private URL registerFileInfo(FileInfo fileInfo) {
         String path;
         URL url;
         // ensure we get a random and unique URL.
-        do {
-            path = "/" + Integer.toHexString(random.nextInt());
-            try {
-                url = new URL(getProtocol(), localHostName, port, path);
-            } catch (MalformedURLException e) {
-                throw new IOFailure("Unable to create URL for file '" + file + "'." + " '" + getProtocol() + "', '"
-                        + localHostName + "', '" + port + "', '" + path + "''", e);
-            }
-        } while (registeredFiles.containsKey(url));
-        registeredFiles.put(url, new FileInfo(file, deletable));
-        log.debug("Registered file '{}' with URL '{}'", file.getPath(), url);
+        synchronized (registeredFiles) {
+            do {
+                path = "/" + Integer.toHexString(random.nextInt());
+                try {
+                    url = new URL(getProtocol(), localHostName, port, path);
+                } catch (MalformedURLException e) {
+                    throw new IOFailure("Unable to create URL for file '" + fileInfo.file + "'." + " '"
+                            + getProtocol() + "', '" + localHostName + "', '" + port + "', '" + path + "''", e);
+                }
+            } while (registeredFiles.containsKey(url));
+            registeredFiles.put(url, fileInfo);
+        }
         return url;
     }
 
+    /**
+     * Remove the registered records that have not been read for longer than the timeout. These are records of
+     * receivers that never read the whole payload nor unregistered it, e.g. because they died.
+     *
+     * @param now The current time in milliseconds.
+     */
+    void expireRecords(long now) {
+        synchronized (registeredFiles) {
+            Iterator<Map.Entry<URL, FileInfo>> entries = registeredFiles.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<URL, FileInfo> entry = entries.next();
+                FileInfo fileInfo = entry.getValue();
+                if (fileInfo.isRecord() && now - fileInfo.lastAccess > recordTimeout) {
+                    entries.remove();
+                    log.debug("Expired record at offset {} in '{}' with URL '{}', not read since {}",
+                            fileInfo.recordOffset, fileInfo.file.getPath(), entry.getKey(), fileInfo.lastAccess);
+                }
+            }
+        }
+    }
+
     /**
      * Get the url for cleaning up after a remote file registered under some URL.
      *
@@ -200,12 +277,18 @@ public class HTTPRemoteFileRegistry implements CleanupIF {
         return url.openConnection();
     }
 
-    /** Pair of information registered. */
+    /** Information registered: A file, or a record in an archive file. */
     private class FileInfo {
         /** The file. */
         final File file;
         /** Whether it should be deleted on cleanup. */
         final boolean deletable;
+        /** The offset of the record in the archive file, or -1 if the whole file is served. */
+        final long recordOffset;
+        /** The length of the payload of the record. */
+        final long recordLength;
+        /** When the record was registered or last read, in milliseconds. */
+        volatile long lastAccess;
 
         /**
          * Initialise pair.
@@ -216,6 +299,65 @@ public class HTTPRemoteFileRegistry implements CleanupIF {
         FileInfo(File file, boolean deletable) {
             this.file = file;
             this.deletable = deletable;
+            this.recordOffset = -1;
+            this.recordLength = 0;
+        }
+
+        /**
+         * Initialise record information. Archive files are never deletable.
+         *
+         * @param archiveFile The archive file.
+         * @param recordOffset The offset of the record in the archive file.
+         * @param recordLength The length of the payload of the record.
+         */
+        FileInfo(File archiveFile, long recordOffset, long recordLength) {
+            this.file = archiveFile;
+            this.deletable = false;
+            this.recordOffset = recordOffset;
+            this.recordLength = recordLength;
+            this.lastAccess = System.currentTimeMillis();
+        }
+
+        /** @return true if this is a record in an archive file. */
+        boolean isRecord() {
+            return recordOffset >= 0;
+        }
+    }
+
+    /**
+     * Parse the value of an HTTP Range header. Only a single range of bytes is supported.
+     *
+     * @param range The value of the Range header, e.g. "bytes=100-199", "bytes=100-" or "bytes=-100".
+     * @param length The length of the content.
+     * @return The first and last byte position of the range, or null if the header is not a single byte range. If the
+     * range is not satisfiable, the first position is greater than the last.
+     */
+    static long[] parseRange(String range, long length) {
+        final String bytesUnit = "bytes=";
+        if (range == null || !range.startsWith(bytesUnit) || range.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = range.substring(bytesUnit.length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                // A suffix range: the last N bytes
+                long suffix = Long.parseLong(last);
+                return new long[] {Math.max(0, length - suffix), length - 1};
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            if (start < 0 || (!last.isEmpty() && Long.parseLong(last) < start)) {
+                return null;
+            }
+            return new long[] {start, end};
+        } catch (NumberFormatException e) {
+            return null;
         }
     }
 
@@ -274,7 +416,10 @@ public class HTTPRemoteFileRegistry implements CleanupIF {
             } else {
                 URL url = new URL(urlString);
                 FileInfo fileInfo = registeredFiles.get(url);
-                if (fileInfo != null) {
+                if (fileInfo != null && fileInfo.isRecord()) {
+                    serveRecord(url, fileInfo, httpServletRequest, httpServletResponse);
+                    request.setHandled(true);
+                } else if (fileInfo != null) {
                     httpServletResponse.setStatus(200);
                     FileUtils.writeFileToStream(fileInfo.file, httpServletResponse.getOutputStream());
                     request.setHandled(true);
@@ -285,6 +430,82 @@ public class HTTPRemoteFileRegistry implements CleanupIF {
                 }
             }
         }
+
+        /**
+         * Serve the payload of a registered record, or the requested range of it. The payload is copied from the
+         * archive file as it is read, and is not buffered. The registration is kept for resuming, until the receiver
+         * unregisters it or it expires.
+         *
+         * @param url The URL of the record.
+         * @param fileInfo The registered record.
+         * @param httpServletRequest request object.
+         * @param httpServletResponse the response to write to.
+         * @throws IOException On trouble in communication or reading the archive file.
+         */
+        private void serveRecord(URL url, FileInfo fileInfo, HttpServletRequest httpServletRequest,
+                HttpServletResponse httpServletResponse) throws IOException {
+            long length = fileInfo.recordLength;
+            long[] range = parseRange(httpServletRequest.getHeader("Range"), length);
+            if (range != null && range[0] > range[1]) {
+                httpServletResponse.setHeader("Content-Range", "bytes */" + length);
+                httpServletResponse.sendError(416);
+                return;
+            }
+            long start = range == null ? 0 : range[0];
+            long count = range == null ? length : range[1] - range[0] + 1;
+            fileInfo.lastAccess = System.currentTimeMillis();
+            httpServletResponse.setHeader("Accept-Ranges", "bytes");
+            // Set as a header, as the length may not fit in an int
+            httpServletResponse.setHeader("Content-Length", Long.toString(count));
+            if (range == null) {
+                httpServletResponse.setStatus(200);
+            } else {
+                httpServletResponse.setStatus(206);
+                httpServletResponse.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+            }
+            try (ArchiveReader reader = ArchiveReaderFactory.get(fileInfo.file, fileInfo.recordOffset);
+                    ArchiveRecord record = reader.get()) {
+                copyRange(record, httpServletResponse.getOutputStream(), start, count);
+            } finally {
+                fileInfo.lastAccess = System.currentTimeMillis();
+            }
+            log.debug("Served {} bytes from offset {} of record at {} in '{}' with URL '{}'", count, start,
+                    fileInfo.recordOffset, fileInfo.file.getPath(), url);
+        }
+    }
+
+    /**
+     * Copy a range of a stream to another stream.
+     *
+     * @param in The stream to copy from.
+     * @param out The stream to copy to.
+     * @param start The number of bytes to skip first.
+     * @param count The maximum number of bytes to copy.
+     * @throws IOException If reading or writing fails.
+     */
+    static void copyRange(InputStream in, OutputStream out, long start, long count) throws IOException {
+        long skipped = 0;
+        while (skipped < start) {
+            long n = in.skip(start - skipped);
+            if (n <= 0) {
+                if (in.read() < 0) {
+                    return;
+                }
+                n = 1;
+            }
+            skipped += n;
+        }
+        byte[] buffer = new byte[Constants.IO_BUFFER_SIZE];
+        long remaining = count;
+        while (remaining > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                break;
+            }
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+        out.flush();
     }
 
 }
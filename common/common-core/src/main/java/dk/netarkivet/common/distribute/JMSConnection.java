@@ -22,12 +22,15 @@
  */
 package dk.netarkivet.common.distribute;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import javax.jms.BytesMessage;
 import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
 import javax.jms.Destination;
@@ -53,6 +56,7 @@ import dk.netarkivet.common.exceptions.PermissionDenied;
 import dk.netarkivet.common.utils.CleanupHook;
 import dk.netarkivet.common.utils.CleanupIF;
 import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.common.utils.SettingsFactory;
 import dk.netarkivet.common.utils.TimeUtils;
 
 /**
@@ -92,6 +96,17 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
     protected final Map<String, MessageListener> listeners = Collections
             .synchronizedMap(new HashMap<String, MessageListener>());
 
+    /** The number of consumers of the listeners on queues with more than one consumer, by consumer key. */
+    protected final Map<String, Integer> listenerConsumers = Collections
+            .synchronizedMap(new HashMap<String, Integer>());
+
+    /**
+     * The sessions of the listeners on queues with more than one consumer, by consumer key. Each session has one
+     * consumer of the queue.
+     */
+    private final Map<String, List<Session>> listenerSessions = Collections
+            .synchronizedMap(new HashMap<String, List<Session>>());
+
     /**
      * Lock for the connection. Locked for read on adding/removing listeners and sending messages. Locked for write when
      * connection, releasing and reconnecting.
@@ -104,6 +119,9 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
     /** Singleton pattern is be used for this class. This is the one and only instance. */
     protected static JMSConnection instance;
 
+    /** The codec wrapping messages for sending, given by settings. Created on first use. */
+    private MessageCodec codec;
+
     /**
      * Should be implemented according to a specific JMS broker.
      *
@@ -219,6 +237,19 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
         sendMessage(msg, msg.getReplyTo());
     }
 
+    /**
+     * Get the codec wrapping messages for sending, as given by {@link CommonSettings#JMS_MESSAGE_CODEC}.
+     *
+     * @return The codec.
+     */
+    private synchronized MessageCodec getCodec() {
+        if (codec == null) {
+            codec = SettingsFactory.getInstance(CommonSettings.JMS_MESSAGE_CODEC);
+            log.info("Wrapping JMS messages using {}", codec.getClass().getName());
+        }
+        return codec;
+    }
+
     /**
      * Method adds a listener to the given queue or topic.
      *
@@ -232,6 +263,33 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
         setListener(mq.getName(), ml);
     }
 
+    /**
+     * Method adds a listener to the given queue with a number of consumers, so the listener is given up to that number
+     * of messages from the queue at a time. Each consumer has its own session, as a session delivers its messages one
+     * at a time. The listener must be thread safe. A listener to a topic always has one consumer, as each consumer of a
+     * topic would receive every message.
+     *
+     * @param mq the messagequeue to listen to
+     * @param ml the messagelistener
+     * @param consumers the number of consumers of the queue
+     * @throws ArgumentNotValid if mq or ml is null, or consumers is not positive.
+     * @throws IOFailure if the operation failed.
+     */
+    public void setListener(ChannelID mq, MessageListener ml, int consumers) throws IOFailure {
+        ArgumentNotValid.checkNotNull(mq, "ChannelID mq");
+        ArgumentNotValid.checkNotNull(ml, "MessageListener ml");
+        ArgumentNotValid.checkPositive(consumers, "int consumers");
+        if (consumers > 1 && Channels.isTopic(mq.getName())) {
+            log.info("Adding {} as listener to the topic {} with one consumer instead of {}", ml, mq.getName(),
+                    consumers);
+            consumers = 1;
+        }
+        if (consumers > 1) {
+            listenerConsumers.put(getConsumerKey(mq.getName(), ml), consumers);
+        }
+        setListener(mq, ml);
+    }
+
     /**
      * Removes the specified MessageListener from the given queue or topic.
      *
@@ -302,6 +360,7 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
             closeConnection();
             // Clear list of listeners
             listeners.clear();
+            listenerConsumers.clear();
             instance = null;
             log.info("Cleanup finished");
         } finally {
@@ -327,22 +386,21 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
         session = null;
         consumers.clear();
         producers.clear();
+        // The sessions are closed with the connection.
+        listenerSessions.clear();
     }
 
     /**
-     * Unwraps a NetarkivetMessage from an ObjectMessage.
+     * Unwraps a NetarkivetMessage from an ObjectMessage, or from a BytesMessage written by {@link BinaryMessageCodec}.
      *
-     * @param msg a javax.jms.ObjectMessage
+     * @param msg a javax.jms.ObjectMessage or javax.jms.BytesMessage
      * @return a NetarkivetMessage
      * @throws ArgumentNotValid when msg in valid or format of JMS Object message is invalid
      */
     public static NetarkivetMessage unpack(Message msg) throws ArgumentNotValid {
         ArgumentNotValid.checkNotNull(msg, "msg");
 
-        ObjectMessage objMsg;
-        try {
-            objMsg = (ObjectMessage) msg;
-        } catch (ClassCastException e) {
+        if (!(msg instanceof ObjectMessage) && !(msg instanceof BytesMessage)) {
             log.warn("Invalid message type: {}", msg.getClass());
             throw new ArgumentNotValid("Invalid message type: " + msg.getClass());
         }
@@ -350,8 +408,14 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
         NetarkivetMessage netMsg;
         String classname = "Unknown class"; // for error reporting purposes
         try {
-            classname = objMsg.getObject().getClass().getName();
-            netMsg = (NetarkivetMessage) objMsg.getObject();
+            Object payload;
+            if (msg instanceof BytesMessage) {
+                payload = BinaryMessageCodec.decode((BytesMessage) msg);
+            } else {
+                payload = ((ObjectMessage) msg).getObject();
+            }
+            classname = payload.getClass().getName();
+            netMsg = (NetarkivetMessage) payload;
             // Note: Id is only updated if the message does not already have an
             // id. On unpack, this means the first time the message is received.
 
@@ -504,6 +568,53 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
         return consumer;
     }
 
+    /**
+     * Create the sessions and consumers of a listener with more than one consumer, if they do not exist.
+     *
+     * @param channelName The name of the channel
+     * @param ml The message listener to add as listener to the channel
+     * @throws JMSException If a session or consumer cannot be created.
+     */
+    private void addListenerSessions(String channelName, MessageListener ml) throws JMSException {
+        String key = getConsumerKey(channelName, ml);
+        Integer count = listenerConsumers.get(key);
+        if (count == null || listenerSessions.containsKey(key)) {
+            return;
+        }
+        if (connection == null) {
+            throw new IOFailure("Connection not available");
+        }
+        List<Session> sessions = new ArrayList<Session>();
+        try {
+            for (int i = 0; i < count; i++) {
+                Session listenerSession = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+                sessions.add(listenerSession);
+                listenerSession.createConsumer(getDestination(channelName)).setMessageListener(ml);
+            }
+        } catch (JMSException e) {
+            closeSessions(sessions);
+            throw e;
+        }
+        listenerSessions.put(key, sessions);
+        listeners.put(key, ml);
+        log.info("Added {} as listener to {} with {} consumers", ml, channelName, count);
+    }
+
+    /**
+     * Close sessions, ignoring trouble.
+     *
+     * @param sessions The sessions to close.
+     */
+    private static void closeSessions(List<Session> sessions) {
+        for (Session listenerSession : sessions) {
+            try {
+                listenerSession.close();
+            } catch (JMSException e) {
+                log.warn("Error closing JMS session.", e);
+            }
+        }
+    }
+
     /**
      * Generate a consumerkey based on the given channel name and messageListener.
      *
@@ -540,16 +651,16 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
     }
 
     /**
-     * Sends an ObjectMessage on a queue destination.
+     * Sends a message on a queue destination, wrapped by the codec given in settings.
      *
-     * @param msg the NetarkivetMessage to be wrapped and send as an ObjectMessage.
+     * @param msg the NetarkivetMessage to be wrapped and send.
      * @param to the destination topic.
      * @throws JMSException if message failed to be sent.
      */
     private void doSend(NetarkivetMessage msg, ChannelID to) throws JMSException {
         connectionLock.readLock().lock();
         try {
-            ObjectMessage message = getSession().createObjectMessage(msg);
+            Message message = getCodec().encode(getSession(), msg);
             synchronized (msg) {
                 getProducer(to.getName()).send(message);
                 // Note: Id is only updated if the message does not already have
@@ -587,7 +698,11 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
             try {
                 connectionLock.readLock().lock();
                 try {
-                    getConsumer(channelName, ml).setMessageListener(ml);
+                    if (listenerConsumers.containsKey(getConsumerKey(channelName, ml))) {
+                        addListenerSessions(channelName, ml);
+                    } else {
+                        getConsumer(channelName, ml).setMessageListener(ml);
+                    }
                 } finally {
                     connectionLock.readLock().unlock();
                 }
@@ -635,10 +750,20 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
                 ++tries;
                 connectionLock.readLock().lock();
                 try {
-                    MessageConsumer messageConsumer = getConsumer(channelName, ml);
-                    messageConsumer.close();
-                    consumers.remove(getConsumerKey(channelName, ml));
-                    listeners.remove(getConsumerKey(channelName, ml));
+                    String key = getConsumerKey(channelName, ml);
+                    if (listenerConsumers.containsKey(key)) {
+                        List<Session> sessions = listenerSessions.remove(key);
+                        if (sessions != null) {
+                            closeSessions(sessions);
+                        }
+                        listenerConsumers.remove(key);
+                        listeners.remove(key);
+                    } else {
+                        MessageConsumer messageConsumer = getConsumer(channelName, ml);
+                        messageConsumer.close();
+                        consumers.remove(key);
+                        listeners.remove(key);
+                    }
                 } finally {
                     connectionLock.readLock().unlock();
                 }
@@ -0,0 +1,47 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.distribute;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+
+/**
+ * Wraps a NetarkivetMessage in a JMS message for sending. Which codec is used by an application is given by the setting
+ * {@link dk.netarkivet.common.CommonSettings#JMS_MESSAGE_CODEC}. Received messages are unwrapped by
+ * {@link JMSConnection#unpack(Message)} whichever codec the sender used, so applications using different codecs can
+ * talk to each other.
+ */
+public interface MessageCodec {
+
+    /**
+     * Wrap a NetarkivetMessage in a JMS message.
+     *
+     * @param session The session used to create the JMS message.
+     * @param msg The NetarkivetMessage to wrap.
+     * @return A JMS message containing the NetarkivetMessage.
+     * @throws JMSException If the JMS message cannot be created.
+     */
+    Message encode(Session session, NetarkivetMessage msg) throws JMSException;
+
+}
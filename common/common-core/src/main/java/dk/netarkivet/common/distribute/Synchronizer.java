@@ -22,7 +22,18 @@
  */
 package dk.netarkivet.common.distribute;
 
-import java.util.Hashtable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.jms.Message;
 import javax.jms.MessageListener;
@@ -36,43 +47,60 @@ import dk.netarkivet.common.exceptions.IOFailure;
 /**
  * Converts an asynchronous call to a synchronous call. The method sendAndWaitForOneReply() is a blocking call which
  * responds when a reply is received or returns null on timeout.
+ * <p>
+ * The method sendAsync() sends a request without blocking, and returns a future completed by the reply. This lets a
+ * caller have several requests outstanding at a time, e.g. one for each replica. The number of requests awaiting a reply
+ * is bounded; when the bound is reached, sendAsync() blocks until a reply arrives, a request times out or a future is
+ * cancelled.
  */
 public class Synchronizer implements MessageListener {
 
     private static final Logger log = LoggerFactory.getLogger(Synchronizer.class);
 
-    /** Collection containing messages on which a reply is awaited. */
-    private final Hashtable<String, NetarkivetMessage> requests;
+    /** The default maximum number of requests awaiting a reply. */
+    public static final int DEFAULT_MAX_PENDING_REPLIES = 1000;
 
-    /** Collection containing reply messages which have not yet been returned to the caller. */
-    private Hashtable<String, NetarkivetMessage> replies;
+    /** The thread completing requests that time out, shared by all Synchronizers. */
+    private static ScheduledExecutorService timer;
+
+    /** The futures of the requests awaiting a reply, by the id of the request. */
+    private final Map<String, CompletableFuture<NetarkivetMessage>> requests;
+
+    /** The number of further requests allowed to await a reply. */
+    private final Semaphore pendingPermits;
 
     /**
-     * Initialise maps containing requests and replies.
+     * Initialise the map of requests, allowing the default number of requests to await a reply.
      */
     public Synchronizer() {
-        requests = new Hashtable<String, NetarkivetMessage>();
-        replies = new Hashtable<String, NetarkivetMessage>();
+        this(DEFAULT_MAX_PENDING_REPLIES);
+    }
+
+    /**
+     * Initialise the map of requests.
+     *
+     * @param maxPendingReplies The maximum number of requests awaiting a reply.
+     * @throws ArgumentNotValid If maxPendingReplies is not positive.
+     */
+    public Synchronizer(int maxPendingReplies) {
+        ArgumentNotValid.checkPositive(maxPendingReplies, "int maxPendingReplies");
+        requests = new HashMap<String, CompletableFuture<NetarkivetMessage>>();
+        pendingPermits = new Semaphore(maxPendingReplies);
     }
 
     /**
-     * Receives replies from a message queue and triggers the blocked call in sendAndWaitForOneReply().
+     * Receives replies from a message queue and completes the future of the request replied to.
      *
      * @param msg an ObjectMessage containing a NetarkivetMessage.
      */
     public void onMessage(Message msg) {
         ArgumentNotValid.checkNotNull(msg, "msg");
         NetarkivetMessage naMsg = JMSConnection.unpack(msg);
-        NetarkivetMessage requestMsg;
+        CompletableFuture<NetarkivetMessage> request;
         synchronized (requests) {
-            requestMsg = requests.get(naMsg.getReplyOfId());
+            request = requests.get(naMsg.getReplyOfId());
         }
-        if (requestMsg != null) {
-            synchronized (requestMsg) {
-                replies.put(naMsg.getReplyOfId(), naMsg);
-                requestMsg.notifyAll();
-            }
-        } else {
+        if (request == null || !request.complete(naMsg)) {
             log.warn("Received unexpected reply for unknown message '{}' of type '{}'. Ignored!!: {}",
                     naMsg.getReplyOfId(), naMsg.getClass().getName(), naMsg.toString());
         }
@@ -80,59 +108,141 @@ public class Synchronizer implements MessageListener {
 
     /**
      * Sends a message to a message queue and blocks the method invocation until a reply arrives. If it times out a null
-     * is returned. If a spurious wakeup is received and a timeout is set, the method will carry on waiting for the
-     * reply until the total timeout time has been used up. If a spurious wakeup is received and no timeout is set the
-     * method will just go back to waiting
+     * is returned.
      *
      * @param msg the request message
      * @param timeout the timeout in milliseconds (or zero for no timeout)
      * @return a reply message from the receiver of the request or null if timed out.
+     * @throws IOFailure If interrupted while waiting for the reply.
      */
     public NetarkivetMessage sendAndWaitForOneReply(NetarkivetMessage msg, long timeout) {
         ArgumentNotValid.checkNotNull(msg, "msg");
-        boolean noTimeout = (timeout == 0);
+        CompletableFuture<NetarkivetMessage> reply = sendAsync(msg, 0);
+        try {
+            if (timeout == 0) {
+                return reply.get();
+            }
+            return reply.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.debug("Timed out waiting for reply to {}", msg.toString());
+            return null;
+        } catch (InterruptedException e) {
+            throw new IOFailure("Interrupted while waiting for reply to " + msg, e);
+        } catch (ExecutionException e) {
+            throw new IOFailure("Failed waiting for reply to " + msg, e.getCause());
+        } finally {
+            reply.cancel(false);
+        }
+    }
+
+    /**
+     * Sends a message to a message queue, and returns a future completed when a reply arrives. If no reply arrives
+     * within the timeout, the future is completed exceptionally with a TimeoutException. Cancelling the future stops
+     * waiting for the reply; a reply arriving later is ignored.
+     *
+     * @param msg the request message
+     * @param timeout the timeout in milliseconds (or zero for no timeout)
+     * @return the future reply to the message.
+     * @throws ArgumentNotValid If msg is null or timeout is negative.
+     * @throws IOFailure If interrupted while waiting for the number of requests awaiting a reply to go below the bound,
+     * or if the message cannot be sent.
+     */
+    public CompletableFuture<NetarkivetMessage> sendAsync(final NetarkivetMessage msg, long timeout) {
+        ArgumentNotValid.checkNotNull(msg, "msg");
+        ArgumentNotValid.checkNotNegative(timeout, "long timeout");
+        try {
+            pendingPermits.acquire();
+        } catch (InterruptedException e) {
+            throw new IOFailure("Interrupted while waiting to send " + msg, e);
+        }
+        final CompletableFuture<NetarkivetMessage> reply = new CompletableFuture<NetarkivetMessage>();
         JMSConnection con = JMSConnectionFactory.getInstance();
-        synchronized (msg) {
-            synchronized (requests) {
+        synchronized (requests) {
+            try {
                 con.send(msg);
-                requests.put(msg.getID(), msg);
+            } catch (RuntimeException e) {
+                pendingPermits.release();
+                throw e;
             }
-            try {
-                while (!replies.containsKey(msg.getID())) {
-                    long timeBeforeWait = System.currentTimeMillis();
-                    msg.wait(timeout);
-                    synchronized (requests) {
-                        if (!replies.containsKey(msg.getID())) {
-                            // At this point we either got an unexpected wakeup
-                            // or timed out
-                            long timeAfterWait = System.currentTimeMillis();
-                            // the new timeout value
-                            timeout -= timeAfterWait - timeBeforeWait;
-                            if (noTimeout || timeout > 0) { // Unexpected wakeup
-                                log.debug("Unexpected wakeup for {}", msg.toString());
-                            } else {
-                                // timed out
-                                // NB! if timeout is exactly zero here then this
-                                // counts as a timeout. Otherwise we would call
-                                // wait(0) on the next loop with disastrous
-                                // results
-                                requests.remove(msg.getID());
-                                log.debug("Timed out waiting for reply to {}", msg.toString());
-                                return null;
-                            }
-                        }
-                    }
+            requests.put(msg.getID(), reply);
+        }
+        final ScheduledFuture<?> timeoutTask;
+        if (timeout > 0) {
+            timeoutTask = getTimer().schedule(() -> {
+                if (reply.completeExceptionally(new TimeoutException("No reply to " + msg + " within " + timeout
+                        + " ms"))) {
+                    log.debug("Timed out waiting for reply to {}", msg.toString());
                 }
-            } catch (InterruptedException e) {
-                throw new IOFailure("Interrupted while waiting for reply to " + msg, e);
-            }
+            }, timeout, TimeUnit.MILLISECONDS);
+        } else {
+            timeoutTask = null;
         }
-        // If we get here, we must have received the expected reply
+        reply.whenComplete((result, failure) -> {
+            if (timeoutTask != null) {
+                timeoutTask.cancel(false);
+            }
+            synchronized (requests) {
+                requests.remove(msg.getID());
+            }
+            pendingPermits.release();
+            if (failure instanceof CancellationException) {
+                log.debug("Stopped waiting for reply to {}", msg.toString());
+            }
+        });
+        return reply;
+    }
+
+    /**
+     * Let cancelling a future derived from the future reply to a request, e.g. by thenApply() or handle(), also cancel
+     * the reply. Otherwise the request would still await a reply after the derived future is cancelled.
+     *
+     * @param reply The future reply to a request, as returned by {@link #sendAsync(NetarkivetMessage, long)}.
+     * @param derived A future derived from the reply.
+     * @param <T> The type of result of the derived future.
+     * @return The derived future.
+     * @throws ArgumentNotValid If reply or derived is null.
+     */
+    public static <T> CompletableFuture<T> cancelWith(final CompletableFuture<NetarkivetMessage> reply,
+            final CompletableFuture<T> derived) {
+        ArgumentNotValid.checkNotNull(reply, "CompletableFuture<NetarkivetMessage> reply");
+        ArgumentNotValid.checkNotNull(derived, "CompletableFuture<T> derived");
+        derived.whenComplete((result, failure) -> {
+            if (derived.isCancelled()) {
+                reply.cancel(false);
+            }
+        });
+        return derived;
+    }
+
+    /**
+     * @return The number of requests awaiting a reply.
+     */
+    public int getPendingReplyCount() {
         synchronized (requests) {
-            requests.remove(msg.getID());
-            log.debug("Received reply for message: {}", msg.toString());
-            return replies.remove(msg.getID());
+            return requests.size();
+        }
+    }
+
+    /**
+     * Get the thread completing requests that time out, creating it if needed.
+     *
+     * @return The timer.
+     */
+    private static synchronized ScheduledExecutorService getTimer() {
+        if (timer == null) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Synchronizer-timeout");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            // Timeouts of requests that got a reply are cancelled, and should not stay in the queue until due
+            executor.setRemoveOnCancelPolicy(true);
+            timer = executor;
         }
+        return timer;
     }
 
 }
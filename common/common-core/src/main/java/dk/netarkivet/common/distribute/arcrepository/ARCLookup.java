@@ -26,15 +26,21 @@ package dk.netarkivet.common.distribute.arcrepository;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.search.ConstantScoreQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.TermRangeFilter;
+import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.BytesRef;
 import org.slf4j.Logger;
@@ -50,6 +56,11 @@ import is.hi.bok.deduplicator.DigestIndexer;
 /**
  * This class allows lookup of URLs in the ArcRepository, using full Lucene indexes to find offsets. The input takes the
  * form of a directory containing a Lucene index.
+ * <p>
+ * The index can be changed while lookups are running. Each lookup holds a reference to the index reader it searches,
+ * and a replaced index is closed when the last lookup using it releases its reference, so changing the index neither
+ * waits for nor fails ongoing lookups. Lookup results are cached per index, as the embedded resources of archived
+ * pages are typically requested many times.
  */
 public class ARCLookup {
 
@@ -59,10 +70,17 @@ public class ARCLookup {
     /** The ArcRepositoryClient we use to retrieve records. */
     private final ViewerArcRepositoryClient arcRepositoryClient;
 
-    /** The currently active lucene search engine. */
-    private IndexSearcher luceneSearcher;
-    /** The Indexreader used by the index-searcher. */
-    private IndexReader luceneReader;
+    /** The maximum number of lookup results cached for an index. The cache is emptied when it is full. */
+    private static final int MAX_CACHED_LOOKUPS = 10000;
+
+    /** Cached result for URIs not in the index. */
+    private static final ARCKey NOT_IN_INDEX = new ARCKey("", -1L);
+
+    /** The only stored field read from the documents found. */
+    private static final Set<String> ORIGIN_FIELD = Collections.singleton(DigestIndexer.FIELD_ORIGIN);
+
+    /** The currently active lucene search engine, or null if no index is set. */
+    private volatile Searcher luceneSearcher;
 
     /** If the value is true, we will try to lookup w/ ftp instead of http, if we don't get a hit in the index. */
     private boolean tryToLookupUriAsFtp;
@@ -92,31 +110,27 @@ public class ARCLookup {
 
     /**
      * This method sets the current Lucene index this object works on, replacing and closing the current index if one is
-     * already set.
+     * already set. The new index is opened before the current one is replaced, and the current index is closed when
+     * the lookups using it are done.
      *
      * @param indexDir The new index, a directory containing Lucene files.
      * @throws ArgumentNotValid If argument is null
      */
-    public void setIndex(File indexDir) {
+    public synchronized void setIndex(File indexDir) {
         ArgumentNotValid.checkNotNull(indexDir, "File indexDir");
         ArgumentNotValid.checkTrue(indexDir.isDirectory(), "indexDir '" + indexDir + "' should be a directory");
-        if (luceneSearcher != null) {
-            try {
-                // Existing lucene indices must be shut down
-                luceneReader.close();
-            } catch (IOException e) {
-                throw new IOFailure("Unable to close index " + luceneSearcher, e);
-            } finally {
-                // Must be careful to shut down only once.
-                luceneSearcher = null;
-            }
-        }
+        Searcher newSearcher;
         try {
-            luceneReader = org.apache.lucene.index.DirectoryReader.open(FSDirectory.open(indexDir));
-            luceneSearcher = new IndexSearcher(luceneReader);
+            newSearcher = new Searcher(DirectoryReader.open(FSDirectory.open(indexDir)));
         } catch (IOException e) {
             throw new IOFailure("Unable to find/open index " + indexDir, e);
         }
+        Searcher oldSearcher = luceneSearcher;
+        luceneSearcher = newSearcher;
+        if (oldSearcher != null) {
+            // Existing lucene indices must be shut down, which happens when the lookups using it are done
+            oldSearcher.release();
+        }
     }
 
     /**
@@ -189,26 +203,57 @@ public class ARCLookup {
      * @throws IOFailure if no index is set or Lucene gives problems.
      */
     private ARCKey luceneLookup(String uri) {
-        if (luceneSearcher == null) {
-            throw new IOFailure("No index set while searching for '" + uri + "'");
+        Searcher searcher = acquireSearcher(uri);
+        try {
+            ARCKey key = searcher.cachedKeys.get(uri);
+            if (key == null) {
+                key = luceneLookUp(searcher.indexSearcher, uri);
+                if (searcher.cachedKeys.size() >= MAX_CACHED_LOOKUPS) {
+                    searcher.cachedKeys.clear();
+                }
+                searcher.cachedKeys.put(uri, key == null ? NOT_IN_INDEX : key);
+            }
+            return key == NOT_IN_INDEX ? null : key;
+        } finally {
+            searcher.release();
         }
-        return luceneLookUp(uri);
     }
 
     /**
-     * Lucene Lookup. 
+     * Get a reference to the current searcher, which must be released after use.
      *
+     * @param uri The URI to be searched for, used in the error message.
+     * @return The current searcher.
+     * @throws IOFailure if no index is set.
+     */
+    private Searcher acquireSearcher(String uri) {
+        while (true) {
+            Searcher searcher = luceneSearcher;
+            if (searcher == null) {
+                throw new IOFailure("No index set while searching for '" + uri + "'");
+            }
+            if (searcher.indexReader.tryIncRef()) {
+                return searcher;
+            }
+            // The searcher was closed after being replaced by a new index; try again with the new one
+        }
+    }
+
+    /**
+     * Lucene Lookup. Finds the documents with exactly the given URI, and reads only the origin field of these.
+     *
+     * @param indexSearcher The searcher to use.
      * @param uri A URI to look for.
      * @return The file and offset where that URI can be found, or null if it doesn't exist. 
      */
-    private ARCKey luceneLookUp(String uri) {
+    private ARCKey luceneLookUp(IndexSearcher indexSearcher, String uri) {
         BytesRef uriRef = new BytesRef(uri.getBytes()); // Should we decide which charset?
 
-        Query query = new ConstantScoreQuery(new TermRangeFilter(DigestIndexer.FIELD_URL, uriRef, uriRef, true, true));
+        Query query = new ConstantScoreQuery(new TermQuery(new Term(DigestIndexer.FIELD_URL, uriRef)));
 
         try {
             AllDocsCollector allResultsCollector = new AllDocsCollector();
-            luceneSearcher.search(query, allResultsCollector);
+            indexSearcher.search(query, allResultsCollector);
             Document doc = null;
             List<ScoreDoc> hits = allResultsCollector.getHits();
             if (hits != null) {
@@ -216,7 +261,7 @@ public class ARCLookup {
                 int i = 0;
                 for (ScoreDoc hit : hits) {
                     int docId = hit.doc;
-                    doc = luceneSearcher.doc(docId);
+                    doc = indexSearcher.doc(docId, ORIGIN_FIELD);
                     String origin = doc.get(DigestIndexer.FIELD_ORIGIN);
                     // Here is where we will handle multiple hits in the future
                     if (origin == null) {
@@ -237,4 +282,40 @@ public class ARCLookup {
         return null;
     }
 
+    /**
+     * An index searcher with the cached lookups in its index. The index reader is reference counted: This ARCLookup
+     * holds one reference while the index is current, and each lookup holds one while searching.
+     */
+    private static class Searcher {
+        /** The reader of the index. */
+        private final IndexReader indexReader;
+        /** The searcher of the index. */
+        private final IndexSearcher indexSearcher;
+        /** The results of lookups in this index, with NOT_IN_INDEX for URIs not found. */
+        private final ConcurrentMap<String, ARCKey> cachedKeys = new ConcurrentHashMap<String, ARCKey>();
+
+        /**
+         * Create a searcher of an open index, holding the initial reference to the reader.
+         *
+         * @param indexReader The reader of the index.
+         */
+        Searcher(IndexReader indexReader) {
+            this.indexReader = indexReader;
+            this.indexSearcher = new IndexSearcher(indexReader);
+        }
+
+        /**
+         * Release a reference to the index reader, closing it when no references are left.
+         *
+         * @throws IOFailure If closing the reader fails.
+         */
+        void release() {
+            try {
+                indexReader.decRef();
+            } catch (IOException e) {
+                throw new IOFailure("Unable to close index " + indexSearcher, e);
+            }
+        }
+    }
+
 }
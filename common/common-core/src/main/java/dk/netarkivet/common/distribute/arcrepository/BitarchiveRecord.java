@@ -40,6 +40,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.distribute.HTTPRecordRemoteFile;
 import dk.netarkivet.common.distribute.RemoteFile;
 import dk.netarkivet.common.distribute.RemoteFileFactory;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
@@ -53,7 +54,9 @@ import dk.netarkivet.common.utils.warc.WARCUtils;
 /**
  * Class to hold the result of a lookup operation in the bitarchive: The metadata information associated with the record
  * The actual byte content The name of the file the data were retrieved from If length of record exceeds value of
- * Settings.BITARCHIVE_LIMIT_FOR_RECORD_DATATRANSFER_IN_FILE The record is stored in a RemoteFile.
+ * Settings.BITARCHIVE_LIMIT_FOR_RECORD_DATATRANSFER_IN_FILE The record is stored in a RemoteFile. If the record is read
+ * from a local archive file and its length exceeds Settings.BITARCHIVE_LIMIT_FOR_RECORD_DATATRANSFER_STREAMED, only a
+ * handle to the record is held, and the data are streamed from the archive file when read.
  */
 @SuppressWarnings({"serial"})
 public class BitarchiveRecord implements Serializable {
@@ -86,6 +89,10 @@ public class BitarchiveRecord implements Serializable {
     private final long LIMIT_FOR_SAVING_DATA_IN_OBJECT_BUFFER = Settings
             .getLong(CommonSettings.BITARCHIVE_LIMIT_FOR_RECORD_DATATRANSFER_IN_FILE);
 
+    /** How large the ARCRecord can be before streaming it from the archive file, negative if never. */
+    private final long LIMIT_FOR_STREAMING_DATA = Settings
+            .getLong(CommonSettings.BITARCHIVE_LIMIT_FOR_RECORD_DATATRANSFER_STREAMED);
+
     /**
      * Creates a BitarchiveRecord from the a ArchiveRecord, which can be either a ARCRecord or WARCRecord. Note that
      * record metadata is not included with the BitarchiveRecord, only the payload of the record.
@@ -97,6 +104,20 @@ public class BitarchiveRecord implements Serializable {
      * @param filename The filename of the ArchiveFile
      */
     public BitarchiveRecord(ArchiveRecord record, String filename) {
+        this(record, filename, null);
+    }
+
+    /**
+     * Creates a BitarchiveRecord from the a ArchiveRecord read from a local archive file. As
+     * {@link #BitarchiveRecord(ArchiveRecord, String)}, except that if the length of the record is higher than
+     * Settings.BITARCHIVE_LIMIT_FOR_RECORD_DATATRANSFER_STREAMED, the data is not read from the record. Instead the
+     * record is registered for streaming from the archive file over HTTP, and only the handle is stored.
+     *
+     * @param record the ArchiveRecord that the data should come from. We do not close the ArchiveRecord.
+     * @param filename The filename of the ArchiveFile
+     * @param archiveFile The local archive file the record was read from, or null if not read from a local file.
+     */
+    public BitarchiveRecord(ArchiveRecord record, String filename, File archiveFile) {
         ArgumentNotValid.checkNotNull(record, "ArchiveRecord record");
         ArgumentNotValid.checkNotNull(filename, "String filename");
         this.fileName = filename;
@@ -111,7 +132,12 @@ public class BitarchiveRecord implements Serializable {
         } else {
             throw new ArgumentNotValid("Unknown type of ArchiveRecord");
         }
-        if (length > LIMIT_FOR_SAVING_DATA_IN_OBJECT_BUFFER) {
+        if (archiveFile != null && LIMIT_FOR_STREAMING_DATA >= 0 && length > LIMIT_FOR_STREAMING_DATA) {
+            log.debug("Record exceeds streaming limit of {} bytes. Length is {} bytes, streaming from {}",
+                    LIMIT_FOR_STREAMING_DATA, length, archiveFile);
+            objectAsRemoteFile = HTTPRecordRemoteFile.getInstance(archiveFile, offset, length);
+            isStoredAsRemoteFile = true;
+        } else if (length > LIMIT_FOR_SAVING_DATA_IN_OBJECT_BUFFER) {
             // copy arc-data to local file and create a RemoteFile based on this
             log.info("Record exceeds limit of {} bytes. Length is {} bytes, Storing as instance of {}",
                     LIMIT_FOR_SAVING_DATA_IN_OBJECT_BUFFER, length, Settings.get(CommonSettings.REMOTE_FILE_CLASS));
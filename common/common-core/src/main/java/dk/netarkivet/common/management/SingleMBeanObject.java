@@ -88,28 +88,38 @@ public class SingleMBeanObject<I> {
         this.domain = domain;
         this.asInterface = asInterface;
         this.exposedObject = object;
+        nameProperties.putAll(getDefaultNameProperties());
+        this.mBeanServer = mBeanServer;
+    }
 
-        nameProperties.put(Constants.PRIORITY_KEY_LOCATION, Settings.get(CommonSettings.THIS_PHYSICAL_LOCATION));
-        nameProperties.put(Constants.PRIORITY_KEY_MACHINE, SystemUtils.getLocalHostName());
-        nameProperties.put(Constants.PRIORITY_KEY_APPLICATIONNAME, Settings.get(CommonSettings.APPLICATION_NAME));
-        nameProperties.put(Constants.PRIORITY_KEY_APPLICATIONINSTANCEID,
+    /**
+     * Get the object name properties identifying this application, which all MBeans registered by it are given.
+     *
+     * @return A new Hashtable with location, hostname, httpport, priority, replica, applicationname and
+     * applicationinstid.
+     */
+    public static Hashtable<String, String> getDefaultNameProperties() {
+        Hashtable<String, String> properties = new Hashtable<String, String>();
+        properties.put(Constants.PRIORITY_KEY_LOCATION, Settings.get(CommonSettings.THIS_PHYSICAL_LOCATION));
+        properties.put(Constants.PRIORITY_KEY_MACHINE, SystemUtils.getLocalHostName());
+        properties.put(Constants.PRIORITY_KEY_APPLICATIONNAME, Settings.get(CommonSettings.APPLICATION_NAME));
+        properties.put(Constants.PRIORITY_KEY_APPLICATIONINSTANCEID,
                 Settings.get(CommonSettings.APPLICATION_INSTANCE_ID));
-        nameProperties.put(Constants.PRIORITY_KEY_HTTP_PORT, Settings.get(CommonSettings.HTTP_PORT_NUMBER));
+        properties.put(Constants.PRIORITY_KEY_HTTP_PORT, Settings.get(CommonSettings.HTTP_PORT_NUMBER));
         try {
             String val;
             val = Settings.get(HARVESTER_HARVEST_CONTROLLER_CHANNEL);
-            nameProperties.put(Constants.PRIORITY_KEY_CHANNEL, val);
+            properties.put(Constants.PRIORITY_KEY_CHANNEL, val);
         } catch (UnknownID e) {
-            nameProperties.put(Constants.PRIORITY_KEY_CHANNEL, "");
+            properties.put(Constants.PRIORITY_KEY_CHANNEL, "");
         }
         try {
             String val = Replica.getReplicaFromId(Settings.get(CommonSettings.USE_REPLICA_ID)).getName();
-            nameProperties.put(Constants.PRIORITY_KEY_REPLICANAME, val);
+            properties.put(Constants.PRIORITY_KEY_REPLICANAME, val);
         } catch (UnknownID e) {
-            nameProperties.put(Constants.PRIORITY_KEY_REPLICANAME, "");
+            properties.put(Constants.PRIORITY_KEY_REPLICANAME, "");
         }
-
-        this.mBeanServer = mBeanServer;
+        return properties;
     }
 
     /**
@@ -27,6 +27,9 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -47,6 +50,17 @@ public final class ChecksumCalculator {
     /** Defines the SHA1 checksum algorithm */
     public static final String SHA1 = "SHA1";
 
+    /** The size of the direct buffers used for calculating several digests in one pass. */
+    private static final int DIRECT_BUFFER_SIZE = 1024 * 1024;
+
+    /** A direct buffer for each thread calculating several digests in one pass. */
+    private static final ThreadLocal<ByteBuffer> directBuffer = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(DIRECT_BUFFER_SIZE);
+        }
+    };
+
     /**
      * Calculate MD5 for a file.
      *
@@ -91,6 +105,35 @@ public final class ChecksumCalculator {
         }
     }
 
+    /**
+     * Calculate both the MD5 and the SHA-1 digest of a file in a single pass. The file is read through a large direct
+     * buffer, so it is only read once and not copied onto the heap.
+     *
+     * @param src The file to calculate the digests for.
+     * @return The MD5 and the SHA-1 digest of the file as Hex strings, in that order.
+     * @throws IOFailure If the file cannot be read.
+     */
+    public static String[] calculateMd5AndSha1(final File src) {
+        ArgumentNotValid.checkNotNull(src, "File src");
+        ArgumentNotValid.checkTrue(src.isFile(), "Argument should be a file");
+        final MessageDigest md5 = getMessageDigest(MD5);
+        final MessageDigest sha1 = getMessageDigest(SHA1);
+        final ByteBuffer buffer = directBuffer.get();
+        buffer.clear();
+        try (FileChannel channel = FileChannel.open(src.toPath(), StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                md5.update(buffer);
+                buffer.rewind();
+                sha1.update(buffer);
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Could not read file '" + src.getAbsolutePath() + "'", e);
+        }
+        return new String[] {toHex(md5.digest()), toHex(sha1.digest())};
+    }
+
     /**
      * Calculates an MD5 digest on an InputStream, throwing away the data itself. Throws Alert if there is an error
      * reading from the stream
@@ -23,6 +23,7 @@
 package dk.netarkivet.common.utils;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -31,18 +32,24 @@ import java.io.FileWriter;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.RandomAccessFile;
+import java.io.Writer;
 import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Set;
 
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -612,6 +619,81 @@ public class FileUtils {
         writeCollectionToFile(sortedOutput, lines);
     }
 
+    /**
+     * Merge files that are each sorted into one sorted file. Only the current line of each file is kept in memory, so
+     * this scales to files of any size. Lines are compared byte by byte, which is the order of UNIX sort with LC_ALL=C.
+     * If an input file is not sorted, all its lines are still written, though the output is then not sorted either.
+     *
+     * @param sortedFiles The sorted files to merge.
+     * @param sortedOutput The file to merge into.
+     * @return Whether all the input files were sorted, so the output is sorted.
+     * @throws ArgumentNotValid If either argument is null.
+     * @throws IOFailure If reading or writing fails.
+     */
+    public static boolean mergeSortedFiles(List<File> sortedFiles, File sortedOutput) {
+        ArgumentNotValid.checkNotNull(sortedFiles, "List<File> sortedFiles");
+        ArgumentNotValid.checkNotNull(sortedOutput, "File sortedOutput");
+        // ISO-8859-1 maps each byte to the char with the same value, so lines are copied unchanged and compared in
+        // byte order.
+        List<BufferedReader> readers = new ArrayList<BufferedReader>(sortedFiles.size());
+        boolean sorted = true;
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(sortedOutput),
+                StandardCharsets.ISO_8859_1))) {
+            PriorityQueue<MergeHead> heads = new PriorityQueue<MergeHead>(Math.max(1, sortedFiles.size()));
+            for (File sortedFile : sortedFiles) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(sortedFile),
+                        StandardCharsets.ISO_8859_1));
+                readers.add(reader);
+                String line = reader.readLine();
+                if (line != null) {
+                    heads.add(new MergeHead(line, readers.size(), reader));
+                }
+            }
+            while (!heads.isEmpty()) {
+                MergeHead head = heads.poll();
+                writer.write(head.line);
+                writer.write('\n');
+                String next = head.reader.readLine();
+                if (next != null) {
+                    sorted &= next.compareTo(head.line) >= 0;
+                    head.line = next;
+                    heads.add(head);
+                }
+            }
+        } catch (IOException e) {
+            String errMsg = "Error merging sorted files " + sortedFiles + " into '" + sortedOutput + "'";
+            log.warn(errMsg, e);
+            throw new IOFailure(errMsg, e);
+        } finally {
+            for (BufferedReader reader : readers) {
+                IOUtils.closeQuietly(reader);
+            }
+        }
+        return sorted;
+    }
+
+    /** The current line of a file being merged by {@link #mergeSortedFiles(List, File)}. */
+    private static final class MergeHead implements Comparable<MergeHead> {
+        /** The current line of the file. */
+        private String line;
+        /** The index of the file, so equal lines are merged in the order of the files. */
+        private final int index;
+        /** The reader of the file. */
+        private final BufferedReader reader;
+
+        private MergeHead(String line, int index, BufferedReader reader) {
+            this.line = line;
+            this.index = index;
+            this.reader = reader;
+        }
+
+        @Override
+        public int compareTo(MergeHead other) {
+            int cmp = line.compareTo(other.line);
+            return cmp != 0 ? cmp : Integer.compare(index, other.index);
+        }
+    }
+
     /**
      * Remove a line from a given file.
      *
@@ -28,7 +28,15 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipEntry;
@@ -38,6 +46,7 @@ import java.util.zip.ZipOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.common.Constants;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 
@@ -148,26 +157,75 @@ public final class ZipUtils {
      * operation is not successful, the directory will not be created.
      */
     public static void gzipFiles(File fromDir, File toDir) {
+        gzipFiles(fromDir, toDir, 1, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * GZip each of the files in fromDir, placing the result in toDir (which will be created) with names having .gz
+     * appended, compressing a number of files at a time. The files are compressed for speed rather than size. All
+     * non-file (directory, link, etc) entries in the source directory will be skipped with a quiet little log message.
+     *
+     * @param fromDir An existing directory
+     * @param toDir A directory where gzipped files will be placed. This directory must not previously exist. If the
+     * operation is not successful, the directory will not be created.
+     * @param threads The number of files to compress at a time.
+     * @throws IOFailure If compressing any of the files fails.
+     */
+    public static void gzipFiles(File fromDir, File toDir, int threads) {
+        gzipFiles(fromDir, toDir, threads, Deflater.BEST_SPEED);
+    }
+
+    /**
+     * GZip each of the files in fromDir into toDir, a number of files at a time.
+     *
+     * @param fromDir An existing directory
+     * @param toDir A directory where gzipped files will be placed. This directory must not previously exist. If the
+     * operation is not successful, the directory will not be created.
+     * @param threads The number of files to compress at a time.
+     * @param level The compression level, from {@link Deflater}.
+     * @throws IOFailure If compressing any of the files fails.
+     */
+    private static void gzipFiles(File fromDir, File toDir, int threads, final int level) {
         ArgumentNotValid.checkNotNull(fromDir, "File fromDir");
         ArgumentNotValid.checkNotNull(toDir, "File toDir");
         ArgumentNotValid.checkTrue(fromDir.isDirectory(), "source '" + fromDir + "' must be an existing directory");
         ArgumentNotValid.checkTrue(!toDir.exists(), "destination directory '" + toDir + "' must not exist");
+        ArgumentNotValid.checkPositive(threads, "int threads");
 
         File tmpDir = null;
+        ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
         try {
             tmpDir = FileUtils.createUniqueTempDir(toDir.getAbsoluteFile().getParentFile(), toDir.getName());
+            final File targetDir = tmpDir;
             File[] fromFiles = fromDir.listFiles();
-            for (File f : fromFiles) {
-                if (f.isFile()) {
-                    gzipFileInto(f, tmpDir);
-                } else {
+            List<CompletableFuture<Void>> compressions = new ArrayList<CompletableFuture<Void>>(fromFiles.length);
+            for (final File f : fromFiles) {
+                if (!f.isFile()) {
                     log.trace("Skipping non-file '{}'", f);
+                } else if (executor == null) {
+                    gzipFileInto(f, targetDir, level);
+                } else {
+                    compressions.add(CompletableFuture.runAsync(() -> gzipFileInto(f, targetDir, level), executor));
+                }
+            }
+            for (CompletableFuture<Void> compression : compressions) {
+                try {
+                    compression.join();
+                } catch (CompletionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new IOFailure("Error while gzipping files in '" + fromDir + "'", e.getCause());
                 }
             }
             if (!tmpDir.renameTo(toDir)) {
                 throw new IOFailure("Failed to rename temp dir '" + tmpDir + "' to desired target '" + toDir + "'");
             }
         } finally {
+            if (executor != null) {
+                // After a failure the other files may still be being written, so wait for them before removing them.
+                shutdownAndWait(executor);
+            }
             if (tmpDir != null) {
                 try {
                     FileUtils.removeRecursively(tmpDir);
@@ -178,18 +236,39 @@ public final class ZipUtils {
         }
     }
 
+    /**
+     * Stop the tasks of an executor that have not started, and wait for the running ones to finish.
+     *
+     * @param executor An executor.
+     */
+    private static void shutdownAndWait(ExecutorService executor) {
+        executor.shutdownNow();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.debug("Waiting for running tasks to finish");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * GZip a file into a given dir. The resulting file will have .gz appended.
      *
      * @param f A file to gzip. This must be a real file, not a directory or the like.
      * @param toDir The directory that the gzipped file will be placed in.
+     * @param level The compression level, from {@link Deflater}.
      */
-    private static void gzipFileInto(File f, File toDir) {
+    private static void gzipFileInto(File f, File toDir, final int level) {
         try {
             GZIPOutputStream out = null;
             try {
                 File outF = new File(toDir, f.getName() + GZIP_SUFFIX);
-                out = new GZIPOutputStream(new FileOutputStream(outF));
+                out = new GZIPOutputStream(new FileOutputStream(outF), Constants.IO_BUFFER_SIZE) {
+                    {
+                        def.setLevel(level);
+                    }
+                };
                 FileUtils.writeFileToStream(f, out);
             } finally {
                 if (out != null) {
@@ -207,6 +286,30 @@ public final class ZipUtils {
         }
     }
 
+    /**
+     * Gunzip a gzipped stream into the given file as it is read. The rest of the stream after the gzipped data is read
+     * and discarded, so a stream that verifies its contents on close sees all of it. The stream is not closed.
+     *
+     * @param in A stream of gzipped data.
+     * @param toFile The file that the contents of the stream should be gunzipped into. This file must be in an existing
+     * directory. Existing contents of this file will be overwritten.
+     * @throws IOFailure if there are any problems gunzipping.
+     */
+    public static void gunzipStream(InputStream in, File toFile) {
+        ArgumentNotValid.checkNotNull(in, "InputStream in");
+        ArgumentNotValid.checkNotNull(toFile, "File toFile");
+        try {
+            GZIPInputStream gzIn = new LargeFileGZIPInputStream(in);
+            FileUtils.writeStreamToFile(gzIn, toFile);
+            byte[] buffer = new byte[Constants.IO_BUFFER_SIZE];
+            while (in.read(buffer) != -1) {
+                // Drain the rest of the stream.
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Error ungzipping stream into '" + toFile + "'", e);
+        }
+    }
+
     /**
      * Gunzip all .gz files in a given directory into another. Files in fromDir not ending in .gz or not real files will
      * be skipped with a log entry.
@@ -50,12 +50,39 @@ public class ChecksumJob extends FileBatchJob {
      */
     public static final String STRING_FILENAME_SEPARATOR = "##";
 
+    /**
+     * Where the checksums are taken from, if set by the application running the job. Not serialized, so a job sent
+     * to a bitarchive only uses the source set there.
+     */
+    private transient ChecksumSource checksumSource;
+
     /** The constructor. */
     public ChecksumJob() {
         // Keep the batchJobTimeout at default (-1) so it will be overridden
         // by the settings for default batch timeout.
     }
 
+    /**
+     * Provides the MD5 checksums of files, e.g. from a cache of recently verified checksums.
+     */
+    public interface ChecksumSource {
+        /**
+         * @param file A file.
+         * @return The MD5 checksum of the file as a 32 characters long Hex string.
+         * @throws IOFailure If the checksum cannot be calculated.
+         */
+        String getMd5(File file) throws IOFailure;
+    }
+
+    /**
+     * Set where the checksums are taken from, instead of calculating the checksum of every file.
+     *
+     * @param checksumSource The source of the checksums, or null to calculate the checksum of every file.
+     */
+    public void setChecksumSource(ChecksumSource checksumSource) {
+        this.checksumSource = checksumSource;
+    }
+
     /**
      * Initialization of a ChecksumJob: a new structure for storing files failed is created.
      *
@@ -77,8 +104,9 @@ public class ChecksumJob extends FileBatchJob {
     public boolean processFile(File file, OutputStream os) {
         ArgumentNotValid.checkNotNull(file, "file");
         try {
-            os.write((file.getName() + STRING_FILENAME_SEPARATOR + ChecksumCalculator.calculateMd5(file) + "\n")
-                    .getBytes());
+            String checksum = checksumSource == null ? ChecksumCalculator.calculateMd5(file)
+                    : checksumSource.getMd5(file);
+            os.write((file.getName() + STRING_FILENAME_SEPARATOR + checksum + "\n").getBytes());
         } catch (IOException e) {
             log.warn("Checksumming of file {} failed: ", file.getName(), e);
             return false;
@@ -95,6 +123,30 @@ public class ChecksumJob extends FileBatchJob {
     public void finish(OutputStream os) {
     }
 
+    /**
+     * The output has one line per file, starting with the filename.
+     *
+     * @return true
+     * @see FileBatchJob#hasSortedOutput()
+     */
+    @Override
+    public boolean hasSortedOutput() {
+        return true;
+    }
+
+    /**
+     * The lines start with the filename and the separator.
+     *
+     * @param file A file to process.
+     * @return The filename followed by {@link #STRING_FILENAME_SEPARATOR}.
+     * @see FileBatchJob#getSortedOutputKey(File)
+     */
+    @Override
+    public String getSortedOutputKey(File file) {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        return file.getName() + STRING_FILENAME_SEPARATOR;
+    }
+
     /**
      * Create a line in checksum job format from a filename and a checksum.
      *
@@ -189,6 +189,33 @@ public abstract class FileBatchJob implements Serializable {
         return exceptions;
     }
 
+    /**
+     * Whether the output of this job consists of one line per file, starting with {@link #getSortedOutputKey(File)}.
+     * If so, bitarchives process the files in the byte order of those keys, so their lines are sorted, and the results
+     * of the bitarchives are merged into one sorted result instead of being concatenated. This is intended to be
+     * overridden by batchjobs writing one line per file, starting with the filename.
+     *
+     * @return Whether the output of this job is sorted by filename.
+     */
+    public boolean hasSortedOutput() {
+        return false;
+    }
+
+    /**
+     * The start of the line of output for a file, for jobs with sorted output. Lines are merged in byte order, so the
+     * key must include whatever follows the filename on the line: a file whose name is the start of another name does
+     * not always come first, e.g. "x!##..." comes before "x##...". This is intended to be overridden by batchjobs
+     * writing a separator after the filename.
+     *
+     * @param file A file to process.
+     * @return The start of the line written for the file. The filename by default.
+     * @see #hasSortedOutput()
+     */
+    public String getSortedOutputKey(File file) {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        return file.getName();
+    }
+
     /**
      * Processes the concatenated result files. This is intended to be overridden by batchjobs, who they wants a
      * different post-processing process than concatenation.
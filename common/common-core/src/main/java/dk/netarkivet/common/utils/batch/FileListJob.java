@@ -96,6 +96,17 @@ public class FileListJob extends FileBatchJob {
     public void finish(OutputStream os) {
     }
 
+    /**
+     * The output has one line per file, starting with the filename.
+     *
+     * @return true
+     * @see FileBatchJob#hasSortedOutput()
+     */
+    @Override
+    public boolean hasSortedOutput() {
+        return true;
+    }
+
     /**
      * Return a human-readable representation of a FileListJob.
      *
@@ -23,6 +23,7 @@
 package dk.netarkivet.common.utils.cdx;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.Map;
@@ -61,7 +62,7 @@ public class ArchiveExtractCDXJob extends ArchiveBatchJob {
     private static final String[] STD_FIELDS_INCL_CHECKSUM = {"A", "e", "b", "m", "n", "g", "v", "c"};
 
     /** Buffer size used to read the http header. */
-    private int HTTP_HEADER_BUFFER_SIZE = 1024 * 1024;
+    private static final int HTTP_HEADER_BUFFER_SIZE = 1024 * 1024;
 
     /** The fields to be included in CDX output. */
     private String[] fields;
@@ -116,19 +117,46 @@ public class ArchiveExtractCDXJob extends ArchiveBatchJob {
     @Override
     public void processRecord(ArchiveRecordBase record, OutputStream os) {
         log.trace("Processing Archive Record with offset: {}", record.getHeader().getOffset());
+        ArchiveHeaderBase header = record.getHeader();
+        String line = createCDXLine(header.getUrl(), header.getIp(), header.getArcDateStr(), header.getLength(),
+                header.getArchiveFile().getName(), header.getOffset(), header.getMimetype(), record.getInputStream(),
+                includeChecksum);
+        try {
+            os.write(line.getBytes("UTF-8"));
+        } catch (IOException e) {
+            throw new IOFailure("Error writing CDX line '" + line + "' to batch outstream", e);
+        }
+    }
+
+    /**
+     * Create the CDX line for a record. This is the line written by this job for the record, for use where the values
+     * are known without reading the record from an archive file, e.g. while the record is written.
+     *
+     * @param url The URL of the record.
+     * @param ip The IP address the record was fetched from, or null.
+     * @param arcDate The date of the record in the ARC format, yyyyMMddHHmmss.
+     * @param length The length of the record block.
+     * @param filename The name of the archive file.
+     * @param offset The offset of the record in the archive file.
+     * @param mimeType The content type of the record.
+     * @param block The record block, read up to the end of the HTTP header, or to the end if includeChecksum is true.
+     * @param includeChecksum If true, the MD5 checksum of the payload is included.
+     * @return The CDX line, ending with a newline.
+     * @throws IOFailure on trouble reading the record block
+     */
+    public static String createCDXLine(String url, String ip, String arcDate, long length, String filename,
+            long offset, String mimeType, InputStream block, boolean includeChecksum) {
         /*
          * Fields are stored in a map so that it's easy to pull them out when looking at the fieldarray.
          */
-        ArchiveHeaderBase header = record.getHeader();
         Map<String, String> fieldsread = new HashMap<String, String>();
-        fieldsread.put("A", header.getUrl());
-        fieldsread.put("e", header.getIp());
-        fieldsread.put("b", header.getArcDateStr());
-        fieldsread.put("n", Long.toString(header.getLength()));
-        fieldsread.put("g", record.getHeader().getArchiveFile().getName());
-        fieldsread.put("v", Long.toString(record.getHeader().getOffset()));
-
-        String mimeType = header.getMimetype();
+        fieldsread.put("A", url);
+        fieldsread.put("e", ip);
+        fieldsread.put("b", arcDate);
+        fieldsread.put("n", Long.toString(length));
+        fieldsread.put("g", filename);
+        fieldsread.put("v", Long.toString(offset));
+
         String msgType;
         ContentType contentType = ContentType.parseContentType(mimeType);
         boolean bResponse = false;
@@ -144,11 +172,11 @@ public class ArchiveExtractCDXJob extends ArchiveBatchJob {
             }
             mimeType = contentType.toStringShort();
         }
-        ByteCountingPushBackInputStream pbin = new ByteCountingPushBackInputStream(record.getInputStream(), HTTP_HEADER_BUFFER_SIZE);
+        ByteCountingPushBackInputStream pbin = new ByteCountingPushBackInputStream(block, HTTP_HEADER_BUFFER_SIZE);
         HttpHeader httpResponse = null;
         if (bResponse) {
             try {
-                httpResponse = HttpHeader.processPayload(HttpHeader.HT_RESPONSE, pbin, header.getLength(), null);
+                httpResponse = HttpHeader.processPayload(HttpHeader.HT_RESPONSE, pbin, length, null);
                 if (httpResponse != null && httpResponse.contentType != null) {
                     contentType = ContentType.parseContentType(httpResponse.contentType);
                     if (contentType != null) {
@@ -176,7 +204,7 @@ public class ArchiveExtractCDXJob extends ArchiveBatchJob {
             }
         }
 
-        printFields(fieldsread, os);
+        return formatFields(fieldsread, includeChecksum ? STD_FIELDS_INCL_CHECKSUM : STD_FIELDS_EXCL_CHECKSUM);
     }
 
     /**
@@ -189,12 +217,13 @@ public class ArchiveExtractCDXJob extends ArchiveBatchJob {
     }
 
     /**
-     * Print the values found for a set of fields. Prints the '-' character for any null values.
+     * Format the values found for a set of fields. Uses the '-' character for any null values.
      *
      * @param fieldsread A hashtable of values indexed by field letters
-     * @param outstream The outputstream to write the values to
+     * @param fields The fields to include, in order
+     * @return The values separated by spaces, ending with a newline
      */
-    private void printFields(Map<String, String> fieldsread, OutputStream outstream) {
+    private static String formatFields(Map<String, String> fieldsread, String[] fields) {
         StringBuffer sb = new StringBuffer();
 
         for (int i = 0; i < fields.length; i++) {
@@ -203,11 +232,7 @@ public class ArchiveExtractCDXJob extends ArchiveBatchJob {
             sb.append((o == null) ? "-" : o.toString());
         }
         sb.append("\n");
-        try {
-            outstream.write(sb.toString().getBytes("UTF-8"));
-        } catch (IOException e) {
-            throw new IOFailure("Error writing CDX line '" + sb + "' to batch outstream", e);
-        }
+        return sb.toString();
     }
 
     /**
@@ -96,7 +96,6 @@ public class CDXUtils {
             throw new ArgumentNotValid("The directory for cdx files '" + archiveFileDirectory
                     + "' is not a writable directory");
         }
-        Map<File, Exception> exceptions = new HashMap<File, Exception>();
         File[] filesToProcess = archiveFileDirectory.listFiles(archiveProfile.filename_filter);
         if (filesToProcess.length == 0) {
             log.warn("Found no related arcfiles to process in the archive dir '{}'.",
@@ -105,6 +104,21 @@ public class CDXUtils {
             log.debug("Found {} related arcfiles to process in the archive dir '{}'.", filesToProcess.length,
                     archiveFileDirectory.getAbsolutePath());
         }
+        generateCDX(filesToProcess, cdxFileDirectory);
+    }
+
+    /**
+     * Applies createCDXRecord() to the given ARC/WARC files, creating one CDX file per ARC/WARC file, as
+     * {@link #generateCDX(ArchiveProfile, File, File)} does for all the files in a directory.
+     *
+     * @param filesToProcess The archive files to generate index for
+     * @param cdxFileDirectory An existing, writable directory to generate CDX files in
+     * @throws ArgumentNotValid if either argument is null.
+     */
+    public static void generateCDX(File[] filesToProcess, File cdxFileDirectory) throws ArgumentNotValid {
+        ArgumentNotValid.checkNotNull(filesToProcess, "File[] filesToProcess");
+        ArgumentNotValid.checkNotNull(cdxFileDirectory, "File cdxFileDirectory");
+        Map<File, Exception> exceptions = new HashMap<File, Exception>();
         for (File arcfile : filesToProcess) {
             File cdxfile = new File(cdxFileDirectory, arcfile.getName() + FileUtils.CDX_EXTENSION);
             try {
@@ -4,11 +4,15 @@ import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Enumeration;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.Optional;
@@ -249,6 +253,53 @@ public class HadoopJobUtils {
         log.info("Finished collection of hadoop output from {}", outputFolder);
     }
 
+    /**
+     * Open the output files of a job at a specified path as a single stream. The files are opened one at a time as
+     * the stream is read, so the output can be processed without first copying it to local disk.
+     * @param fileSystem The filesystem that the result is read from.
+     * @param outputFolder The output folder to find the job result files in.
+     * @return A stream of the concatenated contents of the output files.
+     * @throws IOException If the output folder cannot be listed.
+     */
+    public static InputStream openOutputFiles(final FileSystem fileSystem, Path outputFolder) throws IOException {
+        final List<Path> outputFiles = new ArrayList<>();
+        RemoteIterator<LocatedFileStatus> iterator = fileSystem.listFiles(outputFolder, false);
+        while (iterator.hasNext()) {
+            Path subPath = iterator.next().getPath();
+            if (subPath.getName().startsWith("part-m")) {
+                outputFiles.add(subPath);
+            }
+        }
+        return openInSequence(fileSystem, outputFiles);
+    }
+
+    /**
+     * Open a list of files as a single stream. Each file is opened only when the previous one has been read.
+     * @param fileSystem The filesystem the files are on.
+     * @param files The files to read.
+     * @return A stream of the concatenated contents of the files.
+     */
+    public static InputStream openInSequence(final FileSystem fileSystem, final List<Path> files) {
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasMoreElements() {
+                return next < files.size();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                Path file = files.get(next++);
+                try {
+                    return fileSystem.open(file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Could not open '" + file + "'", e);
+                }
+            }
+        });
+    }
+
     /**
      * TODO now here's some code that would look better with streams
      * Converts a list of CDX line strings to a list of CDXRecords
@@ -0,0 +1,343 @@
+package dk.netarkivet.common.utils.hadoop;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.common.utils.SettingsFactory;
+import dk.netarkivet.common.utils.service.FileResolver;
+import dk.netarkivet.common.utils.service.SimpleFileResolver;
+
+/**
+ * Wrapper for a Hadoop job covering the files of many harvest jobs at once. Where {@link HadoopJob} pays the cost of
+ * a job submission for every harvest job, this class resolves the files for a whole set of harvest jobs with one
+ * lookup, tags every input line with the harvest job it belongs to, and lets a {@link MultiJobMapper} partition the
+ * output per harvest job.
+ * <p>
+ * The files belonging to a harvest job are the ones whose names match {@code (.*-)?<jobID>(-.*)?<suffix>}, i.e. the
+ * same pattern as used by the single job extraction.
+ */
+public class MultiJobHadoopJob {
+    private static final Logger log = LoggerFactory.getLogger(MultiJobHadoopJob.class);
+
+    /** The separator between the harvest job ID and the file path in the lines of the job input file. */
+    public static final String INPUT_LINE_SEPARATOR = "\t";
+
+    private final HadoopJobStrategy jobStrategy;
+    private final String jobType;
+    private final Set<Long> jobIDs;
+    private final Set<Long> jobsWithInput = new TreeSet<>();
+
+    private Path jobInputFile;
+    private Path jobOutputDir;
+    private String filenameSuffix = "";
+    private int fileCount = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param jobIDs The IDs of the harvest jobs covered by this Hadoop job.
+     * @param jobStrategy Strategy specifying how to run the job. The mapper used must be a {@link MultiJobMapper}.
+     */
+    public MultiJobHadoopJob(Collection<Long> jobIDs, HadoopJobStrategy jobStrategy) {
+        ArgumentNotValid.checkNotNullOrEmpty(jobIDs, "Collection<Long> jobIDs");
+        ArgumentNotValid.checkNotNull(jobStrategy, "HadoopJobStrategy jobStrategy");
+        this.jobIDs = new TreeSet<>(jobIDs);
+        this.jobStrategy = jobStrategy;
+        jobType = jobStrategy.getJobType();
+    }
+
+    /**
+     * Changes the filename suffix used when getting the files for the job's input. By default any file with the job
+     * ID as a '-' separated part of the filename is used.
+     *
+     * @param filenameSuffix Regular expression that the filenames must end with, e.g. the metadata file suffix.
+     */
+    public void processOnlyFilesMatchingSuffix(String filenameSuffix) {
+        ArgumentNotValid.checkNotNull(filenameSuffix, "String filenameSuffix");
+        this.filenameSuffix = filenameSuffix;
+    }
+
+    /**
+     * Prepare the job output and input by getting the relevant files for all the harvest jobs from the fileresolver
+     * in a single lookup, and writing them prefixed with the harvest job ID they belong to into the input file.
+     *
+     * @param fileSystem The Hadoop FileSystem used.
+     */
+    public void prepareJobInputOutput(FileSystem fileSystem) {
+        UUID uuid = UUID.randomUUID();
+        jobInputFile = jobStrategy.createJobInputFile(uuid);
+        jobOutputDir = jobStrategy.createJobOutputDir(uuid);
+        if (jobInputFile == null || jobOutputDir == null) {
+            log.error("Failed initializing input/output for {} job covering {} harvest jobs with uuid '{}'",
+                    jobType, jobIDs.size(), uuid);
+            throw new IOFailure("Failed preparing job: failed initializing job input/output directory");
+        }
+
+        FileResolver fileResolver = SettingsFactory.getInstance(CommonSettings.FILE_RESOLVER_CLASS);
+        if (fileResolver instanceof SimpleFileResolver) {
+            String pillarParentDir = Settings.get(CommonSettings.HADOOP_MAPRED_INPUT_FILES_PARENT_DIR);
+            ((SimpleFileResolver) fileResolver).setDirectory(Paths.get(pillarParentDir));
+        }
+        String combinedPattern = getCombinedFilenamePattern(jobIDs, filenameSuffix);
+        List<java.nio.file.Path> filePaths = fileResolver.getPaths(Pattern.compile(combinedPattern));
+        Map<Long, List<java.nio.file.Path>> filesPerJob = assignFilesToJobs(jobIDs, filePaths, filenameSuffix);
+        jobsWithInput.addAll(filesPerJob.keySet());
+        log.info("{} found {} file(s) for {} of {} harvest jobs to add to input file for {} job",
+                fileResolver.getClass().getName(), filePaths.size(), jobsWithInput.size(), jobIDs.size(), jobType);
+
+        java.nio.file.Path localInputTempFile = HadoopFileUtils.makeLocalInputTempFile();
+        try {
+            fileCount = writeInputLines(filesPerJob, localInputTempFile);
+        } catch (IOException e) {
+            log.error("Failed writing filepaths to '{}' for {} job", localInputTempFile, jobType);
+            throw new IOFailure("Failed preparing job: failed to write job input to input file", e);
+        }
+        if (fileCount == 0) {
+            log.warn("Zero input files found for {} job covering jobs {}. Proceeding with caution.", jobType, jobIDs);
+        }
+        log.info("Copying file with input paths '{}' to job input path '{}' for {} job.",
+                localInputTempFile, jobInputFile, jobType);
+        try {
+            fileSystem.copyFromLocalFile(true, new Path(localInputTempFile.toAbsolutePath().toString()),
+                    jobInputFile);
+        } catch (IOException e) {
+            log.error("Failed copying local input '{}' to job input path '{}' on filesystem '{}'",
+                    localInputTempFile, jobInputFile, fileSystem);
+            throw new IOFailure("Failed preparing job: failed copying input to job input path", e);
+        }
+    }
+
+    /**
+     * Runs the Hadoop job according to the used strategy.
+     */
+    public void run() {
+        log.info("Starting {} job for {} harvest jobs on {} file(s)", jobType, jobIDs.size(), fileCount);
+        int exitCode = jobStrategy.runJob(jobInputFile, jobOutputDir);
+        if (exitCode == 0) {
+            log.info("{} job for {} harvest jobs was a success!", jobType, jobIDs.size());
+        } else {
+            log.warn("{} job for harvest jobs {} failed with exit code '{}'", jobType, jobIDs, exitCode);
+            throw new IOFailure("Hadoop job failed with exit code " + exitCode);
+        }
+    }
+
+    /**
+     * Copy the output written for one harvest job and output type to the given stream.
+     *
+     * @param fileSystem The filesystem that the result is collected from.
+     * @param jobID The harvest job to collect output for.
+     * @param outputType The type of output, as given to {@link MultiJobMapper#write(long, String, String)}.
+     * @param outputStream The stream to copy the output to.
+     * @return true if the mapper wrote any output of this type for the harvest job.
+     * @throws IOException If the output cannot be read.
+     */
+    public boolean collectOutput(FileSystem fileSystem, long jobID, String outputType, OutputStream outputStream)
+            throws IOException {
+        List<Path> outputFiles = getOutputFiles(fileSystem, jobID, outputType);
+        try (InputStream in = HadoopJobUtils.openInSequence(fileSystem, outputFiles)) {
+            IOUtils.copy(in, outputStream);
+        }
+        return !outputFiles.isEmpty();
+    }
+
+    /**
+     * Open the output written for one harvest job and output type as a stream, so it can be processed without
+     * copying it first. If there is no output of this type, the stream is empty.
+     *
+     * @param fileSystem The filesystem that the result is read from.
+     * @param jobID The harvest job to read output for.
+     * @param outputType The type of output, as given to {@link MultiJobMapper#write(long, String, String)}.
+     * @return A stream of the output.
+     * @throws IOException If the output directory cannot be listed.
+     */
+    public InputStream openOutput(FileSystem fileSystem, long jobID, String outputType) throws IOException {
+        return HadoopJobUtils.openInSequence(fileSystem, getOutputFiles(fileSystem, jobID, outputType));
+    }
+
+    /**
+     * Find the output files written for one harvest job and output type.
+     *
+     * @return The output files, empty if there are none.
+     */
+    private List<Path> getOutputFiles(FileSystem fileSystem, long jobID, String outputType) throws IOException {
+        List<Path> outputFiles = new ArrayList<>();
+        Path outputPath = new Path(jobOutputDir, MultiJobMapper.getOutputDir(jobID, outputType));
+        if (fileSystem.exists(outputPath)) {
+            for (FileStatus status : fileSystem.listStatus(outputPath)) {
+                if (status.isFile() && status.getPath().getName().startsWith(MultiJobMapper.OUTPUT_FILE_PREFIX)) {
+                    outputFiles.add(status.getPath());
+                }
+            }
+        }
+        return outputFiles;
+    }
+
+    /**
+     * Remove the job output directory once all output has been collected.
+     *
+     * @param fileSystem The filesystem the job was run on.
+     */
+    public void cleanup(FileSystem fileSystem) {
+        if (jobOutputDir == null) {
+            return;
+        }
+        try {
+            fileSystem.delete(jobOutputDir, true);
+        } catch (IOException e) {
+            log.warn("Failed removing output directory '{}' of {} job", jobOutputDir, jobType, e);
+        }
+    }
+
+    /**
+     * @return The harvest jobs for which at least one input file was found.
+     */
+    public Set<Long> getJobsWithInput() {
+        return Collections.unmodifiableSet(jobsWithInput);
+    }
+
+    /**
+     * Get the output directory for the job.
+     *
+     * @return Path representing output directory.
+     */
+    public Path getJobOutputDir() {
+        return jobOutputDir;
+    }
+
+    /**
+     * Get what type of job is being run.
+     *
+     * @return The job type set by the job strategy used.
+     */
+    public String getJobType() {
+        return jobType;
+    }
+
+    /**
+     * Build a single filename pattern matching the files of all the given harvest jobs.
+     *
+     * @param jobIDs The harvest jobs.
+     * @param filenameSuffix The regular expression the filenames must end with.
+     * @return A pattern to give to the FileResolver.
+     */
+    static String getCombinedFilenamePattern(Collection<Long> jobIDs, String filenameSuffix) {
+        StringBuilder sb = new StringBuilder("(.*-)?(");
+        boolean first = true;
+        for (Long jobID : jobIDs) {
+            if (!first) {
+                sb.append('|');
+            }
+            sb.append(jobID);
+            first = false;
+        }
+        return sb.append(")(-.*)?").append(filenameSuffix).toString();
+    }
+
+    /**
+     * Distribute the resolved files among the harvest jobs. A file belongs to a harvest job if its name matches the
+     * single job pattern {@code (.*-)?<jobID>(-.*)?<suffix>}. Only the numbers found at the start of the filename or
+     * right after a '-' are candidates, so each file is only matched against the patterns of a few jobs.
+     *
+     * @param jobIDs The harvest jobs.
+     * @param filePaths The files found for the combined pattern.
+     * @param filenameSuffix The regular expression the filenames must end with.
+     * @return The files of each harvest job. Jobs without any files are left out.
+     */
+    static Map<Long, List<java.nio.file.Path>> assignFilesToJobs(Collection<Long> jobIDs,
+            List<java.nio.file.Path> filePaths, String filenameSuffix) {
+        Map<Long, Pattern> jobPatterns = new HashMap<>();
+        for (Long jobID : jobIDs) {
+            jobPatterns.put(jobID, Pattern.compile("(.*-)?" + jobID + "(-.*)?" + filenameSuffix));
+        }
+        Map<Long, List<java.nio.file.Path>> result = new TreeMap<>();
+        for (java.nio.file.Path filePath : filePaths) {
+            String filename = filePath.getFileName().toString();
+            for (long candidate : getCandidateJobIDs(filename)) {
+                Pattern jobPattern = jobPatterns.get(candidate);
+                if (jobPattern != null && jobPattern.matcher(filename).matches()) {
+                    List<java.nio.file.Path> jobFiles = result.get(candidate);
+                    if (jobFiles == null) {
+                        jobFiles = new ArrayList<>();
+                        result.put(candidate, jobFiles);
+                    }
+                    jobFiles.add(filePath);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Find the numbers in a filename that could be a job ID, i.e. digit runs at the start or right after a '-'.
+     *
+     * @param filename The filename to look in.
+     * @return The distinct candidate job IDs.
+     */
+    private static Set<Long> getCandidateJobIDs(String filename) {
+        Set<Long> candidates = new TreeSet<>();
+        int length = filename.length();
+        for (int i = 0; i < length; i++) {
+            if ((i == 0 || filename.charAt(i - 1) == '-') && Character.isDigit(filename.charAt(i))) {
+                int end = i;
+                while (end < length && Character.isDigit(filename.charAt(end))) {
+                    end++;
+                }
+                // Skip numbers too large to be a job ID
+                if (end - i < 19) {
+                    candidates.add(Long.parseLong(filename.substring(i, end)));
+                }
+                i = end - 1;
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Write the input lines "jobID&lt;tab&gt;file://path" to the given file.
+     *
+     * @param filesPerJob The files of each harvest job.
+     * @param inputFilePath The file to write to.
+     * @return The number of lines written.
+     * @throws IOException If the file cannot be written.
+     */
+    private static int writeInputLines(Map<Long, List<java.nio.file.Path>> filesPerJob,
+            java.nio.file.Path inputFilePath) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<Long, List<java.nio.file.Path>> jobFiles : filesPerJob.entrySet()) {
+            for (java.nio.file.Path file : jobFiles.getValue()) {
+                lines.add(jobFiles.getKey() + INPUT_LINE_SEPARATOR + "file://" + file.toString());
+            }
+        }
+        // Not writing newline on last line to avoid a mapper being spawned on no input
+        Files.write(inputFilePath, String.join("\n", lines).getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+        return lines.size();
+    }
+}
@@ -0,0 +1,113 @@
+package dk.netarkivet.common.utils.hadoop;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.utils.NamedThread;
+
+/**
+ * Base class for Hadoop mappers run by a {@link MultiJobHadoopJob}. Each line of the input is a harvest job ID and a
+ * file path separated by {@link MultiJobHadoopJob#INPUT_LINE_SEPARATOR}. Subclasses process the file and write their
+ * output through {@link #write(long, String, String)}, which places it in a separate directory per harvest job and
+ * output type below the job's output directory.
+ */
+public abstract class MultiJobMapper extends Mapper<LongWritable, Text, NullWritable, Text> {
+    private static final Logger log = LoggerFactory.getLogger(MultiJobMapper.class);
+
+    /** The prefix of the output files written for each harvest job and output type. */
+    public static final String OUTPUT_FILE_PREFIX = "part";
+
+    /** Writer for the per harvest job outputs. */
+    private MultipleOutputs<NullWritable, Text> multipleOutputs;
+    /** Reused output value. */
+    private final Text outputLine = new Text();
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+        super.setup(context);
+        multipleOutputs = new MultipleOutputs<>(context);
+    }
+
+    /**
+     * Mapping method. Splits the input line into harvest job ID and file path and hands them to
+     * {@link #processFile(long, Path, Context)}.
+     *
+     * @param lineNumber The current line number of the input file (is ignored).
+     * @param inputLine The harvest job ID and path to the input file.
+     * @param context Context used for writing output.
+     */
+    @Override
+    protected void map(LongWritable lineNumber, Text inputLine, Context context)
+            throws IOException, InterruptedException {
+        // reject empty or null input lines.
+        if (inputLine == null || inputLine.toString().trim().isEmpty()) {
+            return;
+        }
+        String line = inputLine.toString().trim();
+        int separatorIndex = line.indexOf(MultiJobHadoopJob.INPUT_LINE_SEPARATOR);
+        if (separatorIndex <= 0) {
+            log.warn("Ignoring malformed input line '{}'", line);
+            return;
+        }
+        long jobID = Long.parseLong(line.substring(0, separatorIndex));
+        Path path = new Path(line.substring(separatorIndex + 1));
+        try (NamedThread ignored = NamedThread.postfix(path.getName())) {
+            log.info("Mapper processing {} for job {}", path, jobID);
+            processFile(jobID, path, context);
+        }
+    }
+
+    /**
+     * Process one input file belonging to the given harvest job.
+     *
+     * @param jobID The harvest job the file belongs to.
+     * @param path The path to the input file.
+     * @param context The mapping context.
+     * @throws IOException If the file cannot be processed.
+     * @throws InterruptedException If interrupted while writing output.
+     */
+    protected abstract void processFile(long jobID, Path path, Context context)
+            throws IOException, InterruptedException;
+
+    /**
+     * Write a line of output for the given harvest job.
+     *
+     * @param jobID The harvest job the line belongs to.
+     * @param outputType The type of output, e.g. "metadata". Must be usable as a directory name.
+     * @param line The line to write.
+     * @throws IOException If the output cannot be written.
+     * @throws InterruptedException If interrupted while writing.
+     */
+    protected void write(long jobID, String outputType, String line) throws IOException, InterruptedException {
+        outputLine.set(line);
+        multipleOutputs.write(NullWritable.get(), outputLine,
+                getOutputDir(jobID, outputType) + "/" + OUTPUT_FILE_PREFIX);
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+        if (multipleOutputs != null) {
+            multipleOutputs.close();
+        }
+        super.cleanup(context);
+    }
+
+    /**
+     * Get the directory, relative to the job output directory, holding the output of the given type for a harvest job.
+     *
+     * @param jobID The harvest job.
+     * @param outputType The type of output.
+     * @return The relative directory.
+     */
+    public static String getOutputDir(long jobID, String outputType) {
+        return jobID + "/" + outputType;
+    }
+}
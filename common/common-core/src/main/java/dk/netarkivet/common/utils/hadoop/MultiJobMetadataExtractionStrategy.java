@@ -0,0 +1,86 @@
+package dk.netarkivet.common.utils.hadoop;
+
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.ToolRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.utils.Settings;
+
+/**
+ * Strategy to give a {@link MultiJobHadoopJob} when wanting to extract selected content from the metadata files of
+ * many harvest jobs in one Hadoop job. The URL- and MIME-patterns, and optionally the migration patterns, are read
+ * from the used Configuration as described in {@link MultiJobMetadataMapper}.
+ */
+public class MultiJobMetadataExtractionStrategy implements HadoopJobStrategy {
+    private final Logger log = LoggerFactory.getLogger(MultiJobMetadataExtractionStrategy.class);
+    private final int jobCount;
+    private final FileSystem fileSystem;
+    private final Configuration hadoopConf;
+    private final Pattern urlPattern;
+    private final Pattern mimePattern;
+
+    /**
+     * Constructor.
+     *
+     * @param jobCount The number of harvest jobs covered. Only used for logging.
+     * @param fileSystem The Hadoop FileSystem used.
+     */
+    public MultiJobMetadataExtractionStrategy(int jobCount, FileSystem fileSystem) {
+        this.jobCount = jobCount;
+        this.fileSystem = fileSystem;
+        hadoopConf = fileSystem.getConf();
+        int totalMemory = Settings.getInt(CommonSettings.HADOOP_MAP_MEMORY_MB);
+        int totalCores = Settings.getInt(CommonSettings.HADOOP_MAP_MEMORY_CORES);
+        HadoopJobUtils.setMapMemory(hadoopConf, totalMemory);
+        HadoopJobUtils.setMapCoresPerTask(hadoopConf, totalCores);
+        HadoopJobUtils.enableMapOnlyUberTask(hadoopConf, totalMemory, totalCores);
+        HadoopJobUtils.configureCaching(hadoopConf);
+        urlPattern = hadoopConf.getPattern(GetMetadataMapper.URL_PATTERN, Pattern.compile(".*"));
+        mimePattern = hadoopConf.getPattern(GetMetadataMapper.MIME_PATTERN, Pattern.compile(".*"));
+        HadoopJobUtils.setBatchQueue(hadoopConf);
+    }
+
+    @Override
+    public int runJob(Path jobInputFile, Path jobOutputDir) {
+        int exitCode;
+        try {
+            log.info("URL/MIME patterns used for metadata extraction of {} jobs are '{}' and '{}'. Migration url "
+                    + "pattern is '{}'", jobCount, urlPattern, mimePattern,
+                    hadoopConf.get(MultiJobMetadataMapper.MIGRATION_URL_PATTERN));
+            exitCode = ToolRunner.run(new HadoopJobTool(hadoopConf, new MultiJobMetadataMapper()),
+                    new String[] {jobInputFile.toString(), jobOutputDir.toString()});
+        } catch (Exception e) {
+            log.warn("Metadata extraction job for {} jobs failed to run normally.", jobCount, e);
+            exitCode = 1;
+        }
+        return exitCode;
+    }
+
+    @Override
+    public Path createJobInputFile(UUID uuid) {
+        Path jobInputFile = HadoopFileUtils.createUniquePathInDir(
+                fileSystem, Settings.get(CommonSettings.HADOOP_MAPRED_METADATA_EXTRACTIONJOB_INPUT_DIR), uuid);
+        log.info("Input file for metadata extraction of {} jobs will be '{}'", jobCount, jobInputFile);
+        return jobInputFile;
+    }
+
+    @Override
+    public Path createJobOutputDir(UUID uuid) {
+        Path jobOutputDir = HadoopFileUtils.createUniquePathInDir(
+                fileSystem, Settings.get(CommonSettings.HADOOP_MAPRED_METADATA_EXTRACTIONJOB_OUTPUT_DIR), uuid);
+        log.info("Output directory for metadata extraction of {} jobs is '{}'", jobCount, jobOutputDir);
+        return jobOutputDir;
+    }
+
+    @Override
+    public String getJobType() {
+        return "MULTI JOB METADATA EXTRACTION";
+    }
+}
@@ -0,0 +1,111 @@
+package dk.netarkivet.common.utils.hadoop;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.archive.io.ArchiveReader;
+import org.archive.io.ArchiveReaderFactory;
+import org.archive.io.ArchiveRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.utils.archive.ArchiveHeaderBase;
+import dk.netarkivet.common.utils.archive.ArchiveRecordBase;
+
+/**
+ * Hadoop Mapper extracting metadata entries from the metadata files of many harvest jobs in one pass. It is the
+ * multi job counterpart of {@link GetMetadataMapper} and uses the same URL and MIME patterns. If a migration URL
+ * pattern is configured, matching records (typically the duplicationmigration records) are written to a separate
+ * output for the job, so the crawl log and its migration data are extracted in the same pass.
+ */
+public class MultiJobMetadataMapper extends MultiJobMapper {
+    private static final Logger log = LoggerFactory.getLogger(MultiJobMetadataMapper.class);
+
+    /** Configuration key for the URL pattern of migration records. If unset, no migration output is written. */
+    public static final String MIGRATION_URL_PATTERN = "migration.url.pattern";
+    /** Configuration key for the MIME pattern of migration records. */
+    public static final String MIGRATION_MIME_PATTERN = "migration.mime.pattern";
+
+    /** The output type of the lines from records matching the URL and MIME patterns. */
+    public static final String METADATA_OUTPUT = "metadata";
+    /** The output type of the lines from records matching the migration patterns. */
+    public static final String MIGRATION_OUTPUT = "migration";
+
+    /** A regular expression object that matches everything. */
+    private final Pattern MATCH_ALL_PATTERN = Pattern.compile(".*");
+    /** The pattern for matching the urls. */
+    private Pattern urlMatcher;
+    /** The pattern for the mimetype matcher. */
+    private Pattern mimeMatcher;
+    /** The pattern for matching the urls of migration records, or null if no migration is done. */
+    private Pattern migrationUrlMatcher;
+    /** The pattern for matching the mimetype of migration records. */
+    private Pattern migrationMimeMatcher;
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+        super.setup(context);
+        Configuration conf = context.getConfiguration();
+        urlMatcher = conf.getPattern(GetMetadataMapper.URL_PATTERN, MATCH_ALL_PATTERN);
+        mimeMatcher = conf.getPattern(GetMetadataMapper.MIME_PATTERN, MATCH_ALL_PATTERN);
+        migrationUrlMatcher = conf.getPattern(MIGRATION_URL_PATTERN, null);
+        migrationMimeMatcher = conf.getPattern(MIGRATION_MIME_PATTERN, MATCH_ALL_PATTERN);
+        log.info("Setting up mapper for urls matching {} and mime-types matching {}. Migration urls matching {}.",
+                urlMatcher, mimeMatcher, migrationUrlMatcher);
+    }
+
+    @Override
+    protected void processFile(long jobID, Path path, Context context) throws IOException, InterruptedException {
+        path = HadoopFileUtils.replaceWithCachedPathIfEnabled(context, path);
+        FileSystem fs = path.getFileSystem(context.getConfiguration());
+        try (InputStream in = new BufferedInputStream(fs.open(path));
+                ArchiveReader archiveReader = ArchiveReaderFactory.get(path.getName(), in, true)) {
+            for (ArchiveRecord archiveRecord : archiveReader) {
+                context.progress();
+                ArchiveRecordBase record = ArchiveRecordBase.wrapArchiveRecord(archiveRecord);
+                ArchiveHeaderBase header = record.getHeader();
+                if (header.getUrl() == null) {
+                    continue;
+                }
+                boolean isMetadata = urlMatcher.matcher(header.getUrl()).matches()
+                        && mimeMatcher.matcher(header.getMimetype()).matches();
+                boolean isMigration = migrationUrlMatcher != null
+                        && migrationUrlMatcher.matcher(header.getUrl()).matches()
+                        && migrationMimeMatcher.matcher(header.getMimetype()).matches();
+                if (isMetadata || isMigration) {
+                    writeRecordLines(jobID, record, isMetadata, isMigration);
+                }
+            }
+        }
+        log.info("Finished map method for file {} of job {}", path, jobID);
+    }
+
+    /**
+     * Reads a record line by line and writes the lines to the matching outputs of the job.
+     *
+     * @param jobID The harvest job the record belongs to.
+     * @param record The current record.
+     * @param isMetadata Whether to write the lines to the metadata output.
+     * @param isMigration Whether to write the lines to the migration output.
+     */
+    private void writeRecordLines(long jobID, ArchiveRecordBase record, boolean isMetadata, boolean isMigration)
+            throws IOException, InterruptedException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(record.getInputStream()))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (isMetadata) {
+                    write(jobID, METADATA_OUTPUT, line);
+                }
+                if (isMigration) {
+                    write(jobID, MIGRATION_OUTPUT, line);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,403 @@
+/*
+ * #%L
+ * Netarchivesuite - common - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+
+package dk.netarkivet.common.distribute;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.ObjectMessage;
+import javax.jms.Queue;
+import javax.jms.QueueSession;
+import javax.jms.Session;
+import javax.jms.Topic;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.exceptions.NotImplementedException;
+import dk.netarkivet.common.utils.Settings;
+
+/**
+ * A JMS connection to a small broker in memory, for tests needing the delivery rules of a real broker: Each message on
+ * a queue is given to one of the consumers of the queue, each message on a topic to all consumers of the topic, and
+ * each session gives its consumers one message at a time, in a thread of its own. Only the parts of the JMS API used by
+ * JMSConnection are implemented, and only ObjectMessages are supported.
+ */
+public class JMSConnectionInMemoryMQ extends JMSConnection {
+
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(JMSConnectionInMemoryMQ.class);
+
+    /** The queues, by name. The messages of a queue are shared by its consumers. */
+    private final Map<String, BlockingQueue<Message>> queues = new ConcurrentHashMap<String, BlockingQueue<Message>>();
+    /** The consumers of each topic, by name. Each consumer has its own messages. */
+    private final Map<String, List<BlockingQueue<Message>>> topics = new ConcurrentHashMap<String, List<BlockingQueue<Message>>>();
+    /** The ids given to sent messages. */
+    private final AtomicInteger messageIds = new AtomicInteger();
+
+    /** Constructor. initConnection is used for setup. */
+    protected JMSConnectionInMemoryMQ() {
+        super();
+    }
+
+    /**
+     * Get the singleton, and initialise it if it is new.
+     *
+     * @return A JMSConnection
+     */
+    public static synchronized JMSConnection getInstance() {
+        if (instance == null) {
+            instance = new JMSConnectionInMemoryMQ();
+            instance.initConnection();
+        }
+        return instance;
+    }
+
+    /**
+     * Make JMSConnectionFactory return a new connection of this kind.
+     */
+    public static void useJMSConnectionInMemoryMQ() {
+        if (instance != null) {
+            instance.cleanup();
+        }
+        Settings.set(CommonSettings.JMS_BROKER_CLASS, JMSConnectionInMemoryMQ.class.getName());
+    }
+
+    @Override
+    protected ConnectionFactory getConnectionFactory() throws JMSException {
+        return proxy(ConnectionFactory.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("createConnection")) {
+                    return createConnection();
+                }
+                throw new NotImplementedException(method.getName());
+            }
+        });
+    }
+
+    @Override
+    protected Destination getDestination(String destinationName) throws JMSException {
+        if (Channels.isTopic(destinationName)) {
+            return new InMemoryTopic(destinationName);
+        }
+        return new InMemoryQueue(destinationName);
+    }
+
+    @Override
+    public void onException(JMSException e) {
+        log.warn("Exception from in memory broker", e);
+    }
+
+    @Override
+    public QueueSession getQueueSession() throws JMSException {
+        throw new NotImplementedException("Not implemented");
+    }
+
+    /**
+     * @return A connection to the broker.
+     */
+    private Connection createConnection() {
+        final List<Session> sessions = new CopyOnWriteArrayList<Session>();
+        return proxy(Connection.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                case "createSession":
+                    Session newSession = createSession();
+                    sessions.add(newSession);
+                    return newSession;
+                case "close":
+                    for (Session session : sessions) {
+                        session.close();
+                    }
+                    return null;
+                case "start":
+                case "stop":
+                case "setExceptionListener":
+                    return null;
+                default:
+                    throw new NotImplementedException(method.getName());
+                }
+            }
+        });
+    }
+
+    /**
+     * @return A session, delivering messages to its consumers one at a time.
+     */
+    private Session createSession() {
+        final Object deliveryLock = new Object();
+        final List<Thread> consumerThreads = new CopyOnWriteArrayList<Thread>();
+        return proxy(Session.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                case "createObjectMessage":
+                    return createObjectMessage((Serializable) args[0]);
+                case "createProducer":
+                    return createProducer((Destination) args[0]);
+                case "createConsumer":
+                    return createConsumer((Destination) args[0], deliveryLock, consumerThreads);
+                case "close":
+                    for (Thread t : consumerThreads) {
+                        t.interrupt();
+                    }
+                    return null;
+                default:
+                    throw new NotImplementedException(method.getName());
+                }
+            }
+        });
+    }
+
+    /**
+     * @param destination The destination to send to.
+     * @return A producer sending to the destination.
+     */
+    private MessageProducer createProducer(final Destination destination) {
+        return proxy(MessageProducer.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                case "send":
+                    Message message = (Message) args[0];
+                    message.setJMSMessageID("ID:" + messageIds.incrementAndGet());
+                    if (destination instanceof Topic) {
+                        for (BlockingQueue<Message> subscriber : getSubscribers(destination.toString())) {
+                            subscriber.put(message);
+                        }
+                    } else {
+                        getQueue(destination.toString()).put(message);
+                    }
+                    return null;
+                case "close":
+                    return null;
+                default:
+                    throw new NotImplementedException(method.getName());
+                }
+            }
+        });
+    }
+
+    /**
+     * @param destination The destination to receive from.
+     * @param deliveryLock The lock of the session, held while a message is delivered.
+     * @param consumerThreads The threads of the consumers of the session.
+     * @return A consumer receiving from the destination.
+     */
+    private MessageConsumer createConsumer(final Destination destination, final Object deliveryLock,
+            final List<Thread> consumerThreads) {
+        final BlockingQueue<Message> messages;
+        if (destination instanceof Topic) {
+            messages = new LinkedBlockingQueue<Message>();
+            getSubscribers(destination.toString()).add(messages);
+        } else {
+            messages = getQueue(destination.toString());
+        }
+        final Thread[] thread = new Thread[1];
+        return proxy(MessageConsumer.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                case "setMessageListener":
+                    final MessageListener listener = (MessageListener) args[0];
+                    thread[0] = new Thread("Consumer of " + destination) {
+                        public void run() {
+                            try {
+                                while (!isInterrupted()) {
+                                    Message message = messages.take();
+                                    synchronized (deliveryLock) {
+                                        listener.onMessage(message);
+                                    }
+                                }
+                            } catch (InterruptedException e) {
+                                // Closed
+                            }
+                        }
+                    };
+                    thread[0].setDaemon(true);
+                    consumerThreads.add(thread[0]);
+                    thread[0].start();
+                    return null;
+                case "close":
+                    if (thread[0] != null) {
+                        thread[0].interrupt();
+                    }
+                    getSubscribers(destination.toString()).remove(messages);
+                    return null;
+                default:
+                    throw new NotImplementedException(method.getName());
+                }
+            }
+        });
+    }
+
+    /**
+     * @param object The object of the message. It is serialized, so each receiver gets a copy of its own.
+     * @return An ObjectMessage containing the object.
+     * @throws IOException If the object cannot be serialized.
+     */
+    private ObjectMessage createObjectMessage(Serializable object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        final byte[] serialized = bytes.toByteArray();
+        final String[] id = new String[1];
+        return proxy(ObjectMessage.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                case "getObject":
+                    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+                        return in.readObject();
+                    }
+                case "getJMSMessageID":
+                    return id[0];
+                case "setJMSMessageID":
+                    id[0] = (String) args[0];
+                    return null;
+                default:
+                    throw new NotImplementedException(method.getName());
+                }
+            }
+        });
+    }
+
+    /**
+     * @param name The name of a queue.
+     * @return The messages of the queue.
+     */
+    private synchronized BlockingQueue<Message> getQueue(String name) {
+        BlockingQueue<Message> queue = queues.get(name);
+        if (queue == null) {
+            queue = new LinkedBlockingQueue<Message>();
+            queues.put(name, queue);
+        }
+        return queue;
+    }
+
+    /**
+     * @param name The name of a topic.
+     * @return The messages of each consumer of the topic.
+     */
+    private synchronized List<BlockingQueue<Message>> getSubscribers(String name) {
+        List<BlockingQueue<Message>> subscribers = topics.get(name);
+        if (subscribers == null) {
+            subscribers = new CopyOnWriteArrayList<BlockingQueue<Message>>();
+            topics.put(name, subscribers);
+        }
+        return subscribers;
+    }
+
+    /**
+     * Create a proxy implementing an interface. The methods of Object are not passed on to the implementation.
+     *
+     * @param type The interface.
+     * @param handler The implementation.
+     * @return The proxy.
+     */
+    private static <T> T proxy(final Class<T> type, final InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(JMSConnectionInMemoryMQ.class.getClassLoader(), new Class<?>[] {type},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getDeclaringClass() == Object.class) {
+                            switch (method.getName()) {
+                            case "equals":
+                                return proxy == args[0];
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            default:
+                                return type.getSimpleName() + "@" + System.identityHashCode(proxy);
+                            }
+                        }
+                        return handler.invoke(proxy, method, args);
+                    }
+                }));
+    }
+
+    /** A queue, known by its name. */
+    private static class InMemoryQueue implements Queue {
+        private final String name;
+
+        InMemoryQueue(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getQueueName() {
+            return name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /** A topic, known by its name. */
+    private static class InMemoryTopic implements Topic {
+        private final String name;
+
+        InMemoryTopic(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getTopicName() {
+            return name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+}
@@ -0,0 +1,169 @@
+/*
+ * #%L
+ * Netarchivesuite - common - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.distribute;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.SlowTest;
+
+/**
+ * Tests the compact binary encoding of messages.
+ */
+@SuppressWarnings({"serial"})
+public class BinaryMessageCodecTester {
+
+    @Test
+    public void testRoundTrip() {
+        BinaryMessageCodec codec = new BinaryMessageCodec(1024);
+        for (int lines : new int[] {1, 1000}) {
+            TestMessage msg = new TestMessage(lines);
+            msg.setNotOk("an error");
+            byte[] bytes = codec.toBytes(msg);
+            TestMessage copy = (TestMessage) BinaryMessageCodec.fromBytes(bytes);
+            assertEquals(msg.lines, copy.lines);
+            assertEquals(msg.report.hosts, copy.report.hosts);
+            assertEquals(msg.report.total, copy.report.total);
+            assertEquals(msg.getTo().getName(), copy.getTo().getName());
+            assertEquals(msg.getReplyTo().getName(), copy.getReplyTo().getName());
+            assertFalse(copy.isOk());
+            assertEquals("an error", copy.getErrMsg());
+        }
+    }
+
+    @Test
+    public void testSmallerThanJavaSerialization() throws IOException {
+        BinaryMessageCodec codec = new BinaryMessageCodec(1024);
+        TestMessage small = new TestMessage(1);
+        assertTrue("A small message should be smaller without class descriptions",
+                codec.toBytes(small).length < serialize(small).length);
+        TestMessage large = new TestMessage(1000);
+        assertTrue("A large message should be compressed",
+                codec.toBytes(large).length * 4 < serialize(large).length);
+        assertTrue("A large message should not be compressed with compression off",
+                new BinaryMessageCodec(0).toBytes(large).length * 2 > serialize(large).length);
+    }
+
+    @Test
+    public void testRejectsUnknownFormats() {
+        byte[] bytes = new BinaryMessageCodec(0).toBytes(new TestMessage(1));
+        bytes[4] = BinaryMessageCodec.FORMAT_VERSION + 1;
+        try {
+            BinaryMessageCodec.fromBytes(bytes);
+            fail("Should refuse an unknown format version");
+        } catch (IOFailure e) {
+            // expected
+        }
+        try {
+            BinaryMessageCodec.fromBytes(new byte[] {1, 2, 3, 4, 5, 6, 7});
+            fail("Should refuse bytes not in the format");
+        } catch (IOFailure e) {
+            // expected
+        }
+    }
+
+    /**
+     * Compare the time and size of encoding and decoding messages with Java serialization, as in an ObjectMessage, and
+     * with the binary codec.
+     */
+    @Test
+    @Category(SlowTest.class)
+    public void testBenchmark() throws Exception {
+        BinaryMessageCodec codec = new BinaryMessageCodec(16384);
+        for (int lines : new int[] {1, 100, 10000}) {
+            TestMessage msg = new TestMessage(lines);
+            int rounds = Math.max(10, 100000 / lines);
+            long start = System.nanoTime();
+            byte[] serialized = null;
+            for (int i = 0; i < rounds; i++) {
+                serialized = serialize(msg);
+            }
+            long serializeTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            byte[] encoded = null;
+            for (int i = 0; i < rounds; i++) {
+                encoded = codec.toBytes(msg);
+            }
+            long encodeTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                BinaryMessageCodec.fromBytes(encoded);
+            }
+            long decodeTime = System.nanoTime() - start;
+            System.out.println(String.format("%d lines: ObjectMessage %d bytes, %d us; binary %d bytes, %d us "
+                    + "encode, %d us decode", lines, serialized.length, serializeTime / rounds / 1000,
+                    encoded.length, encodeTime / rounds / 1000, decodeTime / rounds / 1000));
+            assertTrue(encoded.length < serialized.length);
+        }
+    }
+
+    /**
+     * Serialize an object as an ObjectMessage does.
+     */
+    private static byte[] serialize(Serializable o) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(o);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * A message shaped like a frontier report: a list of lines and a nested object.
+     */
+    private static class TestMessage extends NetarkivetMessage {
+        List<String> lines = new ArrayList<String>();
+        Report report = new Report();
+
+        public TestMessage(int count) {
+            super(Channels.getTheRepos(), Channels.getError());
+            for (int i = 0; i < count; i++) {
+                lines.add("http://www.example" + (i % 50) + ".dk/ 200 " + i + " queue-" + (i % 7));
+                report.hosts.add("www.example" + i + ".dk");
+            }
+            report.total = count;
+        }
+    }
+
+    /**
+     * A nested part of the test message.
+     */
+    private static class Report implements Serializable {
+        List<String> hosts = new ArrayList<String>();
+        long total;
+    }
+
+}
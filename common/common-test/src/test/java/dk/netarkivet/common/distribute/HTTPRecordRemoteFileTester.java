@@ -0,0 +1,300 @@
+/*
+ * #%L
+ * Netarchivesuite - common - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.distribute;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.archive.io.ArchiveReader;
+import org.archive.io.ArchiveReaderFactory;
+import org.archive.io.ArchiveRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.distribute.arcrepository.BitarchiveRecord;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.common.utils.StreamUtils;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
+
+/** Tests for HTTPRecordRemoteFile and the record serving of HTTPRemoteFileRegistry. */
+public class HTTPRecordRemoteFileTester {
+    private static final File WARC_FILE = new File("tests/dk/netarkivet/common/utils/warc/data/input/fyensdk.warc");
+
+    ReloadSettings rs = new ReloadSettings();
+
+    @Before
+    public void setUp() {
+        rs.setUp();
+        HTTPRemoteFileRegistry.getInstance().cleanup();
+    }
+
+    @After
+    public void tearDown() {
+        HTTPRemoteFileRegistry.getInstance().cleanup();
+        rs.tearDown();
+    }
+
+    @Test
+    public void testParseRange() {
+        assertArrayEquals(new long[] {0, 99}, HTTPRemoteFileRegistry.parseRange("bytes=0-99", 1000));
+        assertArrayEquals(new long[] {100, 999}, HTTPRemoteFileRegistry.parseRange("bytes=100-", 1000));
+        assertArrayEquals(new long[] {900, 999}, HTTPRemoteFileRegistry.parseRange("bytes=-100", 1000));
+        assertArrayEquals(new long[] {0, 999}, HTTPRemoteFileRegistry.parseRange("bytes=-2000", 1000));
+        assertArrayEquals("The end should be limited to the length", new long[] {500, 999},
+                HTTPRemoteFileRegistry.parseRange("bytes=500-5000", 1000));
+        long[] unsatisfiable = HTTPRemoteFileRegistry.parseRange("bytes=1000-", 1000);
+        assertTrue("A range after the end should not be satisfiable", unsatisfiable[0] > unsatisfiable[1]);
+        assertNull(HTTPRemoteFileRegistry.parseRange(null, 1000));
+        assertNull(HTTPRemoteFileRegistry.parseRange("bytes=0-9,20-29", 1000));
+        assertNull(HTTPRemoteFileRegistry.parseRange("bytes=9-0", 1000));
+        assertNull(HTTPRemoteFileRegistry.parseRange("bytes=a-b", 1000));
+        assertNull(HTTPRemoteFileRegistry.parseRange("lines=0-9", 1000));
+    }
+
+    @Test
+    public void testCopyRange() throws Exception {
+        byte[] data = new byte[10000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HTTPRemoteFileRegistry.copyRange(new ByteArrayInputStream(data), out, 5000, 100);
+        assertArrayEquals(Arrays.copyOfRange(data, 5000, 5100), out.toByteArray());
+        out.reset();
+        HTTPRemoteFileRegistry.copyRange(new ByteArrayInputStream(data), out, 9990, 100);
+        assertArrayEquals("Should stop at the end of the stream", Arrays.copyOfRange(data, 9990, 10000),
+                out.toByteArray());
+    }
+
+    /**
+     * Test that the streamed payload of a record is the same as the buffered payload, also when starting from a given
+     * position, and that the record is no longer served when the stream is closed.
+     */
+    @Test
+    public void testStreamRecord() throws Exception {
+        long offset = findLargeRecord();
+        byte[] expected = getPayload(offset);
+
+        HTTPRecordRemoteFile remoteFile = HTTPRecordRemoteFile.getInstance(WARC_FILE, offset, expected.length);
+        assertEquals(expected.length, remoteFile.getSize());
+        assertEquals(WARC_FILE.getName(), remoteFile.getName());
+        try (InputStream in = remoteFile.getInputStream(1000)) {
+            assertArrayEquals("Should get the payload from the given position",
+                    Arrays.copyOfRange(expected, 1000, expected.length), readFully(in, expected.length - 1000));
+        }
+        try {
+            remoteFile.getInputStream().read();
+            fail("The record should not be served after the stream was closed");
+        } catch (IOFailure e) {
+            // expected
+        }
+
+        remoteFile = HTTPRecordRemoteFile.getInstance(WARC_FILE, offset, expected.length);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        remoteFile.appendTo(out);
+        assertArrayEquals("Should get the whole payload", expected, out.toByteArray());
+    }
+
+    /**
+     * Test that a connection ending before the whole payload is read is resumed from the position reached, and that
+     * the stream fails instead of ending early when it cannot be resumed.
+     */
+    @Test
+    public void testResumeTruncatedStream() throws Exception {
+        long offset = findLargeRecord();
+        byte[] expected = getPayload(offset);
+
+        TruncatingRecordRemoteFile remoteFile = new TruncatingRecordRemoteFile(offset, expected.length, 3000, 1);
+        try (InputStream in = remoteFile.getInputStream()) {
+            assertArrayEquals("Should resume after the truncated connection", expected,
+                    readFully(in, expected.length));
+            assertEquals("Should be at the end of the payload", -1, in.read());
+        }
+        assertEquals("Should connect again from the position reached", Arrays.asList(0L, 3000L), remoteFile.starts);
+
+        remoteFile = new TruncatingRecordRemoteFile(offset, expected.length, 1000, Integer.MAX_VALUE);
+        try (InputStream in = remoteFile.getInputStream()) {
+            readFully(in, expected.length);
+            fail("A stream truncated on every connection should fail");
+        } catch (EOFException e) {
+            fail("A stream truncated on every connection should fail, not end early");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Test that a record is served with its length, and can be served again, e.g. to resume, after a whole download
+     * until it is unregistered.
+     */
+    @Test
+    public void testRecordKeptUntilUnregistered() throws Exception {
+        long offset = findLargeRecord();
+        byte[] expected = getPayload(offset);
+        HTTPRemoteFileRegistry registry = HTTPRemoteFileRegistry.getInstance();
+        URL url = registry.registerRecord(WARC_FILE, offset, expected.length);
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        assertEquals(200, connection.getResponseCode());
+        assertEquals(Long.toString(expected.length), connection.getHeaderField("Content-Length"));
+        try (InputStream in = connection.getInputStream()) {
+            assertArrayEquals(expected, readFully(in, expected.length));
+        }
+
+        connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestProperty("Range", "bytes=1000-");
+        assertEquals("Should serve a range after the whole payload was served", 206, connection.getResponseCode());
+        assertEquals(Long.toString(expected.length - 1000), connection.getHeaderField("Content-Length"));
+        assertEquals("bytes 1000-" + (expected.length - 1) + "/" + expected.length,
+                connection.getHeaderField("Content-Range"));
+        try (InputStream in = connection.getInputStream()) {
+            assertArrayEquals(Arrays.copyOfRange(expected, 1000, expected.length),
+                    readFully(in, expected.length - 1000));
+        }
+
+        ((HttpURLConnection) registry.getCleanupUrl(url).openConnection()).getResponseCode();
+        assertEquals("Should not serve an unregistered record", 404,
+                ((HttpURLConnection) url.openConnection()).getResponseCode());
+    }
+
+    /**
+     * Test that records that are not read within the timeout are removed.
+     */
+    @Test
+    public void testExpireRecords() throws Exception {
+        long offset = findLargeRecord();
+        HTTPRemoteFileRegistry registry = HTTPRemoteFileRegistry.getInstance();
+        URL url = registry.registerRecord(WARC_FILE, offset, 100);
+        long timeout = Settings.getLong(CommonSettings.BITARCHIVE_STREAMED_RECORD_TIMEOUT);
+
+        registry.expireRecords(System.currentTimeMillis());
+        assertEquals("A new record should not expire", 200, ((HttpURLConnection) url.openConnection())
+                .getResponseCode());
+        registry.expireRecords(System.currentTimeMillis() + timeout + 1000);
+        assertEquals("A record not read within the timeout should expire", 404,
+                ((HttpURLConnection) url.openConnection()).getResponseCode());
+    }
+
+    /**
+     * @return The offset of a record in the test file with a payload of more than 10000 bytes.
+     */
+    private static long findLargeRecord() throws IOException {
+        try (ArchiveReader reader = ArchiveReaderFactory.get(WARC_FILE)) {
+            for (ArchiveRecord record : reader) {
+                if (record.getHeader().getLength() - record.getHeader().getContentBegin() > 10000) {
+                    return record.getHeader().getOffset();
+                }
+            }
+        }
+        fail("Test file should contain a record of more than 10000 bytes");
+        return -1;
+    }
+
+    /**
+     * @param in A stream.
+     * @param length The number of bytes to read.
+     * @return The bytes read.
+     * @throws EOFException If the stream ends before the bytes are read.
+     */
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        new DataInputStream(in).readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * @param offset The offset of a record in the test file.
+     * @return The payload of the record, read without streaming.
+     */
+    private static byte[] getPayload(long offset) {
+        BitarchiveRecord buffered = BitarchiveRecord.getBitarchiveRecord(WARC_FILE.getName(), WARC_FILE, offset);
+        return StreamUtils.inputStreamToBytes(buffered.getData(), (int) buffered.getLength());
+    }
+
+    /** A remote file whose first connections end after a given number of bytes, as if the sender died. */
+    private static class TruncatingRecordRemoteFile extends HTTPRecordRemoteFile {
+        /** The number of bytes served on a truncated connection. */
+        private final int truncateAfter;
+        /** The number of connections to truncate. */
+        private int truncations;
+        /** The positions connected from. */
+        final List<Long> starts = new ArrayList<Long>();
+
+        TruncatingRecordRemoteFile(long offset, long length, int truncateAfter, int truncations) {
+            super(WARC_FILE, offset, length);
+            this.truncateAfter = truncateAfter;
+            this.truncations = truncations;
+        }
+
+        @Override
+        InputStream open(long start) throws IOException {
+            starts.add(start);
+            InputStream in = super.open(start);
+            if (truncations <= 0) {
+                return in;
+            }
+            truncations--;
+            return new FilterInputStream(in) {
+                private int served = 0;
+
+                @Override
+                public int read() throws IOException {
+                    byte[] b = new byte[1];
+                    return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (served >= truncateAfter) {
+                        return -1;
+                    }
+                    int n = super.read(b, off, Math.min(len, truncateAfter - served));
+                    if (n > 0) {
+                        served += n;
+                    }
+                    return n;
+                }
+            };
+        }
+    }
+}
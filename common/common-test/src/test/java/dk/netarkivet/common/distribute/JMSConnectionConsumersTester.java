@@ -0,0 +1,192 @@
+/*
+ * #%L
+ * Netarchivesuite - common - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.distribute;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.Message;
+import javax.jms.MessageListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import dk.netarkivet.common.utils.SlowTest;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
+
+/**
+ * Tests of listeners with several consumers, using a broker in memory that delivers messages the way a real broker
+ * does.
+ */
+@SuppressWarnings({"serial"})
+public class JMSConnectionConsumersTester {
+    private static final ChannelID REQUESTS = Channels.getAnyBa();
+    private static final ChannelID REPLIES = Channels.getError();
+
+    /** The time the replier takes to handle a request. */
+    private static final long HANDLING_TIME = 100L;
+    private static final int REQUEST_COUNT = 8;
+
+    private JMSConnection con;
+
+    ReloadSettings rs = new ReloadSettings();
+
+    @Before
+    public void setUp() {
+        rs.setUp();
+        JMSConnectionInMemoryMQ.useJMSConnectionInMemoryMQ();
+        con = JMSConnectionFactory.getInstance();
+    }
+
+    @After
+    public void tearDown() {
+        con.cleanup();
+        rs.tearDown();
+    }
+
+    /**
+     * Requests are handled faster with more consumers, and each reply still reaches the request it answers.
+     */
+    @Test
+    @Category(SlowTest.class)
+    public void testThroughputScalesWithConsumers() throws Exception {
+        long serial = sendRequests(1);
+        long parallel = sendRequests(4);
+        assertTrue("Four consumers should handle the requests more than twice as fast as one, took " + parallel
+                + " ms against " + serial + " ms", parallel * 2 < serial);
+    }
+
+    @Test
+    public void testTopicListenersHaveOneConsumer() throws Exception {
+        final ChannelID topic = Channels.getAllBa();
+        CountingListener listener = new CountingListener();
+        con.setListener(topic, listener, 4);
+        con.send(new TestMessage(topic, REPLIES, null, "hello"));
+        Thread.sleep(HANDLING_TIME);
+        assertEquals("A message on a topic should be received once", 1, listener.received.get());
+        con.removeListener(topic, listener);
+    }
+
+    @Test
+    public void testRemoveListener() throws Exception {
+        CountingListener listener = new CountingListener();
+        con.setListener(REQUESTS, listener, 3);
+        con.send(new TestMessage(REQUESTS, REPLIES, null, "first"));
+        Thread.sleep(HANDLING_TIME);
+        assertEquals(1, listener.received.get());
+        con.removeListener(REQUESTS, listener);
+        con.send(new TestMessage(REQUESTS, REPLIES, null, "second"));
+        Thread.sleep(HANDLING_TIME);
+        assertEquals("A removed listener should receive no messages", 1, listener.received.get());
+    }
+
+    /**
+     * Send requests from several threads at once to a slow replier, and check that each thread gets the reply to its
+     * own request.
+     *
+     * @param consumers The number of consumers of the replier.
+     * @return The time in milliseconds taken to get all the replies.
+     */
+    private long sendRequests(int consumers) throws Exception {
+        SlowReplier replier = new SlowReplier();
+        con.setListener(REQUESTS, replier, consumers);
+        final Synchronizer sync = new Synchronizer();
+        con.setListener(REPLIES, sync);
+        final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            final String payload = "request " + i;
+            threads.add(new Thread() {
+                public void run() {
+                    TestMessage request = new TestMessage(REQUESTS, REPLIES, null, payload);
+                    TestMessage reply = (TestMessage) sync.sendAndWaitForOneReply(request, 10000);
+                    if (reply == null) {
+                        errors.add("No reply to " + payload);
+                    } else if (!payload.equals(reply.payload) || !request.getID().equals(reply.getReplyOfId())) {
+                        errors.add("The reply to " + payload + " was the reply to " + reply.payload);
+                    }
+                }
+            });
+        }
+        long start = System.currentTimeMillis();
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        long time = System.currentTimeMillis() - start;
+        con.removeListener(REQUESTS, replier);
+        con.removeListener(REPLIES, sync);
+        assertEquals("Every request should get its own reply", Collections.emptyList(), errors);
+        assertEquals(REQUEST_COUNT, replier.handled.get());
+        return time;
+    }
+
+    /** A listener replying to each request after a while, with the payload of the request. */
+    private class SlowReplier implements MessageListener {
+        final AtomicInteger handled = new AtomicInteger();
+
+        @Override
+        public void onMessage(Message message) {
+            TestMessage request = (TestMessage) JMSConnection.unpack(message);
+            assertNotNull(request.payload);
+            try {
+                Thread.sleep(HANDLING_TIME);
+            } catch (InterruptedException e) {
+                return;
+            }
+            handled.incrementAndGet();
+            con.send(new TestMessage(request.getReplyTo(), request.getTo(), request.getID(), request.payload));
+        }
+    }
+
+    /** A listener counting the messages it receives. */
+    private static class CountingListener implements MessageListener {
+        final AtomicInteger received = new AtomicInteger();
+
+        @Override
+        public void onMessage(Message message) {
+            received.incrementAndGet();
+        }
+    }
+
+    private static class TestMessage extends NetarkivetMessage {
+        final String payload;
+
+        public TestMessage(ChannelID to, ChannelID replyTo, String replyOfId, String payload) {
+            super(to, replyTo);
+            this.replyOfId = replyOfId;
+            this.payload = payload;
+        }
+    }
+
+}
@@ -0,0 +1,235 @@
+/*
+ * #%L
+ * Netarchivesuite - common - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.distribute;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.Message;
+import javax.jms.MessageListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.testutils.ReflectUtils;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
+
+/**
+ * Tests of the asynchronous requests of the Synchronizer, using a broker in memory that delivers messages the way a
+ * real broker does.
+ */
+@SuppressWarnings({"serial"})
+public class SynchronizerAsyncTester {
+    private static final ChannelID REQUESTS = Channels.getAnyBa();
+    private static final ChannelID REPLIES = Channels.getError();
+
+    /** The time the replier takes to handle a request. */
+    private static final long HANDLING_TIME = 100L;
+
+    private JMSConnection con;
+    private Synchronizer sync;
+
+    ReloadSettings rs = new ReloadSettings();
+
+    @Before
+    public void setUp() {
+        rs.setUp();
+        JMSConnectionInMemoryMQ.useJMSConnectionInMemoryMQ();
+        con = JMSConnectionFactory.getInstance();
+        sync = new Synchronizer();
+        con.setListener(REPLIES, sync);
+    }
+
+    @After
+    public void tearDown() {
+        con.cleanup();
+        rs.tearDown();
+    }
+
+    /**
+     * Requests sent from one thread are outstanding at the same time, and each reply completes the future of its own
+     * request.
+     */
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        SlowReplier replier = new SlowReplier();
+        con.setListener(REQUESTS, replier, 8);
+        List<TestMessage> requests = new ArrayList<TestMessage>();
+        List<CompletableFuture<NetarkivetMessage>> replies = new ArrayList<CompletableFuture<NetarkivetMessage>>();
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 8; i++) {
+            TestMessage request = new TestMessage(REQUESTS, REPLIES, null, "request " + i);
+            requests.add(request);
+            replies.add(sync.sendAsync(request, 10000));
+        }
+        assertTrue("Sending should not wait for replies", System.currentTimeMillis() - start < HANDLING_TIME);
+        for (int i = 0; i < requests.size(); i++) {
+            TestMessage reply = (TestMessage) replies.get(i).get();
+            assertEquals(requests.get(i).payload, reply.payload);
+            assertEquals(requests.get(i).getID(), reply.getReplyOfId());
+        }
+        long time = System.currentTimeMillis() - start;
+        assertTrue("The requests should be handled at the same time, took " + time + " ms", time < 4 * HANDLING_TIME);
+        assertEquals(0, sync.getPendingReplyCount());
+    }
+
+    @Test
+    public void testTimeoutRemovesPendingReply() throws Exception {
+        CompletableFuture<NetarkivetMessage> reply = sync.sendAsync(new TestMessage(REQUESTS, REPLIES, null, "x"), 50);
+        try {
+            reply.get();
+            fail("A request without a reply should time out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        waitForNoPendingReplies();
+
+        assertNull("A blocking request should return null on timeout",
+                sync.sendAndWaitForOneReply(new TestMessage(REQUESTS, REPLIES, null, "y"), 50));
+        assertEquals(0, sync.getPendingReplyCount());
+    }
+
+    @Test
+    public void testCancelRemovesPendingReply() throws Exception {
+        CompletableFuture<NetarkivetMessage> reply = sync.sendAsync(new TestMessage(REQUESTS, REPLIES, null, "x"), 0);
+        assertEquals(1, sync.getPendingReplyCount());
+        reply.cancel(false);
+        assertEquals(0, sync.getPendingReplyCount());
+    }
+
+    /**
+     * Cancelling a future derived from a reply stops waiting for the reply.
+     */
+    @Test
+    public void testCancelDerivedFutureRemovesPendingReply() throws Exception {
+        CompletableFuture<NetarkivetMessage> reply = sync.sendAsync(new TestMessage(REQUESTS, REPLIES, null, "x"), 0);
+        CompletableFuture<String> derived = Synchronizer.cancelWith(reply,
+                reply.thenApply(msg -> ((TestMessage) msg).payload));
+        assertEquals(1, sync.getPendingReplyCount());
+        derived.cancel(false);
+        assertTrue(reply.isCancelled());
+        assertEquals(0, sync.getPendingReplyCount());
+    }
+
+    /**
+     * The timeout of a request is cancelled when the reply arrives, so it does not stay queued until it is due.
+     */
+    @Test
+    public void testReplyCancelsTimeout() throws Exception {
+        con.setListener(REQUESTS, new SlowReplier());
+        sync.sendAsync(new TestMessage(REQUESTS, REPLIES, null, "x"), 3600000).get();
+        ScheduledThreadPoolExecutor timer = (ScheduledThreadPoolExecutor) ReflectUtils.getPrivateField(
+                Synchronizer.class, "timer").get(null);
+        for (int i = 0; i < 100 && !timer.getQueue().isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue("The timeout should be removed when the reply arrives", timer.getQueue().isEmpty());
+    }
+
+    /**
+     * A reply arriving after a timeout is ignored, and leaves nothing behind.
+     */
+    @Test
+    public void testLateReplyIgnored() throws Exception {
+        SlowReplier replier = new SlowReplier();
+        con.setListener(REQUESTS, replier);
+        assertNull(sync.sendAndWaitForOneReply(new TestMessage(REQUESTS, REPLIES, null, "x"), HANDLING_TIME / 2));
+        Thread.sleep(HANDLING_TIME * 2);
+        assertEquals(1, replier.handled.get());
+        assertEquals(0, sync.getPendingReplyCount());
+    }
+
+    /**
+     * When the maximum number of requests await a reply, sending blocks until one of them is done.
+     */
+    @Test
+    public void testPendingRepliesAreBounded() throws Exception {
+        final Synchronizer bounded = new Synchronizer(2);
+        con.setListener(REPLIES, bounded);
+        CompletableFuture<NetarkivetMessage> first = bounded.sendAsync(new TestMessage(REQUESTS, REPLIES, null, "1"),
+                0);
+        bounded.sendAsync(new TestMessage(REQUESTS, REPLIES, null, "2"), 0);
+        final AtomicInteger sent = new AtomicInteger();
+        Thread third = new Thread() {
+            public void run() {
+                bounded.sendAsync(new TestMessage(REQUESTS, REPLIES, null, "3"), 0);
+                sent.incrementAndGet();
+            }
+        };
+        third.start();
+        third.join(HANDLING_TIME);
+        assertEquals("A third request should wait", 0, sent.get());
+        first.cancel(false);
+        third.join(10000);
+        assertFalse(third.isAlive());
+        assertEquals(1, sent.get());
+        assertEquals(2, bounded.getPendingReplyCount());
+    }
+
+    private void waitForNoPendingReplies() throws InterruptedException {
+        for (int i = 0; i < 100 && sync.getPendingReplyCount() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, sync.getPendingReplyCount());
+    }
+
+    /** A listener replying to each request after a while, with the payload of the request. */
+    private class SlowReplier implements MessageListener {
+        final AtomicInteger handled = new AtomicInteger();
+
+        @Override
+        public void onMessage(Message message) {
+            TestMessage request = (TestMessage) JMSConnection.unpack(message);
+            try {
+                Thread.sleep(HANDLING_TIME);
+            } catch (InterruptedException e) {
+                return;
+            }
+            handled.incrementAndGet();
+            con.send(new TestMessage(request.getReplyTo(), request.getTo(), request.getID(), request.payload));
+        }
+    }
+
+    private static class TestMessage extends NetarkivetMessage {
+        final String payload;
+
+        public TestMessage(ChannelID to, ChannelID replyTo, String replyOfId, String payload) {
+            super(to, replyTo);
+            this.replyOfId = replyOfId;
+            this.payload = payload;
+        }
+    }
+
+}
@@ -416,6 +416,24 @@ public class FileUtilsTester {
                 "A single line", "Another line", "and then one", "A broken", "line");
     }
 
+    @Test
+    public void testMergeSortedFiles() {
+        File first = new File(WORKING, "first");
+        File second = new File(WORKING, "second");
+        File empty = new File(WORKING, "empty");
+        File merged = new File(WORKING, "merged");
+        FileUtils.appendToFile(first, "a##1", "c##3", "e##5");
+        FileUtils.appendToFile(second, "B##0", "b##2", "c##3", "d##4");
+        FileUtils.appendToFile(empty);
+        List<File> files = new ArrayList<File>();
+        files.add(first);
+        files.add(empty);
+        files.add(second);
+        FileUtils.mergeSortedFiles(files, merged);
+        CollectionAsserts.assertListEquals("Should merge the lines in byte order, keeping duplicates",
+                FileUtils.readListFromFile(merged), "B##0", "a##1", "b##2", "c##3", "c##3", "d##4", "e##5");
+    }
+
     /**
      * Unittest for testing that removing a file using FileUtils.remove(File) does not throw an exception, if it fails
      * to do so.
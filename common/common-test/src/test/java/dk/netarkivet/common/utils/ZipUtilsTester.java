@@ -29,8 +29,10 @@ import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
@@ -267,4 +269,29 @@ public class ZipUtilsTester {
         }).length);
     }
 
+    @Test
+    public void testGzipFilesConcurrentlyAndGunzipStream() throws Exception {
+        File testInputDir = new File(new File(TestInfo.TEMPDIR, "cache"), "cdxindex");
+        File testOutputDir = new File(TestInfo.TEMPDIR, "gzipped");
+        ZipUtils.gzipFiles(testInputDir, testOutputDir, 4);
+        File[] inputFiles = testInputDir.listFiles();
+        int files = 0;
+        for (File input : inputFiles) {
+            if (!input.isFile()) {
+                continue;
+            }
+            files++;
+            File gzipped = new File(testOutputDir, input.getName() + ZipUtils.GZIP_SUFFIX);
+            assertTrue("Should have output file " + gzipped, gzipped.exists());
+            File gunzipped = new File(TestInfo.TEMPDIR, input.getName() + ".gunzipped");
+            try (InputStream in = new FileInputStream(gzipped)) {
+                ZipUtils.gunzipStream(in, gunzipped);
+                assertEquals("The stream should be read to the end", -1, in.read());
+            }
+            assertEquals("Should unzip to the original contents", FileUtils.readFile(input),
+                    FileUtils.readFile(gunzipped));
+        }
+        assertEquals("Should have gzipped each file", files, testOutputDir.list().length);
+    }
+
 }
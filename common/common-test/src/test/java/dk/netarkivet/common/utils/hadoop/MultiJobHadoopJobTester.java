@@ -0,0 +1,63 @@
+package dk.netarkivet.common.utils.hadoop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the file resolution part of the MultiJobHadoopJob class.
+ */
+public class MultiJobHadoopJobTester {
+    private static final String SUFFIX = "-metadata-[0-9]+.(w)?arc(.gz)?";
+
+    @Test
+    public void testCombinedPatternMatchesFilesOfAllJobs() {
+        Pattern combined = Pattern.compile(MultiJobHadoopJob.getCombinedFilenamePattern(Arrays.asList(1L, 42L),
+                SUFFIX));
+        assertTrue(combined.matcher("1-metadata-1.warc").matches());
+        assertTrue(combined.matcher("42-metadata-2.arc.gz").matches());
+        assertTrue(combined.matcher("prefix-42-1-metadata-1.warc.gz").matches());
+        assertFalse(combined.matcher("43-metadata-1.warc").matches());
+        assertFalse(combined.matcher("42-1-20200101-00000.warc").matches());
+    }
+
+    @Test
+    public void testAssignFilesToJobs() {
+        List<Path> files = Arrays.asList(Paths.get("/data/1-metadata-1.warc"),
+                Paths.get("/data/142-metadata-1.warc"), Paths.get("/data/42-metadata-1.warc"),
+                Paths.get("/data/42-metadata-2.warc.gz"), Paths.get("/data/prefix-7-3-metadata-1.arc"));
+        Map<Long, List<Path>> filesPerJob = MultiJobHadoopJob.assignFilesToJobs(Arrays.asList(1L, 3L, 42L, 99L),
+                files, SUFFIX);
+        assertEquals(Arrays.asList(Paths.get("/data/1-metadata-1.warc")), filesPerJob.get(1L));
+        assertEquals(Arrays.asList(Paths.get("/data/42-metadata-1.warc"), Paths.get("/data/42-metadata-2.warc.gz")),
+                filesPerJob.get(42L));
+        // Same semantics as the single job pattern (.*-)?3(-.*)?<suffix>
+        assertEquals(Arrays.asList(Paths.get("/data/prefix-7-3-metadata-1.arc")), filesPerJob.get(3L));
+        assertFalse("Jobs without files should be left out", filesPerJob.containsKey(99L));
+    }
+
+    @Test
+    public void testAssignFilesToJobsAgreesWithSingleJobPattern() {
+        List<Long> jobIDs = Arrays.asList(1L, 2L, 12L, 21L);
+        List<Path> files = Arrays.asList(Paths.get("1-2-metadata-1.warc"), Paths.get("12-metadata-1.warc"),
+                Paths.get("21-1-metadata-1.warc"), Paths.get("x12-metadata-1.warc"));
+        Map<Long, List<Path>> filesPerJob = MultiJobHadoopJob.assignFilesToJobs(jobIDs, files, SUFFIX);
+        for (Long jobID : jobIDs) {
+            Pattern single = Pattern.compile("(.*-)?" + jobID + "(-.*)?" + SUFFIX);
+            for (Path file : files) {
+                boolean expected = single.matcher(file.getFileName().toString()).matches();
+                boolean actual = filesPerJob.containsKey(jobID) && filesPerJob.get(jobID).contains(file);
+                assertEquals("Job " + jobID + " and file " + file, expected, actual);
+            }
+        }
+    }
+}
@@ -254,6 +254,18 @@ public class HarvesterSettings {
      */
     public static String HARVEST_CONTROLLER_OLDJOBSDIR = "settings.harvester.harvesting.oldjobsDir";
 
+    /**
+     * <b>settings.harvester.harvesting.upload.threads</b>: <br>
+     * The number of archive files uploaded at a time after a harvest.
+     */
+    public static String UPLOAD_THREADS = "settings.harvester.harvesting.upload.threads";
+
+    /**
+     * <b>settings.harvester.harvesting.upload.maxBytesPerSecond</b>: <br>
+     * The maximum number of bytes uploaded per second on average, counted by whole files. 0 means no limit.
+     */
+    public static String UPLOAD_MAX_BYTES_PER_SECOND = "settings.harvester.harvesting.upload.maxBytesPerSecond";
+
     /**
      * <b>settings.harvester.harvesting.channel</b>: <br>
      * Harvest channel to take jobs from. This is the default channel assigned to the harvest controller.
@@ -709,6 +721,48 @@ public class HarvesterSettings {
      */
     public static String INDEXSERVER_INDEXING_TRY_TO_MIGRATE_DUPLICATION_RECORDS = "settings.harvester.indexserver.tryToMigrateDuplicationRecords";
 
+    /**
+     * <b>settings.harvester.indexserver.maxConcurrentExtractions</b>: <br>
+     * Setting for the maximum number of jobs each index server cache extracts data for at the same time, when an
+     * index request needs data for jobs that are not cached yet. The default is 4.
+     */
+    public static String INDEXSERVER_INDEXING_MAX_CONCURRENT_EXTRACTIONS = "settings.harvester.indexserver.maxConcurrentExtractions";
+
+    /**
+     * <b>settings.harvester.indexserver.cacheEviction.rawDataMaxBytes</b>: <br>
+     * Setting for the maximum number of bytes used by each cache of raw data extracted from metadata files on the index
+     * server. Least used entries are evicted when a cache grows beyond this. The default is 0, meaning no limit.
+     */
+    public static String INDEXSERVER_RAW_DATA_CACHE_MAX_BYTES = "settings.harvester.indexserver.cacheEviction.rawDataMaxBytes";
+
+    /**
+     * <b>settings.harvester.indexserver.cacheEviction.indexMaxBytes</b>: <br>
+     * Setting for the maximum number of bytes used by each cache of indexes over sets of jobs on the index server.
+     * Least used entries are evicted when a cache grows beyond this. The default is 0, meaning no limit.
+     */
+    public static String INDEXSERVER_INDEX_CACHE_MAX_BYTES = "settings.harvester.indexserver.cacheEviction.indexMaxBytes";
+
+    /**
+     * <b>settings.harvester.indexserver.cacheEviction.policy</b>: <br>
+     * Setting for which entries to evict first from caches with a maximum size: LRU for the least recently used, or LFU
+     * for the least frequently used. The default is LRU.
+     */
+    public static String INDEXSERVER_CACHE_EVICTION_POLICY = "settings.harvester.indexserver.cacheEviction.policy";
+
+    /**
+     * <b>settings.harvester.indexserver.cacheEviction.sweepInterval</b>: <br>
+     * Setting for the time in milliseconds between checks of the size of caches with a maximum size. Entries are not
+     * evicted within this time of being used. The default is 600000 (10 minutes).
+     */
+    public static String INDEXSERVER_CACHE_EVICTION_SWEEP_INTERVAL = "settings.harvester.indexserver.cacheEviction.sweepInterval";
+
+    /**
+     * <b>settings.harvester.indexserver.transferThreads</b>: <br>
+     * Setting for the number of index files the index server compresses, and prepares for transfer to clients, at the
+     * same time. The default is 4.
+     */
+    public static String INDEXSERVER_TRANSFER_THREADS = "settings.harvester.indexserver.transferThreads";
+
     /**
      * <b>settings.harvester.indexserver.indexrequestserver.class</b>: <br>
      * Setting for which type of indexrequestserver to use. The default is:
@@ -810,6 +864,20 @@ public class HarvesterSettings {
 
     public static String HERITRIX3_WARC_START_NEW_FILES_ON_CHECKPOINT = "settings.harvester.harvesting.heritrix3.warc.startNewFilesOnCheckpoint";
 
+    /**
+     * <b>settings.harvester.harvesting.heritrix3.warc.writeCDX</b> If true, Heritrix writes a CDX file next to each WARC
+     * file while writing it, and the CDX files for the metadata file are taken from these instead of being made by
+     * reading the WARC files after the harvest. The default is false.
+     */
+    public static String HERITRIX3_WARC_WRITE_CDX = "settings.harvester.harvesting.heritrix3.warc.writeCDX";
+
+    /**
+     * <b>settings.harvester.harvesting.heritrix3.warc.metadataBatchSize</b> If more than 0, the metadata of this many
+     * captures, including their outlinks, is gathered into one metadata record, with a WARC-Concurrent-To header for
+     * the response of each capture, instead of each capture getting a metadata record of its own. The default is 0.
+     */
+    public static String HERITRIX3_WARC_METADATA_BATCH_SIZE = "settings.harvester.harvesting.heritrix3.warc.metadataBatchSize";
+
     /**
      * <b>settings.harvester.harvesting.heritrix.archiveFormat</b> The dataformat used by heritrix to write the
      * harvested data. default: warc (alternative: arc)
@@ -590,6 +590,12 @@ public class H3HeritrixTemplate extends HeritrixTemplate implements Serializable
  		propertyBuilder.append(propertyName + "startNewFilesOnCheckpoint" + valuePrefix 
   				+ Settings.get(HarvesterSettings.HERITRIX3_WARC_START_NEW_FILES_ON_CHECKPOINT)
   				+ valueSuffix + propertyEnd);
+  		propertyBuilder.append(propertyName + "writeCDX" + valuePrefix 
+  				+ Settings.get(HarvesterSettings.HERITRIX3_WARC_WRITE_CDX)
+  				+ valueSuffix + propertyEnd);
+  		propertyBuilder.append(propertyName + "metadataBatchSize" + valuePrefix 
+  				+ Settings.get(HarvesterSettings.HERITRIX3_WARC_METADATA_BATCH_SIZE)
+  				+ valueSuffix + propertyEnd);
   		
   		warcWriterProcessorBean += propertyBuilder.toString();
   		warcWriterProcessorBean += "\n\n%{METADATA_ITEMS_PLACEHOLDER}\n</bean>";
@@ -23,15 +23,22 @@
 
 package dk.netarkivet.harvester.indexserver;
 
+import java.io.File;
 import java.util.regex.Pattern;
 
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.harvester.harvesting.metadata.MetadataFile;
 
 /**
- * A RawDataCache that serves files with CDX data.
+ * A RawDataCache that serves files with CDX data. The CDX data for each job is sorted once when it is cached, so
+ * indexes for sets of jobs can be made by merging the cached files.
  */
 public class CDXDataCache extends RawMetadataCache {
 
+    /** A suffix used for the sorted file while sorting. */
+    private static final String WORK_SUFFIX = ".sorted";
+
     /**
      * Create a new CDXDataCache. For a given job ID, this will fetch and cache cdx data from metadata files
      * (&lt;ID&gt;-metadata-[0-9]+.arc).
@@ -40,4 +47,22 @@ public class CDXDataCache extends RawMetadataCache {
         super("cdxdata", Pattern.compile(MetadataFile.CDX_PATTERN), Pattern.compile("application/x-cdx"));
     }
 
+    /**
+     * Sort the CDX data fetched for a job according to our standard for CDX file sorting.
+     *
+     * @param dataFile A file with the CDX data fetched for a job.
+     * @throws IOFailure If the file could not be sorted.
+     * @see FileUtils#sortCDX(File, File)
+     */
+    @Override
+    protected void postProcessCacheFile(File dataFile) {
+        File workFile = new File(dataFile.getAbsolutePath() + WORK_SUFFIX);
+        try {
+            FileUtils.sortCDX(dataFile, workFile);
+            FileUtils.moveFile(workFile, dataFile);
+        } finally {
+            FileUtils.remove(workFile);
+        }
+    }
+
 }
@@ -23,18 +23,15 @@
 
 package dk.netarkivet.harvester.indexserver;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.Map;
 import java.util.Set;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import dk.netarkivet.common.distribute.indexserver.JobIndexCache;
-import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.NotImplementedException;
 import dk.netarkivet.common.utils.FileUtils;
 
@@ -45,11 +42,16 @@ import dk.netarkivet.common.utils.FileUtils;
  * to what was asked for. For instance, if asking for data for IDs 2, 3, and 4, and 3 fails, a cached file for IDs 2 and
  * 4 will be returned. There is currently no way to tell if you got everything you asked for.
  * <p>
- * This cache uses the Unix sort(1) command as an external process call, as that one is optimized for handling large,
- * disk-based sorts.
+ * The CDX files for the single jobs are sorted by the {@link CDXDataCache}, so an index for a set of jobs is made by
+ * merging them in a single sequential pass. Should any of them not be sorted, e.g. because it was cached before the
+ * files were sorted, the merged file is sorted using the Unix sort(1) command as an external process call, as that one
+ * is optimized for handling large, disk-based sorts.
  */
 public class CDXIndexCache extends CombiningMultiFileBasedCache<Long> implements JobIndexCache {
 
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(CDXIndexCache.class);
+
     /** A suffix used by the sortFile method in the sorting process. */
     private static final String WORK_SUFFIX = ".unsorted";
 
@@ -67,7 +69,11 @@ public class CDXIndexCache extends CombiningMultiFileBasedCache<Long> implements
      */
     protected void combine(Map<Long, File> filesFound) {
         File resultFile = getCacheFile(filesFound.keySet());
-        concatenateFiles(filesFound.values(), resultFile);
+        if (FileUtils.mergeSortedFiles(new ArrayList<File>(filesFound.values()), resultFile)) {
+            return;
+        }
+        log.info("Not all CDX files for jobs {} were sorted. Sorting the combined index '{}'", filesFound.keySet(),
+                resultFile);
         File workFile = new File(resultFile.getAbsolutePath() + WORK_SUFFIX);
         workFile.deleteOnExit();
         try {
@@ -78,42 +84,6 @@ public class CDXIndexCache extends CombiningMultiFileBasedCache<Long> implements
         }
     }
 
-    /**
-     * Concatenate a set of files into a single file.
-     *
-     * @param files The files to concatenate.
-     * @param resultFile The file where the files are concatenated into.
-     */
-    private static void concatenateFiles(Collection<File> files, File resultFile) {
-        try {
-            BufferedWriter out = null;
-            try {
-                out = new BufferedWriter(new FileWriter(resultFile));
-                for (File f : files) {
-                    BufferedReader in = null;
-                    try {
-                        in = new BufferedReader(new FileReader(f));
-                        String s;
-                        while ((s = in.readLine()) != null) {
-                            out.write(s);
-                            out.newLine();
-                        }
-                    } finally {
-                        if (in != null) {
-                            in.close();
-                        }
-                    }
-                }
-            } finally {
-                if (out != null) {
-                    out.close();
-                }
-            }
-        } catch (IOException e) {
-            throw new IOFailure("Couldn't combine indexes for " + files.size() + " jobs into " + resultFile, e);
-        }
-    }
-
     @Override
     public void requestIndex(Set<Long> jobSet, Long harvestId) {
         throw new NotImplementedException("This feature is not implemented for this type of cache");
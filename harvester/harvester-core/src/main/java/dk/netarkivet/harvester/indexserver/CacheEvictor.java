@@ -0,0 +1,380 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.indexserver;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.management.SingleMBeanObject;
+
+/**
+ * Keeps the directory of a {@link FileBasedCache} within a budget of bytes, by evicting the least recently used (LRU)
+ * or least frequently used (LFU) entries.
+ * <p>
+ * The cache directory is swept at a fixed interval, and soon after an entry has been generated. An entry is never
+ * evicted while its ".working" file is locked, that is while it is being generated or checked by this or another
+ * process, nor within one sweep interval of it being handed out, so the caller has a chance to use it. Usage is only
+ * known for entries handed out by this process since it started; other entries count as last used when they were
+ * last modified.
+ */
+public class CacheEvictor implements CacheEvictorMBean {
+
+    /** Logger. */
+    private static final Logger log = LoggerFactory.getLogger(CacheEvictor.class);
+
+    /** The eviction policies. */
+    public enum Policy {
+        /** Evict the least recently used entries first. */
+        LRU,
+        /** Evict the least frequently used entries first, and the least recently used among those used equally. */
+        LFU
+    }
+
+    /** The thread sweeping the directories of all caches with a budget. */
+    private static ScheduledExecutorService sweeper;
+
+    /** The cache whose directory is kept within budget. */
+    private final FileBasedCache<?> cache;
+    /** The number of bytes the cache directory may use. */
+    private final long maxBytes;
+    /** The eviction policy. */
+    private final Policy policy;
+    /** The time in milliseconds between sweeps, also the time an entry is kept after being handed out. */
+    private final long sweepInterval;
+
+    /** The usage of entries handed out by this process, by the absolute path of the entry. */
+    private final ConcurrentMap<String, Usage> usages = new ConcurrentHashMap<String, Usage>();
+    /** Whether sweeps are scheduled in the background. */
+    private volatile boolean started;
+    /** Whether a sweep has been requested but not yet started. */
+    private final AtomicBoolean sweepPending = new AtomicBoolean();
+
+    /** The number of requests answered by an existing entry. */
+    private final AtomicLong hits = new AtomicLong();
+    /** The number of requests that caused an entry to be generated. */
+    private final AtomicLong misses = new AtomicLong();
+    /** The number of entries evicted. */
+    private final AtomicLong evictions = new AtomicLong();
+    /** The number of bytes freed by evicting entries. */
+    private final AtomicLong evictedBytes = new AtomicLong();
+    /** The number of bytes used by the cache directory at the last sweep. */
+    private volatile long footprint;
+    /** The number of entries at the last sweep. */
+    private volatile int entryCount;
+
+    /** The registration of this evictor as an MBean, or null if not registered. */
+    private SingleMBeanObject<CacheEvictorMBean> mBean;
+
+    /**
+     * Create an evictor for the given cache. It does nothing until {@link #start()} is called.
+     *
+     * @param cache The cache whose directory should be kept within budget.
+     * @param maxBytes The number of bytes the cache directory may use.
+     * @param policy The eviction policy.
+     * @param sweepInterval The time in milliseconds between sweeps.
+     * @throws ArgumentNotValid If cache or policy is null, or maxBytes or sweepInterval is not positive.
+     */
+    public CacheEvictor(FileBasedCache<?> cache, long maxBytes, Policy policy, long sweepInterval) {
+        ArgumentNotValid.checkNotNull(cache, "FileBasedCache<?> cache");
+        ArgumentNotValid.checkPositive(maxBytes, "long maxBytes");
+        ArgumentNotValid.checkNotNull(policy, "Policy policy");
+        ArgumentNotValid.checkPositive(sweepInterval, "long sweepInterval");
+        this.cache = cache;
+        this.maxBytes = maxBytes;
+        this.policy = policy;
+        this.sweepInterval = sweepInterval;
+    }
+
+    /**
+     * Start sweeping the cache directory at the sweep interval, and register this evictor as an MBean.
+     */
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        getSweeper().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                sweepQuietly();
+            }
+        }, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+        try {
+            mBean = new SingleMBeanObject<CacheEvictorMBean>("dk.netarkivet.harvester.indexserver", this,
+                    CacheEvictorMBean.class, ManagementFactory.getPlatformMBeanServer());
+            mBean.getNameProperties().put("name", cache.getCacheDir().getName());
+            mBean.register();
+        } catch (RuntimeException e) {
+            log.warn("Could not register the evictor of cache '{}' as an MBean", cache.getCacheDir().getName(), e);
+            mBean = null;
+        }
+        log.info("Keeping cache '{}' within {} bytes, evicting by {}", cache.getCacheDir().getName(), maxBytes,
+                policy);
+    }
+
+    /**
+     * Get the thread sweeping cache directories, creating it if needed.
+     *
+     * @return The sweeper.
+     */
+    private static synchronized ScheduledExecutorService getSweeper() {
+        if (sweeper == null) {
+            sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "FileBasedCache-sweeper");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sweeper;
+    }
+
+    /**
+     * Record that an entry was handed out.
+     *
+     * @param entry The cache file of the entry.
+     * @param hit Whether the entry already existed. If not, and the evictor has been started, a sweep is requested, as
+     * the entry has just been generated.
+     */
+    void recordAccess(File entry, boolean hit) {
+        final long now = System.currentTimeMillis();
+        usages.compute(entry.getAbsolutePath(), (key, usage) -> {
+            Usage result = usage == null ? new Usage() : usage;
+            result.lastAccess = now;
+            result.uses++;
+            return result;
+        });
+        if (hit) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            if (started && sweepPending.compareAndSet(false, true)) {
+                getSweeper().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        sweepQuietly();
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Sweep the cache directory, logging rather than throwing any failure, as done in the background.
+     */
+    private void sweepQuietly() {
+        try {
+            sweep();
+        } catch (RuntimeException e) {
+            log.warn("Sweeping cache '{}' failed", cache.getCacheDir().getName(), e);
+        }
+    }
+
+    /**
+     * Measure the cache directory, and evict entries in the order given by the policy until it is within budget.
+     * Entries in use are skipped.
+     */
+    synchronized void sweep() {
+        sweepPending.set(false);
+        File[] files = cache.getCacheDir().listFiles();
+        if (files == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long total = 0;
+        List<Entry> entries = new ArrayList<Entry>(files.length);
+        Set<String> present = new HashSet<String>();
+        for (File file : files) {
+            long size = sizeOf(file);
+            total += size;
+            String name = file.getName();
+            // Lock files and data being generated are not entries of their own.
+            if (name.endsWith(".working") || name.endsWith(".tmp")) {
+                continue;
+            }
+            present.add(file.getAbsolutePath());
+            Usage usage = usages.get(file.getAbsolutePath());
+            if (usage == null) {
+                entries.add(new Entry(file, size, file.lastModified(), 0));
+            } else {
+                entries.add(new Entry(file, size, usage.lastAccess, usage.uses));
+            }
+        }
+        usages.keySet().retainAll(present);
+
+        int evicted = 0;
+        if (total > maxBytes) {
+            Collections.sort(entries, policy == Policy.LFU ? Entry.BY_USES : Entry.BY_LAST_ACCESS);
+            for (Entry entry : entries) {
+                if (total <= maxBytes) {
+                    break;
+                }
+                if (now - entry.lastAccess < sweepInterval) {
+                    continue;
+                }
+                if (cache.evict(entry.file)) {
+                    log.debug("Evicted '{}' of {} bytes from cache '{}'", entry.file.getName(), entry.size,
+                            cache.getCacheDir().getName());
+                    usages.remove(entry.file.getAbsolutePath());
+                    total -= entry.size;
+                    evictions.incrementAndGet();
+                    evictedBytes.addAndGet(entry.size);
+                    evicted++;
+                }
+            }
+            if (total > maxBytes) {
+                log.warn("Cache '{}' uses {} bytes, more than its budget of {} bytes, as the remaining entries are in "
+                        + "use", cache.getCacheDir().getName(), total, maxBytes);
+            } else {
+                log.info("Evicted {} entries from cache '{}', which now uses {} bytes", evicted,
+                        cache.getCacheDir().getName(), total);
+            }
+        }
+        footprint = total;
+        entryCount = entries.size() - evicted;
+    }
+
+    /**
+     * Calculate the number of bytes used by a file, or by the files in a directory.
+     *
+     * @param file A file or directory.
+     * @return The size of the file, or the sum of the sizes of the files in the directory.
+     */
+    private static long sizeOf(File file) {
+        if (!file.isDirectory()) {
+            return file.length();
+        }
+        long size = 0;
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                size += sizeOf(f);
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public String getPolicy() {
+        return policy.name();
+    }
+
+    @Override
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public long getFootprint() {
+        return footprint;
+    }
+
+    @Override
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public long getEvictedBytes() {
+        return evictedBytes.get();
+    }
+
+    /** The usage of an entry handed out by this process. Only changed while mapped in usages. */
+    private static final class Usage {
+        /** The time the entry was last handed out. */
+        private volatile long lastAccess;
+        /** The number of times the entry was handed out. */
+        private volatile long uses;
+    }
+
+    /** An entry found in the cache directory by a sweep. */
+    private static final class Entry {
+        /** Orders entries with the least recently used first. */
+        private static final Comparator<Entry> BY_LAST_ACCESS = new Comparator<Entry>() {
+            @Override
+            public int compare(Entry e1, Entry e2) {
+                return Long.compare(e1.lastAccess, e2.lastAccess);
+            }
+        };
+        /** Orders entries with the least frequently used first, and the least recently used among those. */
+        private static final Comparator<Entry> BY_USES = new Comparator<Entry>() {
+            @Override
+            public int compare(Entry e1, Entry e2) {
+                int result = Long.compare(e1.uses, e2.uses);
+                return result != 0 ? result : BY_LAST_ACCESS.compare(e1, e2);
+            }
+        };
+
+        /** The cache file of the entry. */
+        private final File file;
+        /** The number of bytes used by the entry. */
+        private final long size;
+        /** The time the entry was last handed out. */
+        private final long lastAccess;
+        /** The number of times the entry was handed out. */
+        private final long uses;
+
+        private Entry(File file, long size, long lastAccess, long uses) {
+            this.file = file;
+            this.size = size;
+            this.lastAccess = lastAccess;
+            this.uses = uses;
+        }
+    }
+
+}
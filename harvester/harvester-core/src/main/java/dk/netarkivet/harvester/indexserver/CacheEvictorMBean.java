@@ -0,0 +1,69 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.indexserver;
+
+/**
+ * The disk usage and effectiveness of a {@link FileBasedCache} with a disk budget, as exposed through JMX.
+ */
+public interface CacheEvictorMBean {
+
+    /**
+     * @return The eviction policy, LRU or LFU.
+     */
+    String getPolicy();
+
+    /**
+     * @return The number of bytes the cache directory may use.
+     */
+    long getMaxBytes();
+
+    /**
+     * @return The number of bytes used by the cache directory at the last sweep.
+     */
+    long getFootprint();
+
+    /**
+     * @return The number of entries in the cache at the last sweep.
+     */
+    int getEntryCount();
+
+    /**
+     * @return The number of requests answered by an entry already in the cache.
+     */
+    long getHits();
+
+    /**
+     * @return The number of requests that caused an entry to be generated.
+     */
+    long getMisses();
+
+    /**
+     * @return The number of entries evicted from the cache.
+     */
+    long getEvictions();
+
+    /**
+     * @return The number of bytes freed by evicting entries from the cache.
+     */
+    long getEvictedBytes();
+}
@@ -29,6 +29,8 @@ import java.util.Map;
 import java.util.Set;
 
 import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.harvester.HarvesterSettings;
 
 /**
  * This class provides the framework for classes that cache the effort of combining multiple files into one. For
@@ -54,6 +56,7 @@ public abstract class CombiningMultiFileBasedCache<T extends Comparable<T>> exte
     protected CombiningMultiFileBasedCache(String name, FileBasedCache<T> rawcache) {
         super(name);
         this.rawcache = rawcache;
+        setDiskBudget(Settings.getLong(HarvesterSettings.INDEXSERVER_INDEX_CACHE_MAX_BYTES));
     }
 
     /**
@@ -265,7 +265,8 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
             File totalIndexDir = new File(indexLocation);
             log.info("Gzip-compressing the individual {} index files of combine task # {}",
                     totalIndexDir.list().length, indexingJobCount);
-            ZipUtils.gzipFiles(totalIndexDir, resultDir);
+            ZipUtils.gzipFiles(totalIndexDir, resultDir,
+                    Settings.getInt(HarvesterSettings.INDEXSERVER_TRANSFER_THREADS));
             log.info(
                     "Completed combine task #{} that combined a dataset with {} crawl logs (entries in combined index: {}) - compressed index has size {}",
                     indexingJobCount, datasetSize, docsInIndex, FileUtils.getHumanReadableFileSize(resultDir));
@@ -0,0 +1,337 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.indexserver;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * A compact lookup table for the data in duplicationmigration metadata records, mapping (filename, old offset) pairs
+ * in uncompressed (w)arc files to the offset of the same record in the compressed file.
+ * <p>
+ * Filenames are interned to small int IDs, and each (file ID, old offset) pair is packed into a single long key in an
+ * open addressing table of primitive longs. This keeps an entry at 16 bytes (plus free slots), where a Hashtable with
+ * Pair keys and boxed Longs costs well over 100 bytes per entry. The offsets must be less than 2^40 and there can be
+ * at most 2^23 distinct filenames.
+ */
+public class DuplicationMigrationMap {
+
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(DuplicationMigrationMap.class);
+
+    /** The annotation in crawl log lines marking a duplicate, followed by filename,offset. */
+    static final String DUPLICATE_ANNOTATION = "duplicate:\"";
+    /** The suffix appended to the filename of migrated duplicates. */
+    static final String COMPRESSED_SUFFIX = ".gz";
+
+    /** The number of bits used for the offset in a packed key. */
+    private static final int OFFSET_BITS = 40;
+    /** The largest offset that can be packed in a key. */
+    private static final long MAX_OFFSET = (1L << OFFSET_BITS) - 1;
+    /** The largest file ID that can be packed in a key. */
+    private static final int MAX_FILE_ID = (1 << (Long.SIZE - 1 - OFFSET_BITS)) - 1;
+    /** The value returned by {@link #get(String, long)} when there is no mapping. */
+    public static final long NO_OFFSET = -1L;
+    /** The largest fraction of the table that may be used before it is doubled. */
+    private static final double MAX_LOAD_FACTOR = 0.75;
+
+    /** The IDs of the interned filenames. IDs start at 1, so a packed key is never 0. */
+    private final Map<String, Integer> fileIds = new HashMap<String, Integer>();
+    /** The packed (file ID, old offset) keys. 0 marks a free slot. */
+    private long[] keys;
+    /** The new offsets, in the slot of their key. */
+    private long[] values;
+    /** The number of entries. */
+    private int size;
+
+    /**
+     * Create an empty map.
+     *
+     * @param expectedSize The number of entries expected, used for sizing the table.
+     */
+    public DuplicationMigrationMap(int expectedSize) {
+        ArgumentNotValid.checkNotNegative(expectedSize, "int expectedSize");
+        int capacity = 16;
+        while (capacity * MAX_LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+        values = new long[capacity];
+    }
+
+    /**
+     * Read the lines of a duplicationmigration record into a new map. The lines look like this:
+     * "FILENAME 496812 393343 1282069269000", where only the first three fields are used. Malformed lines are logged
+     * and ignored.
+     *
+     * @param migrationLines A reader of the lines.
+     * @return The map.
+     * @throws IOException If the lines cannot be read.
+     */
+    public static DuplicationMigrationMap readFrom(BufferedReader migrationLines) throws IOException {
+        DuplicationMigrationMap map = new DuplicationMigrationMap(0);
+        int[] fieldBounds = new int[6];
+        for (String line = migrationLines.readLine(); line != null; line = migrationLines.readLine()) {
+            if (findFields(line, fieldBounds) == 3) {
+                long oldOffset = parseOffset(line, fieldBounds[2], fieldBounds[3]);
+                long newOffset = parseOffset(line, fieldBounds[4], fieldBounds[5]);
+                if (oldOffset >= 0 && newOffset >= 0) {
+                    map.put(line.substring(fieldBounds[0], fieldBounds[1]), oldOffset, newOffset);
+                    continue;
+                }
+            }
+            log.warn("Line '{}' has a wrong format. Ignoring line", line);
+        }
+        return map;
+    }
+
+    /**
+     * Add a mapping.
+     *
+     * @param filename The name of the uncompressed file.
+     * @param oldOffset The offset of the record in the uncompressed file.
+     * @param newOffset The offset of the record in the compressed file.
+     */
+    public void put(String filename, long oldOffset, long newOffset) {
+        ArgumentNotValid.checkNotNull(filename, "String filename");
+        ArgumentNotValid.checkTrue(oldOffset >= 0 && oldOffset <= MAX_OFFSET, "Offset " + oldOffset
+                + " out of range");
+        ArgumentNotValid.checkNotNegative(newOffset, "long newOffset");
+        Integer fileId = fileIds.get(filename);
+        if (fileId == null) {
+            fileId = fileIds.size() + 1;
+            ArgumentNotValid.checkTrue(fileId <= MAX_FILE_ID, "Too many distinct filenames");
+            fileIds.put(filename, fileId);
+        }
+        if (size + 1 > keys.length * MAX_LOAD_FACTOR) {
+            resize(keys.length << 1);
+        }
+        if (insert(keys, values, pack(fileId, oldOffset), newOffset)) {
+            size++;
+        }
+    }
+
+    /**
+     * Look up the new offset of a record.
+     *
+     * @param filename The name of the uncompressed file.
+     * @param oldOffset The offset of the record in the uncompressed file.
+     * @return The offset in the compressed file, or {@link #NO_OFFSET} if there is no mapping.
+     */
+    public long get(String filename, long oldOffset) {
+        Integer fileId = fileIds.get(filename);
+        if (fileId == null || oldOffset < 0 || oldOffset > MAX_OFFSET) {
+            return NO_OFFSET;
+        }
+        long key = pack(fileId, oldOffset);
+        int mask = keys.length - 1;
+        for (int slot = slot(key, mask); keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+        }
+        return NO_OFFSET;
+    }
+
+    /**
+     * @return The number of mappings.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if there are no mappings.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Rewrite a crawl log in a single streaming pass, replacing the filename and offset of every duplicate annotation
+     * found in this map with the name of the compressed file and the new offset. Lines without a duplicate
+     * annotation, or with one that cannot be migrated, are copied unchanged.
+     *
+     * @param crawlLog A reader of the crawl log lines.
+     * @param out The writer to write the migrated crawl log to.
+     * @return The number of duplicate annotations found and the number of these that could not be migrated.
+     * @throws IOException If reading or writing fails.
+     */
+    public MigrationCount migrate(BufferedReader crawlLog, Writer out) throws IOException {
+        MigrationCount count = new MigrationCount();
+        for (String line = crawlLog.readLine(); line != null; line = crawlLog.readLine()) {
+            int annotation = line.lastIndexOf(DUPLICATE_ANNOTATION);
+            int filenameStart = annotation + DUPLICATE_ANNOTATION.length();
+            int comma = annotation < 0 ? -1 : line.indexOf(',', filenameStart);
+            int offsetEnd = comma + 1;
+            while (comma > filenameStart && offsetEnd < line.length() && Character.isDigit(line.charAt(offsetEnd))) {
+                offsetEnd++;
+            }
+            if (comma <= filenameStart || offsetEnd == comma + 1) {
+                out.write(line);
+            } else {
+                count.duplicates++;
+                String filename = line.substring(filenameStart, comma);
+                long newOffset = get(filename, parseOffset(line, comma + 1, offsetEnd));
+                if (newOffset == NO_OFFSET) {
+                    log.warn("Could not migrate duplicate in {}", line);
+                    count.failures++;
+                    out.write(line);
+                } else {
+                    out.write(line, 0, comma);
+                    out.write(COMPRESSED_SUFFIX);
+                    out.write(',');
+                    out.write(Long.toString(newOffset));
+                    out.write(line, offsetEnd, line.length() - offsetEnd);
+                }
+            }
+            out.write('\n');
+        }
+        return count;
+    }
+
+    /** The result of migrating a crawl log. */
+    public static class MigrationCount {
+        /** The number of duplicate annotations found. */
+        private long duplicates;
+        /** The number of duplicate annotations that could not be migrated. */
+        private long failures;
+
+        /**
+         * @return The number of duplicate annotations found.
+         */
+        public long getDuplicates() {
+            return duplicates;
+        }
+
+        /**
+         * @return The number of duplicate annotations that could not be migrated.
+         */
+        public long getFailures() {
+            return failures;
+        }
+    }
+
+    /**
+     * Double the table.
+     *
+     * @param capacity The new capacity, a power of two.
+     */
+    private void resize(int capacity) {
+        long[] newKeys = new long[capacity];
+        long[] newValues = new long[capacity];
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                insert(newKeys, newValues, keys[i], values[i]);
+            }
+        }
+        keys = newKeys;
+        values = newValues;
+    }
+
+    /**
+     * Insert or replace a mapping in the given table.
+     *
+     * @return true if the key was not already present.
+     */
+    private static boolean insert(long[] keys, long[] values, long key, long value) {
+        int mask = keys.length - 1;
+        int slot = slot(key, mask);
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        return true;
+    }
+
+    private static long pack(int fileId, long offset) {
+        return ((long) fileId << OFFSET_BITS) | offset;
+    }
+
+    private static int slot(long key, int mask) {
+        // Mix the bits so consecutive offsets do not cluster
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * Find the start and end of the first three whitespace separated fields in a line.
+     *
+     * @param line The line.
+     * @param bounds Array of at least 6 elements receiving start and end of each field.
+     * @return The number of fields found, at most 3.
+     */
+    private static int findFields(String line, int[] bounds) {
+        int fields = 0;
+        int i = 0;
+        int length = line.length();
+        while (fields < 3) {
+            while (i < length && Character.isWhitespace(line.charAt(i))) {
+                i++;
+            }
+            if (i == length) {
+                break;
+            }
+            bounds[2 * fields] = i;
+            while (i < length && !Character.isWhitespace(line.charAt(i))) {
+                i++;
+            }
+            bounds[2 * fields + 1] = i;
+            fields++;
+        }
+        return fields;
+    }
+
+    /**
+     * Parse a non-negative decimal number from part of a string without creating a substring.
+     *
+     * @return The number, or -1 if the part is empty, contains a non-digit or is out of range.
+     */
+    private static long parseOffset(String s, int start, int end) {
+        if (start >= end || end - start > 18) {
+            return -1;
+        }
+        long result = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+}
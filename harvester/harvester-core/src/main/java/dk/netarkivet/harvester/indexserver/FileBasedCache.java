@@ -28,9 +28,22 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.channels.FileLock;
 import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,10 +54,18 @@ import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.harvester.HarvesterSettings;
 
 /**
  * A generic cache that stores items in files. This abstract superclass handles placement of the cache directory and
  * adding/getting files using the subclasses' methods for generating filenames.
+ * <p>
+ * Concurrent requests in this process for the same item share a single computation of it, and requests for a number
+ * of items compute the missing items concurrently, with a bounded number in flight (see
+ * {@link HarvesterSettings#INDEXSERVER_INDEXING_MAX_CONCURRENT_EXTRACTIONS}).
+ * <p>
+ * Subclasses may give the cache a disk budget with {@link #setDiskBudget(long)}, in which case entries are evicted by a
+ * {@link CacheEvictor} when the cache directory grows beyond it.
  *
  * @param <T> The type of cache.
  */
@@ -56,6 +77,23 @@ public abstract class FileBasedCache<T> {
     /** Cache directory. */
     protected File cacheDir;
 
+    /**
+     * The locks held in this process on cache files, by the absolute path of the cache file. A lock is removed when
+     * no thread holds or waits for it. This is shared by all caches, as several cache instances may use the same
+     * cache directory.
+     */
+    private static final ConcurrentMap<String, PathLock> pathLocks = new ConcurrentHashMap<String, PathLock>();
+
+    /** The computations of items currently being cached by this cache, by the absolute path of the cache file. */
+    private final ConcurrentMap<String, CompletableFuture<T>> inFlight =
+            new ConcurrentHashMap<String, CompletableFuture<T>>();
+
+    /** Computes missing items for {@link #get(Set)}. Created when first needed. */
+    private ThreadPoolExecutor prefetchExecutor;
+
+    /** Keeps the cache directory within its disk budget, or null if the cache has no budget. */
+    private CacheEvictor evictor;
+
     /**
      * Creates a new FileBasedCache object. This creates a directory under the main cache directory holding cached
      * files.
@@ -80,6 +118,30 @@ public abstract class FileBasedCache<T> {
         return cacheDir;
     }
 
+    /**
+     * Keep the cache directory within a number of bytes, by evicting entries with the policy given by
+     * {@link HarvesterSettings#INDEXSERVER_CACHE_EVICTION_POLICY}. Subclasses call this from their constructor.
+     *
+     * @param maxBytes The number of bytes the cache directory may use. If not positive, the cache is unbounded.
+     */
+    protected synchronized void setDiskBudget(long maxBytes) {
+        if (maxBytes <= 0 || evictor != null) {
+            return;
+        }
+        CacheEvictor.Policy policy = CacheEvictor.Policy.valueOf(Settings.get(
+                HarvesterSettings.INDEXSERVER_CACHE_EVICTION_POLICY).trim().toUpperCase());
+        evictor = new CacheEvictor(this, maxBytes, policy,
+                Settings.getLong(HarvesterSettings.INDEXSERVER_CACHE_EVICTION_SWEEP_INTERVAL));
+        evictor.start();
+    }
+
+    /**
+     * @return The evictor keeping the cache directory within its disk budget, or null if the cache has no budget.
+     */
+    synchronized CacheEvictor getEvictor() {
+        return evictor;
+    }
+
     /**
      * Get the file that caches content for the given ID.
      *
@@ -111,57 +173,189 @@ public abstract class FileBasedCache<T> {
      * exclusive lock on a ".working" file (we cannot use the result file, as it has to be created to be locked, and we
      * may end up with a different cached file than we thought, see above). The .working file itself is irrelevant, only
      * the lock on it matters.
+     * <p>
+     * Threads in this process asking for the same id while it is being cached do not wait for the lock, but share the
+     * result of the thread already caching it.
      *
      * @param id Some sort of id that uniquely identifies the item within the cache.
      * @return The id given if it was successfully fetched, otherwise null if the type parameter I does not allow
      * subsets, or a subset of id if it does. This subset should be immediately cacheable.
      */
-    public T cache(T id) {
+    public T cache(final T id) {
         ArgumentNotValid.checkNotNull(id, "id");
-        File cachedFile = getCacheFile(id);
+        final File cachedFile = getCacheFile(id);
+        String key = cachedFile.getAbsolutePath();
+        CompletableFuture<T> computation = new CompletableFuture<T>();
+        CompletableFuture<T> running = inFlight.putIfAbsent(key, computation);
+        if (running != null) {
+            log.debug("Waiting for another thread caching '{}'", key);
+            return join(running);
+        }
         try {
-            File fileBehindLockFile = new File(cachedFile.getAbsolutePath() + ".working");
-            FileOutputStream lockFile = new FileOutputStream(fileBehindLockFile);
-            FileLock lock = null;
-            // Make sure no other thread tries to create this
-            // FIXME welcome to a memory leak, intern strings are never freed from memory again!
-            log.debug("Waiting to enter synchronization on {}", fileBehindLockFile.getAbsolutePath().intern());
-            // FIXME Potential memory leak. intern() remembers all strings until JVM exits.
-            synchronized (fileBehindLockFile.getAbsolutePath().intern()) {
-                try {
-                    // Make sure no other process tries to create this.
-                    log.debug("locking filechannel for file '{}' (thread = {})", fileBehindLockFile.getAbsolutePath(),
-                            Thread.currentThread().getName());
-                    try {
-                        lock = lockFile.getChannel().lock();
-                    } catch (OverlappingFileLockException e) {
-                        // Exception is logged below
-                        throw new IOException(e.getMessage(), e);
-                    }
+            T cached = underCacheLock(id, new Supplier<T>() {
+                @Override
+                public T get() {
                     // Now we know nobody else touches the file.
                     // If the file already exists, just return it.
+                    CacheEvictor cacheEvictor = getEvictor();
                     if (cachedFile.exists()) {
+                        if (cacheEvictor != null) {
+                            cacheEvictor.recordAccess(cachedFile, true);
+                        }
                         return id;
                     }
-                    return cacheData(id);
-                } finally {
-                    if (lock != null) {
-                        log.debug("release lock on filechannel {}", lockFile.getChannel());
-                        lock.release();
+                    T result = cacheData(id);
+                    if (cacheEvictor != null && cachedFile.exists()) {
+                        cacheEvictor.recordAccess(cachedFile, false);
                     }
-                    lockFile.close();
+                    return result;
+                }
+            });
+            computation.complete(cached);
+            return cached;
+        } catch (RuntimeException | Error e) {
+            computation.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, computation);
+        }
+    }
+
+    /**
+     * Wait for a computation of an item, rethrowing any exception thrown while computing it.
+     *
+     * @param computation The computation.
+     * @param <R> The type of result of the computation.
+     * @return The result of the computation.
+     */
+    private static <R> R join(CompletableFuture<R> computation) {
+        try {
+            return computation.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Install a file with already computed data as the cache file for the given ID, unless the ID has been cached in
+     * the meantime. This honours the same locking as {@link #cache(Object)}, and can be used by subclasses that
+     * compute the data for many IDs at once.
+     *
+     * @param id Some sort of id that uniquely identifies the item within the cache.
+     * @param dataFile A file containing the data for the id. It should reside in the cache directory, so it can be
+     * moved into place. If the id is already cached, the file is left untouched.
+     * @return true if the file was installed as the cache file for the id.
+     */
+    protected boolean installCacheFile(final T id, final File dataFile) {
+        ArgumentNotValid.checkNotNull(id, "id");
+        ArgumentNotValid.checkNotNull(dataFile, "File dataFile");
+        final File cachedFile = getCacheFile(id);
+        return underCacheLock(id, new Supplier<Boolean>() {
+            @Override
+            public Boolean get() {
+                if (cachedFile.exists()) {
+                    return false;
+                }
+                FileUtils.moveFile(dataFile, cachedFile);
+                CacheEvictor cacheEvictor = getEvictor();
+                if (cacheEvictor != null) {
+                    cacheEvictor.recordAccess(cachedFile, false);
+                }
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Remove an entry from the cache, unless it is locked by this or another process.
+     *
+     * @param cachedFile The cache file of the entry.
+     * @return true if the entry was removed.
+     */
+    boolean evict(File cachedFile) {
+        File fileBehindLockFile = new File(cachedFile.getAbsolutePath() + ".working");
+        PathLock pathLock = PathLock.tryAcquire(fileBehindLockFile.getAbsolutePath());
+        if (pathLock == null) {
+            return false;
+        }
+        try (FileOutputStream lockFile = new FileOutputStream(fileBehindLockFile)) {
+            FileLock lock;
+            try {
+                lock = lockFile.getChannel().tryLock();
+            } catch (OverlappingFileLockException e) {
+                return false;
+            }
+            if (lock == null) {
+                return false;
+            }
+            try {
+                return FileUtils.removeRecursively(cachedFile);
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            log.warn("Error evicting '{}' from the cache", cachedFile.getAbsolutePath(), e);
+            return false;
+        } finally {
+            pathLock.release();
+        }
+    }
+
+    /**
+     * Run the given action while holding both the in-process and the cross-process lock for the cache file of the
+     * given ID.
+     *
+     * @param id Some sort of id that uniquely identifies the item within the cache.
+     * @param action The action to perform under the lock.
+     * @param <R> The type of result of the action.
+     * @return The result of the action.
+     * @throws IOFailure If the lock cannot be obtained.
+     */
+    private <R> R underCacheLock(T id, Supplier<R> action) {
+        File cachedFile = getCacheFile(id);
+        File fileBehindLockFile = new File(cachedFile.getAbsolutePath() + ".working");
+        // Make sure no other thread tries to create this
+        log.debug("Waiting to enter synchronization on {}", fileBehindLockFile.getAbsolutePath());
+        PathLock pathLock = PathLock.acquire(fileBehindLockFile.getAbsolutePath());
+        try (FileOutputStream lockFile = new FileOutputStream(fileBehindLockFile)) {
+            FileLock lock = null;
+            try {
+                // Make sure no other process tries to create this.
+                log.debug("locking filechannel for file '{}' (thread = {})", fileBehindLockFile.getAbsolutePath(),
+                        Thread.currentThread().getName());
+                try {
+                    lock = lockFile.getChannel().lock();
+                } catch (OverlappingFileLockException e) {
+                    // Exception is logged below
+                    throw new IOException(e.getMessage(), e);
+                }
+                return action.get();
+            } finally {
+                if (lock != null) {
+                    log.debug("release lock on filechannel {}", lockFile.getChannel());
+                    lock.release();
                 }
             }
         } catch (IOException e) {
             String errMsg = "Error obtaining lock for file '" + cachedFile.getAbsolutePath() + "'.";
             log.warn(errMsg, e);
             throw new IOFailure(errMsg, e);
+        } finally {
+            pathLock.release();
         }
     }
 
     /**
-     * Utility method to get a number of cache entries at a time. Implementations of FileBasedCache may override this to
-     * perform the caching more efficiently, if caching overhead per file is large.
+     * Utility method to get a number of cache entries at a time. The entries not yet cached are cached concurrently,
+     * with at most {@link HarvesterSettings#INDEXSERVER_INDEXING_MAX_CONCURRENT_EXTRACTIONS} being cached at a time by
+     * this cache. Implementations of FileBasedCache may override this to perform the caching more efficiently, if
+     * caching overhead per file is large.
      *
      * @param ids List of IDs that uniquely identify a set of items within the cache.
      * @return A map from ID to the files containing cached data for those IDs. If caching failed, even partially, for
@@ -169,17 +363,89 @@ public abstract class FileBasedCache<T> {
      */
     public Map<T, File> get(Set<T> ids) {
         ArgumentNotValid.checkNotNull(ids, "Set<I> ids");
-        Map<T, File> result = new HashMap<T, File>(ids.size());
-        for (T id : ids) {
-            if (id.equals(cache(id))) {
-                result.put(id, getCacheFile(id));
-            } else {
-                result.put(id, null);
+        final List<T> idList = new ArrayList<T>(ids);
+        int missing = 0;
+        for (T id : idList) {
+            if (!getCacheFile(id).exists()) {
+                missing++;
+            }
+        }
+        long start = System.currentTimeMillis();
+        List<CompletableFuture<T>> computations = new ArrayList<CompletableFuture<T>>(idList.size());
+        if (missing == 0) {
+            // Everything is cached already, so just take the locks one at a time.
+            for (T id : idList) {
+                computations.add(CompletableFuture.completedFuture(cache(id)));
+            }
+        } else {
+            log.info("Caching data for {} of {} requested items in '{}'", missing, idList.size(),
+                    getCacheDir().getName());
+            final AtomicInteger done = new AtomicInteger();
+            ThreadPoolExecutor executor = getPrefetchExecutor();
+            for (final T id : idList) {
+                computations.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return cache(id);
+                    } finally {
+                        log.debug("Got {} of {} requested items in '{}'", done.incrementAndGet(), idList.size(),
+                                getCacheDir().getName());
+                    }
+                }, executor));
             }
         }
+        Map<T, File> result = new HashMap<T, File>(idList.size());
+        RuntimeException failure = null;
+        for (int i = 0; i < idList.size(); i++) {
+            T id = idList.get(i);
+            try {
+                if (id.equals(join(computations.get(i)))) {
+                    result.put(id, getCacheFile(id));
+                } else {
+                    result.put(id, null);
+                }
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        if (missing > 0) {
+            log.info("Got {} requested items in '{}' in {} ms", idList.size(), getCacheDir().getName(),
+                    System.currentTimeMillis() - start);
+        }
         return result;
     }
 
+    /**
+     * Get the executor computing missing items for {@link #get(Set)}, creating it if needed. Its threads time out when
+     * idle.
+     *
+     * @return The executor.
+     */
+    private synchronized ThreadPoolExecutor getPrefetchExecutor() {
+        if (prefetchExecutor == null) {
+            final String name = getCacheDir().getName();
+            final AtomicInteger threadCount = new AtomicInteger();
+            int threads = Math.max(1,
+                    Settings.getInt(HarvesterSettings.INDEXSERVER_INDEXING_MAX_CONCURRENT_EXTRACTIONS));
+            prefetchExecutor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "FileBasedCache-" + name + "-"
+                                    + threadCount.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            prefetchExecutor.allowCoreThreadTimeOut(true);
+        }
+        return prefetchExecutor;
+    }
+
     /**
      * Forgiving index generating method, that returns a file with an index, of the greatest possible subset of a given
      * id, and the subset.
@@ -207,4 +473,64 @@ public abstract class FileBasedCache<T> {
         return new Index<T>(cacheFile, response);
     }
 
+    /**
+     * A lock on a cache file within this process, counting the threads holding or waiting for it, so it can be
+     * forgotten when no longer used.
+     */
+    private static final class PathLock {
+        /** The lock. */
+        private final ReentrantLock lock = new ReentrantLock();
+        /** The path the lock is for. */
+        private final String path;
+        /** The number of threads holding or waiting for the lock. Only changed while mapped in pathLocks. */
+        private int users;
+
+        private PathLock(String path) {
+            this.path = path;
+        }
+
+        /**
+         * Acquire the lock on a path, waiting until no other thread in this process holds it.
+         *
+         * @param path The absolute path of a file.
+         * @return The acquired lock.
+         */
+        private static PathLock acquire(String path) {
+            PathLock pathLock = pathLocks.compute(path, (key, existing) -> {
+                PathLock result = existing == null ? new PathLock(key) : existing;
+                result.users++;
+                return result;
+            });
+            pathLock.lock.lock();
+            return pathLock;
+        }
+
+        /**
+         * Acquire the lock on a path, unless another thread in this process holds it.
+         *
+         * @param path The absolute path of a file.
+         * @return The acquired lock, or null if it is held by another thread.
+         */
+        private static PathLock tryAcquire(String path) {
+            PathLock pathLock = pathLocks.compute(path, (key, existing) -> {
+                PathLock result = existing == null ? new PathLock(key) : existing;
+                result.users++;
+                return result;
+            });
+            if (pathLock.lock.tryLock()) {
+                return pathLock;
+            }
+            pathLocks.computeIfPresent(path, (key, existing) -> --existing.users == 0 ? null : existing);
+            return null;
+        }
+
+        /**
+         * Release this lock, forgetting it if no other thread holds or waits for it.
+         */
+        private void release() {
+            lock.unlock();
+            pathLocks.computeIfPresent(path, (key, existing) -> --existing.users == 0 ? null : existing);
+        }
+    }
+
 }
@@ -22,25 +22,32 @@
  */
 package dk.netarkivet.harvester.indexserver;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.util.Hashtable;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.regex.Pattern;
 
-import org.apache.commons.lang.StringUtils;
-import org.apache.commons.math3.util.Pair;
+import org.apache.commons.io.IOUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.distribute.RemoteFile;
 import dk.netarkivet.common.distribute.arcrepository.ArcRepositoryClientFactory;
 import dk.netarkivet.common.distribute.arcrepository.BatchStatus;
 import dk.netarkivet.common.distribute.arcrepository.Replica;
@@ -57,6 +64,9 @@ import dk.netarkivet.common.utils.hadoop.HadoopJob;
 import dk.netarkivet.common.utils.hadoop.HadoopJobStrategy;
 import dk.netarkivet.common.utils.hadoop.HadoopJobUtils;
 import dk.netarkivet.common.utils.hadoop.MetadataExtractionStrategy;
+import dk.netarkivet.common.utils.hadoop.MultiJobHadoopJob;
+import dk.netarkivet.common.utils.hadoop.MultiJobMetadataExtractionStrategy;
+import dk.netarkivet.common.utils.hadoop.MultiJobMetadataMapper;
 import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.harvester.harvesting.metadata.MetadataFile;
 
@@ -71,6 +81,10 @@ public class RawMetadataCache extends FileBasedCache<Long> implements RawDataCac
 
     /** A regular expression object that matches everything. */
     public static final Pattern MATCH_ALL_PATTERN = Pattern.compile(".*");
+    /** The url pattern of the duplicationmigration metadata records. */
+    private static final Pattern DUPLICATION_MIGRATION_URL_PATTERN = Pattern.compile(".*duplicationmigration.*");
+    /** The mimetype pattern of the duplicationmigration metadata records. */
+    private static final Pattern DUPLICATION_MIGRATION_MIME_PATTERN = Pattern.compile("text/plain");
     /** The prefix (cache name) that this cache uses. */
     private final String prefix;
     /**
@@ -86,6 +100,9 @@ public class RawMetadataCache extends FileBasedCache<Long> implements RawDataCac
  
     /** Try to migrate jobs with a duplicationmigration record. */
     private boolean tryToMigrateDuplicationRecords;
+
+    /** The maximum number of jobs to extract data for in a single Hadoop job. */
+    private final int multiJobBatchSize;
     /**
      * Create a new RawMetadataCache. For a given job ID, this will fetch and cache selected content from metadata files
      * (&lt;ID&gt;-metadata-[0-9]+.arc). Any entry in a metadata file that matches both patterns will be returned. The
@@ -100,6 +117,7 @@ public class RawMetadataCache extends FileBasedCache<Long> implements RawDataCac
     public RawMetadataCache(String prefix, Pattern urlMatcher, Pattern mimeMatcher) {
         super(prefix);
         this.prefix = prefix;
+        setDiskBudget(Settings.getLong(HarvesterSettings.INDEXSERVER_RAW_DATA_CACHE_MAX_BYTES));
         Pattern urlMatcher1;
         if (urlMatcher != null) {
             urlMatcher1 = urlMatcher;
@@ -116,6 +134,7 @@ public class RawMetadataCache extends FileBasedCache<Long> implements RawDataCac
         mimePattern = mimeMatcher1;
         // Should we try to migrate duplicaterecords, yes or no.
         tryToMigrateDuplicationRecords = Settings.getBoolean(HarvesterSettings.INDEXSERVER_INDEXING_TRY_TO_MIGRATE_DUPLICATION_RECORDS);
+        multiJobBatchSize = Settings.getInt(CommonSettings.HADOOP_MAPRED_MULTIJOB_BATCHSIZE);
         log.info("Metadata cache for '{}' is fetching metadata with urls matching '{}' and mimetype matching '{}'. Migration of duplicate records is " 
                 + (tryToMigrateDuplicationRecords? "enabled":"disabled"), 
                 prefix, urlMatcher1.toString(), mimeMatcher1);
@@ -135,6 +154,32 @@ public class RawMetadataCache extends FileBasedCache<Long> implements RawDataCac
         return new File(getCacheDir(), prefix + "-" + id + "-cache");
     }
 
+    /**
+     * Get the cache files for a number of jobs. When using the Hadoop backend, the data for all the jobs not yet
+     * cached is extracted by as few Hadoop jobs as possible (see {@link CommonSettings#HADOOP_MAPRED_MULTIJOB_BATCHSIZE})
+     * before falling back to caching each job separately for any job the multi job extraction did not cover.
+     *
+     * @param ids Set of job IDs.
+     * @return A map from ID to the files containing cached data for those IDs.
+     * @see FileBasedCache#get(Set)
+     */
+    @Override
+    public Map<Long, File> get(Set<Long> ids) {
+        ArgumentNotValid.checkNotNull(ids, "Set<Long> ids");
+        if (Settings.getBoolean(CommonSettings.USE_BITMAG_HADOOP_BACKEND) && multiJobBatchSize > 1) {
+            Set<Long> uncachedIds = new TreeSet<Long>();
+            for (Long id : ids) {
+                if (!getCacheFile(id).exists()) {
+                    uncachedIds.add(id);
+                }
+            }
+            if (uncachedIds.size() > 1) {
+                cacheDataHadoopMultiJob(uncachedIds);
+            }
+        }
+        return super.get(ids);
+    }
+
     /**
      * Actually cache data for the given ID.
      *
@@ -143,11 +188,26 @@ public class RawMetadataCache extends FileBasedCache<Long> implements RawDataCac
      * @see FileBasedCache#cacheData(Object)
      */
     protected Long cacheData(Long id) {
+        Long cached;
         if (Settings.getBoolean(CommonSettings.USE_BITMAG_HADOOP_BACKEND)) {
-            return cacheDataHadoop(id);
+            cached = cacheDataHadoop(id);
         } else {
-            return cacheDataBatch(id);
+            cached = cacheDataBatch(id);
         }
+        if (cached != null) {
+            postProcessCacheFile(getCacheFile(cached));
+        }
+        return cached;
+    }
+
+    /**
+     * Process the data fetched for a job before it is used from the cache. This is intended to be overridden by caches
+     * that store the data in a different form than it is extracted in. By default, nothing is done.
+     *
+     * @param dataFile A file with the data fetched for a job.
+     * @throws IOFailure If the file cannot be processed.
+     */
+    protected void postProcessCacheFile(File dataFile) {
     }
 
     /**
@@ -174,8 +234,7 @@ public class RawMetadataCache extends FileBasedCache<Long> implements RawDataCac
             File cacheFileName = getCacheFile(id);
             if (tryToMigrateDuplicationRecords) {
                 log.warn("Attempting to migrate duplication records via hadoop. This operation is not well tested.");
-                List<String> metadataLines = HadoopJobUtils.collectOutputLines(fileSystem, job.getJobOutputDir());
-                migrateDuplicatesHadoop(id, fileSystem, specifiedPattern, metadataLines, cacheFileName);
+                migrateDuplicatesHadoop(id, fileSystem, specifiedPattern, job.getJobOutputDir(), cacheFileName);
             } else {
                 log.info("Collecting hadoop output to {}", cacheFileName.getAbsolutePath());
                 try (OutputStream os = new FileOutputStream(cacheFileName)) {
@@ -191,6 +250,82 @@ public class RawMetadataCache extends FileBasedCache<Long> implements RawDataCac
         }
     }
 
+    /**
+     * Cache data for many jobs using as few Hadoop jobs as possible. Each Hadoop job covers up to multiJobBatchSize
+     * jobs and extracts both the selected metadata and, if migration is enabled for this cache, the
+     * duplicationmigration records in the same pass. The output is partitioned per job and installed directly as the
+     * cache files. Jobs that fail here are left uncached, so they are retried separately by {@link #cache(Object)}.
+     *
+     * @param ids The job IDs to cache data for.
+     */
+    private void cacheDataHadoopMultiJob(Set<Long> ids) {
+        final String metadataFilePatternSuffix = Settings.get(CommonSettings.METADATAFILE_REGEX_SUFFIX);
+        final boolean migrate = tryToMigrateDuplicationRecords
+                && urlPattern.pattern().equals(MetadataFile.CRAWL_LOG_PATTERN);
+        List<Long> idList = new ArrayList<Long>(ids);
+        for (int start = 0; start < idList.size(); start += multiJobBatchSize) {
+            List<Long> batch = idList.subList(start, Math.min(start + multiJobBatchSize, idList.size()));
+            log.info("Extracting data for '{}' for {} jobs in a single Hadoop job", prefix, batch.size());
+            Configuration conf = HadoopJobUtils.getConf();
+            conf.setPattern(GetMetadataMapper.URL_PATTERN, urlPattern);
+            conf.setPattern(GetMetadataMapper.MIME_PATTERN, mimePattern);
+            if (migrate) {
+                conf.setPattern(MultiJobMetadataMapper.MIGRATION_URL_PATTERN, DUPLICATION_MIGRATION_URL_PATTERN);
+                conf.setPattern(MultiJobMetadataMapper.MIGRATION_MIME_PATTERN, DUPLICATION_MIGRATION_MIME_PATTERN);
+            }
+            try (FileSystem fileSystem = FileSystem.newInstance(conf)) {
+                HadoopJobStrategy jobStrategy = new MultiJobMetadataExtractionStrategy(batch.size(), fileSystem);
+                MultiJobHadoopJob job = new MultiJobHadoopJob(batch, jobStrategy);
+                job.processOnlyFilesMatchingSuffix(metadataFilePatternSuffix);
+                job.prepareJobInputOutput(fileSystem);
+                try {
+                    job.run();
+                    for (Long id : batch) {
+                        installMultiJobOutput(id, fileSystem, job, migrate);
+                    }
+                } finally {
+                    job.cleanup(fileSystem);
+                }
+            } catch (IOException | IOFailure e) {
+                log.warn("Multi job extraction for '{}' failed for jobs {}. They will be cached one at a time.",
+                        prefix, batch, e);
+            }
+        }
+    }
+
+    /**
+     * Helper method for {@link #cacheDataHadoopMultiJob(Set)}.
+     * Collects the output of a multi job extraction for one job, migrates duplicate annotations if there is a
+     * duplicationmigration record for the job, post processes it, and installs the result as the cache file of the
+     * job.
+     *
+     * @param id The ID of the job.
+     * @param fileSystem The filesystem the Hadoop job ran on.
+     * @param job The finished multi job extraction.
+     * @param migrate Whether migration records were extracted.
+     * @throws IOException If the output cannot be collected.
+     */
+    private void installMultiJobOutput(Long id, FileSystem fileSystem, MultiJobHadoopJob job, boolean migrate)
+            throws IOException {
+        DuplicationMigrationMap lookup = null;
+        if (migrate) {
+            try (InputStream migrationLines = job.openOutput(fileSystem, id, MultiJobMetadataMapper.MIGRATION_OUTPUT)) {
+                lookup = readMigrationMap(id, migrationLines);
+            }
+        }
+        File dataFile = File.createTempFile(prefix + "-" + id + "-", ".tmp", getCacheDir());
+        try (InputStream metadataLines = job.openOutput(fileSystem, id, MultiJobMetadataMapper.METADATA_OUTPUT)) {
+            writeMigratedCrawlLog(id, metadataLines, lookup, dataFile);
+        }
+        postProcessCacheFile(dataFile);
+        if (installCacheFile(id, dataFile)) {
+            log.debug("Cached data for job '{}' for '{}'", id, prefix);
+        } else {
+            log.debug("Data for job '{}' for '{}' was cached concurrently. Discarding multi job output", id, prefix);
+            FileUtils.remove(dataFile);
+        }
+    }
+
     /**
      * If this cache represents a crawllog cache then this method will attempt to migrate any duplicate annotations in
      * the crawl log using data in the duplicationmigration metadata record. This migrates filename/offset
@@ -199,90 +334,35 @@ public class RawMetadataCache extends FileBasedCache<Long> implements RawDataCac
      * @param id the id of the cache
      * @param fileSystem the filesystem on which the operations are carried out
      * @param specifiedPattern the pattern specifying the files to be found
-     * @param originalJobResults the original hadoop job results which is a list containing the unmigrated data.
+     * @param originalJobOutputDir the output directory of the original hadoop job containing the unmigrated data.
      * @param cacheFileName the cache file for the job which the index cache is copied to.
+     * @throws IOException If the job output cannot be read.
      */
-    private void migrateDuplicatesHadoop(Long id, FileSystem fileSystem, String specifiedPattern, List<String> originalJobResults, File cacheFileName) {
-        log.debug("Looking for a duplicationmigration record for id {}", id);
+    private void migrateDuplicatesHadoop(Long id, FileSystem fileSystem, String specifiedPattern,
+            Path originalJobOutputDir, File cacheFileName) throws IOException {
+        DuplicationMigrationMap lookup = null;
         if (urlPattern.pattern().equals(MetadataFile.CRAWL_LOG_PATTERN)) {
+            log.debug("Looking for a duplicationmigration record for id {}", id);
             Configuration conf = fileSystem.getConf();
-            conf.setPattern(GetMetadataMapper.URL_PATTERN, Pattern.compile(".*duplicationmigration.*"));
-            conf.setPattern(GetMetadataMapper.MIME_PATTERN, Pattern.compile("text/plain"));
+            conf.setPattern(GetMetadataMapper.URL_PATTERN, DUPLICATION_MIGRATION_URL_PATTERN);
+            conf.setPattern(GetMetadataMapper.MIME_PATTERN, DUPLICATION_MIGRATION_MIME_PATTERN);
             HadoopJobStrategy jobStrategy = new MetadataExtractionStrategy(id, fileSystem);
             HadoopJob job = new HadoopJob(id, jobStrategy);
             job.processOnlyFilesMatching(specifiedPattern);
             job.prepareJobInputOutput(fileSystem);
             job.run();
-
-            try {
-                List<String> metadataLines = HadoopJobUtils.collectOutputLines(fileSystem, job.getJobOutputDir());
-                handleMigrationHadoop(id, metadataLines, originalJobResults, cacheFileName);
+            try (InputStream migrationLines = HadoopJobUtils.openOutputFiles(fileSystem, job.getJobOutputDir())) {
+                lookup = readMigrationMap(id, migrationLines);
             } catch (IOException e) {
                 log.error("Failed getting duplicationmigration lines output from Hadoop job with ID: {}", id);
+            } finally {
+                fileSystem.delete(job.getJobOutputDir(), true);
             }
-        } else {
-            copyResults(id, originalJobResults, cacheFileName);
-        }
-    }
-
-    /**
-     * Helper method for {@link #migrateDuplicatesHadoop}.
-     * Does the actual handling of migration after the job has finished successfully.
-     * @param id The id of the cache.
-     * @param metadataLines The resulting lines from the duplication-migration job.
-     * @param originalJobResults The original hadoop job results which is a list containing the unmigrated data.
-     * @param cacheFileName The cache file for the job which the index cache is copied to.
-     */
-    private void handleMigrationHadoop(Long id, List<String> metadataLines, List<String> originalJobResults,
-            File cacheFileName) {
-        File migration = null;
-        try {
-            migration = File.createTempFile("migration", "txt");
-        } catch (IOException e) {
-            throw new IOFailure("Could not create temporary output file.");
-        }
-        if (metadataLines.size() > 0) {
-            copyResults(id, metadataLines, migration);
-        }
-        boolean doMigration = migration.exists() && migration.length() > 0;
-        if (doMigration) {
-            log.info("Found a nonempty duplicationmigration record. Now we do the migration for job {}", id);
-            Hashtable<Pair<String, Long>, Long> lookup = createLookupTableFromMigrationLines(id, migration);
-
-            File crawllog = createTempOutputFile();
-            copyResults(id, originalJobResults, crawllog);
-            migrateFilenameOffsetPairs(id, cacheFileName, crawllog, lookup);
-        } else {
-            copyResults(id, originalJobResults, cacheFileName);
-        }
-    }
-
-    /**
-     * Helper method for creating a temp file to copy job results to.
-     * @return A new temp file to copy output to.
-     */
-    private File createTempOutputFile() {
-        File crawllog = null;
-        try {
-            crawllog = File.createTempFile("dedup", "txt");
-        } catch (IOException e) {
-            throw new IOFailure("Could not create temporary output file.");
         }
-        return crawllog;
-    }
-
-    /**
-     * Helper method for Hadoop methods.
-     * Copies the results of a job to a file.
-     * @param id The ID of the current job.
-     * @param jobResults The resulting lines output from a job.
-     * @param file The file to copy the results to.
-     */
-    private void copyResults(Long id, List<String> jobResults, File file) {
-        try {
-            Files.write(Paths.get(file.getAbsolutePath()), jobResults);
-        } catch (IOException e) {
-            throw new IOFailure("Failed writing results of job with ID '" + id + "' to file " + file.getAbsolutePath());
+        try (InputStream crawlLog = HadoopJobUtils.openOutputFiles(fileSystem, originalJobOutputDir)) {
+            writeMigratedCrawlLog(id, crawlLog, lookup, cacheFileName);
+        } finally {
+            fileSystem.delete(originalJobOutputDir, true);
         }
     }
 
@@ -364,26 +444,30 @@ public class RawMetadataCache extends FileBasedCache<Long> implements RawDataCac
     private void migrateDuplicatesBatch(Long id, String replicaUsed, String specifiedPattern, BatchStatus originalBatchJob, File cacheFileName) {
         log.debug("Looking for a duplicationmigration record for id {}", id);
         if (urlPattern.pattern().equals(MetadataFile.CRAWL_LOG_PATTERN)) {
-            GetMetadataArchiveBatchJob job2 = new GetMetadataArchiveBatchJob(Pattern.compile(".*duplicationmigration.*"), Pattern.compile("text/plain"));
+            GetMetadataArchiveBatchJob job2 = new GetMetadataArchiveBatchJob(DUPLICATION_MIGRATION_URL_PATTERN,
+                    DUPLICATION_MIGRATION_MIME_PATTERN);
             job2.processOnlyFilesMatching(specifiedPattern);
             BatchStatus b2 = arcrep.batch(job2, replicaUsed);
-            File migration = null;
-            try {
-                migration = File.createTempFile("migration", "txt");
-            } catch (IOException e) {
-                throw new IOFailure("Could not create temporary output file.");
-            }
+            DuplicationMigrationMap lookup = null;
             if (b2.hasResultFile()) {
-                b2.copyResults(migration);
+                RemoteFile migrationFile = b2.getResultFile();
+                try (InputStream migrationLines = migrationFile.getInputStream()) {
+                    lookup = readMigrationMap(id, migrationLines);
+                } catch (IOException e) {
+                    throw new IOFailure("Could not read duplicationmigration lines for job " + id, e);
+                } finally {
+                    migrationFile.cleanup();
+                }
             }
-            boolean doMigration = migration.exists() && migration.length() > 0;
-            if (doMigration) {
-                log.info("Found a nonempty duplicationmigration record. Now we do the migration for job {}", id);
-                Hashtable<Pair<String, Long>, Long> lookup = createLookupTableFromMigrationLines(id, migration);
-
-                File crawllog = createTempOutputFile();
-                originalBatchJob.copyResults(crawllog);
-                migrateFilenameOffsetPairs(id, cacheFileName, crawllog, lookup);
+            if (lookup != null && !lookup.isEmpty()) {
+                RemoteFile crawlLogFile = originalBatchJob.getResultFile();
+                try (InputStream crawlLog = crawlLogFile.getInputStream()) {
+                    writeMigratedCrawlLog(id, crawlLog, lookup, cacheFileName);
+                } catch (IOException e) {
+                    throw new IOFailure("Could not migrate crawl log for job " + id, e);
+                } finally {
+                    crawlLogFile.cleanup();
+                }
             } else {
                 originalBatchJob.copyResults(cacheFileName);
             }
@@ -394,73 +478,44 @@ public class RawMetadataCache extends FileBasedCache<Long> implements RawDataCac
 
     /**
      * Helper method.
-     * Does the actual migration of filename/offset pairs from uncompressed to compressed (w)arc files.
-     * This method has the side effect of copying the index cache (whether migrated or not) into the cache file
-     * whose name is generated from the ID
-     * @param id The ID of the current job.
-     * @param cacheFileName The cache file for the job which the index cache is copied to.
-     * @param crawllog A temp file containing the resulting lines of the Hadoop job.
-     * @param lookup A lookup table to get the filename/offset pairs from.
+     * Reads the lines of a duplicationmigration record into a compact lookup table of filename/offset pairs.
+     * @param id The ID for the current job.
+     * @param migrationLines A stream of the extracted metadata lines. It is not closed by this method.
+     * @return A lookup table of filename/offset pairs, which is empty if there were no lines.
+     * @throws IOException If the lines cannot be read.
      */
-    private void migrateFilenameOffsetPairs(Long id, File cacheFileName, File crawllog, Hashtable<Pair<String, Long>, Long> lookup) {
-        Pattern duplicatePattern = Pattern.compile(".*duplicate:\"([^,]+),([0-9]+).*");
-        try {
-            int matches = 0;
-            int errors = 0;
-            for (String line : org.apache.commons.io.FileUtils.readLines(crawllog)) {
-                Matcher m = duplicatePattern.matcher(line);
-                if (m.matches()) {
-                    matches++;
-                    Long newOffset = lookup.get(new Pair<String, Long>(m.group(1), Long.parseLong(m.group(2))));
-                    if (newOffset == null) {
-                        log.warn("Could not migrate duplicate in " + line);
-                        FileUtils.appendToFile(cacheFileName, line);
-                        errors++;
-                    } else {
-                        String newLine = line.substring(0, m.start(2)) + newOffset + line.substring(m.end(2));
-                        newLine = newLine.replace(m.group(1), m.group(1) + ".gz");
-                        FileUtils.appendToFile(cacheFileName, newLine);
-                    }
-                } else {
-                    FileUtils.appendToFile(cacheFileName, line);
-                }
-            }
-            log.info("Found and migrated {} duplicate lines for job {} with {} errors", matches, id, errors);
-        } catch (IOException e) {
-            throw new IOFailure("Could not read " + crawllog.getAbsolutePath());
-        } finally {
-            crawllog.delete();
-        }
+    private DuplicationMigrationMap readMigrationMap(Long id, InputStream migrationLines) throws IOException {
+        DuplicationMigrationMap lookup = DuplicationMigrationMap.readFrom(new BufferedReader(new InputStreamReader(
+                migrationLines)));
+        log.info("{} migration records found for job {}", lookup.size(), id);
+        return lookup;
     }
 
     /**
      * Helper method.
-     * Generates a lookup table of filename/offset pairs from a file containing extracted metadata lines.
-     * @param id The ID for the current job.
-     * @param migrationFile The file containing the extracted metadata lines.
-     * @return A lookup table of filename/offset pairs.
+     * Writes the crawl log lines to the cache file in a single streaming pass, migrating the filename/offset pairs of
+     * duplicate annotations from uncompressed to compressed (w)arc files on the way if there is a lookup table.
+     * @param id The ID of the current job.
+     * @param crawlLog A stream of the unmigrated lines. It is not closed by this method.
+     * @param lookup A lookup table to get the filename/offset pairs from, or null or empty for no migration.
+     * @param cacheFileName The cache file for the job which the lines are written to.
+     * @throws IOException If reading or writing the lines fails.
      */
-    private Hashtable<Pair<String, Long>, Long> createLookupTableFromMigrationLines(Long id, File migrationFile) {
-        Hashtable<Pair<String, Long>, Long> lookup = new Hashtable<>();
-        try {
-            final List<String> migrationLines = org.apache.commons.io.FileUtils.readLines(migrationFile);
-            log.info("{} migrationFile records found for job {}", migrationLines.size(), id);
-            for (String line : migrationLines) {
-                // duplicationmigration lines look like this: "FILENAME 496812 393343 1282069269000"
-                // But only the first 3 entries are used.
-                String[] splitLine = StringUtils.split(line);
-                if (splitLine.length >= 3) {
-                    lookup.put(new Pair<String, Long>(splitLine[0], Long.parseLong(splitLine[1])),
-                         Long.parseLong(splitLine[2]));
-                } else {
-                   log.warn("Line '" + line + "' has a wrong format. Ignoring line");
-                }
+    private void writeMigratedCrawlLog(Long id, InputStream crawlLog, DuplicationMigrationMap lookup,
+            File cacheFileName) throws IOException {
+        if (lookup == null || lookup.isEmpty()) {
+            log.info("Collecting output for job {} to {}", id, cacheFileName.getAbsolutePath());
+            try (OutputStream os = new FileOutputStream(cacheFileName)) {
+                IOUtils.copy(crawlLog, os);
             }
-        } catch (IOException e) {
-            throw new IOFailure("Could not read " + migrationFile.getAbsolutePath());
-        } finally {
-            migrationFile.delete();
+            return;
+        }
+        log.info("Found a nonempty duplicationmigration record. Now we do the migration for job {}", id);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(cacheFileName)))) {
+            DuplicationMigrationMap.MigrationCount count = lookup.migrate(
+                    new BufferedReader(new InputStreamReader(crawlLog)), out);
+            log.info("Found and migrated {} duplicate lines for job {} with {} errors", count.getDuplicates(), id,
+                    count.getFailures());
         }
-        return lookup;
     }
 }
@@ -24,11 +24,18 @@ package dk.netarkivet.harvester.indexserver.distribute;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.EnumMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -101,6 +108,20 @@ public class IndexRequestClient extends MultiFileBasedCache<Long> implements Job
      */
     public static final String INDEXREQUEST_USE_LOCAL_FTPSERVER = "settings.common.indexClient.useLocalFtpServer";
 
+    /**
+     * <b>settings.common.indexClient.cacheMaxBytes</b>: <br>
+     * Setting for the maximum number of bytes used by each local cache of indexes received from the index server. Least
+     * used indexes are evicted when a cache grows beyond this. The default is 0, meaning no limit.
+     */
+    public static final String INDEXREQUEST_CACHE_MAX_BYTES = "settings.common.indexClient.cacheMaxBytes";
+
+    /**
+     * <b>settings.common.indexClient.transferThreads</b>: <br>
+     * Setting for the number of files of an index that are fetched from the index server and unzipped at the same
+     * time. The default is 4.
+     */
+    public static final String INDEXREQUEST_TRANSFER_THREADS = "settings.common.indexClient.transferThreads";
+
     /**
      * Initialise this client, handling requests of a given type. Start listening to channel if not done yet.
      *
@@ -109,6 +130,7 @@ public class IndexRequestClient extends MultiFileBasedCache<Long> implements Job
     private IndexRequestClient(RequestType type) {
         super(type.name());
         this.requestType = type;
+        setDiskBudget(Settings.getLong(INDEXREQUEST_CACHE_MAX_BYTES));
     }
 
     /**
@@ -213,7 +235,8 @@ public class IndexRequestClient extends MultiFileBasedCache<Long> implements Job
 
     /**
      * Gunzip a list of RemoteFiles into a given directory. The actual unzipping takes place in a temporary directory
-     * which gets renamed, so the directory appears to be created atomically.
+     * which gets renamed, so the directory appears to be created atomically. The files are fetched and unzipped
+     * concurrently, {@link #INDEXREQUEST_TRANSFER_THREADS} at a time.
      *
      * @param files List of RemoteFiles to gunzip. The RemoteFiles will be deleted as part of the process.
      * @param toDir The directory that the gunzipped files will eventually be placed in. This directory will be created
@@ -222,51 +245,80 @@ public class IndexRequestClient extends MultiFileBasedCache<Long> implements Job
      */
     private void gunzipToDir(List<RemoteFile> files, File toDir) throws IOFailure {
         File tmpDir = FileUtils.createUniqueTempDir(toDir.getParentFile(), toDir.getName());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,
+                Math.min(files.size(), Settings.getInt(INDEXREQUEST_TRANSFER_THREADS))));
         try {
             FileUtils.createDir(tmpDir);
-            for (RemoteFile f : files) {
+            List<CompletableFuture<Void>> transfers = new ArrayList<CompletableFuture<Void>>(files.size());
+            for (final RemoteFile f : files) {
                 String destFileName = f.getName();
                 destFileName = destFileName.substring(0, destFileName.length() - ZipUtils.GZIP_SUFFIX.length());
-                File destFile = new File(tmpDir, destFileName);
-                unzipAndDeleteRemoteFile(f, destFile);
+                final File destFile = new File(tmpDir, destFileName);
+                transfers.add(CompletableFuture.runAsync(() -> unzipAndDeleteRemoteFile(f, destFile), executor));
+            }
+            for (CompletableFuture<Void> transfer : transfers) {
+                try {
+                    transfer.join();
+                } catch (CompletionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new IOFailure("Error unzipping index into '" + toDir.getAbsolutePath() + "'", e.getCause());
+                }
             }
             if (!tmpDir.renameTo(toDir)) {
                 throw new IOFailure("Error renaming temp dir '" + tmpDir + "' to target directory '"
                         + toDir.getAbsolutePath() + "'");
             }
         } finally {
+            // After a failure the other files may still be being written, so wait for them before removing them.
+            executor.shutdownNow();
+            try {
+                while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    log.debug("Waiting for running index transfers to finish");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
             FileUtils.removeRecursively(tmpDir);
         }
     }
 
     /**
      * Unzip a RemoteFile to a given file, deleting the RemoteFile afterwards. Problems arising while deleting are
-     * logged, but do not cause exceptions.
+     * logged, but do not cause exceptions. An FTPRemoteFile is copied to a temporary file first, so the retries of
+     * {@link RemoteFile#copyTo(File)} are kept; other files are unzipped as they are fetched.
      *
      * @param remoteFile A file to download. This file will be attempted deleted after successfull unzipping.
      * @param destFile A place to put the unzipped file.
      * @throws IOFailure on any I/O error, e.g. disk full
      */
     private void unzipAndDeleteRemoteFile(RemoteFile remoteFile, File destFile) throws IOFailure {
-        File tmpFile = null;
-        try {
-            // We cannot unzip directly from a stream, so we make a temp file.
-            tmpFile = File.createTempFile("remotefile-unzip", ".gz", FileUtils.getTempDir());
-            remoteFile.copyTo(tmpFile);
-            ZipUtils.gunzipFile(tmpFile, destFile);
+        if (remoteFile instanceof FTPRemoteFile) {
+            File tmpFile = null;
             try {
-                remoteFile.cleanup();
-            } catch (IOFailure e) {
-                log.debug("Trouble deleting file '" + remoteFile.getName() + "' from FTP server after saving it", e);
+                tmpFile = File.createTempFile("remotefile-unzip", ".gz", FileUtils.getTempDir());
+                remoteFile.copyTo(tmpFile);
+                ZipUtils.gunzipFile(tmpFile, destFile);
+            } catch (IOException e) {
+                throw new IOFailure("Error making temporary file in " + FileUtils.getTempDir(), e);
+            } finally {
+                if (tmpFile != null) {
+                    FileUtils.remove(tmpFile);
+                }
             }
-        } catch (IOException e) {
-            // All other IOExceptions have already been turned into IOFailure
-            throw new IOFailure("Error making temporary file in " + FileUtils.getTempDir(), e);
-        } finally {
-            if (tmpFile != null) {
-                FileUtils.remove(tmpFile);
+        } else {
+            try (InputStream in = remoteFile.getInputStream()) {
+                ZipUtils.gunzipStream(in, destFile);
+            } catch (IOException e) {
+                throw new IOFailure("Error fetching '" + remoteFile.getName() + "' into '" + destFile + "'", e);
             }
         }
+        try {
+            remoteFile.cleanup();
+        } catch (IOFailure e) {
+            log.debug("Trouble deleting file '" + remoteFile.getName() + "' from FTP server after saving it", e);
+        }
     }
 
     /**
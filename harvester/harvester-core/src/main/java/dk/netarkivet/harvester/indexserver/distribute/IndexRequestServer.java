@@ -37,6 +37,10 @@ import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.io.IOUtils;
@@ -478,12 +482,13 @@ public final class IndexRequestServer extends HarvesterMessageHandler implements
     }
 
     /**
-     * Package the result files with the message reply.
+     * Package the result files with the message reply. The files of an index stored in a directory are prepared for
+     * transfer concurrently, {@link HarvesterSettings#INDEXSERVER_TRANSFER_THREADS} at a time.
      *
      * @param irMsg the message being answered
      * @param cacheFile The location of the result on disk.
      */
-    private void packageResultFiles(IndexRequestMessage irMsg, File cacheFile) {
+    private void packageResultFiles(final IndexRequestMessage irMsg, File cacheFile) {
         RemoteFileSettings connectionParams = irMsg.getRemoteFileSettings();
 
         if (connectionParams != null) {
@@ -493,13 +498,35 @@ public final class IndexRequestServer extends HarvesterMessageHandler implements
             // This cache uses multiple files stored in a directory,
             // so transfer them all.
             File[] cacheFiles = cacheFile.listFiles();
-            List<RemoteFile> resultFiles = new ArrayList<RemoteFile>(cacheFiles.length);
-            for (File f : cacheFiles) {
-                RemoteFile copyfileInstance = RemoteFileFactory.getCopyfileInstance(f, irMsg.getRemoteFileSettings());
-                log.info("Created remote file " + copyfileInstance + " for " + f.getAbsolutePath());
-                resultFiles.add(copyfileInstance);
+            List<CompletableFuture<RemoteFile>> copies = new ArrayList<CompletableFuture<RemoteFile>>(
+                    cacheFiles.length);
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,
+                    Math.min(cacheFiles.length, Settings.getInt(HarvesterSettings.INDEXSERVER_TRANSFER_THREADS))));
+            try {
+                for (final File f : cacheFiles) {
+                    copies.add(CompletableFuture.supplyAsync(() -> {
+                        RemoteFile copyfileInstance = RemoteFileFactory.getCopyfileInstance(f,
+                                irMsg.getRemoteFileSettings());
+                        log.info("Created remote file " + copyfileInstance + " for " + f.getAbsolutePath());
+                        return copyfileInstance;
+                    }, executor));
+                }
+                List<RemoteFile> resultFiles = new ArrayList<RemoteFile>(cacheFiles.length);
+                for (CompletableFuture<RemoteFile> copy : copies) {
+                    try {
+                        resultFiles.add(copy.join());
+                    } catch (CompletionException e) {
+                        if (e.getCause() instanceof RuntimeException) {
+                            throw (RuntimeException) e.getCause();
+                        }
+                        throw new IOFailure("Error preparing index files in '" + cacheFile + "' for transfer",
+                                e.getCause());
+                    }
+                }
+                irMsg.setResultFiles(resultFiles);
+            } finally {
+                executor.shutdownNow();
             }
-            irMsg.setResultFiles(resultFiles);
         } else {
             irMsg.setResultFile(RemoteFileFactory.getCopyfileInstance(cacheFile, irMsg.getRemoteFileSettings()));
         }
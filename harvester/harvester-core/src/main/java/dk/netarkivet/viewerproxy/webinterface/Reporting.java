@@ -36,9 +36,12 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
@@ -68,9 +71,12 @@ import dk.netarkivet.common.utils.cdx.CDXRecord;
 import dk.netarkivet.common.utils.hadoop.HadoopJob;
 import dk.netarkivet.common.utils.hadoop.HadoopJobStrategy;
 import dk.netarkivet.common.utils.hadoop.HadoopJobUtils;
+import dk.netarkivet.common.utils.hadoop.MultiJobHadoopJob;
 import dk.netarkivet.common.utils.service.FileResolver;
 import dk.netarkivet.viewerproxy.webinterface.hadoop.CrawlLogExtractionStrategy;
 import dk.netarkivet.viewerproxy.webinterface.hadoop.MetadataCDXExtractionStrategy;
+import dk.netarkivet.viewerproxy.webinterface.hadoop.MultiJobMetadataCDXExtractionStrategy;
+import dk.netarkivet.viewerproxy.webinterface.hadoop.MultiJobMetadataCDXMapper;
 
 /**
  * Methods for generating the batch results needed by the QA pages.
@@ -177,6 +183,78 @@ public class Reporting {
         }
     }
 
+    /**
+     * Get the cdx records for all metadata files of a number of jobs. With the Hadoop backend, the records of all
+     * the jobs not already cached are generated by as few Hadoop jobs as possible, see
+     * {@link CommonSettings#HADOOP_MAPRED_MULTIJOB_BATCHSIZE}.
+     *
+     * @param jobids The jobs to get cdx for.
+     * @throws ArgumentNotValid If jobids is null or contains a 0 or negative jobid.
+     * @return A map from jobid to the list of cdx records for that job, in the iteration order of the given jobids.
+     */
+    public static Map<Long, List<CDXRecord>> getMetadataCDXRecordsForJobs(Set<Long> jobids) {
+        ArgumentNotValid.checkNotNull(jobids, "Set<Long> jobids");
+        for (Long jobid : jobids) {
+            ArgumentNotValid.checkPositive(jobid, "jobid");
+        }
+        int batchSize = Settings.getInt(CommonSettings.HADOOP_MAPRED_MULTIJOB_BATCHSIZE);
+        if (Settings.getBoolean(CommonSettings.USE_BITMAG_HADOOP_BACKEND) && batchSize > 1) {
+            Set<Long> uncached = new TreeSet<>();
+            for (Long jobid : jobids) {
+                File cacheFile = getCDXCacheFile(jobid);
+                if (!cacheFile.exists() || cacheFile.length() == 0) {
+                    uncached.add(jobid);
+                }
+            }
+            if (uncached.size() > 1) {
+                List<Long> uncachedList = new ArrayList<>(uncached);
+                for (int start = 0; start < uncachedList.size(); start += batchSize) {
+                    cacheRecordsUsingHadoopMultiJob(
+                            uncachedList.subList(start, Math.min(start + batchSize, uncachedList.size())));
+                }
+            }
+        }
+        Map<Long, List<CDXRecord>> result = new LinkedHashMap<>();
+        for (Long jobid : jobids) {
+            result.put(jobid, getMetadataCDXRecordsForJob(jobid));
+        }
+        return result;
+    }
+
+    /**
+     * Submits a single Hadoop job generating cdx for the metadata files of all the given jobs, and stores the records
+     * of each job in its cdx cache file. Jobs for which this fails are left uncached, and will be handled by
+     * {@link #getRecordsUsingHadoop(long)}.
+     *
+     * @param jobids The jobs to get cdx for.
+     */
+    private static void cacheRecordsUsingHadoopMultiJob(List<Long> jobids) {
+        log.info("Fetching cdx records for {} jobs via a single hadoop job.", jobids.size());
+        Configuration hadoopConf = HadoopJobUtils.getConf();
+        try (FileSystem fileSystem = FileSystem.newInstance(hadoopConf)) {
+            HadoopJobStrategy jobStrategy = new MultiJobMetadataCDXExtractionStrategy(jobids.size(), fileSystem);
+            MultiJobHadoopJob job = new MultiJobHadoopJob(jobids, jobStrategy);
+            job.processOnlyFilesMatchingSuffix(metadatafile_suffix);
+            job.prepareJobInputOutput(fileSystem);
+            try {
+                job.run();
+                for (Long jobid : jobids) {
+                    File cacheFile = getCDXCacheFile(jobid);
+                    File tempFile = File.createTempFile(jobid + "-", ".tmp", cacheFile.getParentFile());
+                    try (OutputStream os = new FileOutputStream(tempFile)) {
+                        job.collectOutput(fileSystem, jobid, MultiJobMetadataCDXMapper.CDX_OUTPUT, os);
+                    }
+                    FileUtils.moveFile(tempFile, cacheFile);
+                    log.info("Collected {} bytes output to {}", cacheFile.length(), cacheFile.getAbsolutePath());
+                }
+            } finally {
+                job.cleanup(fileSystem);
+            }
+        } catch (IOException | IOFailure e) {
+            log.warn("Multi job cdx extraction failed for jobs {}. They will be fetched one at a time.", jobids, e);
+        }
+    }
+
     private static File getCDXCacheFile(long jobid) {
         String cacheDir = Settings.get(CommonSettings.METADATA_CACHE);
         String cdxcache = "cdxcache";
@@ -0,0 +1,82 @@
+package dk.netarkivet.viewerproxy.webinterface.hadoop;
+
+import java.util.UUID;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.ToolRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.common.utils.hadoop.HadoopFileUtils;
+import dk.netarkivet.common.utils.hadoop.HadoopJobStrategy;
+import dk.netarkivet.common.utils.hadoop.HadoopJobTool;
+import dk.netarkivet.common.utils.hadoop.HadoopJobUtils;
+
+/**
+ * Strategy to extract CDX lines from the metadata files of many harvest jobs in one Hadoop job. To be used with a
+ * {@link dk.netarkivet.common.utils.hadoop.MultiJobHadoopJob}.
+ */
+public class MultiJobMetadataCDXExtractionStrategy implements HadoopJobStrategy {
+    private final Logger log = LoggerFactory.getLogger(MultiJobMetadataCDXExtractionStrategy.class);
+    private final int jobCount;
+    private final FileSystem fileSystem;
+    private final Configuration hadoopConf;
+
+    /**
+     * Constructor.
+     *
+     * @param jobCount The number of harvest jobs covered. Only used for logging.
+     * @param fileSystem The Hadoop FileSystem used.
+     */
+    public MultiJobMetadataCDXExtractionStrategy(int jobCount, FileSystem fileSystem) {
+        this.jobCount = jobCount;
+        this.fileSystem = fileSystem;
+        hadoopConf = fileSystem.getConf();
+        int totalMemory = Settings.getInt(CommonSettings.HADOOP_MAP_MEMORY_MB);
+        int totalCores = Settings.getInt(CommonSettings.HADOOP_MAP_MEMORY_CORES);
+        HadoopJobUtils.setMapMemory(hadoopConf, totalMemory);
+        HadoopJobUtils.setMapCoresPerTask(hadoopConf, totalCores);
+        HadoopJobUtils.enableMapOnlyUberTask(hadoopConf, totalMemory, totalCores);
+        HadoopJobUtils.configureCaching(hadoopConf);
+        hadoopConf.set(CommonSettings.METADATAFILE_REGEX_SUFFIX, Settings.get(CommonSettings.METADATAFILE_REGEX_SUFFIX));
+        HadoopJobUtils.setInteractiveQueue(hadoopConf);
+    }
+
+    @Override
+    public int runJob(Path jobInputFile, Path jobOutputDir) {
+        int exitCode;
+        try {
+            exitCode = ToolRunner.run(new HadoopJobTool(hadoopConf, new MultiJobMetadataCDXMapper()),
+                    new String[] {jobInputFile.toString(), jobOutputDir.toString()});
+        } catch (Exception e) {
+            log.warn("Metadata CDX extraction job for {} jobs failed to run normally.", jobCount, e);
+            exitCode = 1;
+        }
+        return exitCode;
+    }
+
+    @Override
+    public Path createJobInputFile(UUID uuid) {
+        Path jobInputFile = HadoopFileUtils.createUniquePathInDir(
+                fileSystem, Settings.get(CommonSettings.HADOOP_MAPRED_METADATA_CDX_EXTRACTIONJOB_INPUT_DIR), uuid);
+        log.info("Input file for metadata CDX extraction of {} jobs will be '{}'", jobCount, jobInputFile);
+        return jobInputFile;
+    }
+
+    @Override
+    public Path createJobOutputDir(UUID uuid) {
+        Path jobOutputDir = HadoopFileUtils.createUniquePathInDir(
+                fileSystem, Settings.get(CommonSettings.HADOOP_MAPRED_METADATA_CDX_EXTRACTIONJOB_OUTPUT_DIR), uuid);
+        log.info("Output directory for metadata CDX extraction of {} jobs is '{}'", jobCount, jobOutputDir);
+        return jobOutputDir;
+    }
+
+    @Override
+    public String getJobType() {
+        return "MULTI JOB METADATA CDX EXTRACTION";
+    }
+}
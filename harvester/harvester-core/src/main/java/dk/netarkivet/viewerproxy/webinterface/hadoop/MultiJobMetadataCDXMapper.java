@@ -0,0 +1,42 @@
+package dk.netarkivet.viewerproxy.webinterface.hadoop;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.utils.hadoop.HadoopFileUtils;
+import dk.netarkivet.common.utils.hadoop.MultiJobMapper;
+
+/**
+ * Hadoop Mapper creating CDX indexes for the metadata files of many harvest jobs in one pass. The CDX lines are
+ * generated exactly as by {@link MetadataCDXMapper}, but written to a separate output for each harvest job.
+ */
+public class MultiJobMetadataCDXMapper extends MultiJobMapper {
+
+    private static final Logger log = LoggerFactory.getLogger(MultiJobMetadataCDXMapper.class);
+
+    /** The output type of the CDX lines. */
+    public static final String CDX_OUTPUT = "cdx";
+
+    /** The single job mapper doing the actual indexing. */
+    private final MetadataCDXMapper indexer = new MetadataCDXMapper();
+
+    @Override
+    protected void processFile(long jobID, Path path, Context context) throws IOException, InterruptedException {
+        String archiveName = path.toString();
+        path = HadoopFileUtils.replaceWithCachedPathIfEnabled(context, path);
+        List<String> cdxIndexes;
+        try (InputStream in = new BufferedInputStream(path.getFileSystem(context.getConfiguration()).open(path))) {
+            log.info("CDX-indexing archive file '{}' for job {}", path, jobID);
+            cdxIndexes = indexer.index(in, archiveName, context);
+        }
+        for (String cdxIndex : cdxIndexes) {
+            write(jobID, CDX_OUTPUT, cdxIndex);
+        }
+    }
+}
@@ -33,6 +33,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.testutils.CollectionAsserts;
 import dk.netarkivet.testutils.FileAsserts;
 
 /**
@@ -72,4 +73,20 @@ public class CDXIndexCacheTester extends CacheTestCase {
         FileAsserts.assertFileContains("Must have lines sorted", "metadata file 3 block 2\nmetadata file 4 block 1",
                 cacheFile);
     }
+
+    @Test
+    public void testCombineMergesSortedFiles() throws Exception {
+        File cdx1 = new File(TestInfo.WORKING_DIR, "1.cdx");
+        File cdx2 = new File(TestInfo.WORKING_DIR, "2.cdx");
+        FileUtils.appendToFile(cdx1, "http://a.dk/ 1", "http://c.dk/ 1");
+        FileUtils.appendToFile(cdx2, "http://b.dk/ 2", "http://d.dk/ 2");
+        Map<Long, File> files = new HashMap<Long, File>();
+        files.put(1L, cdx1);
+        files.put(2L, cdx2);
+        CDXIndexCache cache = new CDXIndexCache();
+        cache.combine(files);
+        File cacheFile = cache.getCacheFile(files.keySet());
+        CollectionAsserts.assertListEquals("Sorted files should be merged", FileUtils.readListFromFile(cacheFile),
+                "http://a.dk/ 1", "http://b.dk/ 2", "http://c.dk/ 1", "http://d.dk/ 2");
+    }
 }
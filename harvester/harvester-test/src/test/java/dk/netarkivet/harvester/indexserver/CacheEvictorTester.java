@@ -0,0 +1,152 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.indexserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
+
+/**
+ * Unit tests for the class CacheEvictor.
+ */
+public class CacheEvictorTester {
+
+    private ReloadSettings rs = new ReloadSettings();
+    private File dir;
+    private FileBasedCache<Long> cache;
+
+    @Before
+    public void setUp() throws Exception {
+        rs.setUp();
+        dir = Files.createTempDirectory("cacheevictor").toFile();
+        Settings.set(CommonSettings.CACHE_DIR, dir.getAbsolutePath());
+        cache = new FileBasedCache<Long>("Test") {
+            @Override
+            public File getCacheFile(Long id) {
+                return new File(getCacheDir(), id + "-cache");
+            }
+
+            @Override
+            protected Long cacheData(Long id) {
+                FileUtils.writeBinaryFile(getCacheFile(id), "0123456789".getBytes());
+                return id;
+            }
+        };
+        for (long id = 1; id <= 3; id++) {
+            cache.cache(id);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(dir);
+        rs.tearDown();
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        CacheEvictor evictor = new CacheEvictor(cache, 25, CacheEvictor.Policy.LRU, 1);
+        use(evictor, 1L, false);
+        use(evictor, 2L, false);
+        use(evictor, 3L, false);
+        use(evictor, 1L, true);
+        evictor.sweep();
+        assertTrue(cache.getCacheFile(1L).exists());
+        assertFalse("The least recently used entry should be evicted", cache.getCacheFile(2L).exists());
+        assertTrue(cache.getCacheFile(3L).exists());
+        assertEquals(20L, evictor.getFootprint());
+        assertEquals(2, evictor.getEntryCount());
+        assertEquals(1L, evictor.getEvictions());
+        assertEquals(10L, evictor.getEvictedBytes());
+        assertEquals(1L, evictor.getHits());
+        assertEquals(3L, evictor.getMisses());
+    }
+
+    @Test
+    public void testEvictsLeastFrequentlyUsed() throws Exception {
+        CacheEvictor evictor = new CacheEvictor(cache, 15, CacheEvictor.Policy.LFU, 1);
+        use(evictor, 1L, false);
+        use(evictor, 1L, true);
+        use(evictor, 1L, true);
+        use(evictor, 2L, false);
+        use(evictor, 3L, false);
+        use(evictor, 3L, true);
+        evictor.sweep();
+        assertTrue("The most frequently used entry should be kept", cache.getCacheFile(1L).exists());
+        assertFalse(cache.getCacheFile(2L).exists());
+        assertFalse(cache.getCacheFile(3L).exists());
+        assertEquals(10L, evictor.getFootprint());
+        assertEquals(2L, evictor.getEvictions());
+    }
+
+    @Test
+    public void testKeepsEntriesInUse() throws Exception {
+        CacheEvictor evictor = new CacheEvictor(cache, 20, CacheEvictor.Policy.LRU, 1);
+        use(evictor, 1L, false);
+        use(evictor, 2L, false);
+        use(evictor, 3L, false);
+        File lockFile = new File(cache.getCacheFile(1L).getAbsolutePath() + ".working");
+        try (FileOutputStream out = new FileOutputStream(lockFile)) {
+            FileLock lock = out.getChannel().lock();
+            try {
+                evictor.sweep();
+            } finally {
+                lock.release();
+            }
+        }
+        assertTrue("A locked entry should not be evicted", cache.getCacheFile(1L).exists());
+        assertFalse(cache.getCacheFile(2L).exists());
+        assertTrue(cache.getCacheFile(3L).exists());
+
+        // An entry just handed out is not evicted either.
+        cache.getCacheFile(1L).setLastModified(System.currentTimeMillis() - 2 * 60 * 60 * 1000L);
+        CacheEvictor patient = new CacheEvictor(cache, 1, CacheEvictor.Policy.LRU, 60 * 60 * 1000L);
+        patient.recordAccess(cache.getCacheFile(3L), true);
+        patient.sweep();
+        assertTrue(cache.getCacheFile(3L).exists());
+        assertFalse(cache.getCacheFile(1L).exists());
+    }
+
+    /**
+     * Record that an entry was handed out, and wait for the clock to move on, so accesses are ordered.
+     */
+    private void use(CacheEvictor evictor, Long id, boolean hit) throws InterruptedException {
+        evictor.recordAccess(cache.getCacheFile(id), hit);
+        Thread.sleep(5);
+    }
+
+}
@@ -0,0 +1,184 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.indexserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import dk.netarkivet.common.utils.SlowTest;
+
+/**
+ * Unittests for the class DuplicationMigrationMap.
+ */
+public class DuplicationMigrationMapTester {
+
+    private static final String FILE = "2-1-20161205100306320-00000-4320~kb-test-har-004.kb.dk~8173.arc";
+
+    @Test
+    public void testReadFromAndGet() throws IOException {
+        DuplicationMigrationMap map = DuplicationMigrationMap.readFrom(new BufferedReader(new StringReader(
+                FILE + " 496812 393343 1282069269000\n"
+                + "other.arc 0 17 1282069269000\n"
+                + "malformed line\n"
+                + "other.arc x 17 1282069269000\n")));
+        assertEquals("Should ignore malformed lines", 2, map.size());
+        assertEquals(393343L, map.get(FILE, 496812L));
+        assertEquals(17L, map.get("other.arc", 0L));
+        assertEquals(DuplicationMigrationMap.NO_OFFSET, map.get(FILE, 0L));
+        assertEquals(DuplicationMigrationMap.NO_OFFSET, map.get("unknown.arc", 496812L));
+    }
+
+    @Test
+    public void testGrowsBeyondInitialCapacity() {
+        DuplicationMigrationMap map = new DuplicationMigrationMap(0);
+        for (long offset = 0; offset < 100000; offset++) {
+            map.put("file" + (offset % 7) + ".arc", offset, offset * 2);
+        }
+        assertEquals(100000, map.size());
+        for (long offset = 0; offset < 100000; offset++) {
+            assertEquals(offset * 2, map.get("file" + (offset % 7) + ".arc", offset));
+            assertEquals(DuplicationMigrationMap.NO_OFFSET, map.get("file" + ((offset + 1) % 7) + ".arc", offset));
+        }
+        map.put("file0.arc", 0L, 42L);
+        assertEquals("Replacing a mapping should not change the size", 100000, map.size());
+        assertEquals(42L, map.get("file0.arc", 0L));
+    }
+
+    @Test
+    public void testMigrate() throws IOException {
+        DuplicationMigrationMap map = new DuplicationMigrationMap(1);
+        map.put(FILE, 4711L, 4434L);
+        String migratable = "2016-12-05T10:03:10.384Z   200       1078 http://www.kaarefc.dk/avatar.png E "
+                + "http://www.kaarefc.dk/ image/png #016 20161205100310384+1 sha1:ABC - "
+                + "duplicate:\"" + FILE + ",4711,20161205100310384\",content-size:1345";
+        String unknown = "2016-12-05T10:03:10.384Z   200       1078 http://www.kaarefc.dk/b.png E "
+                + "http://www.kaarefc.dk/ image/png #016 20161205100310384+1 sha1:ABC - "
+                + "duplicate:\"" + FILE + ",1,20161205100310384\",content-size:1345";
+        String plain = "2016-12-05T10:03:10.384Z   200       1078 http://www.kaarefc.dk/ - - text/html #016 "
+                + "20161205100310384+1 sha1:DEF - content-size:1345";
+        StringWriter out = new StringWriter();
+        DuplicationMigrationMap.MigrationCount count = map.migrate(new BufferedReader(new StringReader(
+                migratable + "\n" + unknown + "\n" + plain + "\n")), out);
+        String[] lines = out.toString().split("\n");
+        assertEquals(3, lines.length);
+        assertEquals(migratable.replace(FILE + ",4711", FILE + ".gz,4434"), lines[0]);
+        assertEquals("Unmigratable lines should be copied unchanged", unknown, lines[1]);
+        assertEquals("Lines without duplicate annotation should be copied unchanged", plain, lines[2]);
+        assertEquals(2L, count.getDuplicates());
+        assertEquals(1L, count.getFailures());
+    }
+
+    /**
+     * Benchmark of building the map from a synthetic migration of 50M records spread over 1000 files, and migrating
+     * a crawl log with a duplicate annotation for each record. The number of records can be changed with the system
+     * property "migration.benchmark.records".
+     */
+    @Test
+    @Category(SlowTest.class)
+    public void benchmarkSyntheticMigration() throws IOException {
+        final int records = Integer.getInteger("migration.benchmark.records", 50000000);
+        final int files = 1000;
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+        long start = System.nanoTime();
+        DuplicationMigrationMap map = new DuplicationMigrationMap(0);
+        for (int i = 0; i < records; i++) {
+            map.put("job-" + (i % files) + ".arc", (i / files) * 1000L, (i / files) * 400L);
+        }
+        long buildMillis = (System.nanoTime() - start) / 1000000;
+        System.gc();
+        long heapAfter = runtime.totalMemory() - runtime.freeMemory();
+
+        start = System.nanoTime();
+        Writer discard = new Writer() {
+            @Override
+            public void write(char[] cbuf, int off, int len) {
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        DuplicationMigrationMap.MigrationCount count = map.migrate(new BufferedReader(new SyntheticCrawlLog(records,
+                files)), discard);
+        long migrateMillis = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(records, map.size());
+        assertEquals(records, count.getDuplicates());
+        assertEquals(0L, count.getFailures());
+        System.out.println("Built migration map of " + records + " records in " + buildMillis + " ms using about "
+                + ((heapAfter - heapBefore) / (1024 * 1024)) + " MB heap. Migrated crawl log in " + migrateMillis
+                + " ms (" + (records * 1000L / Math.max(1, migrateMillis)) + " lines/s).");
+        assertTrue(map.get("job-0.arc", 0L) == 0L);
+    }
+
+    /** Generates crawl log lines with a duplicate annotation for each synthetic migration record. */
+    private static class SyntheticCrawlLog extends java.io.Reader {
+        private final int records;
+        private final int files;
+        private int next = 0;
+        private String current = "";
+        private int position = 0;
+
+        SyntheticCrawlLog(int records, int files) {
+            this.records = records;
+            this.files = files;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            if (position == current.length()) {
+                if (next == records) {
+                    return -1;
+                }
+                current = "2016-12-05T10:03:10.384Z 200 1078 http://example.com/" + next + " E http://example.com/ "
+                        + "image/png #016 20161205100310384+1 sha1:ABC - duplicate:\"job-" + (next % files)
+                        + ".arc," + ((next / files) * 1000L) + ",20161205100310384\",content-size:1345\n";
+                position = 0;
+                next++;
+            }
+            int n = Math.min(len, current.length() - position);
+            current.getChars(position, position + n, cbuf, off);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
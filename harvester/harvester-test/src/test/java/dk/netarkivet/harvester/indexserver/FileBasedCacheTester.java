@@ -23,13 +23,33 @@
 
 package dk.netarkivet.harvester.indexserver;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
 import java.io.File;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Ignore;
 import org.junit.Test;
 
 import ch.qos.logback.classic.Level;
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.testutils.LogbackRecorder;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
 
 /**
  * Unit tests for the abstract class FileBasedCache.
@@ -87,4 +107,75 @@ public class FileBasedCacheTester {
         lr.stopRecorder();
     }
 
+    /**
+     * Two concurrent requests for the same items should cache the available items exactly once, with more than one
+     * but at most the configured number of items being cached at a time.
+     */
+    @Test
+    public void testGetCachesConcurrentlyAndOnce() throws Exception {
+        ReloadSettings rs = new ReloadSettings();
+        rs.setUp();
+        File dir = Files.createTempDirectory("filebasedcache").toFile();
+        ExecutorService requests = Executors.newFixedThreadPool(2);
+        try {
+            Settings.set(CommonSettings.CACHE_DIR, dir.getAbsolutePath());
+            Settings.set(HarvesterSettings.INDEXSERVER_INDEXING_MAX_CONCURRENT_EXTRACTIONS, "4");
+            final ConcurrentMap<Long, AtomicInteger> calls = new ConcurrentHashMap<Long, AtomicInteger>();
+            final AtomicInteger running = new AtomicInteger();
+            final AtomicInteger maxRunning = new AtomicInteger();
+            final FileBasedCache<Long> cache = new FileBasedCache<Long>("Test") {
+                public File getCacheFile(Long id) {
+                    return new File(getCacheDir(), id + "-cache");
+                }
+
+                protected Long cacheData(Long id) {
+                    calls.putIfAbsent(id, new AtomicInteger());
+                    calls.get(id).incrementAndGet();
+                    int now = running.incrementAndGet();
+                    maxRunning.accumulateAndGet(now, Math::max);
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        running.decrementAndGet();
+                    }
+                    if (id % 5 == 0) {
+                        return null;
+                    }
+                    FileUtils.writeBinaryFile(getCacheFile(id), new byte[0]);
+                    return id;
+                }
+            };
+            final Set<Long> ids = new HashSet<Long>();
+            for (long id = 1; id <= 20; id++) {
+                ids.add(id);
+            }
+            Callable<Map<Long, File>> request = new Callable<Map<Long, File>>() {
+                @Override
+                public Map<Long, File> call() {
+                    return cache.get(ids);
+                }
+            };
+            Future<Map<Long, File>> first = requests.submit(request);
+            Future<Map<Long, File>> second = requests.submit(request);
+            Map<Long, File> result = first.get();
+            assertEquals(result, second.get());
+            assertEquals(20, result.size());
+            assertEquals(cache.getCacheFile(1L), result.get(1L));
+            assertNull("Unavailable items should map to null", result.get(5L));
+            for (long id = 1; id <= 20; id++) {
+                if (id % 5 != 0) {
+                    assertEquals("Item " + id + " should be cached once", 1, calls.get(id).get());
+                }
+            }
+            assertTrue("Items should be cached concurrently, but bounded: " + maxRunning.get(),
+                    maxRunning.get() > 1 && maxRunning.get() <= 4);
+        } finally {
+            requests.shutdownNow();
+            FileUtils.removeRecursively(dir);
+            rs.tearDown();
+        }
+    }
+
 }
@@ -27,7 +27,10 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.After;
 import org.junit.Before;
@@ -139,6 +142,27 @@ public class ReportingTester {
                 Reporting.getMetadataCDXRecordsForJob(4));
     }
 
+    @Test
+    public void testGetMetadataCDXRecordsForJobs() throws Exception {
+        try {
+            Reporting.getMetadataCDXRecordsForJobs(new LinkedHashSet<Long>(Arrays.asList(2L, 0L)));
+            fail("Should fail on zero");
+        } catch (ArgumentNotValid e) {
+            // Expected
+        }
+        Map<Long, List<CDXRecord>> records = Reporting.getMetadataCDXRecordsForJobs(new LinkedHashSet<Long>(
+                Arrays.asList(4L, 2L)));
+        assertEquals("The jobs should be in the given order", Arrays.asList(4L, 2L),
+                Arrays.asList(records.keySet().toArray()));
+        assertEquals("Should return the records of each job", 18, records.get(2L).size());
+        List<CDXRecord> recordsForJob = Reporting.getMetadataCDXRecordsForJob(2);
+        for (int i = 0; i < recordsForJob.size(); i++) {
+            assertEquals("The records should be those of the job", recordsForJob.get(i).getURL(),
+                    records.get(2L).get(i).getURL());
+        }
+        CollectionAsserts.assertListEquals("Job 4 not harvested, list should be empty", records.get(4L));
+    }
+
     /**
      * Tests the method getCrawlLogForDomainInJob. This unit-test also implicitly tests the class
      * HarvestedUrlsForDomainBatchJob
@@ -0,0 +1,194 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.heritrix3;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.distribute.arcrepository.HarvesterArcRepositoryClient;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.harvester.HarvesterSettings;
+
+/**
+ * Uploads the archive files of a job to the archive repository, several files at a time. The uploads can be limited to
+ * a number of bytes per second. A file failing to upload is retried by the archive repository client, as set by
+ * settings.common.arcrepositoryClient.storeRetries, and not by the uploader.
+ */
+public class ArchiveFileUploader {
+
+    /** The logger to use. */
+    private static final Logger log = LoggerFactory.getLogger(ArchiveFileUploader.class);
+
+    /** The client to store the files with. */
+    private final HarvesterArcRepositoryClient arcRepController;
+    /** The number of files to upload at a time. */
+    private final int threads;
+    /** The maximum number of bytes uploaded per second, or 0 for no limit. */
+    private final long maxBytesPerSecond;
+    /** The time in nanoseconds the bandwidth limit allows the next upload to start. */
+    private long nextUploadTime = System.nanoTime();
+
+    /**
+     * Create an uploader using the upload settings.
+     *
+     * @param arcRepController The client to store the files with.
+     * @throws ArgumentNotValid If arcRepController is null.
+     */
+    public ArchiveFileUploader(HarvesterArcRepositoryClient arcRepController) {
+        this(arcRepController, Settings.getInt(HarvesterSettings.UPLOAD_THREADS),
+                Settings.getLong(HarvesterSettings.UPLOAD_MAX_BYTES_PER_SECOND));
+    }
+
+    /**
+     * Create an uploader.
+     *
+     * @param arcRepController The client to store the files with.
+     * @param threads The number of files to upload at a time.
+     * @param maxBytesPerSecond The maximum number of bytes uploaded per second, or 0 for no limit.
+     * @throws ArgumentNotValid If arcRepController is null, threads is not positive, or maxBytesPerSecond is negative.
+     */
+    public ArchiveFileUploader(HarvesterArcRepositoryClient arcRepController, int threads, long maxBytesPerSecond) {
+        ArgumentNotValid.checkNotNull(arcRepController, "HarvesterArcRepositoryClient arcRepController");
+        ArgumentNotValid.checkPositive(threads, "int threads");
+        ArgumentNotValid.checkNotNegative(maxBytesPerSecond, "long maxBytesPerSecond");
+        this.arcRepController = arcRepController;
+        this.threads = threads;
+        this.maxBytesPerSecond = maxBytesPerSecond;
+    }
+
+    /**
+     * Upload files to the archive repository, and wait for all of them to be uploaded or to fail.
+     *
+     * @param files The files to upload.
+     * @param errorMessage Accumulator for error messages.
+     * @param failedFiles Accumulator for failed files.
+     * @throws ArgumentNotValid If an argument is null.
+     */
+    public void upload(List<File> files, final StringBuilder errorMessage, final List<File> failedFiles) {
+        ArgumentNotValid.checkNotNull(files, "List<File> files");
+        ArgumentNotValid.checkNotNull(errorMessage, "StringBuilder errorMessage");
+        ArgumentNotValid.checkNotNull(failedFiles, "List<File> failedFiles");
+        if (files.isEmpty()) {
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, files.size()));
+        int count = 0;
+        for (final File f : files) {
+            final int number = ++count;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    upload(f, number, errorMessage, failedFiles);
+                }
+            });
+        }
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.debug("Waiting for uploads to finish");
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            String errorMsg = "Interrupted while uploading files";
+            log.warn(errorMsg, e);
+            synchronized (errorMessage) {
+                errorMessage.append(errorMsg).append("\n");
+            }
+        }
+    }
+
+    /**
+     * Upload a file. The file is added to the failed files if the upload fails.
+     *
+     * @param f The file to upload.
+     * @param number The number of the file, for logging.
+     * @param errorMessage Accumulator for error messages.
+     * @param failedFiles Accumulator for failed files.
+     */
+    private void upload(File f, int number, StringBuilder errorMessage, List<File> failedFiles) {
+        try {
+            awaitBandwidth(f.length());
+            log.info("Uploading file #{} - '{}' to arcrepository.", number, f.getName());
+            arcRepController.store(f);
+            log.info("File '{}' uploaded successfully to the arcrepository.", f.getName());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            handleFailure(f, e, errorMessage, failedFiles);
+        } catch (Exception e) {
+            handleFailure(f, e, errorMessage, failedFiles);
+        }
+    }
+
+    /**
+     * Note a file that could not be uploaded.
+     *
+     * @param f The file.
+     * @param failure Why the upload failed.
+     * @param errorMessage Accumulator for error messages.
+     * @param failedFiles Accumulator for failed files.
+     */
+    private static void handleFailure(File f, Exception failure, StringBuilder errorMessage, List<File> failedFiles) {
+        File oldJobsDir = new File(Settings.get(HarvesterSettings.HARVEST_CONTROLLER_OLDJOBSDIR));
+        String errorMsg = "Error uploading file '" + f.getAbsolutePath() + "' Will be moved to the oldjobs directory '"
+                + oldJobsDir.getAbsolutePath() + "'";
+        log.warn(errorMsg, failure);
+        synchronized (errorMessage) {
+            errorMessage.append(errorMsg).append("\n").append(failure.toString()).append("\n");
+        }
+        synchronized (failedFiles) {
+            failedFiles.add(f);
+        }
+    }
+
+    /**
+     * Wait until the bandwidth limit allows uploading a number of bytes. The uploads are spread out in time, so that on
+     * average no more than the maximum number of bytes are uploaded per second.
+     *
+     * @param bytes The number of bytes about to be uploaded.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    private void awaitBandwidth(long bytes) throws InterruptedException {
+        if (maxBytesPerSecond == 0) {
+            return;
+        }
+        long start;
+        synchronized (this) {
+            long now = System.nanoTime();
+            start = Math.max(now, nextUploadTime);
+            nextUploadTime = start + bytes * TimeUnit.SECONDS.toNanos(1) / maxBytesPerSecond;
+        }
+        long wait = start - System.nanoTime();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+}
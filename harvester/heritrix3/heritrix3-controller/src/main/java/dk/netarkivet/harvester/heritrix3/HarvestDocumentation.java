@@ -167,15 +167,62 @@ public class HarvestDocumentation {
         }
     }
 
+    /**
+     * Add CDX files for the archive files in a directory to the metadata file. A CDX file written by the archive writer
+     * next to an archive file is used as it is, if it is complete, and otherwise the CDX file is made by reading the
+     * archive file, as {@link CDXUtils#generateCDX(ArchiveProfile, File, File)} does.
+     *
+     * @param files Information about the finished crawl.
+     * @param archiveDir The directory with the archive files.
+     * @param writer The writer of the metadata file.
+     * @param profile The profile of the archive files.
+     */
     private static void addCDXes(IngestableFiles files, File archiveDir, MetadataFileWriter writer,
             ArchiveProfile profile) {
         moveAwayForeignFiles(profile, archiveDir, files);
         File cdxFilesDir = FileUtils.createUniqueTempDir(files.getTmpMetadataDir(), "cdx");
-        CDXUtils.generateCDX(profile, archiveDir, cdxFilesDir);
+        File[] archiveFiles = archiveDir.listFiles(profile.filename_filter);
+        List<File> filesToIndex = new ArrayList<File>();
+        for (File archiveFile : archiveFiles) {
+            if (!useWrittenCDX(archiveFile, new File(cdxFilesDir, archiveFile.getName() + FileUtils.CDX_EXTENSION))) {
+                filesToIndex.add(archiveFile);
+            }
+        }
+        CDXUtils.generateCDX(filesToIndex.toArray(new File[filesToIndex.size()]), cdxFilesDir);
+        log.info("Used {} CDX files written during the harvest, and indexed {} archive files in '{}'",
+                archiveFiles.length - filesToIndex.size(), filesToIndex.size(), archiveDir.getAbsolutePath());
         writer.insertFiles(cdxFilesDir, FileUtils.CDX_FILE_FILTER, Constants.CDX_MIME_TYPE, 
         		files.getHarvestID(), files.getJobId());
     }
 
+    /**
+     * Move the CDX file written during the harvest for an archive file into place, if there is a complete one. A CDX
+     * file still being written when the harvest ended has the extension ".cdx.open", and is removed.
+     *
+     * @param archiveFile The archive file.
+     * @param cdxFile Where the CDX file for the metadata file should be.
+     * @return true if the written CDX file was used.
+     */
+    private static boolean useWrittenCDX(File archiveFile, File cdxFile) {
+        File written = new File(archiveFile.getParentFile(), archiveFile.getName() + FileUtils.CDX_EXTENSION);
+        File unfinished = new File(archiveFile.getParentFile(), written.getName() + ".open");
+        if (unfinished.exists()) {
+            log.info("Ignoring incomplete CDX file '{}'", unfinished.getAbsolutePath());
+            FileUtils.remove(unfinished);
+        }
+        if (!written.isFile()) {
+            return false;
+        }
+        try {
+            FileUtils.moveFile(written, cdxFile);
+            return true;
+        } catch (IOFailure e) {
+            log.warn("Could not use CDX file '{}', indexing '{}' instead", written.getAbsolutePath(),
+                    archiveFile.getAbsolutePath(), e);
+            return false;
+        }
+    }
+
     /**
      * Restore serialized MetadataEntry objects from the "metadata" subdirectory of the crawldir.
      *
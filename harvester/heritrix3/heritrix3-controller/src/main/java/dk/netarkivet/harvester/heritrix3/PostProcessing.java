@@ -259,6 +259,7 @@ public class PostProcessing {
             IngestableFiles inf = new IngestableFiles(files);
 
             inf.closeOpenFiles(WAIT_FOR_HERITRIX_TIMEOUT_SECS);
+            ArchiveFileUploader uploader = new ArchiveFileUploader(arcRepController);
             // Create a metadata archive file
             HarvestDocumentation.documentHarvest(inf);
             // Upload all files 
@@ -271,20 +272,17 @@ public class PostProcessing {
                 log.warn(errMsg);
                 NotificationsFactory.getInstance().notify(errMsg, NotificationType.WARNING);
             } else {
-                if (!inf.getArcFiles().isEmpty()) {
-                	log.info("Beginning upload of {} ARC files", inf.getArcFiles().size());
-                    uploadFiles(inf.getArcFiles(), errorMessage, failedFiles);
-                }
-                if (!inf.getWarcFiles().isEmpty()) {
-                	log.info("Beginning upload of {} WARC files", inf.getWarcFiles().size());
-                    uploadFiles(inf.getWarcFiles(), errorMessage, failedFiles);
-                }
+                List<File> archiveFiles = new ArrayList<File>(inf.getArcFiles());
+                archiveFiles.addAll(inf.getWarcFiles());
+                log.info("Beginning upload of {} ARC files and {} WARC files", inf.getArcFiles().size(),
+                        inf.getWarcFiles().size());
+                uploader.upload(archiveFiles, errorMessage, failedFiles);
             }
 
             // Now the ARC/WARC files have been uploaded,
             // we finally upload the metadata archive file.
             log.info("Beginning upload of the {} metadafile(s) ", inf.getMetadataArcFiles().size());
-            uploadFiles(inf.getMetadataArcFiles(), errorMessage, failedFiles);
+            uploader.upload(inf.getMetadataArcFiles(), errorMessage, failedFiles);
             
             // Make the harvestReport ready for transfer back to the scheduler 
             DomainStatsReport dsr =  HarvestReportGenerator.getDomainStatsReport(files);
@@ -297,33 +295,4 @@ public class PostProcessing {
         }
     }
 
-    /**
-     * Upload given files to the archive repository.
-     *
-     * @param files List of (ARC/WARC) files to upload.
-     * @param errorMessage Accumulator for error messages.
-     * @param failedFiles Accumulator for failed files.
-     */
-    private void uploadFiles(List<File> files, StringBuilder errorMessage, List<File> failedFiles) {
-        // Upload all archive files
-        if (files != null) {
-        	int count=0;
-            for (File f : files) {
-            	count++;
-                try {
-                    log.info("Uploading file #{} - '{}' to arcrepository.", count, f.getName());
-                    arcRepController.store(f);
-                    log.info("File '{}' uploaded successfully to the arcrepository.", f.getName());
-                } catch (Exception e) {
-                    File oldJobsDir = new File(Settings.get(HarvesterSettings.HARVEST_CONTROLLER_OLDJOBSDIR));
-                    String errorMsg = "Error uploading file '" + f.getAbsolutePath() + "' Will be moved to the oldjobs directory '"
-                            + oldJobsDir.getAbsolutePath() + "'";
-                    errorMessage.append(errorMsg).append("\n").append(e.toString()).append("\n");
-                    log.warn(errorMsg, e);
-                    failedFiles.add(f);
-                }
-            }
-        }
-    }
-
 }
@@ -0,0 +1,171 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.heritrix3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.distribute.arcrepository.HarvesterArcRepositoryClient;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * Tests of the ArchiveFileUploader, using an archive repository client that is slow and fails on request.
+ */
+public class ArchiveFileUploaderTester {
+
+    private File dir;
+    private MockArcRepositoryClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("uploader").toFile();
+        client = new MockArcRepositoryClient();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(dir);
+    }
+
+    @Test
+    public void testUploadsInParallel() {
+        client.latency = 200;
+        List<File> files = createFiles(8, 10);
+        StringBuilder errors = new StringBuilder();
+        List<File> failed = new ArrayList<File>();
+        long start = System.currentTimeMillis();
+        new ArchiveFileUploader(client, 4, 0).upload(files, errors, failed);
+        long time = System.currentTimeMillis() - start;
+        assertEquals("", errors.toString());
+        assertTrue(failed.isEmpty());
+        assertEquals(8, client.stored.size());
+        assertTrue("Files should be uploaded at the same time", client.maxConcurrent.get() > 1);
+        assertTrue("Uploading should take less time than one file at a time, took " + time + " ms", time < 8 * 200);
+        for (File f : files) {
+            assertFalse("Uploaded files should be deleted", f.exists());
+        }
+    }
+
+    /**
+     * A failed store is not retried by the uploader, as the archive repository client retries it already. The other
+     * files are still uploaded.
+     */
+    @Test
+    public void testReportsFailedUploads() {
+        List<File> files = createFiles(3, 10);
+        client.failures.put(files.get(1).getName(), 5);
+        StringBuilder errors = new StringBuilder();
+        List<File> failed = new ArrayList<File>();
+        new ArchiveFileUploader(client, 2, 0).upload(files, errors, failed);
+        assertEquals(Collections.singletonList(files.get(1)), failed);
+        assertTrue(errors.toString().contains(files.get(1).getName()));
+        assertEquals("A failing file should be tried once", 4, (int) client.failures.get(files.get(1).getName()));
+        assertTrue(files.get(1).exists());
+        assertEquals(2, client.stored.size());
+    }
+
+    @Test
+    public void testLimitsBandwidth() {
+        List<File> files = createFiles(3, 1000);
+        long start = System.currentTimeMillis();
+        new ArchiveFileUploader(client, 3, 5000).upload(files, new StringBuilder(),
+                new ArrayList<File>());
+        long time = System.currentTimeMillis() - start;
+        assertEquals(3, client.stored.size());
+        assertTrue("Uploading 3000 bytes at 5000 bytes per second should take 400 ms, took " + time + " ms",
+                time >= 380);
+    }
+
+    /**
+     * Create files to upload.
+     *
+     * @param count The number of files.
+     * @param size The size of each file.
+     * @return The files.
+     */
+    private List<File> createFiles(int count, int size) {
+        List<File> files = new ArrayList<File>();
+        for (int i = 0; i < count; i++) {
+            File f = new File(dir, "1-1-20181001000000-0000" + i + ".warc");
+            FileUtils.writeBinaryFile(f, new byte[size]);
+            files.add(f);
+        }
+        return files;
+    }
+
+    /**
+     * A client that takes some time to store a file, and fails a given number of times for given files. Stored files
+     * are deleted, as the real clients do.
+     */
+    private static class MockArcRepositoryClient implements HarvesterArcRepositoryClient {
+        long latency;
+        final Map<String, Integer> failures = Collections.synchronizedMap(new HashMap<String, Integer>());
+        final List<String> stored = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicInteger concurrent = new AtomicInteger();
+        final AtomicInteger maxConcurrent = new AtomicInteger();
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void store(File file) {
+            int now = concurrent.incrementAndGet();
+            try {
+                synchronized (maxConcurrent) {
+                    maxConcurrent.set(Math.max(maxConcurrent.get(), now));
+                }
+                if (latency > 0) {
+                    Thread.sleep(latency);
+                }
+                Integer left = failures.get(file.getName());
+                if (left != null && left > 0) {
+                    failures.put(file.getName(), left - 1);
+                    throw new IOFailure("Injected failure storing " + file.getName());
+                }
+                stored.add(file.getName());
+                FileUtils.remove(file);
+            } catch (InterruptedException e) {
+                throw new IOFailure("Interrupted", e);
+            } finally {
+                concurrent.decrementAndGet();
+            }
+        }
+    }
+
+}
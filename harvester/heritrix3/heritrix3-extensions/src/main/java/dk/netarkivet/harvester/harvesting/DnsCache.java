@@ -0,0 +1,578 @@
+/*
+ * #%L
+ * Netarchivesuite - Heritrix 3 extensions
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting;
+
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.archive.util.InetAddressUtil;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Lookup;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Resolver;
+import org.xbill.DNS.TextParseException;
+import org.xbill.DNS.Type;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * A cache of the A records of host names, shared by the DNS fetchers and {@link DnsPrefetchProcessor}. Answers are
+ * kept for their TTL, clamped to a minimum and a maximum, and names that do not exist are kept for a TTL of their own
+ * in a separate cache. Failures such as timeouts are not cached. A lookup always gives an answer, so a name that does
+ * not exist or could not be resolved is not resolved again by the caller.
+ * <p>
+ * Hosts can be resolved ahead of time by a small pool of threads, so the ToeThread fetching the 'dns:' URI of a host
+ * finds the answer in the cache instead of waiting for the resolver. A host is only resolved by one thread at a time;
+ * other threads wanting it wait for that answer. A host still waiting to be prefetched is resolved by the thread that
+ * wants it, so no thread waits for the hosts queued before it.
+ * <p>
+ * There is one cache per JVM. It can be exposed as a Heritrix bean to configure it and watch its counters, e.g.
+ * <pre>
+ * &lt;bean id="dnsCache" class="dk.netarkivet.harvester.harvesting.DnsCache" factory-method="getInstance"&gt;
+ *   &lt;property name="minTtl" value="60" /&gt;
+ *   &lt;property name="maxTtl" value="21600" /&gt;
+ *   &lt;property name="negativeTtl" value="300" /&gt;
+ *   &lt;property name="prefetchThreads" value="4" /&gt;
+ * &lt;/bean&gt;
+ * </pre>
+ * The settings can also be given as properties of {@link DnsPrefetchProcessor}. When a cache is full, the least
+ * recently used names are dropped.
+ */
+public class DnsCache {
+
+    /** The logger for this class. */
+    private static final Logger logger = Logger.getLogger(DnsCache.class.getName());
+
+    /** The default minimum number of seconds an answer is kept. */
+    public static final long DEFAULT_MIN_TTL = 60;
+
+    /** The default maximum number of seconds an answer is kept. */
+    public static final long DEFAULT_MAX_TTL = 6 * 60 * 60;
+
+    /** The default number of seconds a name that does not exist is kept. */
+    public static final long DEFAULT_NEGATIVE_TTL = 5 * 60;
+
+    /** The default maximum number of names in each of the caches. */
+    public static final int DEFAULT_MAX_SIZE = 100000;
+
+    /** The default number of threads resolving hosts ahead of time. */
+    public static final int DEFAULT_PREFETCH_THREADS = 4;
+
+    /** The default number of hosts waiting to be resolved ahead of time. More are not prefetched. */
+    public static final int DEFAULT_PREFETCH_QUEUE_SIZE = 1000;
+
+    /** The cache shared by the JVM. */
+    private static final DnsCache INSTANCE = new DnsCache();
+
+    /** The answers by lower case absolute name. */
+    private final LruCache<String, Answer> positive = new LruCache<String, Answer>(DEFAULT_MAX_SIZE);
+
+    /** The expiry times, in milliseconds since the epoch, of names that do not exist, by lower case absolute name. */
+    private final LruCache<String, Long> negative = new LruCache<String, Long>(DEFAULT_MAX_SIZE);
+
+    /**
+     * The resolutions in progress or waiting to be prefetched, by lower case absolute name. A cancelled future means
+     * the name was not resolved after all, and a thread waiting for it must resolve it itself.
+     */
+    private final ConcurrentMap<String, Resolution> inFlight = new ConcurrentHashMap<String, Resolution>();
+
+    /** The resolver to use, or null for the default resolver of dnsjava. */
+    private volatile Resolver resolver;
+
+    /** The minimum number of seconds an answer is kept. */
+    private volatile long minTtl = DEFAULT_MIN_TTL;
+
+    /** The maximum number of seconds an answer is kept. */
+    private volatile long maxTtl = DEFAULT_MAX_TTL;
+
+    /** The number of seconds a name that does not exist is kept. */
+    private volatile long negativeTtl = DEFAULT_NEGATIVE_TTL;
+
+    /** The number of threads resolving hosts ahead of time. */
+    private volatile int prefetchThreads = DEFAULT_PREFETCH_THREADS;
+
+    /** The number of hosts waiting to be resolved ahead of time. */
+    private volatile int prefetchQueueSize = DEFAULT_PREFETCH_QUEUE_SIZE;
+
+    /** The threads resolving hosts ahead of time. Created on the first prefetch. */
+    private ThreadPoolExecutor prefetcher;
+
+    /** The number of lookups answered from the cache of answers. */
+    private final LongAdder hits = new LongAdder();
+
+    /** The number of lookups answered from the cache of names that do not exist. */
+    private final LongAdder negativeHits = new LongAdder();
+
+    /** The number of names given to the resolver. */
+    private final LongAdder misses = new LongAdder();
+
+    /** The number of hosts resolved ahead of time. */
+    private final LongAdder prefetches = new LongAdder();
+
+    /** The records of an answer for a name that was not resolved. */
+    private static final Record[] NO_RECORDS = new Record[0];
+
+    /**
+     * The A records found for a name, and how long they are valid. If the name was not resolved, there are no records,
+     * and the answer tells whether the name does not exist or the lookup failed.
+     */
+    public static class Answer {
+
+        /** The records of the answer. */
+        private final Record[] records;
+
+        /** The time the answer expires, in milliseconds since the epoch. */
+        private final long expires;
+
+        /** Whether the lookup failed, e.g. timed out, instead of telling whether the name exists. */
+        private final boolean failed;
+
+        /**
+         * Create an answer.
+         *
+         * @param records The records of the answer, empty if the name was not resolved.
+         * @param expires The time the answer expires, in milliseconds since the epoch.
+         * @param failed Whether the lookup failed.
+         */
+        Answer(Record[] records, long expires, boolean failed) {
+            this.records = records;
+            this.expires = expires;
+            this.failed = failed;
+        }
+
+        /**
+         * @return true if records were found for the name.
+         */
+        public boolean isResolved() {
+            return records.length > 0;
+        }
+
+        /**
+         * @return true if the lookup failed, e.g. timed out, so it is not known whether the name exists.
+         */
+        public boolean isFailed() {
+            return failed;
+        }
+
+        /**
+         * @return The records of the answer, as returned by {@link Lookup#run()}, or null if the name was not resolved.
+         */
+        public Record[] getRecords() {
+            return isResolved() ? records.clone() : null;
+        }
+
+        /**
+         * @return The number of seconds the answer is still valid, at least 1.
+         */
+        public long getTtl() {
+            return Math.max(1, (expires - System.currentTimeMillis()) / 1000);
+        }
+
+        /**
+         * @param now The current time in milliseconds since the epoch.
+         * @return true if the answer has expired.
+         */
+        boolean isExpired(long now) {
+            return now >= expires;
+        }
+    }
+
+    /**
+     * The resolution of a name, by a prefetch or a lookup. The thread that claims it resolves the name; the other
+     * threads wanting the name wait for the answer.
+     */
+    private static class Resolution {
+
+        /** Completed with the answer. */
+        final CompletableFuture<Answer> answer = new CompletableFuture<Answer>();
+
+        /** Whether a thread has claimed the resolution. */
+        private final AtomicBoolean started;
+
+        /**
+         * @param started Whether the thread creating the resolution resolves the name itself.
+         */
+        Resolution(boolean started) {
+            this.started = new AtomicBoolean(started);
+        }
+
+        /**
+         * @return true if the calling thread now has to resolve the name, false if another thread has claimed it.
+         */
+        boolean claim() {
+            return started.compareAndSet(false, true);
+        }
+    }
+
+    /**
+     * Create an empty cache. Outside of tests the cache shared by the JVM should be used.
+     *
+     * @see #getInstance()
+     */
+    DnsCache() {
+    }
+
+    /**
+     * @return The cache shared by the JVM.
+     */
+    public static DnsCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get the A records of a host, from the cache if they are there, and otherwise from the resolver. If the host is
+     * being resolved by another thread, wait for that answer. If it is waiting to be prefetched, resolve it now.
+     *
+     * @param hostname A host name, with or without the final dot.
+     * @return The answer. If the host does not exist or could not be resolved, the answer has no records.
+     * @throws ArgumentNotValid If hostname is null or empty.
+     */
+    public Answer lookup(String hostname) {
+        ArgumentNotValid.checkNotNullOrEmpty(hostname, "String hostname");
+        String name = normalize(hostname);
+        while (true) {
+            long now = System.currentTimeMillis();
+            Answer answer = positive.get(name);
+            if (answer != null && !answer.isExpired(now)) {
+                hits.increment();
+                return answer;
+            }
+            Long expires = negative.get(name);
+            if (expires != null && now < expires) {
+                negativeHits.increment();
+                return new Answer(NO_RECORDS, expires, false);
+            }
+            Resolution resolution = new Resolution(true);
+            Resolution other = inFlight.putIfAbsent(name, resolution);
+            if (other == null) {
+                return resolve(name, resolution);
+            }
+            if (other.claim()) {
+                // A prefetch still in the queue. Do not wait for the hosts queued before it.
+                return resolve(name, other);
+            }
+            try {
+                answer = other.answer.join();
+            } catch (CancellationException e) {
+                // A prefetch that was never run. Try again.
+                continue;
+            }
+            if (answer.isResolved()) {
+                hits.increment();
+            } else if (!answer.isFailed()) {
+                negativeHits.increment();
+            }
+            return answer;
+        }
+    }
+
+    /**
+     * Resolve a host ahead of time, unless it is already in the cache or being resolved. This does not wait for the
+     * answer, and does nothing if too many hosts are already waiting to be resolved.
+     *
+     * @param hostname A host name, with or without the final dot.
+     * @return true if the host was queued to be resolved.
+     */
+    public boolean prefetch(String hostname) {
+        if (hostname == null || hostname.isEmpty() || InetAddressUtil.IPV4_QUADS.matcher(hostname).matches()) {
+            return false;
+        }
+        final String name = normalize(hostname);
+        long now = System.currentTimeMillis();
+        Answer answer = positive.get(name);
+        if (answer != null && !answer.isExpired(now)) {
+            return false;
+        }
+        Long expires = negative.get(name);
+        if (expires != null && now < expires) {
+            return false;
+        }
+        final Resolution resolution = new Resolution(false);
+        if (inFlight.putIfAbsent(name, resolution) != null) {
+            return false;
+        }
+        try {
+            getPrefetcher().execute(new Runnable() {
+                @Override
+                public void run() {
+                    // Unless a lookup got to it first.
+                    if (resolution.claim()) {
+                        prefetches.increment();
+                        resolve(name, resolution);
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            if (resolution.claim()) {
+                inFlight.remove(name, resolution);
+                resolution.answer.cancel(false);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Resolve a name and cache the result.
+     *
+     * @param name A lower case absolute name.
+     * @param resolution The resolution registered for the name in {@link #inFlight}, claimed by this thread and
+     * completed with the answer.
+     * @return The answer. If the name does not exist or could not be resolved, the answer has no records.
+     */
+    private Answer resolve(String name, Resolution resolution) {
+        Answer answer = new Answer(NO_RECORDS, System.currentTimeMillis(), true);
+        try {
+            misses.increment();
+            Lookup lookup = new Lookup(name, Type.A, DClass.IN);
+            Resolver r = resolver;
+            if (r != null) {
+                lookup.setResolver(r);
+            }
+            // This cache takes the place of the cache of dnsjava.
+            lookup.setCache(null);
+            Record[] records = lookup.run();
+            long now = System.currentTimeMillis();
+            int result = lookup.getResult();
+            if (result == Lookup.SUCCESSFUL && records != null && records.length > 0) {
+                long ttl = Long.MAX_VALUE;
+                for (Record record : records) {
+                    ttl = Math.min(ttl, record.getTTL());
+                }
+                ttl = Math.max(minTtl, Math.min(maxTtl, ttl));
+                answer = new Answer(records, now + ttl * 1000, false);
+                positive.put(name, answer);
+                negative.remove(name);
+            } else if (result == Lookup.HOST_NOT_FOUND || result == Lookup.TYPE_NOT_FOUND) {
+                answer = new Answer(NO_RECORDS, now + negativeTtl * 1000, false);
+                negative.put(name, answer.expires);
+                positive.remove(name);
+            } else if (logger.isLoggable(Level.FINE)) {
+                logger.fine("Failed lookup of " + name + ": " + lookup.getErrorString());
+            }
+        } catch (TextParseException e) {
+            answer = new Answer(NO_RECORDS, System.currentTimeMillis() + negativeTtl * 1000, false);
+            negative.put(name, answer.expires);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Failed lookup of " + name, e);
+        } finally {
+            inFlight.remove(name, resolution);
+            resolution.answer.complete(answer);
+        }
+        return answer;
+    }
+
+    /**
+     * @param hostname A host name, with or without the final dot.
+     * @return The lower case absolute name.
+     */
+    private static String normalize(String hostname) {
+        String name = hostname.toLowerCase(Locale.ROOT);
+        return name.endsWith(".") ? name : name + ".";
+    }
+
+    /**
+     * @return The threads resolving hosts ahead of time, created if they do not exist.
+     */
+    private synchronized ThreadPoolExecutor getPrefetcher() {
+        if (prefetcher == null) {
+            final AtomicInteger count = new AtomicInteger();
+            prefetcher = new ThreadPoolExecutor(prefetchThreads, prefetchThreads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(prefetchQueueSize), r -> {
+                        Thread t = new Thread(r, "DNS prefetch " + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    });
+            prefetcher.allowCoreThreadTimeOut(true);
+        }
+        return prefetcher;
+    }
+
+    /**
+     * Empty the caches. Resolutions in progress are not affected.
+     */
+    public void clear() {
+        positive.clear();
+        negative.clear();
+    }
+
+    /**
+     * @return The resolver used, or null for the default resolver of dnsjava.
+     */
+    public Resolver getResolver() {
+        return resolver;
+    }
+
+    /**
+     * @param resolver The resolver to use, or null for the default resolver of dnsjava.
+     */
+    public void setResolver(Resolver resolver) {
+        this.resolver = resolver;
+    }
+
+    /**
+     * @return The minimum number of seconds an answer is kept.
+     */
+    public long getMinTtl() {
+        return minTtl;
+    }
+
+    /**
+     * @param minTtl The minimum number of seconds an answer is kept.
+     */
+    public void setMinTtl(long minTtl) {
+        this.minTtl = minTtl;
+    }
+
+    /**
+     * @return The maximum number of seconds an answer is kept.
+     */
+    public long getMaxTtl() {
+        return maxTtl;
+    }
+
+    /**
+     * @param maxTtl The maximum number of seconds an answer is kept.
+     */
+    public void setMaxTtl(long maxTtl) {
+        this.maxTtl = maxTtl;
+    }
+
+    /**
+     * @return The number of seconds a name that does not exist is kept.
+     */
+    public long getNegativeTtl() {
+        return negativeTtl;
+    }
+
+    /**
+     * @param negativeTtl The number of seconds a name that does not exist is kept.
+     */
+    public void setNegativeTtl(long negativeTtl) {
+        this.negativeTtl = negativeTtl;
+    }
+
+    /**
+     * @return The maximum number of names in each of the caches.
+     */
+    public int getMaxSize() {
+        return positive.getMaxSize();
+    }
+
+    /**
+     * @param maxSize The maximum number of names in each of the caches.
+     * @throws ArgumentNotValid If maxSize is not positive.
+     */
+    public void setMaxSize(int maxSize) {
+        positive.setMaxSize(maxSize);
+        negative.setMaxSize(maxSize);
+    }
+
+    /**
+     * @return The number of threads resolving hosts ahead of time.
+     */
+    public int getPrefetchThreads() {
+        return prefetchThreads;
+    }
+
+    /**
+     * @param prefetchThreads The number of threads resolving hosts ahead of time.
+     * @throws ArgumentNotValid If prefetchThreads is not positive.
+     */
+    public synchronized void setPrefetchThreads(int prefetchThreads) {
+        ArgumentNotValid.checkPositive(prefetchThreads, "int prefetchThreads");
+        this.prefetchThreads = prefetchThreads;
+        if (prefetcher != null) {
+            if (prefetchThreads > prefetcher.getMaximumPoolSize()) {
+                prefetcher.setMaximumPoolSize(prefetchThreads);
+                prefetcher.setCorePoolSize(prefetchThreads);
+            } else {
+                prefetcher.setCorePoolSize(prefetchThreads);
+                prefetcher.setMaximumPoolSize(prefetchThreads);
+            }
+        }
+    }
+
+    /**
+     * @return The number of hosts waiting to be resolved ahead of time.
+     */
+    public int getPrefetchQueueSize() {
+        return prefetchQueueSize;
+    }
+
+    /**
+     * @param prefetchQueueSize The number of hosts waiting to be resolved ahead of time. Only has effect before the
+     * first prefetch.
+     */
+    public void setPrefetchQueueSize(int prefetchQueueSize) {
+        this.prefetchQueueSize = prefetchQueueSize;
+    }
+
+    /**
+     * @return The number of names in the caches.
+     */
+    public int getSize() {
+        return positive.size() + negative.size();
+    }
+
+    /**
+     * @return The number of lookups answered from the cache of answers.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return The number of lookups answered from the cache of names that do not exist.
+     */
+    public long getNegativeHits() {
+        return negativeHits.sum();
+    }
+
+    /**
+     * @return The number of names given to the resolver.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The number of hosts resolved ahead of time.
+     */
+    public long getPrefetches() {
+        return prefetches.sum();
+    }
+
+}
@@ -0,0 +1,202 @@
+/*
+ * #%L
+ * Netarchivesuite - Heritrix 3 extensions
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.Processor;
+
+/**
+ * A processor that resolves the hosts of the outlinks of a URI ahead of time, through the {@link DnsCache}, so that
+ * the 'dns:' URIs of the hosts are answered from the cache once their queues become active, instead of stalling a
+ * ToeThread on the resolver.
+ * <p>
+ * The bean for this processor should be added to the fetch chain after the extractors, e.g.
+ * <pre>
+ * &lt;bean id="dnsPrefetch" class="dk.netarkivet.harvester.harvesting.DnsPrefetchProcessor"&gt;
+ *   &lt;property name="minTtl" value="60" /&gt;
+ *   &lt;property name="maxTtl" value="21600" /&gt;
+ *   &lt;property name="negativeTtl" value="300" /&gt;
+ *   &lt;property name="maxCacheSize" value="100000" /&gt;
+ *   &lt;property name="prefetchThreads" value="4" /&gt;
+ * &lt;/bean&gt;
+ * </pre>
+ * The DNS fetcher must be {@link ExtendedDNSFetcher} or {@link NASFetchDNS} with useDnsCache enabled. The properties
+ * of the cache are given to the {@link DnsCache} when the processor starts.
+ */
+public class DnsPrefetchProcessor extends Processor {
+
+    /**
+     * The maximum number of hosts to prefetch for one URI. Pages with many links to other hosts are usually link
+     * farms or directories, whose hosts are rarely all crawled.
+     */
+    {
+        setMaxHostsPerUri(20);
+    }
+    public int getMaxHostsPerUri() {
+        return (Integer) kp.get("maxHostsPerUri");
+    }
+    public void setMaxHostsPerUri(int maxHostsPerUri) {
+        kp.put("maxHostsPerUri", maxHostsPerUri);
+    }
+
+    /**
+     * The minimum number of seconds an answer is kept, even if its TTL is shorter.
+     */
+    {
+        setMinTtl(DnsCache.DEFAULT_MIN_TTL);
+    }
+    public long getMinTtl() {
+        return (Long) kp.get("minTtl");
+    }
+    public void setMinTtl(long minTtl) {
+        kp.put("minTtl", minTtl);
+    }
+
+    /**
+     * The maximum number of seconds an answer is kept, even if its TTL is longer.
+     */
+    {
+        setMaxTtl(DnsCache.DEFAULT_MAX_TTL);
+    }
+    public long getMaxTtl() {
+        return (Long) kp.get("maxTtl");
+    }
+    public void setMaxTtl(long maxTtl) {
+        kp.put("maxTtl", maxTtl);
+    }
+
+    /**
+     * The number of seconds a name that does not exist is kept.
+     */
+    {
+        setNegativeTtl(DnsCache.DEFAULT_NEGATIVE_TTL);
+    }
+    public long getNegativeTtl() {
+        return (Long) kp.get("negativeTtl");
+    }
+    public void setNegativeTtl(long negativeTtl) {
+        kp.put("negativeTtl", negativeTtl);
+    }
+
+    /**
+     * The maximum number of names in the cache of answers, and in the cache of names that do not exist.
+     */
+    {
+        setMaxCacheSize(DnsCache.DEFAULT_MAX_SIZE);
+    }
+    public int getMaxCacheSize() {
+        return (Integer) kp.get("maxCacheSize");
+    }
+    public void setMaxCacheSize(int maxCacheSize) {
+        kp.put("maxCacheSize", maxCacheSize);
+    }
+
+    /**
+     * The number of threads resolving hosts ahead of time.
+     */
+    {
+        setPrefetchThreads(DnsCache.DEFAULT_PREFETCH_THREADS);
+    }
+    public int getPrefetchThreads() {
+        return (Integer) kp.get("prefetchThreads");
+    }
+    public void setPrefetchThreads(int prefetchThreads) {
+        kp.put("prefetchThreads", prefetchThreads);
+    }
+
+    /**
+     * The number of hosts waiting to be resolved ahead of time. More are not prefetched. Only has effect if the
+     * processor starts before the first prefetch.
+     */
+    {
+        setPrefetchQueueSize(DnsCache.DEFAULT_PREFETCH_QUEUE_SIZE);
+    }
+    public int getPrefetchQueueSize() {
+        return (Integer) kp.get("prefetchQueueSize");
+    }
+    public void setPrefetchQueueSize(int prefetchQueueSize) {
+        kp.put("prefetchQueueSize", prefetchQueueSize);
+    }
+
+    /**
+     * Constructor.
+     * @see Processor
+     */
+    public DnsPrefetchProcessor() {
+        super();
+    }
+
+    /**
+     * Give the properties of the cache to the {@link DnsCache}.
+     */
+    @Override
+    public void start() {
+        if (isRunning()) {
+            return;
+        }
+        DnsCache cache = DnsCache.getInstance();
+        cache.setMinTtl(getMinTtl());
+        cache.setMaxTtl(getMaxTtl());
+        cache.setNegativeTtl(getNegativeTtl());
+        cache.setMaxSize(getMaxCacheSize());
+        cache.setPrefetchQueueSize(getPrefetchQueueSize());
+        cache.setPrefetchThreads(getPrefetchThreads());
+        super.start();
+    }
+
+    @Override
+    protected boolean shouldProcess(CrawlURI curi) {
+        return !curi.getOutLinks().isEmpty();
+    }
+
+    /**
+     * Queue the hosts of the outlinks of a URI to be resolved. Outlinks already rejected are skipped, as are hosts
+     * already cached or being resolved.
+     * @param curi The URI whose outlinks are considered.
+     */
+    @Override
+    protected void innerProcess(CrawlURI curi) throws InterruptedException {
+        DnsCache cache = DnsCache.getInstance();
+        int max = getMaxHostsPerUri();
+        int queued = 0;
+        for (CrawlURI link : curi.getOutLinks()) {
+            if (queued >= max) {
+                break;
+            }
+            if (link.getFetchStatus() < 0) {
+                continue;
+            }
+            String host;
+            try {
+                host = link.getUURI().getReferencedHost();
+            } catch (URIException e) {
+                continue;
+            }
+            if (cache.prefetch(host)) {
+                queued++;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,180 @@
+/*
+ * #%L
+ * Netarchivesuite - Heritrix 3 extensions
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.archive.net.UURIFactory;
+import org.archive.url.UsableURI;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.utils.DomainUtils;
+
+/**
+ * A bounded cache of the domain names found for host names and seeds, shared by the queue assignment policies and
+ * {@link OnNSDomainsDecideRule}. A crawl sees a small set of hosts millions of times, and finding the domain of a host
+ * means matching it against the patterns of all top level domains.
+ * <p>
+ * There is one cache per JVM. It can be exposed as a Heritrix bean to watch its counters, e.g.
+ * <pre>
+ * &lt;bean id="domainKeyCache" class="dk.netarkivet.harvester.harvesting.DomainKeyCache"
+ *       factory-method="getInstance"&gt;
+ *   &lt;property name="maxSize" value="100000" /&gt;
+ * &lt;/bean&gt;
+ * </pre>
+ * When the cache is full the least recently used host names or seeds are dropped, so a crawl of more hosts than the
+ * size of the cache keeps the domains of the hosts it sees most.
+ *
+ * @see LruCache
+ */
+public class DomainKeyCache {
+
+    /** The default maximum number of host names and seeds in the cache. */
+    public static final int DEFAULT_MAX_SIZE = 100000;
+
+    /** Stands for "no domain", as the maps cannot hold null. */
+    private static final String NO_DOMAIN = "";
+
+    /** The cache shared by the JVM. */
+    private static final DomainKeyCache INSTANCE = new DomainKeyCache();
+
+    /** The domain names by host name. */
+    private final LruCache<String, String> hostDomains = new LruCache<String, String>(DEFAULT_MAX_SIZE);
+
+    /** The domain names by seed. */
+    private final LruCache<String, String> seedDomains = new LruCache<String, String>(DEFAULT_MAX_SIZE);
+
+    /** The number of lookups answered from the cache. */
+    private final LongAdder hits = new LongAdder();
+
+    /** The number of lookups that had to find the domain. */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Create an empty cache. Outside of tests the cache shared by the JVM should be used.
+     *
+     * @see #getInstance()
+     */
+    DomainKeyCache() {
+    }
+
+    /**
+     * @return The cache shared by the JVM.
+     */
+    public static DomainKeyCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get the domain name of a host, as {@link DomainUtils#domainNameFromHostname(String)} does.
+     *
+     * @param hostname A hostname or IP address.
+     * @return A domain name or IP address, or null if no valid domain could be obtained from the given hostname.
+     * @throws ArgumentNotValid If hostname is null.
+     */
+    public String domainNameFromHostname(String hostname) {
+        ArgumentNotValid.checkNotNull(hostname, "String hostname");
+        String domain = hostDomains.get(hostname);
+        if (domain == null) {
+            misses.increment();
+            domain = DomainUtils.domainNameFromHostname(hostname);
+            hostDomains.put(hostname, domain == null ? NO_DOMAIN : domain);
+        } else {
+            hits.increment();
+        }
+        return domain == NO_DOMAIN ? null : domain;
+    }
+
+    /**
+     * Get the domain name of the host of a seed.
+     *
+     * @param seed A seed, with or without a scheme.
+     * @return A domain name or IP address, or null if the seed is null or not a valid URI, or no valid domain could be
+     * obtained from its host.
+     */
+    public String domainNameFromSeed(String seed) {
+        if (seed == null) {
+            return null;
+        }
+        String domain = seedDomains.get(seed);
+        if (domain == null) {
+            misses.increment();
+            String uri = UsableURI.hasScheme(seed) ? seed : "http://" + seed;
+            try {
+                domain = DomainUtils.domainNameFromHostname(UURIFactory.getInstance(uri).getHost());
+            } catch (Exception e) {
+                domain = null;
+            }
+            seedDomains.put(seed, domain == null ? NO_DOMAIN : domain);
+        } else {
+            hits.increment();
+        }
+        return domain == NO_DOMAIN ? null : domain;
+    }
+
+    /**
+     * Empty the cache, e.g. after the top level domains have changed.
+     */
+    public void clear() {
+        hostDomains.clear();
+        seedDomains.clear();
+    }
+
+    /**
+     * @return The maximum number of host names, and of seeds, in the cache.
+     */
+    public int getMaxSize() {
+        return hostDomains.getMaxSize();
+    }
+
+    /**
+     * @param maxSize The maximum number of host names, and of seeds, in the cache.
+     * @throws ArgumentNotValid If maxSize is not positive.
+     */
+    public void setMaxSize(int maxSize) {
+        hostDomains.setMaxSize(maxSize);
+        seedDomains.setMaxSize(maxSize);
+    }
+
+    /**
+     * @return The number of host names and seeds in the cache.
+     */
+    public int getSize() {
+        return hostDomains.size() + seedDomains.size();
+    }
+
+    /**
+     * @return The number of lookups answered from the cache.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return The number of lookups that had to find the domain.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+}
@@ -29,8 +29,6 @@ import org.apache.commons.logging.LogFactory;
 import org.archive.crawler.frontier.HostnameQueueAssignmentPolicy;
 import org.archive.net.UURI;
 
-import dk.netarkivet.common.utils.DomainUtils;
-
 /**
  * Using the domain as the queue-name.
  * The domain is defined as the last two names in the entire hostname or
@@ -83,7 +81,7 @@ public class DomainnameQueueAssignmentPolicy extends HostnameQueueAssignmentPoli
         if (hostnameandportnr.length == 0 || hostnameandportnr.length > 2) {
             return candidate;
         }
-        String domainName = DomainUtils.domainNameFromHostname(hostnameandportnr[0]);
+        String domainName = DomainKeyCache.getInstance().domainNameFromHostname(hostnameandportnr[0]);
         if (domainName == null) { // Not valid according to our rules
             log.debug("Illegal class key candidate '" + candidate + "' for '" + basis + "'");
             return candidate;
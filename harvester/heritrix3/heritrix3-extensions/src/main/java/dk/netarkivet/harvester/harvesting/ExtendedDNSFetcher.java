@@ -51,6 +51,7 @@ import dk.netarkivet.common.utils.DomainUtils;
         <property name="digestContent" value="true" />
         <property name="digestAlgorithm" value="sha1" />
         <property name="prevalidateHostname" value="false" />
+        <property name="useDnsCache" value="true" />
     </bean>
  */
 public class ExtendedDNSFetcher extends Processor {
@@ -151,6 +152,20 @@ public class ExtendedDNSFetcher extends Processor {
         kp.put("prevalidateHostname",prevalidateHostname);
     }
 
+    /**
+     * Whether or not to look up hosts through the {@link DnsCache} shared with the {@link DnsPrefetchProcessor},
+     * instead of asking the resolver every time. It is disabled by default.
+     */
+    {
+        setUseDnsCache(false);
+    }
+    public boolean getUseDnsCache() {
+        return (Boolean) kp.get("useDnsCache");
+    }
+    public void setUseDnsCache(boolean useDnsCache) {
+        kp.put("useDnsCache", useDnsCache);
+    }
+
     private static final long DEFAULT_TTL_FOR_NON_DNS_RESOLVES
         = 6 * 60 * 60; // 6 hrs
 
@@ -211,11 +226,19 @@ public class ExtendedDNSFetcher extends Processor {
         // TODO: Bug #935119 concerns potential hang here
         String lookupName = dnsName.endsWith(".") ? dnsName : dnsName + ".";
         // If we have not disabled JavaDNS, use that:
+        long ttl = -1;
         if (!getDisableJavaDnsResolves()) {
-            try {
-                rrecordSet = (new Lookup(lookupName, TypeType, ClassType)).run();
-            } catch (TextParseException e) {
-                rrecordSet = null;
+            if (getUseDnsCache()) {
+                DnsCache.Answer answer = DnsCache.getInstance().lookup(lookupName);
+                // null if the host does not exist or the lookup failed
+                rrecordSet = answer.getRecords();
+                ttl = answer.getTtl();
+            } else {
+                try {
+                    rrecordSet = (new Lookup(lookupName, TypeType, ClassType)).run();
+                } catch (TextParseException e) {
+                    rrecordSet = null;
+                }
             }
         }
         curi.setContentType("text/dns");
@@ -223,7 +246,7 @@ public class ExtendedDNSFetcher extends Processor {
             if (logger.isLoggable(Level.FINE)) {
                 logger.fine("Found recordset for " + lookupName);
             }
-            storeDNSRecord(curi, dnsName, targetHost, rrecordSet);
+            storeDNSRecord(curi, dnsName, targetHost, rrecordSet, ttl);
         } else {
             if (logger.isLoggable(Level.FINE)) {
                 logger.fine("Failed find of recordset for " + lookupName);
@@ -260,6 +283,20 @@ public class ExtendedDNSFetcher extends Processor {
     
     protected void storeDNSRecord(final CrawlURI curi, final String dnsName,
             final CrawlHost targetHost, final Record[] rrecordSet) {
+        storeDNSRecord(curi, dnsName, targetHost, rrecordSet, -1);
+    }
+
+    /**
+     * Store the records found for a host.
+     * @param curi The 'dns:' URI of the host
+     * @param dnsName The name of the host
+     * @param targetHost The host
+     * @param rrecordSet The records found
+     * @param ttl The number of seconds the address of the host is valid, or -1 to use the TTL of the first A record,
+     * e.g. when the records come from a cache
+     */
+    protected void storeDNSRecord(final CrawlURI curi, final String dnsName,
+            final CrawlHost targetHost, final Record[] rrecordSet, final long ttl) {
         // Get TTL and IP info from the first A record (there may be
         // multiple, e.g. www.washington.edu) then update the CrawlServer
         ARecord arecord = getFirstARecord(rrecordSet);
@@ -267,7 +304,7 @@ public class ExtendedDNSFetcher extends Processor {
             throw new NullPointerException("Got null arecord for " +
                 dnsName);
         }
-        targetHost.setIP(arecord.getAddress(), arecord.getTTL());
+        targetHost.setIP(arecord.getAddress(), ttl < 0 ? arecord.getTTL() : ttl);
         try {
             recordDNS(curi, rrecordSet);
             curi.setFetchStatus(S_DNS_SUCCESS);
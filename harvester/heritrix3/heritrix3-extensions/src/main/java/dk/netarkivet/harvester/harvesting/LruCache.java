@@ -0,0 +1,183 @@
+/*
+ * #%L
+ * Netarchivesuite - Heritrix 3 extensions
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * A map of a bounded size, dropping the least recently used entries when it is full, for the caches shared by the
+ * ToeThreads. The entries are spread over a number of segments, each an LRU map of its own with its own lock, so
+ * threads using different keys seldom wait for each other. The least recently used entry is therefore dropped per
+ * segment, not for the whole map.
+ * <p>
+ * This class is thread safe. Null keys and values are not allowed.
+ *
+ * @param <K> The type of the keys.
+ * @param <V> The type of the values.
+ */
+public class LruCache<K, V> {
+
+    /** The number of segments. A power of two. */
+    private static final int SEGMENTS = 16;
+
+    /** The segments, each holding the keys with the same lowest bits of their hash. */
+    private final Segment<K, V>[] segments;
+
+    /** The maximum number of entries in each segment. */
+    private volatile int segmentSize;
+
+    /**
+     * Create an empty cache.
+     *
+     * @param maxSize The maximum number of entries.
+     * @throws ArgumentNotValid If maxSize is not positive.
+     */
+    @SuppressWarnings("unchecked")
+    public LruCache(int maxSize) {
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment<K, V>();
+        }
+        setMaxSize(maxSize);
+    }
+
+    /**
+     * Get a value, marking it as recently used.
+     *
+     * @param key The key.
+     * @return The value, or null if the key is not in the cache.
+     */
+    public V get(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.get(key);
+        }
+    }
+
+    /**
+     * Add an entry, dropping the least recently used entries of its segment if the segment is full.
+     *
+     * @param key The key.
+     * @param value The value.
+     * @throws ArgumentNotValid If key or value is null.
+     */
+    public void put(K key, V value) {
+        ArgumentNotValid.checkNotNull(key, "K key");
+        ArgumentNotValid.checkNotNull(value, "V value");
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, value);
+            segment.trim(segmentSize);
+        }
+    }
+
+    /**
+     * @param key The key of an entry to remove. Nothing happens if the key is not in the cache.
+     */
+    public void remove(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.remove(key);
+        }
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * @return The number of entries.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return The maximum number of entries.
+     */
+    public int getMaxSize() {
+        return segmentSize * SEGMENTS;
+    }
+
+    /**
+     * Set the maximum number of entries. It is rounded up to a multiple of the number of segments. If the cache holds
+     * more entries, the least recently used are dropped as entries are added.
+     *
+     * @param maxSize The maximum number of entries.
+     * @throws ArgumentNotValid If maxSize is not positive.
+     */
+    public void setMaxSize(int maxSize) {
+        ArgumentNotValid.checkPositive(maxSize, "int maxSize");
+        segmentSize = (maxSize + SEGMENTS - 1) / SEGMENTS;
+    }
+
+    /**
+     * @param key A key.
+     * @return The segment holding the key.
+     */
+    private Segment<K, V> segmentFor(Object key) {
+        int h = key.hashCode();
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * A map in order of access, least recently used first.
+     */
+    @SuppressWarnings("serial")
+    private static class Segment<K, V> extends LinkedHashMap<K, V> {
+
+        Segment() {
+            super(16, 0.75f, true);
+        }
+
+        /**
+         * Drop the least recently used entries until there are no more than the given number.
+         *
+         * @param maxSize The maximum number of entries.
+         */
+        void trim(int maxSize) {
+            Iterator<K> keys = keySet().iterator();
+            while (size() > maxSize && keys.hasNext()) {
+                keys.next();
+                keys.remove();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,147 @@
+/*
+ * #%L
+ * Netarchivesuite - Heritrix 3 extensions
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+import org.archive.util.anvl.ANVLRecord;
+
+/**
+ * The payload of a WARC metadata record: ANVL fields, written the way {@link ANVLRecord#getUTF8Bytes()} writes them.
+ * A payload is meant to be reused for record after record, so writing the metadata of a URI does not create a record
+ * object per field nor a new byte array per record.
+ * <p>
+ * A payload is not thread safe.
+ */
+public class MetadataPayload {
+
+    /** The end of a field, and of the fields. */
+    private static final String CRLF = "\r\n";
+
+    /** The size of the buffers when new. */
+    private static final int INITIAL_SIZE = 4096;
+
+    /** Buffers larger than this, e.g. after a page with very many outlinks, are dropped instead of reused. */
+    private static final int MAX_RETAINED_SIZE = 1024 * 1024;
+
+    /** The fields added, as text. */
+    private StringBuilder text = new StringBuilder(INITIAL_SIZE);
+
+    /** The fields as UTF-8, once encoded. */
+    private ByteBuffer bytes = ByteBuffer.allocate(INITIAL_SIZE);
+
+    /** Encodes the text the same way as String.getBytes, replacing what cannot be encoded. */
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /** The number of fields added. */
+    private int fieldCount;
+
+    /**
+     * Remove the fields, to start on a new record.
+     */
+    public void clear() {
+        if (text.capacity() > MAX_RETAINED_SIZE) {
+            text = new StringBuilder(INITIAL_SIZE);
+        } else {
+            text.setLength(0);
+        }
+        if (bytes.capacity() > MAX_RETAINED_SIZE) {
+            bytes = ByteBuffer.allocate(INITIAL_SIZE);
+        }
+        bytes.clear();
+        bytes.limit(0);
+        fieldCount = 0;
+    }
+
+    /**
+     * @param label A field without a value.
+     */
+    public void addLabel(String label) {
+        text.append(label).append(CRLF);
+        fieldCount++;
+    }
+
+    /**
+     * @param label The label of a field.
+     * @param value The value of the field. A value spanning several lines is folded as by ANVLRecord.
+     */
+    public void addLabelValue(String label, String value) {
+        if (value.indexOf('\r') >= 0 || value.indexOf('\n') >= 0) {
+            ANVLRecord field = new ANVLRecord();
+            field.addLabelValue(label, value);
+            String s = field.toString();
+            // Without the blank line ending the record.
+            text.append(s, 0, s.length() - CRLF.length());
+        } else {
+            text.append(label).append(": ").append(value).append(CRLF);
+        }
+        fieldCount++;
+    }
+
+    /**
+     * @return The number of fields added since the payload was cleared.
+     */
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * Encode the fields, ending them with a blank line. After this, {@link #getLength()} and
+     * {@link #getContentStream()} give the payload, until more fields are added or the payload is cleared.
+     */
+    public void encode() {
+        int maxLength = (int) Math.ceil((text.length() + CRLF.length()) * encoder.maxBytesPerChar());
+        if (bytes.capacity() < maxLength) {
+            bytes = ByteBuffer.allocate(Math.max(maxLength, 2 * bytes.capacity()));
+        }
+        bytes.clear();
+        encoder.reset();
+        encoder.encode(CharBuffer.wrap(text), bytes, false);
+        encoder.encode(CharBuffer.wrap(CRLF), bytes, true);
+        encoder.flush(bytes);
+        bytes.flip();
+    }
+
+    /**
+     * @return The number of bytes of the encoded payload.
+     */
+    public int getLength() {
+        return bytes.limit();
+    }
+
+    /**
+     * @return The encoded payload. The stream reads the buffer of this payload, so it must be read before the payload
+     * is changed.
+     */
+    public InputStream getContentStream() {
+        return new ByteArrayInputStream(bytes.array(), 0, bytes.limit());
+    }
+
+}
@@ -23,6 +23,7 @@
 package dk.netarkivet.harvester.harvesting;
 
 import static org.archive.modules.fetcher.FetchStatusCodes.S_DNS_SUCCESS;
+import static org.archive.modules.fetcher.FetchStatusCodes.S_GETBYNAME_SUCCESS;
 import static org.archive.modules.fetcher.FetchStatusCodes.S_UNFETCHABLE_URI;
 
 import java.io.BufferedReader;
@@ -41,6 +42,7 @@ import org.archive.io.ReadSource;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.fetcher.FetchDNS;
 import org.archive.modules.net.CrawlHost;
+import org.archive.util.InetAddressUtil;
 
 /**
  * Extended FetchDNS processor which allows the override of hosts
@@ -89,8 +91,23 @@ public class NASFetchDNS extends FetchDNS {
         this.hostsSource = hostsSource;
     }
 
+    /**
+     * Look up hosts through the {@link DnsCache} shared with the {@link DnsPrefetchProcessor} before asking the
+     * resolver. It is disabled by default, so hosts are looked up as by FetchDNS.
+     */
+    protected boolean useDnsCache = false;
+    public boolean getUseDnsCache() {
+        return useDnsCache;
+    }
+    public void setUseDnsCache(boolean useDnsCache) {
+        this.useDnsCache = useDnsCache;
+    }
+
     ///private static final long DEFAULT_TTL_FOR_HOSTS_RESOLVES = Long.MAX_VALUE;        // A very long time...
 
+    /** The TTL of addresses found by the resolver of Java when the DNS did not resolve the host. */
+    private static final long DEFAULT_TTL_FOR_NON_DNS_RESOLVES = 6 * 60 * 60; // 6 hrs
+
     /** Has the hosts been loaded. */
     private boolean bInitialized = false;
 
@@ -153,11 +170,79 @@ public class NASFetchDNS extends FetchDNS {
                 }
             }
         }
+        if (address == null && useDnsCache && !getDisableJavaDnsResolves() && processFromDnsCache(curi)) {
+            return;
+        }
         if (address == null) {
             super.innerProcess(curi);
         }
     }
 
+    /**
+     * Look up the host of a 'dns:' URI in the {@link DnsCache}, and store the records if it is found. If the host does
+     * not exist or the lookup failed, the host is marked as unresolvable like FetchDNS does, without asking the
+     * resolver again.
+     * @param curi The 'dns:' URI
+     * @return true if the URI was processed, false if it should be looked up the usual way
+     */
+    protected boolean processFromDnsCache(CrawlURI curi) {
+        String dnsName;
+        try {
+            dnsName = curi.getUURI().getReferencedHost();
+        } catch (URIException e) {
+            return false;
+        }
+        if (dnsName == null || InetAddressUtil.IPV4_QUADS.matcher(dnsName).matches()) {
+            return false;
+        }
+        curi.setFetchBeginTime(System.currentTimeMillis());
+        DnsCache.Answer answer = DnsCache.getInstance().lookup(dnsName);
+        CrawlHost targetHost = getServerCache().getHostFor(dnsName);
+        curi.setContentType("text/dns");
+        if (answer.isResolved()) {
+            storeDNSRecord(curi, dnsName, targetHost, answer.getRecords());
+            if (curi.getFetchStatus() == S_DNS_SUCCESS) {
+                // The TTL of the records is counted from when they were resolved, not from now.
+                targetHost.setIP(targetHost.getIP(), answer.getTtl());
+            }
+        } else {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("Failed find of recordset for " + dnsName + " in the DNS cache"
+                        + (answer.isFailed() ? " (lookup failed)" : ""));
+            }
+            if (getAcceptNonDnsResolves() || "localhost".equals(dnsName)) {
+                resolveWithoutDns(curi, dnsName, targetHost);
+            } else {
+                setUnresolvable(curi, targetHost);
+            }
+        }
+        curi.setFetchCompletedTime(System.currentTimeMillis());
+        return true;
+    }
+
+    /**
+     * Look up a host that the DNS did not resolve with the resolver of Java, which also uses e.g. /etc/hosts, as
+     * FetchDNS does when non-DNS resolves are accepted.
+     * @param curi The 'dns:' URI
+     * @param dnsName The host
+     * @param targetHost The host in the server cache
+     */
+    private void resolveWithoutDns(CrawlURI curi, String dnsName, CrawlHost targetHost) {
+        InetAddress address;
+        try {
+            address = InetAddress.getByName(dnsName);
+        } catch (UnknownHostException e) {
+            address = null;
+        }
+        if (address != null) {
+            targetHost.setIP(address, DEFAULT_TTL_FOR_NON_DNS_RESOLVES);
+            curi.setFetchStatus(S_GETBYNAME_SUCCESS);
+            curi.setContentSize(0);
+        } else {
+            setUnresolvable(curi, targetHost);
+        }
+    }
+
     /**
      * Clear loaded hosts of reload from hosts file and value text.
      */
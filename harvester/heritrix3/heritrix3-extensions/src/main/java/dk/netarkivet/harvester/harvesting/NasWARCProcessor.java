@@ -1,11 +1,17 @@
 package dk.netarkivet.harvester.harvesting;
 
+import static org.archive.format.warc.WARCConstants.HEADER_KEY_CONCURRENT_TO;
+import static org.archive.format.warc.WARCConstants.HEADER_KEY_IP;
 import static org.archive.format.warc.WARCConstants.TYPE;
 import static org.archive.modules.CoreAttributeConstants.A_FTP_FETCH_STATUS;
 import static org.archive.modules.CoreAttributeConstants.A_SOURCE_TAG;
 
-import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.URI;
 import java.net.UnknownHostException;
@@ -14,10 +20,14 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
+import org.archive.checkpointing.Checkpoint;
 import org.archive.format.warc.WARCConstants.WARCRecordType;
 import org.archive.io.warc.WARCRecordInfo;
+import org.archive.io.WriterPoolMember;
 import org.archive.io.warc.WARCWriter;
 import org.archive.modules.CrawlMetadata;
 import org.archive.modules.CrawlURI;
@@ -27,10 +37,25 @@ import org.archive.util.anvl.ANVLRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.archive.ArchiveDateConverter;
+import dk.netarkivet.common.utils.cdx.ArchiveExtractCDXJob;
+
 /**
  * Custom NAS WARCWriterProcessor addding NetarchiveSuite metadata to the WARCInfo records written
  * by Heritrix by just extending the org.archive.modules.writer.WARCWriterProcessor;
  * This was not possible in H1.
+ * <p>
+ * If writeCDX is enabled, the CDX lines of the response records are written while the records are written, to a file
+ * next to each WARC file named as the WARC file with the extension ".cdx", the same as CDXUtils would produce by
+ * reading the WARC file afterwards. The CDX file has the extension ".cdx.open" until the WARC file is closed.
+ * <p>
+ * If metadataBatchSize is more than 0, the metadata of the captures, including their outlinks, is not written as one
+ * record per capture, but gathered for each writer and written as one metadata record for every metadataBatchSize
+ * captures. The batch record has a WARC-Concurrent-To header for the response of each of its captures, and a
+ * "capture" field naming the capture and its response before the fields of each capture. A batch only has captures
+ * from one WARC file: it is written early when the file is full, when the writer has moved on to a new file, and at
+ * checkpoints.
  * @author svc 
  * 
  */
@@ -67,7 +92,53 @@ public class NasWARCProcessor extends WARCWriterProcessor {
         kp.put("writeMetadataOutlinks",writeMetadataOutlinks);
     }
 
-    List<String> cachedMetadata;
+    /**
+     * Whether or not to write the CDX lines of the response records to a file next to each WARC file. It is disabled
+     * by default.
+     */
+    {
+        setWriteCDX(false);
+    }
+    public boolean getWriteCDX() {
+        return (Boolean) kp.get("writeCDX");
+    }
+    public void setWriteCDX(boolean writeCDX) {
+        kp.put("writeCDX", writeCDX);
+    }
+
+    /**
+     * The number of captures whose metadata is written together in one metadata record. If 0, the default, each
+     * capture gets a metadata record of its own.
+     */
+    {
+        setMetadataBatchSize(0);
+    }
+    public int getMetadataBatchSize() {
+        return (Integer) kp.get("metadataBatchSize");
+    }
+    public void setMetadataBatchSize(int metadataBatchSize) {
+        kp.put("metadataBatchSize", metadataBatchSize);
+    }
+
+    /** The URL of the metadata records with the metadata of several captures. */
+    static final String METADATA_BATCH_URL = "metadata://netarchivesuite.dk/crawl/captures";
+
+    /** The CDX file being written for the current WARC file of each writer. */
+    private final Map<WARCWriter, CDXSidecar> cdxSidecars = new ConcurrentHashMap<WARCWriter, CDXSidecar>();
+
+    /** The metadata gathered for each writer, not yet written. */
+    private final Map<WARCWriter, MetadataBatch> metadataBatches = new ConcurrentHashMap<WARCWriter, MetadataBatch>();
+
+    /** The payload of the metadata records written by each thread, reused for each record. */
+    private static final ThreadLocal<MetadataPayload> payloads = new ThreadLocal<MetadataPayload>() {
+        @Override
+        protected MetadataPayload initialValue() {
+            return new MetadataPayload();
+        }
+    };
+
+    /** The payload of the warcinfo records, rendered the first time a WARC file is started. */
+    private volatile List<String> cachedMetadata;
 
 	public NasWARCProcessor() {
 		super();
@@ -95,11 +166,34 @@ public class NasWARCProcessor extends WARCWriterProcessor {
     }
 
 	
+	/**
+	 * @return The payload of the warcinfo record of each WARC file, rendered the first time it is needed and the same
+	 * for every file of the job
+	 */
 	@Override
 	public List<String> getMetadata() {
-        if (cachedMetadata != null) {
-            return cachedMetadata;
-        }
+	    List<String> metadata = cachedMetadata;
+	    if (metadata == null) {
+	        synchronized (this) {
+	            metadata = cachedMetadata;
+	            if (metadata == null) {
+	                // really ugly to return as List<String>, but changing would require
+	                // larger refactoring
+	                metadata = Collections.singletonList(renderWarcinfo());
+	                cachedMetadata = metadata;
+	            }
+	        }
+	    }
+	    return metadata;
+    }
+
+	/**
+	 * Render the payload of the warcinfo records: the description of the crawl from Heritrix, and the harvestInfo
+	 * fields of NetarchiveSuite.
+	 *
+	 * @return The payload
+	 */
+	protected String renderWarcinfo() {
         ANVLRecord record = new ANVLRecord();
         record.addLabelValue("software", "Heritrix/" +
                 ArchiveUtils.VERSION + " http://crawler.archive.org");
@@ -211,16 +305,15 @@ public class NasWARCProcessor extends WARCWriterProcessor {
         	}
         }
 
-        // really ugly to return as List<String>, but changing would require 
-        // larger refactoring
-        cachedMetadata = Collections.singletonList(record.toString() 
-        		+ netarchiveSuiteComment + "\n" + recordNAS.toString());
-        return cachedMetadata;
+        return record.toString() + netarchiveSuiteComment + "\n" + recordNAS.toString();
     }
 	
 	/**
 	 * modify default writeMetadata method to handle the write of outlinks
-	 * in metadata or not
+	 * in metadata or not. The payload is built in a buffer reused by the
+	 * thread, or, if metadataBatchSize is more than 0, added to the batch
+	 * of the writer. The batch is written when it is full, or when the
+	 * WARC file is full, so the next record starts a new file.
 	 */
 	@Override
 	protected URI writeMetadata(final WARCWriter w,
@@ -228,21 +321,38 @@ public class NasWARCProcessor extends WARCWriterProcessor {
             final URI baseid, final CrawlURI curi,
             final ANVLRecord namedFields) 
     throws IOException {
-	    WARCRecordInfo recordInfo = new WARCRecordInfo();
-        recordInfo.setType(WARCRecordType.metadata);
-        recordInfo.setUrl(curi.toString());
-        recordInfo.setCreate14DigitDate(timestamp);
-        recordInfo.setMimetype(ANVLRecord.MIMETYPE);
-        recordInfo.setExtraHeaders(namedFields);
-        recordInfo.setEnforceLength(true);
-	    
-        recordInfo.setRecordId(qualifyRecordID(baseid, TYPE, WARCRecordType.metadata.toString()));
+        int batchSize = getMetadataBatchSize();
+        MetadataBatch batch = null;
+        MetadataPayload r;
+        if (batchSize > 0) {
+            batch = metadataBatches.get(w);
+            if (batch != null && !batch.isFor(w.getFile())) {
+                // The writer has moved on to a new file, so the captures of the batch are all in the previous file.
+                metadataBatches.remove(w);
+                writeMetadataBatch(w, batch);
+                batch = null;
+            }
+            if (batch == null) {
+                // The batch record takes the id the record of its first capture would have had.
+                batch = new MetadataBatch(w.getFile(),
+                        qualifyRecordID(baseid, TYPE, WARCRecordType.metadata.toString()));
+                metadataBatches.put(w, batch);
+            }
+            String concurrentTo = namedFields == null ? null : namedFields.asMap().get(HEADER_KEY_CONCURRENT_TO);
+            if (concurrentTo != null) {
+                batch.headers.addLabelValue(HEADER_KEY_CONCURRENT_TO, concurrentTo);
+            }
+            r = batch.payload;
+            r.addLabelValue("capture", concurrentTo == null ? curi.toString() : curi + " " + concurrentTo);
+        } else {
+            r = payloads.get();
+            r.clear();
+        }
 
         // Get some metadata from the curi.
         // TODO: Get all curi metadata.
         // TODO: Use other than ANVL (or rename ANVL as NameValue or use
         // RFC822 (commons-httpclient?).
-        ANVLRecord r = new ANVLRecord();
         if (curi.isSeed()) {
             r.addLabel("seed");
         } else {
@@ -299,14 +409,330 @@ public class NasWARCProcessor extends WARCWriterProcessor {
         // fetch-completed-time: 1154569281816
         //
         // Annotations.
+
+        if (batch != null) {
+            batch.timestamp = timestamp;
+            batch.captures++;
+            if (batch.captures >= batchSize || isFull(w)) {
+                metadataBatches.remove(w);
+                writeMetadataBatch(w, batch);
+            }
+            return batch.recordId;
+        }
+
+	    WARCRecordInfo recordInfo = new WARCRecordInfo();
+        recordInfo.setType(WARCRecordType.metadata);
+        recordInfo.setUrl(curi.toString());
+        recordInfo.setCreate14DigitDate(timestamp);
+        recordInfo.setMimetype(ANVLRecord.MIMETYPE);
+        recordInfo.setExtraHeaders(namedFields);
+        recordInfo.setEnforceLength(true);
+	    
+        recordInfo.setRecordId(qualifyRecordID(baseid, TYPE, WARCRecordType.metadata.toString()));
         
-        byte [] b = r.getUTF8Bytes();
-        recordInfo.setContentStream(new ByteArrayInputStream(b));
-        recordInfo.setContentLength((long) b.length);
+        r.encode();
+        recordInfo.setContentStream(r.getContentStream());
+        recordInfo.setContentLength((long) r.getLength());
         
         w.writeRecord(recordInfo);
         
         return recordInfo.getRecordId();
     }
+
+	/**
+	 * @param w A writer
+	 * @return true if the file of the writer is full, so the writer starts a new file before the next record
+	 */
+	private boolean isFull(WARCWriter w) {
+	    long maxFileSize = getMaxFileSizeBytes();
+	    return maxFileSize > 0 && w.getPosition() > maxFileSize;
+	}
+
+	/**
+	 * Write the metadata gathered for a writer as one metadata record.
+	 *
+	 * @param w The writer
+	 * @param batch The metadata of the captures written with the writer
+	 * @throws IOException If the record could not be written
+	 */
+	private void writeMetadataBatch(WARCWriter w, MetadataBatch batch) throws IOException {
+	    WARCRecordInfo recordInfo = new WARCRecordInfo();
+	    recordInfo.setType(WARCRecordType.metadata);
+	    recordInfo.setUrl(METADATA_BATCH_URL);
+	    recordInfo.setCreate14DigitDate(batch.timestamp);
+	    recordInfo.setMimetype(ANVLRecord.MIMETYPE);
+	    recordInfo.setExtraHeaders(batch.headers);
+	    recordInfo.setEnforceLength(true);
+	    recordInfo.setRecordId(batch.recordId);
+	    batch.payload.encode();
+	    recordInfo.setContentStream(batch.payload.getContentStream());
+	    recordInfo.setContentLength((long) batch.payload.getLength());
+	    w.writeRecord(recordInfo);
+	}
 	
+	/**
+	 * Write the response record as usual, and its CDX line if writeCDX is enabled.
+	 */
+	@Override
+	protected URI writeResponse(final WARCWriter w,
+            final String timestamp, final String mimetype,
+            final URI baseid, final CrawlURI curi,
+            final ANVLRecord suppliedFields)
+    throws IOException {
+	    File file = w.getFile();
+	    long offset = w.getPosition();
+	    URI recordId = super.writeResponse(w, timestamp, mimetype, baseid, curi, suppliedFields);
+	    if (getWriteCDX()) {
+	        writeCDXLine(w, file, offset, timestamp, mimetype, curi, suppliedFields);
+	    }
+	    return recordId;
+	}
+
+	/**
+	 * Write the CDX line of a response record just written. The line is made from the recorded response, so the WARC
+	 * file is not read. If the line cannot be made, the CDX file of the WARC file is dropped, so the CDX is made from
+	 * the WARC file after the harvest instead.
+	 *
+	 * @param w The writer the record was written with
+	 * @param file The file of the writer when the record was written
+	 * @param offset The offset of the record in the file
+	 * @param timestamp The date of the record
+	 * @param mimetype The content type of the record
+	 * @param curi The URI of the record
+	 * @param suppliedFields The extra WARC headers of the record
+	 */
+	protected void writeCDXLine(WARCWriter w, File file, long offset, String timestamp, String mimetype,
+	        CrawlURI curi, ANVLRecord suppliedFields) {
+	    CDXSidecar sidecar = cdxSidecars.get(w);
+	    if (sidecar == null || !sidecar.isFor(w.getFile())) {
+	        if (sidecar != null) {
+	            sidecar.close();
+	        }
+	        sidecar = new CDXSidecar(w.getFile());
+	        cdxSidecars.put(w, sidecar);
+	    }
+	    if (file == null || !file.equals(w.getFile()) || curi.getRecorder() == null) {
+	        // The writer moved on to a new file while writing, or there is nothing to index.
+	        sidecar.fail("No offset or content for " + curi);
+	        return;
+	    }
+	    String ip = suppliedFields == null ? null : suppliedFields.asMap().get(HEADER_KEY_IP);
+	    InputStream block = null;
+	    try {
+	        block = curi.getRecorder().getRecordedInput().getReplayInputStream();
+	        sidecar.write(ArchiveExtractCDXJob.createCDXLine(curi.toString(), ip, toArcDate(timestamp),
+	                curi.getRecorder().getRecordedInput().getSize(), sidecar.getArchiveFileName(), offset,
+	                mimetype, block, true));
+	    } catch (Exception e) {
+	        sidecar.fail("Unable to index " + curi + ": " + e);
+	    } finally {
+	        IOUtils.closeQuietly(block);
+	    }
+	}
+
+	/**
+	 * @param timestamp The date of a record as given to the writer, either yyyyMMddHHmmss or a WARC date.
+	 * @return The date in the ARC format, yyyyMMddHHmmss, as found by reading the record from the WARC file.
+	 */
+	private static String toArcDate(String timestamp) {
+	    if (timestamp == null || timestamp.length() == 14) {
+	        return timestamp;
+	    }
+	    try {
+	        return ArchiveDateConverter.getArcDateFormat().format(
+	                ArchiveDateConverter.getWarcDateFormat().parse(timestamp));
+	    } catch (Exception e) {
+	        return timestamp;
+	    }
+	}
+
+	/**
+	 * Write the metadata not yet written, close the writers as usual, and then the CDX files, which are complete now
+	 * the WARC files are closed.
+	 */
+	@Override
+	public void stop() {
+	    writeMetadataBatches();
+	    super.stop();
+	    closeCDXSidecars();
+	}
+
+	/**
+	 * Write the metadata not yet written before the checkpoint closes the WARC files, and close the CDX files of the
+	 * closed WARC files after it.
+	 */
+	@Override
+	public void doCheckpoint(Checkpoint checkpointInProgress) throws IOException {
+	    writeMetadataBatches();
+	    super.doCheckpoint(checkpointInProgress);
+	    closeCDXSidecars();
+	}
+
+	/**
+	 * Write the metadata gathered for each writer, not yet written, each batch to the file of its own writer. Called
+	 * before a checkpoint or stop closes the WARC files.
+	 */
+	void writeMetadataBatches() {
+	    for (WARCWriter w : metadataBatches.keySet()) {
+	        MetadataBatch batch = metadataBatches.remove(w);
+	        if (batch == null) {
+	            continue;
+	        }
+	        try {
+	            writeMetadataBatch(w, batch);
+	        } catch (IOException e) {
+	            logger.warn("Unable to write the metadata of {} captures", batch.captures, e);
+	        }
+	    }
+	}
+
+	/**
+	 * Close the CDX files of the WARC files written so far.
+	 */
+	private void closeCDXSidecars() {
+	    for (CDXSidecar sidecar : cdxSidecars.values()) {
+	        sidecar.close();
+	    }
+	    cdxSidecars.clear();
+	}
+
+	/**
+	 * The metadata of captures written with one writer, to be written as one metadata record.
+	 */
+	private static class MetadataBatch {
+
+	    /** The file of the writer when the first capture was added. */
+	    final File file;
+
+	    /** The id of the batch record. */
+	    final URI recordId;
+
+	    /** The WARC-Concurrent-To headers of the batch record. */
+	    final ANVLRecord headers = new ANVLRecord();
+
+	    /** The fields of each capture, after a field naming the capture. */
+	    final MetadataPayload payload = new MetadataPayload();
+
+	    /** The date of the latest capture. */
+	    String timestamp;
+
+	    /** The number of captures gathered. */
+	    int captures;
+
+	    /**
+	     * @param file The current file of the writer
+	     * @param recordId The id of the batch record
+	     */
+	    MetadataBatch(File file, URI recordId) {
+	        this.file = file;
+	        this.recordId = recordId;
+	    }
+
+	    /**
+	     * @param file The current file of a writer
+	     * @return true if the captures of this batch are in the given file
+	     */
+	    boolean isFor(File file) {
+	        return this.file == null ? file == null : this.file.equals(file);
+	    }
+	}
+
+	/**
+	 * The CDX file written next to a WARC file.
+	 */
+	private static class CDXSidecar {
+
+	    /** The WARC file while being written, including the ".open" suffix. */
+	    private final File warcFile;
+
+	    /** The name of the WARC file once closed. */
+	    private final String archiveFileName;
+
+	    /** The CDX file while being written. */
+	    private final File openFile;
+
+	    /** The stream to the CDX file, or null if it could not be opened or has failed. */
+	    private OutputStream out;
+
+	    /**
+	     * Open the CDX file for a WARC file.
+	     * @param warcFile The WARC file while being written
+	     */
+	    CDXSidecar(File warcFile) {
+	        this.warcFile = warcFile;
+	        String name = warcFile.getName();
+	        if (name.endsWith(WriterPoolMember.OCCUPIED_SUFFIX)) {
+	            name = name.substring(0, name.length() - WriterPoolMember.OCCUPIED_SUFFIX.length());
+	        }
+	        this.archiveFileName = name;
+	        this.openFile = new File(warcFile.getParentFile(), name + FileUtils.CDX_EXTENSION
+	                + WriterPoolMember.OCCUPIED_SUFFIX);
+	        try {
+	            out = new BufferedOutputStream(new FileOutputStream(openFile));
+	        } catch (IOException e) {
+	            logger.warn("Unable to create CDX file '{}'", openFile, e);
+	        }
+	    }
+
+	    /**
+	     * @param file The current file of a writer
+	     * @return true if this is the CDX file of the given WARC file
+	     */
+	    boolean isFor(File file) {
+	        return warcFile.equals(file);
+	    }
+
+	    /**
+	     * @return The name of the WARC file once closed
+	     */
+	    String getArchiveFileName() {
+	        return archiveFileName;
+	    }
+
+	    /**
+	     * Write a CDX line.
+	     * @param line The line, ending with a newline
+	     * @throws IOException If the line could not be written
+	     */
+	    void write(String line) throws IOException {
+	        if (out != null) {
+	            out.write(line.getBytes("UTF-8"));
+	        }
+	    }
+
+	    /**
+	     * Give up writing the CDX file, as it would not be complete.
+	     * @param reason The reason for giving up
+	     */
+	    void fail(String reason) {
+	        if (out != null) {
+	            logger.warn("Dropping CDX file '{}'. {}", openFile, reason);
+	            IOUtils.closeQuietly(out);
+	            out = null;
+	            FileUtils.remove(openFile);
+	        }
+	    }
+
+	    /**
+	     * Close the CDX file and give it its final name, unless it has failed.
+	     */
+	    void close() {
+	        if (out == null) {
+	            return;
+	        }
+	        try {
+	            out.close();
+	            out = null;
+	            File cdxFile = new File(openFile.getParentFile(), archiveFileName + FileUtils.CDX_EXTENSION);
+	            if (!openFile.renameTo(cdxFile)) {
+	                logger.warn("Unable to rename CDX file '{}' to '{}'", openFile, cdxFile);
+	            }
+	        } catch (IOException e) {
+	            out = null;
+	            logger.warn("Unable to close CDX file '{}'", openFile, e);
+	            FileUtils.remove(openFile);
+	        }
+	    }
+	}
+
 }
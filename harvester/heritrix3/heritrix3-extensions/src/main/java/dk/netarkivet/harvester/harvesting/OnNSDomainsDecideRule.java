@@ -28,7 +28,6 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.commons.httpclient.URIException;
-import org.archive.modules.CrawlURI;
 import org.archive.modules.deciderules.surt.SurtPrefixedDecideRule;
 import org.archive.net.UURI;
 import org.archive.net.UURIFactory;
@@ -53,6 +52,10 @@ public class OnNSDomainsDecideRule extends SurtPrefixedDecideRule {
     /** Pattern that matches the first part of SURT - until ?? */
     public static final Pattern SURT_FIRSTPART_PATTERN
         = Pattern.compile("http\\://\\([^\\)]*");
+
+    /** The policy giving the domain of a URI. It holds no state, so it is shared by all calls. */
+    private static final DomainnameQueueAssignmentPolicy POLICY = new DomainnameQueueAssignmentPolicy();
+
     /** 
      * Constructor for the class OnNSDomainsDecideRule.
      * Makes the configured decision 
@@ -135,23 +138,15 @@ public class OnNSDomainsDecideRule extends SurtPrefixedDecideRule {
      */
     public static String convertToDomain(String uri) {
         ArgumentNotValid.checkNotNullOrEmpty(uri, "String uri");
-        DomainnameQueueAssignmentPolicy policy
-                = new DomainnameQueueAssignmentPolicy();
-
-        UURI uuri = null;
+        UURI uuri;
         try {
             uuri = UURIFactory.getInstance(uri);
         } catch (URIException e) {
-            e.printStackTrace();
-         // allow to continue with original string uri  
-         // FIXME/TODO 
-         // AD "allow to continue with original string uri"
-         // We cannot do that any more, as the argument to getClassKey is now CrawlURI, except for
-         // the string
-                         
+            // illegal URI - return a SURT that will not match any real URIs
+            return NON_VALID_DOMAIN;
         }
-        try {          
-            return policy.getClassKey(new CrawlURI(uuri));
+        try {
+            return POLICY.getCoreKey(uuri);
         } catch (Throwable e) {
             // illegal URI - return a SURT that will not match any real URIs
             return NON_VALID_DOMAIN;
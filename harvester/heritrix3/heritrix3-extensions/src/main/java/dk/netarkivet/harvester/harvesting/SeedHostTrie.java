@@ -0,0 +1,375 @@
+/*
+ * #%L
+ * Netarchivesuite - Heritrix 3 extensions
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * The hosts of the seeds of a crawl, as a trie of host name labels read from the right, e.g. dk - netarkivet - www.
+ * Each seed host is mapped to the queue key of its seed, and a host is found to belong to a seed if it is a seed host
+ * or a subdomain of one, while an IP address only belongs to a seed of the same address. Finding the seed of a host
+ * takes time proportional to the length of the host name, however many seeds there are.
+ * <p>
+ * Hosts are added to a list of pending hosts, and become visible to {@link #findDomain(String)} when the trie is
+ * compacted. Compacting rebuilds the trie as small hash tables, with each distinct label kept once, and replaces the
+ * previous trie in one step, so lookups never wait for seeds being added. Seeds are normally added in batches, e.g.
+ * when the crawl is set up, and the trie compacted after each batch.
+ */
+public class SeedHostTrie {
+
+    /** The slots of a node without children. */
+    private static final Object[] NO_SLOTS = new Object[0];
+
+    /** The root of the compacted trie. Its children are top level domains. */
+    private volatile Node root = new Node(null, Collections.<String>emptyList(), Collections.<Node>emptyList());
+
+    /** The hosts added since the trie was last compacted. */
+    private final List<Entry> pending = new ArrayList<Entry>();
+
+    /**
+     * Add a seed host. It can be found once the trie is compacted.
+     *
+     * @param host The host name of a seed. It is compared in lower case.
+     * @param domain The queue key of URIs on the host and its subdomains. If the host was added before, this replaces
+     * the previous key.
+     * @throws ArgumentNotValid If host is null or empty, or domain is null.
+     */
+    public synchronized void add(String host, String domain) {
+        ArgumentNotValid.checkNotNullOrEmpty(host, "String host");
+        ArgumentNotValid.checkNotNull(domain, "String domain");
+        String[] labels = host.toLowerCase(Locale.ROOT).split("\\.", -1);
+        String[] reversed = new String[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            reversed[i] = labels[labels.length - 1 - i];
+        }
+        pending.add(new Entry(reversed, domain));
+    }
+
+    /**
+     * Make the hosts added since the last time visible to lookups, by rebuilding the trie with them.
+     */
+    public synchronized void compact() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Entry> entries = new ArrayList<Entry>();
+        collectEntries(root, new ArrayList<String>(), entries);
+        entries.addAll(pending);
+        // The sort is stable, so a host added again comes after its earlier entry and wins.
+        Collections.sort(entries, ENTRY_ORDER);
+        root = build(entries, 0, entries.size(), 0, new HashMap<String, String>());
+        pending.clear();
+    }
+
+    /**
+     * Find the seed a host belongs to.
+     *
+     * @param host A host name in lower case, as given by a UURI.
+     * @return The queue key of the longest seed host that is the host itself or one of its parent domains, or null if
+     * there is none.
+     */
+    public String findDomain(String host) {
+        if (host == null) {
+            return null;
+        }
+        // An IP address only belongs to a seed of the same address.
+        boolean ipAddress = host.length() > 0 && Character.isDigit(host.charAt(host.length() - 1));
+        Node node = root;
+        String found = null;
+        int end = host.length();
+        while (end > 0) {
+            int start = host.lastIndexOf('.', end - 1) + 1;
+            node = node.getChild(host, start, end);
+            if (node == null) {
+                break;
+            }
+            if (node.domain != null && (start == 0 || !ipAddress)) {
+                found = node.domain;
+            }
+            end = start - 1;
+        }
+        return found;
+    }
+
+    /**
+     * @return The number of seed hosts that can be found.
+     */
+    public int getSeedHostCount() {
+        return countSeedHosts(root);
+    }
+
+    /**
+     * @return The number of seed hosts added but not yet compacted into the trie.
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return The number of nodes of the trie, not counting the root.
+     */
+    public int getNodeCount() {
+        return countNodes(root) - 1;
+    }
+
+    /**
+     * Estimate the memory used by the trie, assuming a 64 bit JVM with compressed references. The estimate includes
+     * the labels and queue keys, but not hosts pending.
+     *
+     * @return The estimated number of bytes used.
+     */
+    public long estimateSizeInBytes() {
+        Map<String, Boolean> strings = new IdentityHashMap<String, Boolean>();
+        long size = estimateSize(root, strings);
+        for (String s : strings.keySet()) {
+            // The String object and its character array.
+            size += align(12 + 4 + 4 + 4) + align(16 + 2L * s.length());
+        }
+        return size;
+    }
+
+    /**
+     * @return A short report of the size of the trie.
+     */
+    public String getReport() {
+        return getSeedHostCount() + " seed hosts in " + getNodeCount() + " nodes, about "
+                + (estimateSizeInBytes() / 1024) + " KB, " + getPendingCount() + " pending";
+    }
+
+    @Override
+    public String toString() {
+        return "SeedHostTrie: " + getReport();
+    }
+
+    /**
+     * Build the node of a range of sorted entries sharing their first labels.
+     *
+     * @param entries The entries, sorted.
+     * @param from The first entry of the range.
+     * @param to The end of the range, exclusive.
+     * @param depth The number of labels shared by the entries of the range.
+     * @param labelPool The labels already used, so each distinct label is kept once.
+     * @return The node.
+     */
+    private static Node build(List<Entry> entries, int from, int to, int depth, Map<String, String> labelPool) {
+        String domain = null;
+        int i = from;
+        while (i < to && entries.get(i).labels.length == depth) {
+            domain = entries.get(i).domain;
+            i++;
+        }
+        List<String> labels = new ArrayList<String>();
+        List<Node> children = new ArrayList<Node>();
+        while (i < to) {
+            String label = entries.get(i).labels[depth];
+            int j = i + 1;
+            while (j < to && entries.get(j).labels[depth].equals(label)) {
+                j++;
+            }
+            String pooled = labelPool.get(label);
+            if (pooled == null) {
+                pooled = label;
+                labelPool.put(label, label);
+            }
+            labels.add(pooled);
+            children.add(build(entries, i, j, depth + 1, labelPool));
+            i = j;
+        }
+        return new Node(domain, labels, children);
+    }
+
+    /**
+     * Collect the seed hosts of a trie as entries.
+     *
+     * @param node The node to collect from.
+     * @param path The labels leading to the node.
+     * @param entries The list to add the entries to.
+     */
+    private static void collectEntries(Node node, List<String> path, List<Entry> entries) {
+        if (node.domain != null) {
+            entries.add(new Entry(path.toArray(new String[path.size()]), node.domain));
+        }
+        for (int i = 0; i < node.slots.length; i += 2) {
+            if (node.slots[i] != null) {
+                path.add((String) node.slots[i]);
+                collectEntries((Node) node.slots[i + 1], path, entries);
+                path.remove(path.size() - 1);
+            }
+        }
+    }
+
+    private static int countSeedHosts(Node node) {
+        int count = node.domain == null ? 0 : 1;
+        for (int i = 1; i < node.slots.length; i += 2) {
+            if (node.slots[i] != null) {
+                count += countSeedHosts((Node) node.slots[i]);
+            }
+        }
+        return count;
+    }
+
+    private static int countNodes(Node node) {
+        int count = 1;
+        for (int i = 1; i < node.slots.length; i += 2) {
+            if (node.slots[i] != null) {
+                count += countNodes((Node) node.slots[i]);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Estimate the memory used by the nodes of a trie, not counting the strings.
+     *
+     * @param node The root of the trie.
+     * @param strings The labels and keys found, to be counted once each.
+     * @return The estimated number of bytes used by the nodes.
+     */
+    private static long estimateSize(Node node, Map<String, Boolean> strings) {
+        // The object header and two references.
+        long size = align(12 + 2 * 4);
+        if (node.domain != null) {
+            strings.put(node.domain, Boolean.TRUE);
+        }
+        if (node.slots.length > 0) {
+            size += align(16 + 4L * node.slots.length);
+            for (int i = 0; i < node.slots.length; i += 2) {
+                if (node.slots[i] != null) {
+                    strings.put((String) node.slots[i], Boolean.TRUE);
+                    size += estimateSize((Node) node.slots[i + 1], strings);
+                }
+            }
+        }
+        return size;
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    /** Orders entries by their labels, label by label, with an entry before the entries below it. */
+    private static final Comparator<Entry> ENTRY_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            int n = Math.min(e1.labels.length, e2.labels.length);
+            for (int i = 0; i < n; i++) {
+                int c = e1.labels[i].compareTo(e2.labels[i]);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return e1.labels.length - e2.labels.length;
+        }
+    };
+
+    /**
+     * A node of the trie. The children are kept in a hash table with open addressing, as pairs of label and child in
+     * one array, so a child is found without creating a string for its label.
+     */
+    private static final class Node {
+        /** The queue key, if a seed host ends here. */
+        final String domain;
+        /** The hash table of children: the label of a child followed by the child, or two nulls for an empty slot. */
+        final Object[] slots;
+
+        /**
+         * @param domain The queue key, if a seed host ends here.
+         * @param labels The labels of the children.
+         * @param children The children, in the order of their labels.
+         */
+        Node(String domain, List<String> labels, List<Node> children) {
+            this.domain = domain;
+            if (labels.isEmpty()) {
+                slots = NO_SLOTS;
+                return;
+            }
+            // A power of two, at most three quarters full once there are a few children.
+            int capacity = 1;
+            while (capacity < labels.size() + labels.size() / 3) {
+                capacity <<= 1;
+            }
+            slots = new Object[2 * capacity];
+            for (int i = 0; i < labels.size(); i++) {
+                String label = labels.get(i);
+                int slot = label.hashCode() & (capacity - 1);
+                while (slots[2 * slot] != null) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                slots[2 * slot] = label;
+                slots[2 * slot + 1] = children.get(i);
+            }
+        }
+
+        /**
+         * @param host A host name.
+         * @param start The start of a label of the host name.
+         * @param end The end of the label, exclusive.
+         * @return The child with the label, or null if there is none.
+         */
+        Node getChild(String host, int start, int end) {
+            int capacity = slots.length / 2;
+            if (capacity == 0) {
+                return null;
+            }
+            // The hash of the label, as String.hashCode computes it.
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + host.charAt(i);
+            }
+            int slot = hash & (capacity - 1);
+            for (int probes = 0; probes < capacity; probes++) {
+                String label = (String) slots[2 * slot];
+                if (label == null) {
+                    return null;
+                }
+                if (label.hashCode() == hash && label.length() == end - start
+                        && host.regionMatches(start, label, 0, label.length())) {
+                    return (Node) slots[2 * slot + 1];
+                }
+                slot = (slot + 1) & (capacity - 1);
+            }
+            return null;
+        }
+    }
+
+    /** A seed host, as labels from the right, with its queue key. */
+    private static final class Entry {
+        final String[] labels;
+        final String domain;
+
+        Entry(String[] labels, String domain) {
+            this.labels = labels;
+            this.domain = domain;
+        }
+    }
+
+}
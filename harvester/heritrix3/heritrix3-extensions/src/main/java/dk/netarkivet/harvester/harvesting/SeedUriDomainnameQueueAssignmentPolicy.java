@@ -24,14 +24,12 @@
  */
 package dk.netarkivet.harvester.harvesting;
 
+import org.apache.commons.httpclient.URIException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.archive.crawler.frontier.HostnameQueueAssignmentPolicy;
 import org.archive.modules.CrawlURI;
-import org.archive.net.UURIFactory;
-import org.archive.url.UsableURI;
-
-import dk.netarkivet.common.utils.DomainUtils;
+import org.archive.modules.seeds.SeedListener;
 
 /**
  * This is a modified version of the {@link DomainnameQueueAssignmentPolicy}
@@ -44,9 +42,12 @@ import dk.netarkivet.common.utils.DomainUtils;
  * x.y.z -> y.z
  * y.z -> y.z
  * nn.nn.nn.nn -> nn.nn.nn.nn
- * 
+ *
+ * As a seed listener, the policy also keeps the hosts of the seeds in a {@link SeedHostTrie}, built as the seeds are
+ * loaded. A URI without a seed, e.g. because sourceTagSeeds is off, is queued with the seed whose host it is on, or is
+ * a subdomain of, before its own domain is looked up.
  */
-public class SeedUriDomainnameQueueAssignmentPolicy extends HostnameQueueAssignmentPolicy {
+public class SeedUriDomainnameQueueAssignmentPolicy extends HostnameQueueAssignmentPolicy implements SeedListener {
 
     /**
      * If true, dns lookups are queued by seed. If false, each dns lookup gets its own queue. Default true.
@@ -69,10 +70,14 @@ public class SeedUriDomainnameQueueAssignmentPolicy extends HostnameQueueAssignm
 
     private Log log = LogFactory.getLog(getClass());
 
+    /** The hosts of the seeds, with the key of each seed. */
+    private final SeedHostTrie seedHosts = new SeedHostTrie();
+
 
     /**
      * The logic is as follows:
      * We get try to get the queue-name as the domain-name of the seed.
+     * If the uri has no seed, we try the seed whose host the uri is on or is a subdomain of.
      * If that fails, or if the uri is a dns entry, we use the "old" logic which is
      * to take the key from the superclass (in the form host#port or just host) and extract
      * a domain-name from that. If all that fails, we fall back to a default value,
@@ -91,6 +96,9 @@ public class SeedUriDomainnameQueueAssignmentPolicy extends HostnameQueueAssignm
         String key = null;
         if (treatDnsLikeHttp || !isDns(cauri)) {
             key = getKeyFromSeed(cauri);
+            if (key == null) {
+                key = seedHosts.findDomain(getHost(cauri));
+            }
         }
         if (key == null) {
             key = getKeyFromUriHostname(cauri);
@@ -103,6 +111,55 @@ public class SeedUriDomainnameQueueAssignmentPolicy extends HostnameQueueAssignm
         return key;
     }
 
+    /**
+     * Add the host of a seed to the seed hosts, with the key that URIs reached from the seed get.
+     *
+     * @param curi The seed.
+     */
+    @Override
+    public void addedSeed(CrawlURI curi) {
+        String seed = curi.getSourceTag() != null ? curi.getSourceTag() : curi.getURI();
+        String key = DomainKeyCache.getInstance().domainNameFromSeed(seed);
+        String host = getHost(curi);
+        if (key != null && host != null && !host.isEmpty()) {
+            seedHosts.add(host, key);
+        }
+    }
+
+    @Override
+    public boolean nonseedLine(String line) {
+        return false;
+    }
+
+    /**
+     * Make the seeds added since the last batch available to {@link #getClassKey(CrawlURI)}.
+     */
+    @Override
+    public void concludedSeedBatch() {
+        seedHosts.compact();
+        log.info("Seed hosts for queue assignment: " + seedHosts.getReport());
+    }
+
+    /**
+     * @return A report of the number of seed hosts and the memory they use.
+     */
+    public String getSeedHostReport() {
+        return seedHosts.getReport();
+    }
+
+    /**
+     * @param cauri A crawl URI.
+     * @return The host of the URI, or null if it has none.
+     */
+    private String getHost(CrawlURI cauri) {
+        try {
+            return cauri.getUURI().getHost();
+        } catch (URIException e) {
+            log.debug("Unable to get the host of " + cauri);
+            return null;
+        }
+    }
+
     private boolean isDns(CrawlURI cauri) {
         return cauri != null && cauri.getCanonicalString().startsWith("dns");
     }
@@ -122,7 +179,7 @@ public class SeedUriDomainnameQueueAssignmentPolicy extends HostnameQueueAssignm
         if (key != null) {
             String[] hostnameandportnr = key.split("#");
             if (hostnameandportnr.length == 1 || hostnameandportnr.length == 2) {
-                key = DomainUtils.domainNameFromHostname(hostnameandportnr[0]);
+                key = DomainKeyCache.getInstance().domainNameFromHostname(hostnameandportnr[0]);
             } else {
                 log.debug("Illegal class key candidate from superclass: '" + key + "' for '" + cauri + "'");
                 key = null;
@@ -138,15 +195,9 @@ public class SeedUriDomainnameQueueAssignmentPolicy extends HostnameQueueAssignm
      * @return the domain of the seed, if it can be determined. Otherwise null.
      */
     private String getKeyFromSeed(CrawlURI cauri) {
-        String key = null;
-        String seed = cauri.getSourceTag();
-        if (!UsableURI.hasScheme(seed)) {
-            seed = "http://" + seed;
-        }
-        try {
-            key = DomainUtils.domainNameFromHostname(UURIFactory.getInstance(seed).getHost());
-        } catch (Exception e) {
-            log.debug("Could not extract a domain key from seed '" + seed + "'");
+        String key = DomainKeyCache.getInstance().domainNameFromSeed(cauri.getSourceTag());
+        if (key == null) {
+            log.debug("Could not extract a domain key from seed '" + cauri.getSourceTag() + "'");
         }
         return key;
     }
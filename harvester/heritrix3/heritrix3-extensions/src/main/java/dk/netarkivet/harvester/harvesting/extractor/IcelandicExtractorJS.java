@@ -83,6 +83,12 @@ public class IcelandicExtractorJS extends org.archive.modules.extractor.Extracto
     public void setRejectRelativeMatchingRegexList(List<Pattern> patterns) {
         kp.put("rejectRelativeMatchingRegexList", patterns);
     }
+
+    /** Absolute URIs, which are never rejected. */
+    private static final Pattern ABSOLUTE_URI = Pattern.compile("^[a-zA-Z]://.*$");
+
+    /** The reject list joined into one matcher. Rebuilt when the list changes. */
+    private volatile MultiPatternMatcher rejectMatcher;
     
     // finds whitespace-free strings in Javascript
     // (areas between paired ' or " characters, possibly backslash-quoted
@@ -233,7 +239,7 @@ public class IcelandicExtractorJS extends org.archive.modules.extractor.Extracto
     }
     
     private boolean shouldIgnorePossibleRelativeLink(String str) {
-        if (str.matches("^[a-zA-Z]://.*$")) {
+        if (ABSOLUTE_URI.matcher(str).matches()) {
             // Absolute path. Assume it is ok.
             return false;
         }
@@ -243,13 +249,12 @@ public class IcelandicExtractorJS extends org.archive.modules.extractor.Extracto
             return false;
         }
 
-        for (Pattern p: regexes) {
-            boolean matches = p.matcher(str).matches();
-            if(matches){
-                return true;
-            } 
+        MultiPatternMatcher matcher = rejectMatcher;
+        if (matcher == null || !matcher.isFor(regexes)) {
+            matcher = new MultiPatternMatcher(regexes);
+            rejectMatcher = matcher;
         }
-        return false;
+        return matcher.matchesAny(str);
     }
     
 	@Override
@@ -0,0 +1,161 @@
+/*
+ * #%L
+ * Netarchivesuite - Heritrix 3 extensions
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting.extractor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Decides whether a string matches any of a list of patterns, in the sense of {@link java.util.regex.Matcher#matches()},
+ * with one combined pattern instead of one pattern at a time.
+ * <p>
+ * The patterns are joined as alternatives of one pattern, each in a group carrying its flags, so each string is only
+ * given to the regex engine once. Patterns that cannot be joined without changing their meaning, because they refer to
+ * groups, quote text or use flags that cannot be written inline, are tried one at a time after the combined pattern.
+ */
+public class MultiPatternMatcher {
+
+    /**
+     * Finds back references, which would refer to other groups once the patterns are joined, and quoting, which might
+     * not be ended and then would swallow the rest of the joined pattern.
+     */
+    private static final Pattern NOT_JOINABLE = Pattern.compile("\\\\([1-9]|k<|Q)");
+
+    /** Flags that have no inline form, or whose inline form does not combine with other patterns. */
+    private static final int SEPARATE_FLAGS = Pattern.CANON_EQ | Pattern.COMMENTS;
+
+    /** The patterns given, in order. */
+    private final Pattern[] patterns;
+
+    /** The joined patterns, or null if no pattern could be joined. */
+    private final Pattern combined;
+
+    /** The patterns that could not be joined. */
+    private final Pattern[] separate;
+
+    /**
+     * Create a matcher for a list of patterns.
+     *
+     * @param patterns The patterns.
+     */
+    public MultiPatternMatcher(List<Pattern> patterns) {
+        this.patterns = patterns.toArray(new Pattern[patterns.size()]);
+        StringBuilder union = new StringBuilder();
+        List<Pattern> rest = new ArrayList<Pattern>();
+        for (Pattern p : this.patterns) {
+            if ((p.flags() & SEPARATE_FLAGS) != 0 || NOT_JOINABLE.matcher(p.pattern()).find()) {
+                rest.add(p);
+                continue;
+            }
+            if (union.length() > 0) {
+                union.append('|');
+            }
+            union.append("(?").append(inlineFlags(p.flags())).append(':');
+            union.append((p.flags() & Pattern.LITERAL) != 0 ? Pattern.quote(p.pattern()) : p.pattern());
+            union.append(')');
+        }
+        Pattern joined = null;
+        if (union.length() > 0) {
+            try {
+                joined = Pattern.compile(union.toString());
+            } catch (PatternSyntaxException e) {
+                // E.g. the same named group in two patterns. Fall back to one pattern at a time.
+                rest.clear();
+                for (Pattern p : this.patterns) {
+                    rest.add(p);
+                }
+            }
+        }
+        this.combined = joined;
+        this.separate = rest.toArray(new Pattern[rest.size()]);
+    }
+
+    /**
+     * Get the inline form of the flags of a pattern.
+     *
+     * @param flags The flags of the pattern.
+     * @return The letters turning on the flags inline.
+     */
+    private static String inlineFlags(int flags) {
+        StringBuilder inline = new StringBuilder();
+        if ((flags & Pattern.CASE_INSENSITIVE) != 0) {
+            inline.append('i');
+        }
+        if ((flags & Pattern.UNIX_LINES) != 0) {
+            inline.append('d');
+        }
+        if ((flags & Pattern.MULTILINE) != 0) {
+            inline.append('m');
+        }
+        if ((flags & Pattern.DOTALL) != 0) {
+            inline.append('s');
+        }
+        if ((flags & Pattern.UNICODE_CASE) != 0) {
+            inline.append('u');
+        }
+        if ((flags & Pattern.UNICODE_CHARACTER_CLASS) != 0) {
+            inline.append('U');
+        }
+        return inline.toString();
+    }
+
+    /**
+     * Check whether this matcher was made from the given patterns, so it can be reused.
+     *
+     * @param patterns A list of patterns.
+     * @return true if the list holds the same pattern objects as this matcher was made from, in the same order.
+     */
+    public boolean isFor(List<Pattern> patterns) {
+        if (patterns.size() != this.patterns.length) {
+            return false;
+        }
+        int i = 0;
+        for (Pattern p : patterns) {
+            if (p != this.patterns[i++]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check whether a string matches any of the patterns.
+     *
+     * @param s The string.
+     * @return true if the whole string matches at least one of the patterns.
+     */
+    public boolean matchesAny(CharSequence s) {
+        if (combined != null && combined.matcher(s).matches()) {
+            return true;
+        }
+        for (Pattern p : separate) {
+            if (p.matcher(s).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,266 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.SOARecord;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.SimpleResolver;
+
+/**
+ * Tests of the DnsCache, against a DNS server in the test answering on localhost.
+ */
+public class DnsCacheTester {
+
+    /** The timeout of the resolver in milliseconds. */
+    private static final long TIMEOUT = 500;
+
+    private StubServer server;
+    private DnsCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubServer();
+        SimpleResolver resolver = new SimpleResolver(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                server.getPort()));
+        resolver.setTimeout(Duration.ofMillis(TIMEOUT));
+        cache = new DnsCache();
+        cache.setResolver(resolver);
+        cache.setMinTtl(0);
+        cache.setNegativeTtl(1);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void testAnswersAreKeptForTheirTtl() throws Exception {
+        server.ttl = 1;
+        DnsCache.Answer answer = cache.lookup("www.test");
+        assertTrue(answer.isResolved());
+        assertEquals("10.0.0.1", ((ARecord) answer.getRecords()[0]).getAddress().getHostAddress());
+        assertTrue(cache.lookup("WWW.test.").isResolved());
+        assertEquals("The second lookup should be answered from the cache", 1, server.getQueries("www.test."));
+        assertEquals(1, cache.getHits());
+        Thread.sleep(1100);
+        assertTrue(cache.lookup("www.test").isResolved());
+        assertEquals("An expired answer should be looked up again", 2, server.getQueries("www.test."));
+    }
+
+    @Test
+    public void testTtlIsClamped() throws Exception {
+        server.ttl = 1;
+        cache.setMinTtl(60);
+        assertTrue(cache.lookup("www.test").isResolved());
+        Thread.sleep(1100);
+        assertTrue(cache.lookup("www.test").isResolved());
+        assertEquals(1, server.getQueries("www.test."));
+
+        server.ttl = 3600;
+        cache.setMinTtl(0);
+        cache.setMaxTtl(2);
+        assertTrue(cache.lookup("other.test").getTtl() <= 2);
+    }
+
+    @Test
+    public void testNonexistentNamesAreCached() throws Exception {
+        assertNotFound(cache.lookup("nx.test"));
+        assertNotFound(cache.lookup("nx.test"));
+        assertEquals(1, server.getQueries("nx.test."));
+        assertEquals(1, cache.getNegativeHits());
+        assertEquals(0, cache.getHits());
+        Thread.sleep(1100);
+        assertNotFound(cache.lookup("nx.test"));
+        assertEquals(2, server.getQueries("nx.test."));
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        assertTrue(cache.prefetch("www.test"));
+        assertTrue(cache.lookup("www.test").isResolved());
+        assertFalse("A cached host should not be prefetched", cache.prefetch("www.test"));
+        assertFalse(cache.prefetch("10.0.0.1"));
+        assertEquals(1, server.getQueries("www.test."));
+        assertEquals(1, cache.getPrefetches());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testStalledLookups() throws Exception {
+        long start = System.currentTimeMillis();
+        assertTrue(cache.prefetch("slow.test"));
+        assertFalse("A host being resolved should not be prefetched again", cache.prefetch("slow.test"));
+        assertTrue("Prefetching should not wait for the answer", System.currentTimeMillis() - start < TIMEOUT / 2);
+        assertTrue("Other hosts should be resolved while one stalls", cache.lookup("www.test").isResolved());
+        assertTrue(System.currentTimeMillis() - start < TIMEOUT);
+
+        DnsCache.Answer answer = cache.lookup("slow.test");
+        assertTrue("A lookup of the stalled host should wait for the failed prefetch", answer.isFailed());
+        assertFalse(answer.isResolved());
+        assertNull(answer.getRecords());
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("Waited " + elapsed + " ms", elapsed >= TIMEOUT / 2 && elapsed < 2 * TIMEOUT);
+        assertEquals("The stalled host should only be asked for once", 1, server.getQueries("slow.test."));
+
+        assertTrue(cache.lookup("slow.test").isFailed());
+        assertEquals("A timeout should not be cached", 2, server.getQueries("slow.test."));
+        assertEquals(0, cache.getNegativeHits());
+    }
+
+    @Test
+    public void testLookupDoesNotWaitForPrefetchQueue() throws Exception {
+        cache.setPrefetchThreads(1);
+        assertTrue(cache.prefetch("slow.test"));
+        // Wait until the only prefetch thread is stuck on the slow host, so the next prefetch stays in the queue.
+        while (server.getQueries("slow.test.") == 0) {
+            Thread.sleep(10);
+        }
+        assertTrue(cache.prefetch("www.test"));
+        long start = System.currentTimeMillis();
+        assertTrue(cache.lookup("www.test").isResolved());
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("Waited " + elapsed + " ms for the prefetch queue", elapsed < TIMEOUT / 2);
+
+        // Let the slow prefetch fail, and the queued prefetch run.
+        Thread.sleep(3 * TIMEOUT);
+        assertEquals("The queued prefetch should not resolve the host again", 1, server.getQueries("www.test."));
+        assertEquals(1, cache.getPrefetches());
+    }
+
+    @Test
+    public void testFullCacheDropsLeastRecentlyUsed() throws Exception {
+        cache.setMaxSize(16);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(cache.lookup("host" + i + ".test").isResolved());
+        }
+        assertTrue("The cache should be full, not emptied: " + cache.getSize(),
+                cache.getSize() > 0 && cache.getSize() <= 16);
+        assertTrue(cache.lookup("host99.test").isResolved());
+        assertEquals("The most recent answer should be kept", 1, server.getQueries("host99.test."));
+        assertTrue(cache.lookup("host0.test").isResolved());
+        assertEquals("The oldest answer should be dropped", 2, server.getQueries("host0.test."));
+    }
+
+    /**
+     * @param answer An answer for a name that does not exist.
+     */
+    private static void assertNotFound(DnsCache.Answer answer) {
+        assertFalse("A name that does not exist should not be resolved", answer.isResolved());
+        assertFalse("A name that does not exist should not be a failure", answer.isFailed());
+        assertNull(answer.getRecords());
+    }
+
+    /**
+     * A DNS server answering A queries for names in the zone 'test.'. The name 'slow.test.' is never answered, names
+     * starting with 'nx.' do not exist, and all other names have the address 10.0.0.1.
+     */
+    private static class StubServer implements Runnable {
+
+        private final DatagramSocket socket;
+        private final Map<String, AtomicInteger> queries = new ConcurrentHashMap<String, AtomicInteger>();
+        private volatile long ttl = 60;
+
+        StubServer() throws IOException {
+            socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+            Thread thread = new Thread(this, "Stub DNS server");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int getPort() {
+            return socket.getLocalPort();
+        }
+
+        int getQueries(String name) {
+            AtomicInteger count = queries.get(name);
+            return count == null ? 0 : count.get();
+        }
+
+        void close() {
+            socket.close();
+        }
+
+        @Override
+        public void run() {
+            byte[] buffer = new byte[512];
+            while (!socket.isClosed()) {
+                try {
+                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                    socket.receive(packet);
+                    Message query = new Message(Arrays.copyOf(packet.getData(), packet.getLength()));
+                    Record question = query.getQuestion();
+                    String name = question.getName().toString().toLowerCase();
+                    queries.computeIfAbsent(name, k -> new AtomicInteger()).incrementAndGet();
+                    if (name.equals("slow.test.")) {
+                        continue;
+                    }
+                    Message response = new Message(query.getHeader().getID());
+                    response.getHeader().setFlag(Flags.QR);
+                    response.getHeader().setFlag(Flags.AA);
+                    response.addRecord(question, Section.QUESTION);
+                    if (name.startsWith("nx.")) {
+                        response.getHeader().setRcode(Rcode.NXDOMAIN);
+                        response.addRecord(new SOARecord(Name.fromString("test."), DClass.IN, 60,
+                                Name.fromString("ns.test."), Name.fromString("admin.test."), 1, 60, 60, 60, 60),
+                                Section.AUTHORITY);
+                    } else {
+                        response.addRecord(new ARecord(question.getName(), DClass.IN, ttl,
+                                InetAddress.getByAddress(new byte[] {10, 0, 0, 1})), Section.ANSWER);
+                    }
+                    byte[] wire = response.toWire();
+                    socket.send(new DatagramPacket(wire, wire.length, packet.getSocketAddress()));
+                } catch (IOException e) {
+                    // Closed, or a malformed query.
+                }
+            }
+        }
+    }
+
+}
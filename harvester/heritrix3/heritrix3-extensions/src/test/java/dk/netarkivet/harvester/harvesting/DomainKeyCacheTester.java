@@ -0,0 +1,125 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import dk.netarkivet.common.utils.DomainUtils;
+import dk.netarkivet.common.utils.SlowTest;
+
+/**
+ * Tests of the DomainKeyCache.
+ */
+public class DomainKeyCacheTester {
+
+    @Test
+    public void testDomainNameFromHostname() {
+        DomainKeyCache cache = new DomainKeyCache();
+        assertEquals("foo.dk", cache.domainNameFromHostname("www.foo.dk"));
+        assertEquals("foo.dk", cache.domainNameFromHostname("www.foo.dk"));
+        assertEquals("192.168.0.10", cache.domainNameFromHostname("192.168.0.10"));
+        assertNull("Invalid hosts should be cached as such", cache.domainNameFromHostname("x.fnord.barbar"));
+        assertNull(cache.domainNameFromHostname("x.fnord.barbar"));
+        assertEquals(2, cache.getHits());
+        assertEquals(3, cache.getMisses());
+        assertEquals(3, cache.getSize());
+    }
+
+    @Test
+    public void testDomainNameFromSeed() {
+        DomainKeyCache cache = new DomainKeyCache();
+        assertEquals("bar.dk", cache.domainNameFromSeed("x.y.bar.dk"));
+        assertEquals("bar.dk", cache.domainNameFromSeed("https://x.y.bar.dk:8080/path"));
+        assertEquals("bar.dk", cache.domainNameFromSeed("x.y.bar.dk"));
+        assertNull(cache.domainNameFromSeed(null));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testBounded() {
+        DomainKeyCache cache = new DomainKeyCache();
+        cache.setMaxSize(16);
+        for (int i = 0; i < 100; i++) {
+            assertEquals("host" + i + ".dk", cache.domainNameFromHostname("www.host" + i + ".dk"));
+            assertTrue(cache.getSize() <= 16);
+        }
+        assertTrue("A full cache should not be emptied", cache.getSize() > 0);
+        long misses = cache.getMisses();
+        assertEquals("host99.dk", cache.domainNameFromHostname("www.host99.dk"));
+        assertEquals("The most recent host should be kept", misses, cache.getMisses());
+        assertEquals("host0.dk", cache.domainNameFromHostname("www.host0.dk"));
+        assertEquals("The oldest host should be dropped", misses + 1, cache.getMisses());
+        cache.clear();
+        assertEquals(0, cache.getSize());
+    }
+
+    /**
+     * Replay the hosts of 10 million synthetic URIs over a few thousand hosts, finding the domain of each with and
+     * without the cache.
+     */
+    @Test
+    @Category(SlowTest.class)
+    public void testBenchmark() {
+        final int uris = 10000000;
+        final int hosts = 5000;
+        String[] hostnames = new String[hosts];
+        for (int i = 0; i < hosts; i++) {
+            String prefix = i % 3 == 0 ? "www." : "cdn" + (i % 7) + ".";
+            hostnames[i] = prefix + "site" + (i / 2) + (i % 5 == 0 ? ".co.uk" : ".dk");
+        }
+        int[] replay = new int[uris];
+        long seed = 42;
+        for (int i = 0; i < uris; i++) {
+            seed = seed * 6364136223846793005L + 1442695040888963407L;
+            // Skewed towards few hosts, as in a real crawl.
+            int h = (int) (((seed >>> 33) % hosts) * ((seed >>> 20) % 1000) / 1000);
+            replay[i] = h;
+        }
+
+        long start = System.nanoTime();
+        for (int h : replay) {
+            DomainUtils.domainNameFromHostname(hostnames[h]);
+        }
+        long uncached = System.nanoTime() - start;
+
+        DomainKeyCache cache = new DomainKeyCache();
+        start = System.nanoTime();
+        for (int h : replay) {
+            cache.domainNameFromHostname(hostnames[h]);
+        }
+        long cached = System.nanoTime() - start;
+
+        System.out.println(String.format("%d URIs: %.0f URIs/s without cache, %.0f URIs/s with cache "
+                + "(%d hits, %d misses)", uris, uris / (uncached / 1e9), uris / (cached / 1e9), cache.getHits(),
+                cache.getMisses()));
+        assertEquals(uris, cache.getHits() + cache.getMisses());
+        assertTrue(cache.getMisses() <= hosts);
+    }
+
+}
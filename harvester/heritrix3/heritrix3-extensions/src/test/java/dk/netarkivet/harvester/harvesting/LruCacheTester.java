@@ -0,0 +1,75 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * Tests of the LruCache.
+ */
+public class LruCacheTester {
+
+    /**
+     * The least recently used entry is dropped, not the least recently added. Small Integer keys are their own hash,
+     * so 0, 16 and 32 share a segment.
+     */
+    @Test
+    public void testDropsLeastRecentlyUsed() {
+        LruCache<Integer, String> cache = new LruCache<Integer, String>(32);
+        cache.put(0, "zero");
+        cache.put(16, "sixteen");
+        assertEquals("zero", cache.get(0));
+        cache.put(32, "thirty-two");
+        assertNull("The least recently used entry should be dropped", cache.get(16));
+        assertEquals("zero", cache.get(0));
+        assertEquals("thirty-two", cache.get(32));
+    }
+
+    /**
+     * A full cache keeps the most recent entries instead of being emptied.
+     */
+    @Test
+    public void testFullCacheKeepsRecentEntries() {
+        LruCache<Integer, Integer> cache = new LruCache<Integer, Integer>(32);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, i);
+        }
+        assertEquals(32, cache.size());
+        for (int i = 968; i < 1000; i++) {
+            assertEquals(Integer.valueOf(i), cache.get(i));
+        }
+
+        cache.setMaxSize(16);
+        cache.put(1000, 1000);
+        assertEquals(Integer.valueOf(1000), cache.get(1000));
+        assertEquals("Only the segment added to is trimmed at once", 31, cache.size());
+        cache.remove(1000);
+        assertNull(cache.get(1000));
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+}
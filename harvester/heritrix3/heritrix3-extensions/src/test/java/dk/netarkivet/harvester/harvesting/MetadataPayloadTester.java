@@ -0,0 +1,182 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.archive.util.anvl.ANVLRecord;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import dk.netarkivet.common.utils.SlowTest;
+
+/**
+ * Tests of the MetadataPayload.
+ */
+public class MetadataPayloadTester {
+
+    /** The number of outlinks of each capture in the benchmark. */
+    private static final int OUTLINKS = 20;
+
+    /**
+     * A payload must be the same bytes as an ANVLRecord with the same fields.
+     */
+    @Test
+    public void testSameAsANVLRecord() throws IOException {
+        ANVLRecord record = new ANVLRecord();
+        MetadataPayload payload = new MetadataPayload();
+        record.addLabel("seed");
+        payload.addLabel("seed");
+        record.addLabelValue("via", "http://www.netarkivet.dk/");
+        payload.addLabelValue("via", "http://www.netarkivet.dk/");
+        record.addLabelValue("outlink", "http://www.kb.dk/æøå L a/@href");
+        payload.addLabelValue("outlink", "http://www.kb.dk/æøå L a/@href");
+        record.addLabelValue("sourceTag", "two\nlines");
+        payload.addLabelValue("sourceTag", "two\nlines");
+        payload.encode();
+        assertEquals(4, payload.getFieldCount());
+        assertEquals(record.getUTF8Bytes().length, payload.getLength());
+        assertArrayEquals(record.getUTF8Bytes(), read(payload));
+
+        payload.clear();
+        payload.encode();
+        assertArrayEquals("An empty payload is an empty ANVL record", new ANVLRecord().getUTF8Bytes(), read(payload));
+    }
+
+    /**
+     * A payload is the fields added since it was last cleared, also when the previous fields took more space.
+     */
+    @Test
+    public void testReuse() throws IOException {
+        MetadataPayload payload = new MetadataPayload();
+        for (int i = 0; i < 10000; i++) {
+            payload.addLabelValue("outlink", "http://www.netarkivet.dk/page" + i + " L a/@href");
+        }
+        payload.encode();
+        payload.clear();
+        payload.addLabelValue("fetchTimeMs", "42");
+        payload.encode();
+        assertEquals(1, payload.getFieldCount());
+        assertEquals("fetchTimeMs: 42\r\n\r\n", new String(read(payload), "UTF-8"));
+    }
+
+    /**
+     * Compare the metadata of 100000 captures written as a new ANVLRecord per capture, as a reused payload per capture,
+     * and in batches of 100 captures per record.
+     */
+    @Test
+    @Category(SlowTest.class)
+    public void testWriterBenchmark() throws IOException {
+        int captures = 100000;
+        for (int round = 0; round < 2; round++) {
+            // The first round warms up.
+            long start = System.nanoTime();
+            long recordBytes = 0;
+            for (int i = 0; i < captures; i++) {
+                ANVLRecord r = new ANVLRecord();
+                r.addLabelValue("capture", "http://www.site" + i + ".dk/");
+                r.addLabelValue("via", "http://www.netarkivet.dk/");
+                r.addLabelValue("hopsFromSeed", "LL");
+                for (int j = 0; j < OUTLINKS; j++) {
+                    r.addLabelValue("outlink", "http://www.site" + i + ".dk/page" + j + " L a/@href");
+                }
+                recordBytes += r.getUTF8Bytes().length;
+            }
+            long recordTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            long payloadBytes = 0;
+            MetadataPayload payload = new MetadataPayload();
+            for (int i = 0; i < captures; i++) {
+                payload.clear();
+                addFields(payload, i);
+                payload.encode();
+                payloadBytes += drain(payload);
+            }
+            long payloadTime = System.nanoTime() - start;
+
+            int batchSize = 100;
+            start = System.nanoTime();
+            long batchBytes = 0;
+            int batches = 0;
+            payload.clear();
+            for (int i = 0; i < captures; i++) {
+                addFields(payload, i);
+                if ((i + 1) % batchSize == 0) {
+                    payload.encode();
+                    batchBytes += drain(payload);
+                    batches++;
+                    payload.clear();
+                }
+            }
+            long batchTime = System.nanoTime() - start;
+
+            assertEquals(recordBytes, payloadBytes);
+            assertEquals(captures / batchSize, batches);
+            if (round > 0) {
+                System.out.println("Metadata of " + captures + " captures with " + OUTLINKS + " outlinks each: "
+                        + "ANVLRecord per capture " + recordTime / 1000000 + " ms, " + captures + " records, "
+                        + recordBytes + " bytes; " + "reused payload per capture " + payloadTime / 1000000 + " ms, "
+                        + captures + " records, " + payloadBytes + " bytes; " + "batches of " + batchSize + " "
+                        + batchTime / 1000000 + " ms, " + batches + " records, " + batchBytes + " bytes");
+            }
+        }
+    }
+
+    private static void addFields(MetadataPayload payload, int capture) {
+        payload.addLabelValue("capture", "http://www.site" + capture + ".dk/");
+        payload.addLabelValue("via", "http://www.netarkivet.dk/");
+        payload.addLabelValue("hopsFromSeed", "LL");
+        for (int j = 0; j < OUTLINKS; j++) {
+            payload.addLabelValue("outlink", "http://www.site" + capture + ".dk/page" + j + " L a/@href");
+        }
+    }
+
+    /**
+     * @param payload An encoded payload.
+     * @return The number of bytes read from the payload, as a writer would.
+     */
+    private static long drain(MetadataPayload payload) throws IOException {
+        InputStream in = payload.getContentStream();
+        try {
+            return IOUtils.skip(in, Long.MAX_VALUE);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] read(MetadataPayload payload) throws IOException {
+        InputStream in = payload.getContentStream();
+        try {
+            return IOUtils.toByteArray(in);
+        } finally {
+            in.close();
+        }
+    }
+
+}
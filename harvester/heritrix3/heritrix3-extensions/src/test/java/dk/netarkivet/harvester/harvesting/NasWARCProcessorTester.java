@@ -0,0 +1,341 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.archive.format.warc.WARCConstants;
+import org.archive.io.warc.WARCRecordInfo;
+import org.archive.io.warc.WARCWriter;
+import org.archive.io.warc.WARCWriterPoolSettingsData;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+import org.archive.uid.UUIDGenerator;
+import org.archive.util.Recorder;
+import org.archive.util.anvl.ANVLRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.cdx.CDXUtils;
+
+/**
+ * Tests of what the NasWARCProcessor writes besides the records of Heritrix: the CDX files next to the WARC files, and
+ * the metadata records of several captures.
+ */
+public class NasWARCProcessorTester {
+
+    private static final String TIMESTAMP = "20261019100000";
+
+    private static final File WARC_DIR = new File(TestInfo.WORKING_DIR, "warcs");
+
+    @Before
+    public void setUp() {
+        FileUtils.removeRecursively(WARC_DIR);
+        FileUtils.createDir(WARC_DIR);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(WARC_DIR);
+    }
+
+    /**
+     * The CDX file written next to each WARC file while the records are written must be the CDX file CDXUtils makes by
+     * reading the WARC file afterwards, also when the writer starts new files. The CDX file of a WARC file has the
+     * ".open" suffix until the WARC file is done.
+     */
+    @Test
+    public void testCDXFilesMatchCDXUtils() throws Exception {
+        NasWARCProcessor processor = newProcessor(0);
+        processor.setWriteCDX(true);
+        WARCWriter w = new WARCWriter(new AtomicInteger(), new WARCWriterPoolSettingsData("1-1", "${prefix}-${serialno}",
+                1000, false, Collections.singletonList(WARC_DIR),
+                Collections.singletonList("software: NasWARCProcessorTester\r\n"), new UUIDGenerator()));
+        String[] paths = {"", "logo.gif", "missing", "about", "contact", "news"};
+        for (String path : paths) {
+            // As the WARCWriterProcessor does before each capture, starting a new file when the current one is full.
+            w.checkSize();
+            String status = "missing".equals(path) ? "404 Not Found" : "200 OK";
+            writeResponse(processor, w, "http://www.netarkivet.dk/" + path, "HTTP/1.1 " + status + "\r\n"
+                    + "Content-Type: text/html; charset=UTF-8\r\n\r\n<html><body>Netarkivet æøå "
+                    + StringUtils.repeat("x", 400) + "</body></html>\n");
+        }
+
+        List<File> closedWarcFiles = warcFiles(".warc");
+        assertTrue("The writer should have started new files, but wrote " + closedWarcFiles,
+                closedWarcFiles.size() >= 2);
+        for (File warcFile : closedWarcFiles) {
+            File cdxFile = new File(WARC_DIR, warcFile.getName() + FileUtils.CDX_EXTENSION);
+            assertTrue("The CDX file of a finished WARC file should be closed: " + cdxFile, cdxFile.isFile());
+            assertFalse(new File(WARC_DIR, cdxFile.getName() + ".open").exists());
+        }
+        String openName = w.getFile().getName().replaceFirst("\\.open$", "");
+        assertTrue("The CDX file of the current WARC file should still be open",
+                new File(WARC_DIR, openName + FileUtils.CDX_EXTENSION + ".open").isFile());
+        assertFalse(new File(WARC_DIR, openName + FileUtils.CDX_EXTENSION).exists());
+
+        w.close();
+        processor.stop();
+        assertTrue("No CDX file should be left open", warcFiles(FileUtils.CDX_EXTENSION + ".open").isEmpty());
+        List<File> allWarcFiles = warcFiles(".warc");
+        assertEquals(closedWarcFiles.size() + 1, allWarcFiles.size());
+        int lines = 0;
+        for (File warcFile : allWarcFiles) {
+            File cdxFile = new File(WARC_DIR, warcFile.getName() + FileUtils.CDX_EXTENSION);
+            assertTrue("There should be a CDX file next to " + warcFile, cdxFile.isFile());
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            CDXUtils.writeCDXInfo(warcFile, expected);
+            lines += sortedLines(expected.toByteArray()).size();
+            assertArrayEquals("The written CDX file should be the CDX lines of " + warcFile,
+                    join(sortedLines(expected.toByteArray())), join(sortedLines(FileUtils.readBinaryFile(cdxFile))));
+        }
+        assertEquals("Each response should be indexed once", paths.length, lines);
+    }
+
+    /**
+     * When a WARC file is full in the middle of a batch, the batch is written to that file, before the writer starts a
+     * new file, and the next captures start a new batch.
+     */
+    @Test
+    public void testRolloverInMiddleOfBatch() throws Exception {
+        NasWARCProcessor processor = newProcessor(3);
+        processor.setMaxFileSizeBytes(1000);
+        RecordingWriter w = new RecordingWriter("1-1-00001.warc.open");
+        writeCapture(processor, w, "http://www.netarkivet.dk/1", 100);
+        assertEquals(0, w.records.size());
+        writeCapture(processor, w, "http://www.netarkivet.dk/2", 1000);
+        assertEquals(Collections.singletonList("1-1-00001.warc.open 2 captures"), w.records);
+
+        w.rollOver("1-1-00002.warc.open");
+        writeCapture(processor, w, "http://www.netarkivet.dk/3", 100);
+        writeCapture(processor, w, "http://www.netarkivet.dk/4", 100);
+        processor.stop();
+        assertEquals("The captures after the rollover should be a batch of the new file",
+                "1-1-00002.warc.open 2 captures", w.records.get(1));
+        assertEquals(2, w.records.size());
+    }
+
+    /**
+     * When the writer has started a new file without the previous one being full, the batch of the previous file is
+     * written before the first capture of the new file is added, so no batch has captures from two files.
+     */
+    @Test
+    public void testNewFileInMiddleOfBatch() throws Exception {
+        NasWARCProcessor processor = newProcessor(3);
+        processor.setMaxFileSizeBytes(1000000);
+        RecordingWriter w = new RecordingWriter("1-1-00001.warc.open");
+        writeCapture(processor, w, "http://www.netarkivet.dk/1", 100);
+        writeCapture(processor, w, "http://www.netarkivet.dk/2", 100);
+        w.rollOver("1-1-00002.warc.open");
+        writeCapture(processor, w, "http://www.netarkivet.dk/3", 100);
+        assertEquals(Collections.singletonList("1-1-00002.warc.open 2 captures"), w.records);
+        writeCapture(processor, w, "http://www.netarkivet.dk/4", 100);
+        writeCapture(processor, w, "http://www.netarkivet.dk/5", 100);
+        assertEquals("1-1-00002.warc.open 3 captures", w.records.get(1));
+        assertEquals(2, w.records.size());
+    }
+
+    /**
+     * Before a checkpoint or stop closes the WARC files, the batch of each writer is written to the file of that
+     * writer, and only once.
+     */
+    @Test
+    public void testWriteMetadataBatches() throws Exception {
+        NasWARCProcessor processor = newProcessor(3);
+        processor.setMaxFileSizeBytes(1000000);
+        RecordingWriter first = new RecordingWriter("1-1-00001.warc.open");
+        RecordingWriter second = new RecordingWriter("1-1-00002.warc.open");
+        writeCapture(processor, first, "http://www.netarkivet.dk/1", 100);
+        writeCapture(processor, second, "http://www.netarkivet.dk/2", 100);
+        writeCapture(processor, second, "http://www.netarkivet.dk/3", 100);
+        assertEquals(0, first.records.size() + second.records.size());
+
+        processor.writeMetadataBatches();
+        assertEquals(Collections.singletonList("1-1-00001.warc.open 1 captures"), first.records);
+        assertEquals(Collections.singletonList("1-1-00002.warc.open 2 captures"), second.records);
+
+        processor.writeMetadataBatches();
+        assertEquals("The batches should only be written once", 2, first.records.size() + second.records.size());
+    }
+
+    /**
+     * Write a response record, and the metadata record of the capture after it, as the processor would.
+     *
+     * @param processor The processor.
+     * @param w The writer.
+     * @param uri The URI of the capture.
+     * @param response The HTTP response.
+     */
+    private static void writeResponse(NasWARCProcessor processor, WARCWriter w, String uri, String response)
+            throws IOException {
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance(uri));
+        curi.setRecorder(Recorder.wrapInputStreamWithHttpRecord(WARC_DIR, "recorder",
+                new ByteArrayInputStream(response.getBytes("UTF-8")), null));
+        URI responseId = URI.create("urn:uuid:" + UUID.randomUUID());
+        ANVLRecord fields = new ANVLRecord();
+        fields.addLabelValue(WARCConstants.HEADER_KEY_IP, "130.225.27.140");
+        processor.writeResponse(w, "2026-10-19T10:00:00Z", WARCConstants.HTTP_RESPONSE_MIMETYPE, responseId, curi,
+                fields);
+        ANVLRecord namedFields = new ANVLRecord();
+        namedFields.addLabelValue(WARCConstants.HEADER_KEY_CONCURRENT_TO, "<" + responseId + ">");
+        processor.writeMetadata(w, "2026-10-19T10:00:00Z", URI.create("urn:uuid:" + UUID.randomUUID()), curi,
+                namedFields);
+    }
+
+    /**
+     * @param suffix The end of the names of the files.
+     * @return The files in the WARC directory with names ending with the suffix.
+     */
+    private static List<File> warcFiles(final String suffix) {
+        File[] files = WARC_DIR.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(suffix);
+            }
+        });
+        return Arrays.asList(files);
+    }
+
+    /**
+     * @param cdx CDX lines, each ending with a newline.
+     * @return The lines, sorted.
+     */
+    private static List<String> sortedLines(byte[] cdx) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        String text = new String(cdx, "UTF-8");
+        if (!text.isEmpty()) {
+            lines.addAll(Arrays.asList(text.split("\n")));
+        }
+        Collections.sort(lines);
+        return lines;
+    }
+
+    /**
+     * @param lines CDX lines.
+     * @return The lines as a CDX file.
+     */
+    private static byte[] join(List<String> lines) throws IOException {
+        StringBuilder cdx = new StringBuilder();
+        for (String line : lines) {
+            cdx.append(line).append('\n');
+        }
+        return cdx.toString().getBytes("UTF-8");
+    }
+
+    /**
+     * @param batchSize The number of captures in each metadata record.
+     * @return A processor writing the metadata of its captures in batches.
+     */
+    private static NasWARCProcessor newProcessor(int batchSize) {
+        NasWARCProcessor processor = new NasWARCProcessor();
+        processor.setMetadataBatchSize(batchSize);
+        processor.setWriteMetadataOutlinks(false);
+        return processor;
+    }
+
+    /**
+     * Write the metadata of a capture, after its response as the processor would.
+     *
+     * @param processor The processor.
+     * @param w The writer.
+     * @param uri The URI of the capture.
+     * @param responseSize The number of bytes written for the response.
+     */
+    private static void writeCapture(NasWARCProcessor processor, RecordingWriter w, String uri, long responseSize)
+            throws IOException {
+        URI responseId = URI.create("urn:uuid:" + UUID.randomUUID());
+        w.position += responseSize;
+        ANVLRecord namedFields = new ANVLRecord();
+        namedFields.addLabelValue(WARCConstants.HEADER_KEY_CONCURRENT_TO, "<" + responseId + ">");
+        processor.writeMetadata(w, TIMESTAMP, URI.create("urn:uuid:" + UUID.randomUUID()),
+                new CrawlURI(UURIFactory.getInstance(uri)), namedFields);
+    }
+
+    /**
+     * A writer noting the file each metadata record was written to, and the number of captures in it.
+     */
+    private static class RecordingWriter extends WARCWriter {
+
+        /** The records written, as the file name and the number of captures. */
+        final List<String> records = new ArrayList<String>();
+
+        private File file;
+
+        private long position;
+
+        RecordingWriter(String fileName) {
+            super(new AtomicInteger(), new WARCWriterPoolSettingsData("1-1", "${prefix}", 1000000, false,
+                    Collections.singletonList(new File("target")), null, new UUIDGenerator()));
+            rollOver(fileName);
+        }
+
+        /**
+         * Start a new file, as the writer does when its file is full.
+         *
+         * @param fileName The name of the new file.
+         */
+        void rollOver(String fileName) {
+            file = new File("target", fileName);
+            position = 0;
+        }
+
+        @Override
+        public File getFile() {
+            return file;
+        }
+
+        @Override
+        public long getPosition() {
+            return position;
+        }
+
+        @Override
+        public void writeRecord(WARCRecordInfo recordInfo) throws IOException {
+            String payload = IOUtils.toString(recordInfo.getContentStream(), "UTF-8");
+            int captures = payload.split("(^|\r\n)capture: ", -1).length - 1;
+            records.add(file.getName() + " " + captures + " captures");
+            position += recordInfo.getContentLength();
+        }
+    }
+
+}
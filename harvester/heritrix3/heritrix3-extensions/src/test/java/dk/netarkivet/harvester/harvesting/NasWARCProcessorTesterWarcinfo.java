@@ -0,0 +1,171 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.archive.modules.CrawlMetadata;
+import org.junit.Test;
+
+/**
+ * Tests of the warcinfo payload of the NasWARCProcessor.
+ */
+public class NasWARCProcessorTesterWarcinfo {
+
+    /**
+     * The payload must be the text the warcinfo records have always had: the Heritrix fields, the NetarchiveSuite
+     * comment and the harvestInfo fields, in that order. The fields that depend on the build and on the host are
+     * checked by their form only.
+     */
+    @Test
+    public void testSameAsWarcinfoPayload() {
+        NasWARCProcessor processor = newProcessor(new AtomicInteger());
+        String text = processor.getMetadata().get(0);
+        assertTrue(text, text.matches("(?s)software: Heritrix/[^\r\n]* http://crawler\\.archive\\.org\r\n.*"));
+        assertTrue(text, text.matches("(?s).*\r\n\r\n#added by NetarchiveSuite[^\r\n]*\nharvestInfo\\..*"));
+        String expected = "software: Heritrix\r\n"
+                + "format: WARC File Format 1.0\r\n"
+                + "conformsTo: http://bibnum.bnf.fr/WARC/WARC_ISO_28500_version1_latestdraft.pdf\r\n"
+                + "operator: Admin\r\n"
+                + "publisher: The Royal Danish Library\r\n"
+                + "audience: Researchers\r\n"
+                + "isPartOf: 23-7-snapshot\r\n"
+                + "description: A snapshot harvest\r\n"
+                + "robots: obey\r\n"
+                + "http-header-user-agent: NetarchiveSuite test +http://netarkivet.dk/\r\n"
+                + "http-header-from: admin@netarkivet.dk\r\n"
+                + "\r\n"
+                + "#added by NetarchiveSuite\n"
+                + "harvestInfo.version: 0.6\r\n"
+                + "harvestInfo.jobId: 23\r\n"
+                + "harvestInfo.channel: SNAPSHOT\r\n"
+                + "harvestInfo.harvestNum: 2\r\n"
+                + "harvestInfo.origHarvestDefinitionID: 7\r\n"
+                + "harvestInfo.maxBytesPerDomain: 100000\r\n"
+                + "harvestInfo.maxObjectsPerDomain: -1\r\n"
+                + "harvestInfo.templateName: default_orderxml\r\n"
+                + "harvestInfo.origHarvestDefinitionName: snapshot\r\n"
+                + "harvestInfo.origHarvestDefinitionComments: A template\r\n"
+                + "harvestInfo.harvestFilenamePrefix: 23-7\r\n"
+                + "harvestInfo.jobSubmitDate: Mon Oct 19 10:00:00 CEST 2026\r\n"
+                + "\r\n";
+        assertEquals(expected, withoutHostAndVersions(text));
+        assertEquals(1, processor.getMetadata().size());
+    }
+
+    /**
+     * The payload is rendered once, also when several threads start a WARC file at the same time, and every thread
+     * gets the same payload.
+     */
+    @Test
+    public void testRenderedOnceByConcurrentWriters() throws Exception {
+        AtomicInteger renderings = new AtomicInteger();
+        final NasWARCProcessor processor = newProcessor(renderings);
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(new Callable<List<String>>() {
+                    @Override
+                    public List<String> call() {
+                        return processor.getMetadata();
+                    }
+                }));
+            }
+            List<String> first = results.get(0).get();
+            for (Future<List<String>> result : results) {
+                assertSame("Every thread should get the same payload", first, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals("The payload should be rendered once", 1, renderings.get());
+        assertSame(processor.getMetadata(), processor.getMetadata());
+    }
+
+    /**
+     * @param text A warcinfo payload.
+     * @return The payload without the ip and hostname fields, and without the versions of Heritrix and
+     * NetarchiveSuite.
+     */
+    private static String withoutHostAndVersions(String text) {
+        return text.replaceFirst("software: Heritrix/[^\r\n]* http://crawler\\.archive\\.org\r\n",
+                "software: Heritrix\r\n")
+                .replaceFirst("ip: [^\r\n]*\r\nhostname: [^\r\n]*\r\n", "")
+                .replaceFirst("#added by NetarchiveSuite[^\r\n]*\n", "#added by NetarchiveSuite\n");
+    }
+
+    /**
+     * @param renderings Counts the renderings of the payload.
+     * @return A processor with the metadata of a snapshot job.
+     */
+    private static NasWARCProcessor newProcessor(final AtomicInteger renderings) {
+        CrawlMetadata provider = new CrawlMetadata();
+        provider.setOperator("Admin");
+        provider.setOrganization("The Royal Danish Library");
+        provider.setAudience("Researchers");
+        provider.setJobName("23-7-snapshot");
+        provider.setDescription("A snapshot harvest");
+        provider.setRobotsPolicyName("obey");
+        provider.setUserAgentTemplate("NetarchiveSuite test +@OPERATOR_CONTACT_URL@");
+        provider.setOperatorFrom("admin@netarkivet.dk");
+        provider.setOperatorContactUrl("http://netarkivet.dk/");
+        NasWARCProcessor processor = new NasWARCProcessor() {
+            @Override
+            protected String renderWarcinfo() {
+                renderings.incrementAndGet();
+                return super.renderWarcinfo();
+            }
+        };
+        processor.setMetadataProvider(provider);
+        Map<String, String> items = new HashMap<String, String>();
+        items.put("harvestInfo.version", "0.6");
+        items.put("harvestInfo.jobId", "23");
+        items.put("harvestInfo.channel", "SNAPSHOT");
+        items.put("harvestInfo.harvestNum", "2");
+        items.put("harvestInfo.origHarvestDefinitionID", "7");
+        items.put("harvestInfo.maxBytesPerDomain", "100000");
+        items.put("harvestInfo.maxObjectsPerDomain", "-1");
+        items.put("harvestInfo.templateName", "default_orderxml");
+        items.put("harvestInfo.origHarvestDefinitionName", "snapshot");
+        items.put("harvestInfo.origHarvestDefinitionComments", "A template");
+        items.put("harvestInfo.harvestFilenamePrefix", "23-7");
+        items.put("harvestInfo.jobSubmitDate", "Mon Oct 19 10:00:00 CEST 2026");
+        processor.setMetadataItems(items);
+        return processor;
+    }
+
+}
@@ -0,0 +1,182 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import dk.netarkivet.common.utils.SlowTest;
+
+/**
+ * Tests of the SeedHostTrie.
+ */
+public class SeedHostTrieTester {
+
+    @Test
+    public void testFindDomain() {
+        SeedHostTrie trie = new SeedHostTrie();
+        trie.add("www.netarkivet.dk", "netarkivet.dk");
+        trie.add("kb.dk", "kb.dk");
+        trie.add("news.bbc.co.uk", "bbc.co.uk");
+        trie.add("WWW.Example.COM", "example.com");
+        trie.add("192.168.0.10", "192.168.0.10");
+        assertNull("Hosts are found once compacted", trie.findDomain("kb.dk"));
+        assertEquals(5, trie.getPendingCount());
+        trie.compact();
+        assertEquals(0, trie.getPendingCount());
+
+        assertEquals("netarkivet.dk", trie.findDomain("www.netarkivet.dk"));
+        assertEquals("netarkivet.dk", trie.findDomain("img.www.netarkivet.dk"));
+        assertNull("A parent of a seed host is not a seed host", trie.findDomain("netarkivet.dk"));
+        assertNull("Labels must match whole", trie.findDomain("awww.netarkivet.dk"));
+        assertEquals("kb.dk", trie.findDomain("kb.dk"));
+        assertEquals("kb.dk", trie.findDomain("www.kb.dk"));
+        assertNull(trie.findDomain("xkb.dk"));
+        assertNull(trie.findDomain("dk"));
+        assertEquals("bbc.co.uk", trie.findDomain("a.news.bbc.co.uk"));
+        assertNull(trie.findDomain("www.bbc.co.uk"));
+        assertEquals("example.com", trie.findDomain("www.example.com"));
+        assertEquals("192.168.0.10", trie.findDomain("192.168.0.10"));
+        assertNull("An IP address has no subdomains", trie.findDomain("10.192.168.0.10"));
+        assertNull(trie.findDomain(""));
+        assertNull(trie.findDomain(null));
+        assertEquals(5, trie.getSeedHostCount());
+    }
+
+    @Test
+    public void testLongestSeedHostWins() {
+        SeedHostTrie trie = new SeedHostTrie();
+        trie.add("foo.dk", "foo.dk");
+        trie.compact();
+        trie.add("shop.foo.dk", "shop-seed");
+        trie.compact();
+        assertEquals("foo.dk", trie.findDomain("www.foo.dk"));
+        assertEquals("shop-seed", trie.findDomain("shop.foo.dk"));
+        assertEquals("shop-seed", trie.findDomain("img.shop.foo.dk"));
+
+        trie.add("foo.dk", "replaced");
+        trie.compact();
+        assertEquals("A host added again gets the new key", "replaced", trie.findDomain("www.foo.dk"));
+        assertEquals(2, trie.getSeedHostCount());
+        // dk, foo and shop.
+        assertEquals(3, trie.getNodeCount());
+    }
+
+    @Test
+    public void testReport() {
+        SeedHostTrie trie = new SeedHostTrie();
+        assertEquals(0, trie.getNodeCount());
+        long empty = trie.estimateSizeInBytes();
+        for (int i = 0; i < 100; i++) {
+            trie.add("www.site" + i + ".dk", "site" + i + ".dk");
+        }
+        trie.compact();
+        assertEquals(201, trie.getNodeCount());
+        assertTrue(trie.estimateSizeInBytes() > empty);
+        assertTrue(trie.getReport(), trie.getReport().startsWith("100 seed hosts in 201 nodes"));
+    }
+
+    /**
+     * Build the trie for a snapshot job of 500000 seeds, and compare looking up the seed of hosts with looking up
+     * each parent domain of the hosts in a map.
+     */
+    @Test
+    @Category(SlowTest.class)
+    public void testSnapshotJobBenchmark() {
+        int seeds = 500000;
+        String[] tlds = {"dk", "com", "org", "net", "de", "se", "no", "co.uk"};
+        SeedHostTrie trie = new SeedHostTrie();
+        Map<String, String> map = new HashMap<String, String>();
+        long start = System.nanoTime();
+        for (int i = 0; i < seeds; i++) {
+            String domain = "domain" + i + "." + tlds[i % tlds.length];
+            String host = (i % 3 == 0 ? "" : "www.") + domain;
+            trie.add(host, domain);
+            map.put(host, domain);
+        }
+        trie.compact();
+        long buildTime = System.nanoTime() - start;
+        assertEquals(seeds, trie.getSeedHostCount());
+
+        String[] hosts = new String[10000];
+        for (int i = 0; i < hosts.length; i++) {
+            int seed = (i * 7919) % seeds;
+            String domain = "domain" + seed + "." + tlds[seed % tlds.length];
+            hosts[i] = (i % 4 == 0 ? "nonseed" + i + ".example." : "img.www.") + domain;
+        }
+        int rounds = 50;
+        start = System.nanoTime();
+        int trieFound = 0;
+        for (int r = 0; r < rounds; r++) {
+            for (String host : hosts) {
+                if (trie.findDomain(host) != null) {
+                    trieFound++;
+                }
+            }
+        }
+        long trieTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        int mapFound = 0;
+        for (int r = 0; r < rounds; r++) {
+            for (String host : hosts) {
+                if (findInMap(map, host) != null) {
+                    mapFound++;
+                }
+            }
+        }
+        long mapTime = System.nanoTime() - start;
+        assertEquals(mapFound, trieFound);
+        System.out.println("Seed host trie: " + trie.getReport() + ", built in " + buildTime / 1000000 + " ms; "
+                + rounds * hosts.length + " lookups in " + trieTime / 1000000 + " ms, against " + mapTime / 1000000
+                + " ms looking up each parent domain in a map");
+    }
+
+    /**
+     * @param map Seed hosts with their keys.
+     * @param host A host.
+     * @return The key of the longest seed host that is the host or one of its parent domains.
+     */
+    private static String findInMap(Map<String, String> map, String host) {
+        String found = null;
+        String suffix = host;
+        while (true) {
+            String key = map.get(suffix);
+            if (key != null && found == null) {
+                found = key;
+            }
+            int dot = suffix.indexOf('.');
+            if (dot < 0) {
+                return found;
+            }
+            suffix = suffix.substring(dot + 1);
+        }
+    }
+
+}
@@ -45,6 +45,26 @@ public class SeedUriDomainnameQueueAssignmentPolicyTest {
         assertEquals("ssdown.dk", policy.getClassKey(curi1));
     }
 
+    /**
+     * Test that a URI without a seed is queued with the seed whose host it is on, once the seeds are loaded.
+     * @throws Exception
+     */
+    @Test
+    public void testGetKeyFromSeedHosts() throws Exception {
+        SeedUriDomainnameQueueAssignmentPolicy policy = new SeedUriDomainnameQueueAssignmentPolicy();
+        CrawlURI seed = new CrawlURI(UURIFactory.getInstance("http://www.ssup.dk"));
+        seed.setSeed(true);
+        seed.setSourceTag("www.ssdown.dk");
+        policy.addedSeed(seed);
+
+        CrawlURI untagged = new CrawlURI(UURIFactory.getInstance("http://img.www.ssup.dk/logo.png"));
+        assertEquals("Seeds are not used before the batch is concluded", "ssup.dk", policy.getClassKey(untagged));
+        policy.concludedSeedBatch();
+        assertEquals("ssdown.dk", policy.getClassKey(untagged));
+        assertEquals("ssup.dk", policy.getClassKey(new CrawlURI(UURIFactory.getInstance("http://ssup.dk/"))));
+        assertTrue(policy.getSeedHostReport().startsWith("1 seed hosts"));
+    }
+
     @Test
     public void getClassKeyTestChain() throws Exception {
         SeedUriDomainnameQueueAssignmentPolicy policy = new SeedUriDomainnameQueueAssignmentPolicy();
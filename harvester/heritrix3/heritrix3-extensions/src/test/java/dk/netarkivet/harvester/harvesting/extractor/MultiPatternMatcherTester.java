@@ -0,0 +1,156 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting.extractor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import dk.netarkivet.common.utils.SlowTest;
+
+/**
+ * Tests of the MultiPatternMatcher.
+ */
+public class MultiPatternMatcherTester {
+
+    /** Strings of the kind the javascript extractor finds. */
+    private static final String[] CORPUS = {"jquery.min.js", "/images/logo.png", "text/javascript",
+            "application/x-www-form-urlencoded", "1.0.3", "../lib/foo.js", "window.location", "TEXT/CSS",
+            "a/b", "document.getElementById", "abab/abab", "x.y", "/", "foo.bar.baz", "image/GIF", "12/34",
+            "http/1.1", "./index.html", "d/d", "MM/dd/yyyy", "\u00e5.b", "a\u030a.b", "abc.abc", "se/se"};
+
+    /**
+     * @return A list of reject patterns, including ones that cannot be joined.
+     */
+    private static List<Pattern> rejectPatterns() {
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        String[] types = {"text", "image", "application", "audio", "video", "font", "multipart", "model"};
+        for (String type : types) {
+            patterns.add(Pattern.compile(type + "/[a-z0-9.+-]+"));
+            patterns.add(Pattern.compile(type + "/x-[a-z0-9.+-]+", Pattern.CASE_INSENSITIVE));
+        }
+        for (int i = 0; i < 30; i++) {
+            patterns.add(Pattern.compile("\\d+\\.\\d+\\." + i));
+        }
+        patterns.add(Pattern.compile("(?:document|window)\\.[a-zA-Z]+"));
+        patterns.add(Pattern.compile("image/gif", Pattern.CASE_INSENSITIVE));
+        patterns.add(Pattern.compile("x.y", Pattern.LITERAL));
+        patterns.add(Pattern.compile("MM/dd/yyyy", Pattern.LITERAL | Pattern.CASE_INSENSITIVE));
+        patterns.add(Pattern.compile("d / d  # spaces and comments are ignored", Pattern.COMMENTS));
+        patterns.add(Pattern.compile("(ab)+/\\1"));
+        patterns.add(Pattern.compile("(?<w>[a-z]+)\\.\\k<w>"));
+        patterns.add(Pattern.compile("(?<w>[a-z]+)/\\k<w>"));
+        patterns.add(Pattern.compile("\u00e5\\.b", Pattern.CANON_EQ));
+        patterns.add(Pattern.compile("\\Qfoo.bar.baz"));
+        patterns.add(Pattern.compile("[^/]+\\.js", Pattern.MULTILINE | Pattern.DOTALL));
+        return patterns;
+    }
+
+    @Test
+    public void testSameVerdictsAsOneAtATime() {
+        List<Pattern> patterns = rejectPatterns();
+        assertTrue(patterns.size() >= 50);
+        MultiPatternMatcher matcher = new MultiPatternMatcher(patterns);
+        for (String s : CORPUS) {
+            boolean expected = false;
+            for (Pattern p : patterns) {
+                expected |= p.matcher(s).matches();
+            }
+            assertEquals("Verdict on '" + s + "'", expected, matcher.matchesAny(s));
+        }
+        assertTrue(matcher.matchesAny("TEXT/X-FOO"));
+        assertFalse("The case insensitive flag must not leak to other patterns", matcher.matchesAny("TEXT/CSS"));
+        assertFalse("Literal patterns must not be used as regexps", matcher.matchesAny("xzy"));
+        assertTrue(matcher.matchesAny("mm/DD/yyyy"));
+        assertTrue(matcher.matchesAny("d/d"));
+        assertTrue(matcher.matchesAny("abab/abab"));
+        assertFalse(matcher.matchesAny("ab/ba"));
+        assertTrue("Canonical equivalence must be kept", matcher.matchesAny("a\u030a.b"));
+        assertTrue(matcher.matchesAny("foo.bar.baz"));
+    }
+
+    @Test
+    public void testEmptyAndUnjoinable() {
+        assertFalse(new MultiPatternMatcher(new ArrayList<Pattern>()).matchesAny("text/css"));
+        // The same group name twice cannot be joined; the patterns are then tried one at a time.
+        MultiPatternMatcher matcher = new MultiPatternMatcher(Arrays.asList(Pattern.compile("(?<a>x)y"),
+                Pattern.compile("(?<a>z)w")));
+        assertTrue(matcher.matchesAny("xy"));
+        assertTrue(matcher.matchesAny("zw"));
+        assertFalse(matcher.matchesAny("xw"));
+    }
+
+    @Test
+    public void testIsFor() {
+        List<Pattern> patterns = rejectPatterns();
+        MultiPatternMatcher matcher = new MultiPatternMatcher(patterns);
+        assertTrue(matcher.isFor(patterns));
+        assertTrue(matcher.isFor(new ArrayList<Pattern>(patterns)));
+        assertFalse(matcher.isFor(rejectPatterns()));
+        patterns.remove(0);
+        assertFalse(matcher.isFor(patterns));
+    }
+
+    @Test
+    @Category(SlowTest.class)
+    public void testThroughput() {
+        List<Pattern> patterns = rejectPatterns();
+        MultiPatternMatcher matcher = new MultiPatternMatcher(patterns);
+        int rounds = 20000;
+        long start = System.nanoTime();
+        int loopRejects = 0;
+        for (int i = 0; i < rounds; i++) {
+            for (String s : CORPUS) {
+                for (Pattern p : patterns) {
+                    if (p.matcher(s).matches()) {
+                        loopRejects++;
+                        break;
+                    }
+                }
+            }
+        }
+        long loopTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        int combinedRejects = 0;
+        for (int i = 0; i < rounds; i++) {
+            for (String s : CORPUS) {
+                if (matcher.matchesAny(s)) {
+                    combinedRejects++;
+                }
+            }
+        }
+        long combinedTime = System.nanoTime() - start;
+        assertEquals(loopRejects, combinedRejects);
+        System.out.println("One pattern at a time: " + loopTime / 1000000 + " ms, combined: " + combinedTime
+                / 1000000 + " ms, for " + rounds * CORPUS.length + " strings and " + patterns.size() + " patterns");
+    }
+
+}
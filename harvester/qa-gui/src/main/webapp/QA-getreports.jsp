@@ -24,15 +24,20 @@ License along with this library; if not, write to the Free Software
 Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
 
 --%><%--
-This page generates links to see the harvest reports for a given job.
+This page generates links to see the harvest reports for one or more jobs.
+The reports of several jobs are fetched together, see
+Reporting.getMetadataCDXRecordsForJobs.
 
 Note that the response language for the page is set using requested locale
 of the client browser when fmt:setBundle is called. After that, fmt:format
 and reponse.getLocale use this locale.
 
 Parameters:
-jobid - The id of the job to show reports for.
---%><%@ page import="java.util.List,
+jobid - The id of the job to show reports for. May be given several times.
+--%><%@ page import="java.util.LinkedHashSet,
+                 java.util.List,
+                 java.util.Map,
+                 java.util.Set,
                  dk.netarkivet.common.exceptions.ForwardedToErrorPage,
                  dk.netarkivet.common.utils.I18n,
                  dk.netarkivet.common.utils.cdx.CDXRecord,
@@ -48,25 +53,45 @@ jobid - The id of the job to show reports for.
 
     private static final I18n I18N = new I18n(
             dk.netarkivet.viewerproxy.Constants.TRANSLATIONS_BUNDLE);
+    private static final I18n COMMON_I18N = new I18n(
+            dk.netarkivet.common.Constants.TRANSLATIONS_BUNDLE);
 %><%HTMLUtils.setUTF8(request);
-    int jobid;
-    List<CDXRecord> records;
+    Map<Long, List<CDXRecord>> recordsByJob;
     try {
-        jobid = HTMLUtils.parseAndCheckInteger(pageContext, Constants.JOBID_PARAM,
-                                               1, Integer.MAX_VALUE);
-        records = Reporting.getMetadataCDXRecordsForJob(jobid);
+        // Checks that the parameter is given, and that the first value is valid
+        HTMLUtils.parseAndCheckInteger(pageContext, Constants.JOBID_PARAM,
+                                       1, Integer.MAX_VALUE);
+        Set<Long> jobids = new LinkedHashSet<Long>();
+        for (String value : request.getParameterValues(Constants.JOBID_PARAM)) {
+            long jobid;
+            try {
+                jobid = Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                jobid = -1;
+            }
+            if (jobid < 1) {
+                HTMLUtils.forwardWithErrorMessage(pageContext, COMMON_I18N,
+                        "errormsg;parameter.0.not.an.integer.1",
+                        Constants.JOBID_PARAM, value);
+                throw new ForwardedToErrorPage("Invalid job id " + value);
+            }
+            jobids.add(jobid);
+        }
+        recordsByJob = Reporting.getMetadataCDXRecordsForJobs(jobids);
     } catch (ForwardedToErrorPage e) {
         return;
     }
-    HTMLUtils.generateHeader(pageContext);%>
+    HTMLUtils.generateHeader(pageContext);
+    for (Map.Entry<Long, List<CDXRecord>> job : recordsByJob.entrySet()) {%>
     <h3><fmt:message key="pagetitle;reports.for.job.1">
-        <fmt:param value="<%=jobid%>"/>
+        <fmt:param value="<%=job.getKey()%>"/>
     </fmt:message></h3>
     <p><fmt:message key="helptext;get.job.qa.information.with.viewerproxy"/></p>
     <%
-    for (CDXRecord record : records) {
+    for (CDXRecord record : job.getValue()) {
         %><a href="http://<%=CommandResolver.VIEWERPROXY_COMMAND_NAME%><%=GetDataResolver.GET_RECORD_COMMAND%>?<%=GetDataResolver.FILE_NAME_PARAMETER%>=<%=record.getArcfile()%>&<%=GetDataResolver.FILE_OFFSET_PARAMETER%>=<%=record.getOffset()%>"><%=record.getURL()%></a><br>
     <%
     }
+    }
     HTMLUtils.generateFooter(out);
 %>
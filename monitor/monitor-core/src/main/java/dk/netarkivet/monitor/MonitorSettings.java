@@ -87,4 +87,25 @@ public class MonitorSettings {
      */
     public static String JMX_ABSOLUTE_MAX_LOG_LENGTH = "settings.monitor.absoluteMaxJMXLogLength";
 
+    /**
+     * <b>settings.monitor.snapshot.enabled</b>: <br>
+     * Whether applications send snapshots of their log records and numeric MBean attributes to the monitor over JMS,
+     * and the monitor shows those instead of reading each log record from the applications over JMX. All applications
+     * and the GUI application must agree on this setting. (default false)
+     */
+    public static String SNAPSHOT_ENABLED = "settings.monitor.snapshot.enabled";
+
+    /**
+     * <b>settings.monitor.snapshot.interval</b>: <br>
+     * The number of milliseconds between the status snapshots sent by each application. (default 30000)
+     */
+    public static String SNAPSHOT_INTERVAL = "settings.monitor.snapshot.interval";
+
+    /**
+     * <b>settings.monitor.snapshot.retention</b>: <br>
+     * The number of milliseconds the monitor keeps status snapshots. An application that has sent no snapshot within
+     * this time is no longer shown. (default 3600000)
+     */
+    public static String SNAPSHOT_RETENTION = "settings.monitor.snapshot.retention";
+
 }
@@ -22,6 +22,7 @@
  */
 package dk.netarkivet.monitor.distribute;
 
+import java.lang.management.ManagementFactory;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -37,7 +38,9 @@ import dk.netarkivet.common.utils.CleanupHook;
 import dk.netarkivet.common.utils.CleanupIF;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.monitor.MonitorSettings;
+import dk.netarkivet.monitor.registry.StatusSnapshot;
 import dk.netarkivet.monitor.registry.distribute.RegisterHostMessage;
+import dk.netarkivet.monitor.registry.distribute.StatusSnapshotMessage;
 
 /**
  * The monitor registry client sends messages with JMS to register the host for JMX monitoring.
@@ -82,7 +85,9 @@ public final class JMSMonitorRegistryClient implements MonitorRegistryClient, Cl
 
     /**
      * Register this host for monitoring. Once this method is called it will reregister for monitoring every minute, to
-     * ensure the scheduling is done. If called again, it will restart the timer that registers the host.
+     * ensure the scheduling is done. If called again, it will restart the timer that registers the host. If
+     * {@link MonitorSettings#SNAPSHOT_ENABLED} is set, the timer also sends snapshots of the status of this application
+     * to the monitor.
      *
      * @param localHostName The name of the host.
      * @param jmxPort The port for JMX connections to the host.
@@ -121,6 +126,24 @@ public final class JMSMonitorRegistryClient implements MonitorRegistryClient, Cl
         log.info("Registering this client for monitoring every {} minutes, using hostname '{}' and JMX/RMI ports {}/{}",
                 reregisterDelay, localHostName, jmxPort, rmiPort);
         registryTimer.scheduleAtFixedRate(timerTask, NOW, reregisterDelay * MINUTE_IN_MILLISECONDS);
+
+        if (Settings.getBoolean(MonitorSettings.SNAPSHOT_ENABLED)) {
+            long snapshotInterval = Settings.getLong(MonitorSettings.SNAPSHOT_INTERVAL);
+            TimerTask snapshotTask = new TimerTask() {
+                /** The action to be performed by this timer task. */
+                public void run() {
+                    try {
+                        JMSConnectionFactory.getInstance().send(
+                                new StatusSnapshotMessage(StatusSnapshot.collect(ManagementFactory
+                                        .getPlatformMBeanServer())));
+                    } catch (Exception e) {
+                        log.warn("Unable to send status snapshot to the monitor", e);
+                    }
+                }
+            };
+            log.info("Sending status snapshots to the monitor every {} ms", snapshotInterval);
+            registryTimer.scheduleAtFixedRate(snapshotTask, NOW, snapshotInterval);
+        }
     }
 
     /**
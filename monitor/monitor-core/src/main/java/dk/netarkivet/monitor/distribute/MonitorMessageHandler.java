@@ -32,6 +32,7 @@ import dk.netarkivet.common.distribute.JMSConnection;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.PermissionDenied;
 import dk.netarkivet.monitor.registry.distribute.RegisterHostMessage;
+import dk.netarkivet.monitor.registry.distribute.StatusSnapshotMessage;
 
 /**
  * This default message handler shields of all unimplemented methods from the MonitorMessageVisitor interface.
@@ -91,4 +92,15 @@ public abstract class MonitorMessageHandler implements MonitorMessageVisitor, Me
         deny(msg);
     }
 
+    /**
+     * This method should be overridden and implemented by a sub class if message handling is wanted.
+     *
+     * @param msg a StatusSnapshotMessage
+     * @throws PermissionDenied when invoked
+     */
+    public void visit(StatusSnapshotMessage msg) throws PermissionDenied {
+        ArgumentNotValid.checkNotNull(msg, "StatusSnapshotMessage msg");
+        deny(msg);
+    }
+
 }
@@ -24,6 +24,7 @@
 package dk.netarkivet.monitor.distribute;
 
 import dk.netarkivet.monitor.registry.distribute.RegisterHostMessage;
+import dk.netarkivet.monitor.registry.distribute.StatusSnapshotMessage;
 
 /**
  * Interface for all classes which handles monitor-related messages received from a JMS server. This is implemented with
@@ -41,4 +42,11 @@ public interface MonitorMessageVisitor {
      * @param msg A received message.
      */
     void visit(RegisterHostMessage msg);
+
+    /**
+     * This method should be overridden to handle the receipt of a message.
+     *
+     * @param msg A received message.
+     */
+    void visit(StatusSnapshotMessage msg);
 }
@@ -23,26 +23,46 @@
 
 package dk.netarkivet.monitor.logging;
 
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
 
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.PatternLayout;
 import ch.qos.logback.classic.spi.ILoggingEvent;
-import ch.qos.logback.core.AppenderBase;
 import ch.qos.logback.core.Context;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.management.SingleMBeanObject;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.monitor.MonitorSettings;
 
 /**
  * SLF4J appender that caches a certain number of log entries in a cyclic manor.
  * "DEBUG and TRACE entries are excluded".
+ * <p>
+ * Appending does not take any lock: each log event gets a sequence number and is stored in the slot given by that
+ * number, and it is only formatted when it is read. Optionally the log events are counted by level and by logger, see
+ * {@link #setCounters(boolean)}.
  */
-public class CachingSLF4JAppender extends AppenderBase<ILoggingEvent> {
+public class CachingSLF4JAppender extends UnsynchronizedAppenderBase<ILoggingEvent> implements LogRecordHistory {
+
+    /** The JMX domain of the MBean exposing the whole log history. */
+    public static final String HISTORY_MBEAN_DOMAIN = "dk.netarkivet.monitor.logging";
+
+    /** Matches patterns using caller data, which must be taken when the event is logged. */
+    private static final Pattern CALLER_DATA_PATTERN = Pattern
+            .compile("%[-.0-9]*(caller|class|file|line|method|C|F|L|M)\\b");
 
 	/** Log format string pattern. */
     protected String pattern;
@@ -53,14 +73,30 @@ public class CachingSLF4JAppender extends AppenderBase<ILoggingEvent> {
     /** The size of the logging cache. */
     protected final int loggingHistorySize;
 
-    /** The logging cache itself, caching the last "loggingHistorySize" log entries. */
-    protected final List<String> loggingHistory;
+    /** The logging cache itself, caching the last "loggingHistorySize" log events in the slot given by their sequence
+     * number. */
+    protected final AtomicReferenceArray<Slot> loggingHistory;
 
     /** The log entries exposed as MBeans. */
     protected final List<CachingSLF4JLogRecord> loggingMBeans;
 
-    /** The place in the loggingHistory for the next LogRecord. */
-    protected int currentIndex;
+    /** The sequence number of the next log event. */
+    protected final AtomicLong nextSequence = new AtomicLong();
+
+    /** Whether log events are counted by level and logger. */
+    private volatile boolean counters;
+
+    /** Whether caller data is taken when the event is logged. */
+    private boolean includeCallerData;
+
+    /** The number of log events by level, if counted. */
+    private final ConcurrentMap<String, LongAdder> levelCounts = new ConcurrentHashMap<String, LongAdder>();
+
+    /** The number of log events by logger, if counted. */
+    private final ConcurrentMap<String, LongAdder> loggerCounts = new ConcurrentHashMap<String, LongAdder>();
+
+    /** JMX bean object exposing the whole log history. */
+    private SingleMBeanObject<LogRecordHistory> historyMBean;
 
     /**
      * Initialize an instance of this class.
@@ -68,14 +104,14 @@ public class CachingSLF4JAppender extends AppenderBase<ILoggingEvent> {
     public CachingSLF4JAppender() {
         layout = new PatternLayout();
         loggingHistorySize = Settings.getInt(MonitorSettings.LOGGING_HISTORY_SIZE);
-        loggingHistory = Collections.synchronizedList(new ArrayList<String>(loggingHistorySize));
-        // Fill out the list with loggingHistorySize null-records.
-        loggingHistory.addAll(Arrays.asList(new String[loggingHistorySize]));
+        loggingHistory = new AtomicReferenceArray<Slot>(loggingHistorySize);
         loggingMBeans = new ArrayList<CachingSLF4JLogRecord>(loggingHistorySize);
         for (int i = 0; i < loggingHistorySize; i++) {
             loggingMBeans.add(new CachingSLF4JLogRecord(i, this));
         }
-        currentIndex = 0;
+        historyMBean = new SingleMBeanObject<LogRecordHistory>(HISTORY_MBEAN_DOMAIN, this, LogRecordHistory.class,
+                ManagementFactory.getPlatformMBeanServer());
+        historyMBean.register();
     }
 
     /**
@@ -95,6 +131,24 @@ public class CachingSLF4JAppender extends AppenderBase<ILoggingEvent> {
     	this.isStarted();
         this.pattern = pattern;
         layout.setPattern(pattern);
+        includeCallerData = pattern != null && CALLER_DATA_PATTERN.matcher(pattern).find();
+    }
+
+    /**
+     * @return Whether log events are counted by level and logger.
+     */
+    public boolean isCounters() {
+        return counters;
+    }
+
+    /**
+     * Set whether log events are counted by level and logger. The counts are exposed through JMX and by
+     * {@link #getLevelCounts()} and {@link #getLoggerCounts()}. Default is false.
+     *
+     * @param counters Whether to count log events.
+     */
+    public void setCounters(boolean counters) {
+        this.counters = counters;
     }
 
     @Override
@@ -120,7 +174,9 @@ public class CachingSLF4JAppender extends AppenderBase<ILoggingEvent> {
      */
     public void close() {
     	layout = null;
-    	loggingHistory.clear();
+        for (int i = 0; i < loggingHistorySize; i++) {
+            loggingHistory.set(i, null);
+        }
     	if (!loggingMBeans.isEmpty()) {
     		Iterator<CachingSLF4JLogRecord> iter = loggingMBeans.iterator();
     		while (iter.hasNext()) {
@@ -128,6 +184,10 @@ public class CachingSLF4JAppender extends AppenderBase<ILoggingEvent> {
     		}
         	loggingMBeans.clear();
     	}
+        if (historyMBean != null) {
+            historyMBean.unregister();
+            historyMBean = null;
+        }
     }
 
     @Override
@@ -140,12 +200,35 @@ public class CachingSLF4JAppender extends AppenderBase<ILoggingEvent> {
     	case Level.WARN_INT:
     	case Level.ERROR_INT:
    		default:
-   	        loggingHistory.set(currentIndex, layout.doLayout(event));
-   	        currentIndex = (currentIndex + 1) % loggingHistorySize;
+            // The event is formatted later, possibly in another thread, so take what may change or be lost.
+            event.prepareForDeferredProcessing();
+            if (includeCallerData) {
+                event.getCallerData();
+            }
+            long sequence = nextSequence.getAndIncrement();
+            loggingHistory.set((int) (sequence % loggingHistorySize), new Slot(sequence, event));
+            if (counters) {
+                count(levelCounts, event.getLevel().toString());
+                count(loggerCounts, event.getLoggerName());
+            }
    			break;
     	}
     }
 
+    /**
+     * Add one to a counter.
+     *
+     * @param counts The counters.
+     * @param key The key of the counter.
+     */
+    private static void count(ConcurrentMap<String, LongAdder> counts, String key) {
+        LongAdder count = counts.get(key);
+        if (count == null) {
+            count = counts.computeIfAbsent(key, k -> new LongAdder());
+        }
+        count.increment();
+    }
+
     /**
      * Returns the nth logrecord from the top.
      *
@@ -157,7 +240,125 @@ public class CachingSLF4JAppender extends AppenderBase<ILoggingEvent> {
             throw new ArgumentNotValid("Argument 'int n' must be between 0 and " + loggingHistorySize + ", but was "
                     + n + ".");
         }
-        return loggingHistory.get((currentIndex - n - 1 + loggingHistorySize) % loggingHistorySize);
+        return format(nextSequence.get() - 1 - n);
+    }
+
+    @Override
+    public String[] getRecordStrings(int n) {
+        ArgumentNotValid.checkNotNegative(n, "int n");
+        long latest = nextSequence.get() - 1;
+        String[] records = new String[Math.min(n, loggingHistorySize)];
+        for (int i = 0; i < records.length; i++) {
+            records[i] = format(latest - i);
+        }
+        return records;
+    }
+
+    /**
+     * Format the log event with the given sequence number.
+     *
+     * @param sequence The sequence number of the log event.
+     * @return The formatted log event, or null if there is no such event in the history.
+     */
+    private String format(long sequence) {
+        if (sequence < 0) {
+            return null;
+        }
+        Slot slot = loggingHistory.get((int) (sequence % loggingHistorySize));
+        // The slot may still hold an older event, or already a newer one, if writers are busy.
+        if (slot == null || slot.sequence != sequence) {
+            return null;
+        }
+        String formatted = slot.formatted;
+        PatternLayout currentLayout = layout;
+        if (formatted == null && currentLayout != null) {
+            formatted = currentLayout.doLayout(slot.event);
+            slot.formatted = formatted;
+        }
+        return formatted;
+    }
+
+    @Override
+    public long getRecordCount() {
+        return nextSequence.get();
+    }
+
+    @Override
+    public long getInfoCount() {
+        return getCount(levelCounts, Level.INFO.toString());
+    }
+
+    @Override
+    public long getWarnCount() {
+        return getCount(levelCounts, Level.WARN.toString());
+    }
+
+    @Override
+    public long getErrorCount() {
+        return getCount(levelCounts, Level.ERROR.toString());
+    }
+
+    /**
+     * @return The number of log events by level name, if counted.
+     */
+    public Map<String, Long> getLevelCounts() {
+        return getCounts(levelCounts);
+    }
+
+    /**
+     * @return The number of log events by logger name, if counted.
+     */
+    public Map<String, Long> getLoggerCounts() {
+        return getCounts(loggerCounts);
+    }
+
+    /**
+     * Read a counter.
+     *
+     * @param counts The counters.
+     * @param key The key of the counter.
+     * @return The value of the counter, or 0 if there is no such counter.
+     */
+    private static long getCount(ConcurrentMap<String, LongAdder> counts, String key) {
+        LongAdder count = counts.get(key);
+        return count == null ? 0L : count.sum();
+    }
+
+    /**
+     * Read all counters.
+     *
+     * @param counts The counters.
+     * @return The values of the counters, by key.
+     */
+    private static Map<String, Long> getCounts(ConcurrentMap<String, LongAdder> counts) {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (Map.Entry<String, LongAdder> count : counts.entrySet()) {
+            result.put(count.getKey(), count.getValue().sum());
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * A log event in the history, with its sequence number and, once read, its formatted form.
+     */
+    protected static final class Slot {
+        /** The sequence number of the event. */
+        private final long sequence;
+        /** The event. */
+        private final ILoggingEvent event;
+        /** The formatted event, or null if not yet read. */
+        private volatile String formatted;
+
+        /**
+         * Create a slot.
+         *
+         * @param sequence The sequence number of the event.
+         * @param event The event.
+         */
+        private Slot(long sequence, ILoggingEvent event) {
+            this.sequence = sequence;
+            this.event = event;
+        }
     }
 
 }
@@ -0,0 +1,59 @@
+/*
+ * #%L
+ * Netarchivesuite - monitor
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.monitor.logging;
+
+/**
+ * An interface for reading the most recent log records of an application in one call, and for counting log records.
+ */
+public interface LogRecordHistory {
+
+    /**
+     * Get the most recent log records as strings, formatted by some formatter depending on implementation.
+     *
+     * @param n The maximum number of log records to get.
+     * @return The log records, most recent first. The array is as long as the history, or n if that is shorter, and
+     * holds null for log records not yet written.
+     */
+    String[] getRecordStrings(int n);
+
+    /**
+     * @return The number of log records written since the application started.
+     */
+    long getRecordCount();
+
+    /**
+     * @return The number of INFO log records written since the application started, or 0 if not counted.
+     */
+    long getInfoCount();
+
+    /**
+     * @return The number of WARN log records written since the application started, or 0 if not counted.
+     */
+    long getWarnCount();
+
+    /**
+     * @return The number of ERROR log records written since the application started, or 0 if not counted.
+     */
+    long getErrorCount();
+
+}
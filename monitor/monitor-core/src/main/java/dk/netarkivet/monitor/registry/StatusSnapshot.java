@@ -0,0 +1,269 @@
+/*
+ * #%L
+ * Netarchivesuite - monitor
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.monitor.registry;
+
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.management.Constants;
+import dk.netarkivet.common.management.SingleMBeanObject;
+import dk.netarkivet.monitor.logging.CachingSLF4JAppender;
+
+/**
+ * The status of an application at one point in time: its most recent log records and the numeric attributes of its
+ * MBeans. Applications send these to the monitor, so the monitor does not have to ask each application for each value.
+ */
+@SuppressWarnings({"serial"})
+public class StatusSnapshot implements Serializable {
+
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(StatusSnapshot.class);
+
+    /** The domain of the MBeans exposing log records. */
+    public static final String LOGGING_DOMAIN = "dk.netarkivet.common.logging";
+    /** The prefix of the domains of MBeans whose numeric attributes are included as metrics. */
+    private static final String METRICS_DOMAIN_PREFIX = "dk.netarkivet.";
+    /** The attribute of the log record MBeans containing the log record. */
+    private static final String LOG_RECORD_ATTRIBUTE = "RecordString";
+    /** The operation of the log history MBean reading the most recent log records. */
+    private static final String LOG_HISTORY_OPERATION = "getRecordStrings";
+    /** The log records of a snapshot without any. */
+    private static final String[] NO_LOG_RECORDS = new String[0];
+
+    /** The time the snapshot was taken, in milliseconds since the epoch. */
+    private final long time;
+    /** The object name properties identifying the application, as used for its MBeans. */
+    private final Hashtable<String, String> applicationProperties;
+    /** The most recent log records, most recent first. */
+    private final String[] logRecords;
+    /** The numeric metrics of the application, by name. */
+    private final Map<String, Double> metrics;
+
+    /**
+     * Create a snapshot.
+     *
+     * @param time The time the snapshot was taken, in milliseconds since the epoch.
+     * @param applicationProperties The object name properties identifying the application.
+     * @param logRecords The most recent log records, most recent first. Missing records are null.
+     * @param metrics The numeric metrics of the application, by name.
+     * @throws ArgumentNotValid If any argument is null.
+     */
+    public StatusSnapshot(long time, Hashtable<String, String> applicationProperties, String[] logRecords,
+            Map<String, Double> metrics) {
+        ArgumentNotValid.checkNotNull(applicationProperties, "Hashtable<String, String> applicationProperties");
+        ArgumentNotValid.checkNotNull(logRecords, "String[] logRecords");
+        ArgumentNotValid.checkNotNull(metrics, "Map<String, Double> metrics");
+        this.time = time;
+        this.applicationProperties = new Hashtable<String, String>(applicationProperties);
+        this.logRecords = logRecords.clone();
+        this.metrics = new HashMap<String, Double>(metrics);
+    }
+
+    /**
+     * Take a snapshot of this application, reading the log records and metrics from the MBeans registered in the given
+     * server. The log records are read in one call from the log history MBean if there is one, and otherwise from the
+     * MBean of each log record.
+     *
+     * @param mBeanServer The server the MBeans of this application are registered in.
+     * @return A snapshot of this application.
+     * @throws ArgumentNotValid If mBeanServer is null.
+     */
+    public static StatusSnapshot collect(MBeanServer mBeanServer) {
+        ArgumentNotValid.checkNotNull(mBeanServer, "MBeanServer mBeanServer");
+        Hashtable<String, String> applicationProperties = SingleMBeanObject.getDefaultNameProperties();
+        Map<Integer, String> records = new TreeMap<Integer, String>();
+        Map<String, Double> metrics = new TreeMap<String, Double>();
+        String[] history = readLogHistory(mBeanServer);
+        for (ObjectName name : mBeanServer.queryNames(null, null)) {
+            try {
+                if (LOGGING_DOMAIN.equals(name.getDomain())) {
+                    if (history != null) {
+                        continue;
+                    }
+                    String index = name.getKeyProperty(Constants.PRIORITY_KEY_INDEX);
+                    if (index != null) {
+                        records.put(Integer.valueOf(index), (String) mBeanServer.getAttribute(name,
+                                LOG_RECORD_ATTRIBUTE));
+                    }
+                } else if (name.getDomain().startsWith(METRICS_DOMAIN_PREFIX)) {
+                    collectMetrics(mBeanServer, name, applicationProperties, metrics);
+                }
+            } catch (Exception e) {
+                log.debug("Unable to read MBean '{}' for the status snapshot", name, e);
+            }
+        }
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        metrics.put("jvm.heapUsed", (double) heap.getUsed());
+        metrics.put("jvm.heapMax", (double) heap.getMax());
+        metrics.put("jvm.threads", (double) ManagementFactory.getThreadMXBean().getThreadCount());
+        metrics.put("jvm.uptime", (double) ManagementFactory.getRuntimeMXBean().getUptime());
+
+        if (history != null) {
+            return new StatusSnapshot(System.currentTimeMillis(), applicationProperties, history, metrics);
+        }
+        int size = records.isEmpty() ? 0 : Collections.max(records.keySet()) + 1;
+        String[] logRecords = new String[size];
+        for (Map.Entry<Integer, String> record : records.entrySet()) {
+            if (record.getKey() >= 0) {
+                logRecords[record.getKey()] = record.getValue();
+            }
+        }
+        return new StatusSnapshot(System.currentTimeMillis(), applicationProperties, logRecords, metrics);
+    }
+
+    /**
+     * Read all log records from the log history MBean.
+     *
+     * @param mBeanServer The server the MBeans of this application are registered in.
+     * @return The log records, most recent first, or null if there is no log history MBean or it cannot be read.
+     */
+    private static String[] readLogHistory(MBeanServer mBeanServer) {
+        try {
+            for (ObjectName name : mBeanServer.queryNames(new ObjectName(CachingSLF4JAppender.HISTORY_MBEAN_DOMAIN
+                    + ":*"), null)) {
+                return (String[]) mBeanServer.invoke(name, LOG_HISTORY_OPERATION, new Object[] {Integer.MAX_VALUE},
+                        new String[] {int.class.getName()});
+            }
+        } catch (Exception e) {
+            log.debug("Unable to read the log history for the status snapshot", e);
+        }
+        return null;
+    }
+
+    /**
+     * Add the numeric attributes of an MBean to the metrics. They are named by the domain and the properties of the
+     * MBean not identifying the application, followed by the attribute name.
+     *
+     * @param mBeanServer The server the MBean is registered in.
+     * @param name The name of the MBean.
+     * @param applicationProperties The object name properties identifying the application.
+     * @param metrics The metrics to add to.
+     * @throws Exception If the MBean cannot be read.
+     */
+    private static void collectMetrics(MBeanServer mBeanServer, ObjectName name,
+            Hashtable<String, String> applicationProperties, Map<String, Double> metrics) throws Exception {
+        Hashtable<String, String> properties = new Hashtable<String, String>(name.getKeyPropertyList());
+        properties.keySet().removeAll(applicationProperties.keySet());
+        String prefix = properties.isEmpty() ? name.getDomain() : new ObjectName(name.getDomain(), properties)
+                .getCanonicalName();
+        for (MBeanAttributeInfo attribute : mBeanServer.getMBeanInfo(name).getAttributes()) {
+            if (!attribute.isReadable()) {
+                continue;
+            }
+            switch (attribute.getType()) {
+            case "int":
+            case "long":
+            case "double":
+            case "float":
+            case "java.lang.Integer":
+            case "java.lang.Long":
+            case "java.lang.Double":
+            case "java.lang.Float":
+                Object value = mBeanServer.getAttribute(name, attribute.getName());
+                if (value != null) {
+                    metrics.put(prefix + "." + attribute.getName(), ((Number) value).doubleValue());
+                }
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return A snapshot with the time, application and metrics of this snapshot, but without its log records.
+     */
+    StatusSnapshot withoutLogRecords() {
+        return new StatusSnapshot(time, applicationProperties, NO_LOG_RECORDS, metrics);
+    }
+
+    /**
+     * @return The time the snapshot was taken, in milliseconds since the epoch.
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return The object name properties identifying the application, as used for its MBeans.
+     */
+    public Hashtable<String, String> getApplicationProperties() {
+        return new Hashtable<String, String>(applicationProperties);
+    }
+
+    /**
+     * @return The number of log records in the snapshot, including missing ones.
+     */
+    public int getLogRecordCount() {
+        return logRecords.length;
+    }
+
+    /**
+     * Get a log record.
+     *
+     * @param index The index of the record, 0 being the most recent.
+     * @return The log record, or the empty string if there is no such record.
+     */
+    public String getLogRecord(int index) {
+        if (index < 0 || index >= logRecords.length || logRecords[index] == null) {
+            return "";
+        }
+        return logRecords[index];
+    }
+
+    /**
+     * @return The numeric metrics of the application, by name.
+     */
+    public Map<String, Double> getMetrics() {
+        return Collections.unmodifiableMap(metrics);
+    }
+
+    /**
+     * Get the name the log record MBean with the given index has in the application.
+     *
+     * @param index The index of the log record.
+     * @return The object name.
+     * @throws MalformedObjectNameException If the application properties do not form a valid object name.
+     */
+    public ObjectName getLogRecordName(int index) throws MalformedObjectNameException {
+        Hashtable<String, String> properties = new Hashtable<String, String>(applicationProperties);
+        properties.put(Constants.PRIORITY_KEY_INDEX, Integer.toString(index));
+        return new ObjectName(LOGGING_DOMAIN, properties);
+    }
+
+}
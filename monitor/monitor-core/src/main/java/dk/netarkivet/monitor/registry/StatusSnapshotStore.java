@@ -0,0 +1,257 @@
+/*
+ * #%L
+ * Netarchivesuite - monitor
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.monitor.registry;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.monitor.MonitorSettings;
+
+/**
+ * An in-memory store of the status snapshots sent by applications to the monitor. The snapshots of each application
+ * are kept for the retention time given by {@link MonitorSettings#SNAPSHOT_RETENTION}, and an application is forgotten
+ * when it has sent no snapshot within that time. Only the most recent snapshot of an application keeps its log records;
+ * the older ones keep just their metrics. This class is coded to be thread safe.
+ */
+public class StatusSnapshotStore {
+
+    /** The singleton instance. */
+    private static StatusSnapshotStore instance;
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(StatusSnapshotStore.class);
+
+    /** The time in milliseconds snapshots are kept. */
+    private final long retention;
+    /** The snapshots of each application, oldest first, by the canonical name of the application properties. */
+    private final Map<String, Deque<StatusSnapshot>> snapshots = new HashMap<String, Deque<StatusSnapshot>>();
+
+    /**
+     * Create a store keeping snapshots for the given time.
+     *
+     * @param retention The time in milliseconds snapshots are kept.
+     * @throws ArgumentNotValid If retention is not positive.
+     */
+    public StatusSnapshotStore(long retention) {
+        ArgumentNotValid.checkPositive(retention, "long retention");
+        this.retention = retention;
+    }
+
+    /**
+     * Get the singleton instance.
+     *
+     * @return The singleton instance.
+     */
+    public static synchronized StatusSnapshotStore getInstance() {
+        if (instance == null) {
+            instance = new StatusSnapshotStore(Settings.getLong(MonitorSettings.SNAPSHOT_RETENTION));
+        }
+        return instance;
+    }
+
+    /**
+     * Add a snapshot sent by an application.
+     *
+     * @param snapshot The snapshot.
+     * @throws ArgumentNotValid If snapshot is null.
+     */
+    public synchronized void add(StatusSnapshot snapshot) {
+        ArgumentNotValid.checkNotNull(snapshot, "StatusSnapshot snapshot");
+        String key = getKey(snapshot);
+        Deque<StatusSnapshot> history = snapshots.get(key);
+        if (history == null) {
+            history = new ArrayDeque<StatusSnapshot>();
+            snapshots.put(key, history);
+            log.info("Receiving status snapshots from application '{}'", key);
+        } else if (history.getLast().getLogRecordCount() > 0) {
+            // Only the log records of the most recent snapshot are used.
+            history.addLast(history.removeLast().withoutLogRecords());
+        }
+        history.addLast(snapshot);
+        expire(System.currentTimeMillis());
+    }
+
+    /**
+     * Get the log records of the most recent snapshot of each application, as the MBeans that would expose them in the
+     * application.
+     *
+     * @param query A JMX object name pattern selecting log record MBeans, e.g.
+     * dk.netarkivet.common.logging:location=EAST,index=0,*
+     * @return The log records matching the pattern, by the names of the MBeans that would expose them.
+     * @throws MalformedObjectNameException If the query has wrong format.
+     */
+    public synchronized Map<ObjectName, String> queryLogRecords(String query) throws MalformedObjectNameException {
+        ArgumentNotValid.checkNotNull(query, "String query");
+        ObjectName pattern = new ObjectName(query);
+        expire(System.currentTimeMillis());
+        Map<ObjectName, String> result = new HashMap<ObjectName, String>();
+        for (Deque<StatusSnapshot> history : snapshots.values()) {
+            StatusSnapshot latest = history.getLast();
+            for (int i = 0; i < latest.getLogRecordCount(); i++) {
+                ObjectName name = latest.getLogRecordName(i);
+                if (pattern.apply(name)) {
+                    result.put(name, latest.getLogRecord(i));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Forget the applications with log records matching a query.
+     *
+     * @param query A JMX object name pattern selecting log record MBeans.
+     * @return The number of applications forgotten.
+     * @throws MalformedObjectNameException If the query has wrong format.
+     */
+    public synchronized int remove(String query) throws MalformedObjectNameException {
+        ArgumentNotValid.checkNotNull(query, "String query");
+        ObjectName pattern = new ObjectName(query);
+        int removed = 0;
+        Iterator<Deque<StatusSnapshot>> histories = snapshots.values().iterator();
+        while (histories.hasNext()) {
+            StatusSnapshot latest = histories.next().getLast();
+            for (int i = 0; i < latest.getLogRecordCount(); i++) {
+                if (pattern.apply(latest.getLogRecordName(i))) {
+                    histories.remove();
+                    removed++;
+                    break;
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Get the values of a metric of the applications matching a query, over the retention time.
+     *
+     * @param query A JMX object name pattern selecting log record MBeans, and thereby the applications.
+     * @param metric The name of the metric.
+     * @return For each matching application, by the canonical name of its properties, the values of the metric by the
+     * time of the snapshot. Applications without the metric are left out.
+     * @throws MalformedObjectNameException If the query has wrong format.
+     */
+    public synchronized Map<String, SortedMap<Long, Double>> getMetricHistory(String query, String metric)
+            throws MalformedObjectNameException {
+        ArgumentNotValid.checkNotNull(query, "String query");
+        ArgumentNotValid.checkNotNullOrEmpty(metric, "String metric");
+        ObjectName pattern = new ObjectName(query);
+        expire(System.currentTimeMillis());
+        Map<String, SortedMap<Long, Double>> result = new HashMap<String, SortedMap<Long, Double>>();
+        for (Map.Entry<String, Deque<StatusSnapshot>> history : snapshots.entrySet()) {
+            if (!matches(pattern, history.getValue().getLast())) {
+                continue;
+            }
+            SortedMap<Long, Double> series = new TreeMap<Long, Double>();
+            for (StatusSnapshot snapshot : history.getValue()) {
+                Double value = snapshot.getMetrics().get(metric);
+                if (value != null) {
+                    series.put(snapshot.getTime(), value);
+                }
+            }
+            if (!series.isEmpty()) {
+                result.put(history.getKey(), series);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The number of applications with snapshots in the store.
+     */
+    public synchronized int getApplicationCount() {
+        return snapshots.size();
+    }
+
+    /**
+     * Check whether any log record of a snapshot, or the application if it has no log records, matches a pattern.
+     *
+     * @param pattern A JMX object name pattern selecting log record MBeans.
+     * @param snapshot The snapshot.
+     * @return Whether the snapshot matches.
+     * @throws MalformedObjectNameException If the application properties do not form a valid object name.
+     */
+    private static boolean matches(ObjectName pattern, StatusSnapshot snapshot) throws MalformedObjectNameException {
+        for (int i = 0; i < Math.max(1, snapshot.getLogRecordCount()); i++) {
+            if (pattern.apply(snapshot.getLogRecordName(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drop the snapshots older than the retention time, and the applications left without snapshots.
+     *
+     * @param now The current time in milliseconds since the epoch.
+     */
+    private void expire(long now) {
+        Iterator<Map.Entry<String, Deque<StatusSnapshot>>> histories = snapshots.entrySet().iterator();
+        while (histories.hasNext()) {
+            Map.Entry<String, Deque<StatusSnapshot>> history = histories.next();
+            Deque<StatusSnapshot> deque = history.getValue();
+            while (!deque.isEmpty() && now - deque.getFirst().getTime() > retention) {
+                deque.removeFirst();
+            }
+            if (deque.isEmpty()) {
+                log.info("No status snapshots from application '{}' for {} ms, forgetting it", history.getKey(),
+                        retention);
+                histories.remove();
+            }
+        }
+    }
+
+    /**
+     * Get the key identifying the application that sent a snapshot.
+     *
+     * @param snapshot The snapshot.
+     * @return A canonical form of the properties identifying the application.
+     */
+    private static String getKey(StatusSnapshot snapshot) {
+        return new TreeMap<String, String>(snapshot.getApplicationProperties()).toString();
+    }
+
+    /**
+     * Get a list of the keys of the applications in the store.
+     *
+     * @return The keys, as used in {@link #getMetricHistory(String, String)}.
+     */
+    public synchronized List<String> getApplications() {
+        return new ArrayList<String>(snapshots.keySet());
+    }
+
+}
@@ -31,6 +31,7 @@ import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.utils.CleanupIF;
 import dk.netarkivet.monitor.distribute.MonitorMessageHandler;
 import dk.netarkivet.monitor.registry.MonitorRegistry;
+import dk.netarkivet.monitor.registry.StatusSnapshotStore;
 
 /**
  * The monitor registry server listens on JMS for hosts that wish to register themselves to the service. The registry
@@ -71,6 +72,16 @@ public class MonitorRegistryServer extends MonitorMessageHandler implements Clea
         MonitorRegistry.getInstance().register(msg.getHostEntry());
     }
 
+    /**
+     * This method stores the status snapshot sent by an application, for the monitor to show.
+     *
+     * @throws ArgumentNotValid on null parameter.
+     */
+    public void visit(StatusSnapshotMessage msg) {
+        ArgumentNotValid.checkNotNull(msg, "StatusSnapshotMessage msg");
+        StatusSnapshotStore.getInstance().add(msg.getSnapshot());
+    }
+
     /** Remove listener on shutdown. */
     public void cleanup() {
         // FIXME These commands fail when shutting down properly. (kill $PID)
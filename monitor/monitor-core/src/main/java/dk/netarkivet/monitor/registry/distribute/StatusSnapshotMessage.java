@@ -0,0 +1,74 @@
+/*
+ * #%L
+ * Netarchivesuite - monitor
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.monitor.registry.distribute;
+
+import dk.netarkivet.common.distribute.Channels;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.monitor.distribute.MonitorMessage;
+import dk.netarkivet.monitor.distribute.MonitorMessageVisitor;
+import dk.netarkivet.monitor.registry.StatusSnapshot;
+
+/**
+ * This type of message is sent to the monitor registry server with a snapshot of the status of an application, so the
+ * monitor does not have to read it from the application over JMX.
+ */
+@SuppressWarnings({"serial"})
+public class StatusSnapshotMessage extends MonitorMessage {
+    /** The snapshot sent. */
+    private final StatusSnapshot snapshot;
+
+    /**
+     * Creates a message with a status snapshot for the monitor server.
+     *
+     * @param snapshot The snapshot of the status of the sending application.
+     * @throws ArgumentNotValid on null snapshot.
+     */
+    public StatusSnapshotMessage(StatusSnapshot snapshot) {
+        super(Channels.getTheMonitorServer(), Channels.getError());
+        ArgumentNotValid.checkNotNull(snapshot, "StatusSnapshot snapshot");
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Should be implemented as a part of the visitor pattern. e.g.: <code>
+     * public void accept(MonitorMessageVisitor v) {
+     * v.visit(this);
+     * }
+     * </code>
+     *
+     * @param v A message visitor.
+     * @see MonitorMessageVisitor
+     */
+    public void accept(MonitorMessageVisitor v) {
+        v.visit(this);
+    }
+
+    /**
+     * Get the snapshot sent.
+     *
+     * @return The snapshot.
+     */
+    public StatusSnapshot getSnapshot() {
+        return snapshot;
+    }
+}
@@ -28,6 +28,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 
 import javax.management.InstanceNotFoundException;
@@ -44,9 +45,12 @@ import org.slf4j.LoggerFactory;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.utils.ExceptionUtils;
 import dk.netarkivet.common.utils.I18n;
+import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.webinterface.HTMLUtils;
+import dk.netarkivet.monitor.MonitorSettings;
 import dk.netarkivet.monitor.jmx.HostForwarding;
 import dk.netarkivet.monitor.logging.SingleLogRecord;
+import dk.netarkivet.monitor.registry.StatusSnapshotStore;
 
 /**
  * Implementation of StatusEntry, that receives its data from the MBeanServer (JMX).
@@ -285,7 +289,8 @@ public class JMXStatusEntry implements StatusEntry {
     }
 
     /**
-     * Query the JMX system for system status mbeans.
+     * Query the JMX system for system status mbeans. If {@link MonitorSettings#SNAPSHOT_ENABLED} is set, the status
+     * snapshots sent by the applications are queried instead.
      *
      * @param query A JMX request, e.g. dk.netarkivet.logging:location=EAST,httpport=8080,*
      * @return A list of status entries for the mbeans that match the query.
@@ -296,6 +301,16 @@ public class JMXStatusEntry implements StatusEntry {
 
         List<StatusEntry> entries = new ArrayList<StatusEntry>();
 
+        if (Settings.getBoolean(MonitorSettings.SNAPSHOT_ENABLED)) {
+            Map<ObjectName, String> records = StatusSnapshotStore.getInstance().queryLogRecords(query);
+            for (Map.Entry<ObjectName, String> record : records.entrySet()) {
+                entries.add(new SnapshotStatusEntry(record.getKey(), record.getValue()));
+            }
+            Collections.sort(entries);
+            log.debug("Query of status snapshots returned {} results.", entries.size());
+            return entries;
+        }
+
         // Make sure mbeans are forwarded
         HostForwarding.getInstance(SingleLogRecord.class, mBeanServer, LOGGING_QUERY);
         // The "null" in this case is used to indicate no further filters on the
@@ -311,7 +326,8 @@ public class JMXStatusEntry implements StatusEntry {
     }
 
     /**
-     * Unregister an JMX MBean instance.
+     * Unregister an JMX MBean instance. If {@link MonitorSettings#SNAPSHOT_ENABLED} is set, the status snapshots of the
+     * matching applications are forgotten instead.
      *
      * @param query A JMX request, for picking the beans to unregister.
      * @throws MalformedObjectNameException if query is malformed.
@@ -321,6 +337,10 @@ public class JMXStatusEntry implements StatusEntry {
     public static void unregisterJMXInstance(String query) throws MalformedObjectNameException,
             InstanceNotFoundException, MBeanRegistrationException {
         ArgumentNotValid.checkNotNull(query, "query");
+        if (Settings.getBoolean(MonitorSettings.SNAPSHOT_ENABLED)) {
+            StatusSnapshotStore.getInstance().remove(query);
+            return;
+        }
         Set<ObjectName> namesMatchingQuery = mBeanServer.queryNames(new ObjectName(query), null);
         for (ObjectName name : namesMatchingQuery) {
             mBeanServer.unregisterMBean(name);
@@ -0,0 +1,65 @@
+/*
+ * #%L
+ * Netarchivesuite - monitor
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.monitor.webinterface;
+
+import java.util.Locale;
+
+import javax.management.ObjectName;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * Implementation of StatusEntry, that receives its data from a status snapshot sent by the application, rather than
+ * from the MBeanServer of the application.
+ */
+public class SnapshotStatusEntry extends JMXStatusEntry {
+
+    /** The log message of this entry. */
+    private final String logMessage;
+
+    /**
+     * Constructor for the SnapshotStatusEntry.
+     *
+     * @param mBeanName The ObjectName of the MBean exposing the log message in the application.
+     * @param logMessage The log message, as sent in the snapshot.
+     */
+    public SnapshotStatusEntry(ObjectName mBeanName, String logMessage) {
+        super(mBeanName);
+        ArgumentNotValid.checkNotNull(logMessage, "String logMessage");
+        this.logMessage = logMessage;
+    }
+
+    /**
+     * Gets the log message from this status entry, as sent in the snapshot.
+     *
+     * @param l the current Locale
+     * @return A log message.
+     * @throws ArgumentNotValid if the current Locale is null
+     */
+    @Override
+    public String getLogMessage(Locale l) {
+        ArgumentNotValid.checkNotNull(l, "l");
+        return logMessage;
+    }
+
+}
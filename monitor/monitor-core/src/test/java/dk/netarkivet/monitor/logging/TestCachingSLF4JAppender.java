@@ -107,8 +107,52 @@ public class TestCachingSLF4JAppender {
         appender.close();
 	}
 
+	@Test
+	public void test_bulk_read_and_counters() {
+		LoggerContext lc = (LoggerContext) LoggerFactory.getILoggerFactory();
+
+        CachingSLF4JAppender appender = new CachingSLF4JAppender();
+        appender.setPattern("%level %msg");
+        appender.setCounters(true);
+        appender.setContext(lc);
+        appender.start();
+
+        Logger logger = (Logger) LoggerFactory.getLogger("bulk");
+        logger.addAppender(appender);
+        logger.setLevel(Level.DEBUG);
+        logger.setAdditive(false);
+
+        String[] records = appender.getRecordStrings(3);
+        Assert.assertEquals(3, records.length);
+        Assert.assertEquals(null, records[0]);
+
+        logger.debug("'1'");
+        logger.info("'2'");
+        logger.warn("'3'");
+        logger.error("'4'");
+        logger.error("'5'");
+
+        records = appender.getRecordStrings(3);
+        Assert.assertEquals("ERROR '5'", records[0]);
+        Assert.assertEquals("ERROR '4'", records[1]);
+        Assert.assertEquals("WARN '3'", records[2]);
+        Assert.assertEquals(appender.loggingHistorySize,
+                appender.getRecordStrings(Integer.MAX_VALUE).length);
+
+        Assert.assertEquals(4, appender.getRecordCount());
+        Assert.assertEquals(1, appender.getInfoCount());
+        Assert.assertEquals(1, appender.getWarnCount());
+        Assert.assertEquals(2, appender.getErrorCount());
+        Assert.assertEquals(Long.valueOf(4), appender.getLoggerCounts().get("bulk"));
+
+        logger.detachAppender(appender);
+        appender.stop();
+        appender.close();
+	}
+
 	private int nthLogIndex(CachingSLF4JAppender appender, int n) {
-		return (appender.currentIndex - n - 1 + appender.loggingHistorySize) % appender.loggingHistorySize;
+		int currentIndex = (int) (appender.nextSequence.get() % appender.loggingHistorySize);
+		return (currentIndex - n - 1 + appender.loggingHistorySize) % appender.loggingHistorySize;
 	}
 
 }
@@ -0,0 +1,127 @@
+/*
+ * #%L
+ * Netarchivesuite - monitor - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.monitor.registry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.SortedMap;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import dk.netarkivet.testutils.ReflectUtils;
+
+/**
+ * Unit tests for the class StatusSnapshotStore.
+ */
+public class StatusSnapshotStoreTester {
+
+    @Test
+    public void testQueryLogRecords() throws Exception {
+        StatusSnapshotStore store = new StatusSnapshotStore(60 * 1000L);
+        long now = System.currentTimeMillis();
+        store.add(snapshot(now - 1000, "EAST", "first", 1.0));
+        store.add(snapshot(now, "EAST", "second", 2.0));
+        store.add(snapshot(now, "WEST", "other", 3.0));
+        assertEquals(2, store.getApplicationCount());
+
+        Map<ObjectName, String> records = store.queryLogRecords(StatusSnapshot.LOGGING_DOMAIN
+                + ":location=EAST,index=0,*");
+        assertEquals("Only the latest snapshot of the application should be used", 1, records.size());
+        ObjectName name = records.keySet().iterator().next();
+        assertEquals("second", records.get(name));
+        assertEquals("EAST", name.getKeyProperty("location"));
+        assertEquals("0", name.getKeyProperty("index"));
+
+        assertEquals(4, store.queryLogRecords(StatusSnapshot.LOGGING_DOMAIN + ":*").size());
+
+        SortedMap<Long, Double> series = store.getMetricHistory(StatusSnapshot.LOGGING_DOMAIN + ":location=EAST,*",
+                "test.value").values().iterator().next();
+        assertEquals(2, series.size());
+        assertEquals(Double.valueOf(1.0), series.get(now - 1000));
+        assertEquals(Double.valueOf(2.0), series.get(now));
+
+        assertEquals(1, store.remove(StatusSnapshot.LOGGING_DOMAIN + ":location=WEST,*"));
+        assertEquals(1, store.getApplicationCount());
+    }
+
+    @Test
+    public void testExpiresOldSnapshots() throws Exception {
+        StatusSnapshotStore store = new StatusSnapshotStore(1000L);
+        long now = System.currentTimeMillis();
+        store.add(snapshot(now - 5000, "EAST", "old", 1.0));
+        store.add(snapshot(now, "WEST", "new", 2.0));
+        assertEquals("The application with only old snapshots should be forgotten", 1, store.getApplicationCount());
+        assertTrue(store.queryLogRecords(StatusSnapshot.LOGGING_DOMAIN + ":location=EAST,*").isEmpty());
+    }
+
+    @Test
+    public void testOnlyLatestSnapshotKeepsLogRecords() throws Exception {
+        StatusSnapshotStore store = new StatusSnapshotStore(60 * 1000L);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 3; i++) {
+            store.add(snapshot(now - 3000 + i * 1000, "EAST", "record" + i, i));
+        }
+        Field field = ReflectUtils.getPrivateField(StatusSnapshotStore.class, "snapshots");
+        @SuppressWarnings("unchecked")
+        Map<String, Deque<StatusSnapshot>> snapshots = (Map<String, Deque<StatusSnapshot>>) field.get(store);
+        Deque<StatusSnapshot> history = snapshots.values().iterator().next();
+        assertEquals(3, history.size());
+        int withLogRecords = 0;
+        for (StatusSnapshot snapshot : history) {
+            if (snapshot.getLogRecordCount() > 0) {
+                withLogRecords++;
+            }
+        }
+        assertEquals("Only the latest snapshot should keep its log records", 1, withLogRecords);
+        assertEquals(2, history.getLast().getLogRecordCount());
+
+        Map<ObjectName, String> records = store.queryLogRecords(StatusSnapshot.LOGGING_DOMAIN
+                + ":location=EAST,index=0,*");
+        assertEquals("record2", records.values().iterator().next());
+        assertEquals("The metrics of the older snapshots should be kept", 3,
+                store.getMetricHistory(StatusSnapshot.LOGGING_DOMAIN + ":location=EAST,*", "test.value").values()
+                        .iterator().next().size());
+    }
+
+    /**
+     * Create a snapshot with two log records and one metric.
+     */
+    private static StatusSnapshot snapshot(long time, String location, String record, double value) {
+        Hashtable<String, String> properties = new Hashtable<String, String>();
+        properties.put("location", location);
+        properties.put("applicationname", "TestApp");
+        Map<String, Double> metrics = new HashMap<String, Double>();
+        metrics.put("test.value", value);
+        return new StatusSnapshot(time, properties, new String[] {record, null}, Collections.unmodifiableMap(metrics));
+    }
+
+}
@@ -40,7 +40,8 @@ public class DeduplicateToCDXApplication {
     /**
      * Takes an array of file names (relative or full paths) of crawl.log files from which duplicate records are to be
      * extracted. Writes the concatenated cdx files of all duplicate records in these files to standard out. An
-     * exception will be thrown if any of the files cannot be read for any reason or if the argument is null
+     * exception will be thrown if any of the files cannot be read for any reason or if the argument is null. Each file
+     * is converted by as many threads as there are available processors.
      *
      * @param localCrawlLogs a list of file names
      * @throws FileNotFoundException if one of the files cannot be found
@@ -48,10 +49,11 @@ public class DeduplicateToCDXApplication {
     public void generateCDX(String[] localCrawlLogs) throws IOException {
         ArgumentNotValid.checkNotNull(localCrawlLogs, "localCrawlLogs");
         DeduplicateToCDXAdapter adapter = new DeduplicateToCDXAdapter();
+        int threads = Runtime.getRuntime().availableProcessors();
         for (String filename : localCrawlLogs) {
             File file = new File(filename);
             FileInputStream inputStream = new FileInputStream(file);
-            adapter.adaptStream(inputStream, System.out);
+            adapter.adaptStream(inputStream, System.out, threads);
             inputStream.close();
         }
     }
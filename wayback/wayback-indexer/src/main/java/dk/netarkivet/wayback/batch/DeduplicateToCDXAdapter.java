@@ -22,13 +22,18 @@
  */
 package dk.netarkivet.wayback.batch;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.lang3.time.FastDateFormat;
 import org.archive.wayback.UrlCanonicalizer;
@@ -39,6 +44,13 @@ import dk.netarkivet.common.exceptions.ArgumentNotValid;
 
 /**
  * Class containing methods for turning duplicate entries in a crawl log into lines in a CDX index file.
+ * <p>
+ * Crawl log lines are scanned as bytes: the fields and the duplicate annotation are located by index, and the CDX line
+ * is assembled in a reused buffer, so apart from the canonicalization of the url no objects are created per line. The
+ * output is the same as matching the line against the patterns
+ * <code>duplicate:"([^,]*),([^,]*)",(.*)</code> (duplicate:"arcfile,offset") and
+ * <code>duplicate:"([^,]*),([^,]*),([^,]*)",(.*)</code> (duplicate:"arcfile,offset,timestamp"), where the extended
+ * format preserves the date of the record pointed to. Instances are not thread safe.
  */
 public class DeduplicateToCDXAdapter implements DeduplicateToCDXAdapterInterface {
 
@@ -51,25 +63,43 @@ public class DeduplicateToCDXAdapter implements DeduplicateToCDXAdapterInterface
     private static final FastDateFormat crawlDateFormat = FastDateFormat.getInstance(crawlDateFormatString);
     private static final FastDateFormat cdxDateFormat = FastDateFormat.getInstance(cdxDateFormatString);
 
-    /** Pattern representing the part of a crawl log entry describing a duplicate record. */
-    private static final String duplicateRecordPatternString = "duplicate:\"([^,]*),([^,]*)\",(.*)";	//e.g. duplicate:"arcfile,offset"
-    // The extended format is made to preserve the date of the record pointed to by arcfile,offset argument
-    private static final String extendedDuplicateRecordPatternString = "duplicate:\"([^,]*),([^,]*),([^,]*)\",(.*)"; //e.g. duplicate:"arcfile,offset,timestamp"
-    
-    private static final Pattern duplicateRecordPattern = Pattern.compile(duplicateRecordPatternString);
-    private static final Pattern extendedDuplicateRecordPattern = Pattern.compile(extendedDuplicateRecordPatternString);
+    /** String for identifying crawl-log entries representing duplicates. */
+    private static final String DUPLICATE_MATCHING_STRING = "duplicate:";
+
+    /** The charset used for reading crawl logs and writing cdx lines. */
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    /** The bytes of DUPLICATE_MATCHING_STRING. */
+    private static final byte[] DUPLICATE_MATCHING_BYTES = DUPLICATE_MATCHING_STRING.getBytes(CHARSET);
+    /** The prefix removed from the digest. */
+    private static final byte[] DIGEST_PREFIX_BYTES = "sha1:".getBytes(CHARSET);
+
+    /** The indices of the crawl log fields used. */
+    private static final int TIMESTAMP_FIELD = 0;
+    private static final int STATUS_FIELD = 1;
+    private static final int URL_FIELD = 3;
+    private static final int MIMETYPE_FIELD = 6;
+    private static final int DIGEST_FIELD = 9;
+    private static final int ANNOTATIONS_FIELD = 11;
+    private static final int FIELDS_USED = ANNOTATIONS_FIELD + 1;
+
+    /** The number of bytes read at a time, and the size of the output written at a time. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** The size of the chunks of crawl log handed to each thread when adapting a stream in parallel. */
+    static final int CHUNK_SIZE = 1024 * 1024;
 
     /** canonicalizer used to canonicalize urls. */
     UrlCanonicalizer canonicalizer;
 
-    /** String for identifying crawl-log entries representing duplicates. */
-    private static final String DUPLICATE_MATCHING_STRING = "duplicate:";
+    /** The scanner used by the calling thread. */
+    private final LineScanner scanner;
 
     /**
      * Default constructor. Initializes the canonicalizer.
      */
     public DeduplicateToCDXAdapter() {
         canonicalizer = UrlCanonicalizerFactory.getDefaultUrlCanonicalizer();
+        scanner = new LineScanner();
     }
 
     /**
@@ -81,54 +111,16 @@ public class DeduplicateToCDXAdapter implements DeduplicateToCDXAdapterInterface
      */
     @Override
     public String adaptLine(String line) {
-        if (line != null && line.contains(DUPLICATE_MATCHING_STRING)) {
-            try {
-                String[] crawlElements = line.split("\\s+");
-                StringBuffer result = new StringBuffer();
-                String originalUrl = crawlElements[3];
-                String canonicalUrl = canonicalizer.urlStringToKey(originalUrl);
-                result.append(canonicalUrl).append(' ');
-                String cdxDate = cdxDateFormat.format(crawlDateFormat.parse(crawlElements[0]));
-                result.append(cdxDate).append(' ').append(originalUrl).append(' ');
-                String mimetype = crawlElements[6];
-                result.append(mimetype).append(' ');
-                String httpCode = crawlElements[1];
-                result.append(httpCode).append(' ');
-                String digest = crawlElements[9].replaceAll("sha1:", "");
-                result.append(digest).append(" - ");
-                String duplicateRecord = crawlElements[11];
-                if (!duplicateRecord.startsWith(DUPLICATE_MATCHING_STRING)) {
-                    // Probably an Exception starting with "le:" is injected before the
-                    // DUPLICATE_MATCHING_STRING, Try splitting on duplicate:
-                    String[] parts = duplicateRecord.split(DUPLICATE_MATCHING_STRING);
-                    if (parts.length == 2) {
-                        String newDuplicateRecord = DUPLICATE_MATCHING_STRING + parts[1];
-                        log.debug("Duplicate-record changed from '{}' to '{}'", duplicateRecord, newDuplicateRecord);
-                        duplicateRecord = newDuplicateRecord;
-                    }
-                }
-                Matcher m = duplicateRecordPattern.matcher(duplicateRecord);
-                Matcher m1 = extendedDuplicateRecordPattern.matcher(duplicateRecord);
-                if (m.matches()) {
-                    String arcfile = m.group(1);
-                    String offset = m.group(2);
-                    result.append(offset).append(' ').append(arcfile);
-                } else if (m1.matches()) {
-                	String arcfile = m1.group(1);
-                	String offset = m1.group(2);
-                	result.append(offset).append(' ').append(arcfile);
-                } else {
-                    throw new ArgumentNotValid("crawl record did not match " + "expected pattern for duplicate"
-                            + " record: '" + duplicateRecord + "'");
-                }
-                return result.toString();
-            } catch (Exception e) {
-                log.error("Could not adapt deduplicate record to CDX line: '{}'", line, e);
-                return null;
-            }
-        } else {
+        if (line == null || !line.contains(DUPLICATE_MATCHING_STRING)) {
             return null;
         }
+        byte[] bytes = line.getBytes(CHARSET);
+        scanner.reset();
+        if (!scanner.adaptLine(canonicalizer, bytes, 0, bytes.length)) {
+            return null;
+        }
+        // Leave out the newline
+        return new String(scanner.output, 0, scanner.length - 1, CHARSET);
     }
 
     /**
@@ -142,16 +134,416 @@ public class DeduplicateToCDXAdapter implements DeduplicateToCDXAdapterInterface
         ArgumentNotValid.checkNotNull(is, "is");
         ArgumentNotValid.checkNotNull(os, "os");
         try {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String cdxLine = adaptLine(line);
-                if (cdxLine != null) {
-                    os.write((cdxLine + "\n").getBytes());
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int filled = 0;
+            scanner.reset();
+            for (int read = is.read(buffer); read >= 0; read = is.read(buffer, filled, buffer.length - filled)) {
+                filled += read;
+                int consumed = scanner.adaptLines(canonicalizer, buffer, 0, filled, false);
+                filled -= consumed;
+                if (consumed > 0) {
+                    System.arraycopy(buffer, consumed, buffer, 0, filled);
+                } else if (filled == buffer.length) {
+                    // A line longer than the buffer
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                if (scanner.length >= BUFFER_SIZE) {
+                    os.write(scanner.output, 0, scanner.length);
+                    scanner.reset();
                 }
             }
+            scanner.adaptLines(canonicalizer, buffer, 0, filled, true);
+            os.write(scanner.output, 0, scanner.length);
+            scanner.reset();
         } catch (IOException e) {
             log.error("Exception reading crawl log;", e);
         }
     }
+
+    /**
+     * As {@link #adaptStream(InputStream, OutputStream)}, but the crawl log is split into chunks of whole lines which
+     * are converted by the given number of threads. The cdx lines are written in the order of the crawl log. Each
+     * thread uses its own canonicalizer from {@link UrlCanonicalizerFactory}.
+     *
+     * @param is The input stream from which data is read.
+     * @param os The output stream to which the cdx lines are written.
+     * @param threads The number of threads converting lines. With one thread the stream is converted by the calling
+     * thread.
+     */
+    public void adaptStream(InputStream is, OutputStream os, int threads) {
+        ArgumentNotValid.checkNotNull(is, "is");
+        ArgumentNotValid.checkNotNull(os, "os");
+        ArgumentNotValid.checkPositive(threads, "int threads");
+        if (threads == 1) {
+            adaptStream(is, os);
+            return;
+        }
+        ThreadLocal<LineScanner> scanners = ThreadLocal.withInitial(LineScanner::new);
+        ThreadLocal<UrlCanonicalizer> canonicalizers = ThreadLocal
+                .withInitial(UrlCanonicalizerFactory::getDefaultUrlCanonicalizer);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+        try {
+            byte[] chunk = new byte[CHUNK_SIZE];
+            int filled = 0;
+            boolean endOfStream = false;
+            while (!endOfStream) {
+                while (filled < chunk.length) {
+                    int read = is.read(chunk, filled, chunk.length - filled);
+                    if (read < 0) {
+                        endOfStream = true;
+                        break;
+                    }
+                    filled += read;
+                }
+                int end = endOfStream ? filled : lastLineBreak(chunk, filled) + 1;
+                if (end == 0 && !endOfStream) {
+                    // A line longer than the chunk
+                    chunk = Arrays.copyOf(chunk, chunk.length * 2);
+                    continue;
+                }
+                byte[] next = new byte[Math.max(CHUNK_SIZE, filled - end)];
+                System.arraycopy(chunk, end, next, 0, filled - end);
+                final byte[] lines = chunk;
+                final int linesEnd = end;
+                pending.add(executor.submit(() -> {
+                    LineScanner chunkScanner = scanners.get();
+                    chunkScanner.reset();
+                    chunkScanner.adaptLines(canonicalizers.get(), lines, 0, linesEnd, true);
+                    return Arrays.copyOf(chunkScanner.output, chunkScanner.length);
+                }));
+                chunk = next;
+                filled -= end;
+                // Bound the number of chunks held in memory
+                while (pending.size() > 2 * threads || (endOfStream && !pending.isEmpty())) {
+                    os.write(pending.remove().get());
+                }
+            }
+        } catch (IOException e) {
+            log.error("Exception reading crawl log;", e);
+        } catch (ExecutionException e) {
+            log.error("Exception converting crawl log;", e.getCause());
+        } catch (InterruptedException e) {
+            log.error("Interrupted while converting crawl log;", e);
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return The index of the last CR or LF among the first length bytes of the buffer, or -1 if there is none.
+     */
+    private static int lastLineBreak(byte[] buffer, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (buffer[i] == '\n' || buffer[i] == '\r') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Converts crawl log lines in a byte array to cdx lines in a reusable output buffer.
+     */
+    private static final class LineScanner {
+        /** The cdx lines, each terminated by a newline. */
+        private byte[] output = new byte[BUFFER_SIZE + 4096];
+        /** The number of bytes used in output. */
+        private int length;
+        /** The start of each field used in the current line. */
+        private final int[] fieldStarts = new int[FIELDS_USED];
+        /** The end of each field used in the current line. */
+        private final int[] fieldEnds = new int[FIELDS_USED];
+
+        /** Empty the output buffer. */
+        void reset() {
+            length = 0;
+        }
+
+        /**
+         * Convert the lines in part of a buffer. Lines are terminated by CR, LF or CR LF, like in
+         * {@link java.io.BufferedReader#readLine()}. Empty lines never contain duplicates, so a CR LF can safely be
+         * treated as two line breaks.
+         *
+         * @param canonicalizer The canonicalizer of urls.
+         * @param buffer The bytes of the lines.
+         * @param start The start of the first line.
+         * @param end The end of the bytes to convert.
+         * @param endOfInput If true the bytes after the last line break are converted as the last line, otherwise
+         * they are left for the next call.
+         * @return The start of the first unconverted line.
+         */
+        int adaptLines(UrlCanonicalizer canonicalizer, byte[] buffer, int start, int end, boolean endOfInput) {
+            int lineStart = start;
+            for (int i = start; i < end; i++) {
+                if (buffer[i] == '\n' || buffer[i] == '\r') {
+                    adaptLine(canonicalizer, buffer, lineStart, i);
+                    lineStart = i + 1;
+                }
+            }
+            if (endOfInput && lineStart < end) {
+                adaptLine(canonicalizer, buffer, lineStart, end);
+                lineStart = end;
+            }
+            return lineStart;
+        }
+
+        /**
+         * If the line is a crawl log entry representing a duplicate, append a cdx line and a newline to the output.
+         * Errors are logged.
+         *
+         * @return true if a cdx line was appended.
+         */
+        boolean adaptLine(UrlCanonicalizer canonicalizer, byte[] line, int start, int end) {
+            if (indexOf(line, DUPLICATE_MATCHING_BYTES, start, end) < 0) {
+                return false;
+            }
+            int mark = length;
+            try {
+                findFields(line, start, end);
+                String originalUrl = new String(line, fieldStarts[URL_FIELD],
+                        fieldEnds[URL_FIELD] - fieldStarts[URL_FIELD], CHARSET);
+                append(canonicalizer.urlStringToKey(originalUrl).getBytes(CHARSET));
+                append((byte) ' ');
+                appendCdxDate(line, fieldStarts[TIMESTAMP_FIELD], fieldEnds[TIMESTAMP_FIELD]);
+                append((byte) ' ');
+                appendField(line, URL_FIELD);
+                append((byte) ' ');
+                appendField(line, MIMETYPE_FIELD);
+                append((byte) ' ');
+                appendField(line, STATUS_FIELD);
+                append((byte) ' ');
+                appendDigest(line, fieldStarts[DIGEST_FIELD], fieldEnds[DIGEST_FIELD]);
+                append((byte) ' ');
+                append((byte) '-');
+                append((byte) ' ');
+                appendOffsetAndFile(line, fieldStarts[ANNOTATIONS_FIELD], fieldEnds[ANNOTATIONS_FIELD]);
+                append((byte) '\n');
+                return true;
+            } catch (Exception e) {
+                length = mark;
+                log.error("Could not adapt deduplicate record to CDX line: '{}'",
+                        new String(line, start, end - start, CHARSET), e);
+                return false;
+            }
+        }
+
+        /**
+         * Find the first fields of a line separated by whitespace. As with splitting on "\\s+" a line starting with
+         * whitespace has an empty first field.
+         */
+        private void findFields(byte[] line, int start, int end) {
+            int i = start;
+            fieldStarts[0] = i;
+            while (i < end && !isWhitespace(line[i])) {
+                i++;
+            }
+            fieldEnds[0] = i;
+            for (int field = 1; field < FIELDS_USED; field++) {
+                while (i < end && isWhitespace(line[i])) {
+                    i++;
+                }
+                if (i == end) {
+                    throw new ArgumentNotValid("crawl record has only " + field + " fields");
+                }
+                fieldStarts[field] = i;
+                while (i < end && !isWhitespace(line[i])) {
+                    i++;
+                }
+                fieldEnds[field] = i;
+            }
+        }
+
+        /**
+         * Append a crawl log timestamp like 2009-05-25T13:00:00.992Z as a cdx timestamp like 20090525130000. The
+         * digits of well formed timestamps are copied directly, anything else is left to the date formats.
+         */
+        private void appendCdxDate(byte[] line, int start, int end) throws ParseException {
+            if (end - start == 24 && line[start + 4] == '-' && line[start + 7] == '-' && line[start + 10] == 'T'
+                    && line[start + 13] == ':' && line[start + 16] == ':' && line[start + 19] == '.'
+                    && line[start + 23] == 'Z') {
+                int year = digits(line, start, 4);
+                int month = digits(line, start + 5, 2);
+                int day = digits(line, start + 8, 2);
+                int hour = digits(line, start + 11, 2);
+                int minute = digits(line, start + 14, 2);
+                int second = digits(line, start + 17, 2);
+                if (year >= 0 && month >= 1 && month <= 12 && day >= 1 && day <= daysInMonth(year, month)
+                        && hour >= 0 && hour <= 23 && minute >= 0 && minute <= 59 && second >= 0 && second <= 59
+                        && digits(line, start + 20, 3) >= 0) {
+                    append(line, start, start + 4);
+                    append(line, start + 5, start + 7);
+                    append(line, start + 8, start + 10);
+                    append(line, start + 11, start + 13);
+                    append(line, start + 14, start + 16);
+                    append(line, start + 17, start + 19);
+                    return;
+                }
+            }
+            String timestamp = new String(line, start, end - start, CHARSET);
+            append(cdxDateFormat.format(crawlDateFormat.parse(timestamp)).getBytes(CHARSET));
+        }
+
+        /** Append the digest with every "sha1:" removed. */
+        private void appendDigest(byte[] line, int start, int end) {
+            int i = start;
+            while (i < end) {
+                if (startsWith(line, i, end, DIGEST_PREFIX_BYTES)) {
+                    i += DIGEST_PREFIX_BYTES.length;
+                } else {
+                    append(line[i++]);
+                }
+            }
+        }
+
+        /**
+         * Append "offset arcfile" from the duplicate annotation. If the annotations field does not start with
+         * "duplicate:", as when an exception like "le:IOException@ExtractorSWF," precedes it, the part after
+         * "duplicate:" is used if splitting the field on "duplicate:" gives exactly two parts.
+         */
+        private void appendOffsetAndFile(byte[] line, int start, int end) {
+            int recordStart;
+            int recordEnd;
+            if (startsWith(line, start, end, DUPLICATE_MATCHING_BYTES)) {
+                recordStart = start + DUPLICATE_MATCHING_BYTES.length;
+                recordEnd = end;
+            } else {
+                // Emulate String.split, which drops trailing empty parts
+                int parts = 0;
+                int nonEmptyParts = 0;
+                int secondPartStart = -1;
+                int secondPartEnd = -1;
+                int partStart = start;
+                while (true) {
+                    int match = indexOf(line, DUPLICATE_MATCHING_BYTES, partStart, end);
+                    int partEnd = match < 0 ? end : match;
+                    if (partEnd > partStart) {
+                        nonEmptyParts = parts + 1;
+                    }
+                    if (parts == 1) {
+                        secondPartStart = partStart;
+                        secondPartEnd = partEnd;
+                    }
+                    parts++;
+                    if (match < 0) {
+                        break;
+                    }
+                    partStart = match + DUPLICATE_MATCHING_BYTES.length;
+                }
+                if (nonEmptyParts != 2) {
+                    throw new ArgumentNotValid("crawl record did not match expected pattern for duplicate record: '"
+                            + new String(line, start, end - start, CHARSET) + "'");
+                }
+                log.debug("Duplicate-record changed from '{}' to '{}{}'", new String(line, start, end - start,
+                        CHARSET), DUPLICATE_MATCHING_STRING, new String(line, secondPartStart, secondPartEnd
+                        - secondPartStart, CHARSET));
+                recordStart = secondPartStart;
+                recordEnd = secondPartEnd;
+            }
+            // "arcfile,offset", or "arcfile,offset,timestamp", followed by a comma
+            int firstComma = recordStart < recordEnd && line[recordStart] == '"' ? indexOf(line, (byte) ',',
+                    recordStart + 1, recordEnd) : -1;
+            int secondComma = firstComma < 0 ? -1 : indexOf(line, (byte) ',', firstComma + 1, recordEnd);
+            int thirdComma = secondComma < 0 ? -1 : indexOf(line, (byte) ',', secondComma + 1, recordEnd);
+            if (secondComma > firstComma + 1 && line[secondComma - 1] == '"') {
+                append(line, firstComma + 1, secondComma - 1);
+            } else if (thirdComma > secondComma + 1 && line[thirdComma - 1] == '"') {
+                append(line, firstComma + 1, secondComma);
+            } else {
+                throw new ArgumentNotValid("crawl record did not match " + "expected pattern for duplicate"
+                        + " record: '" + DUPLICATE_MATCHING_STRING
+                        + new String(line, recordStart, recordEnd - recordStart, CHARSET) + "'");
+            }
+            append((byte) ' ');
+            append(line, recordStart + 1, firstComma);
+        }
+
+        private void appendField(byte[] line, int field) {
+            append(line, fieldStarts[field], fieldEnds[field]);
+        }
+
+        private void append(byte[] bytes) {
+            append(bytes, 0, bytes.length);
+        }
+
+        private void append(byte[] bytes, int start, int end) {
+            int count = end - start;
+            ensureCapacity(count);
+            System.arraycopy(bytes, start, output, length, count);
+            length += count;
+        }
+
+        private void append(byte b) {
+            ensureCapacity(1);
+            output[length++] = b;
+        }
+
+        private void ensureCapacity(int count) {
+            if (length + count > output.length) {
+                output = Arrays.copyOf(output, Math.max(output.length * 2, length + count));
+            }
+        }
+    }
+
+    /** @return true for the characters matched by \s in a regular expression. */
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+    }
+
+    /** @return The value of count decimal digits, or -1 if they are not all digits. */
+    private static int digits(byte[] bytes, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            if (bytes[i] < '0' || bytes[i] > '9') {
+                return -1;
+            }
+            value = value * 10 + (bytes[i] - '0');
+        }
+        return value;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+        case 2:
+            return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0 ? 29 : 28;
+        case 4:
+        case 6:
+        case 9:
+        case 11:
+            return 30;
+        default:
+            return 31;
+        }
+    }
+
+    private static boolean startsWith(byte[] bytes, int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[start + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] bytes, byte[] target, int start, int end) {
+        for (int i = start; i <= end - target.length; i++) {
+            if (startsWith(bytes, i, end, target)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(byte[] bytes, byte b, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
 }
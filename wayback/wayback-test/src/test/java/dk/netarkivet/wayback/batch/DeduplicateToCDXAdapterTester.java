@@ -22,24 +22,34 @@
  */
 package dk.netarkivet.wayback.batch;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import org.apache.commons.lang3.time.FastDateFormat;
+import org.archive.wayback.UrlCanonicalizer;
 import org.archive.wayback.core.CaptureSearchResult;
 import org.archive.wayback.resourceindex.cdx.CDXLineToSearchResultAdapter;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.experimental.categories.Category;
 
 import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.SlowTest;
 import dk.netarkivet.testutils.TestFileUtils;
 import dk.netarkivet.wayback.TestInfo;
 
@@ -155,4 +165,141 @@ public class DeduplicateToCDXAdapterTester {
         assertTrue("expect at least 3 lines of output, got " + lines.length, lines.length > 2);
     }
 
+    @Test
+    public void testAdaptLineAsRegularExpressions() {
+        DeduplicateToCDXAdapter adapter = new DeduplicateToCDXAdapter();
+        String prefix = "2016-11-21T13:10:51.640Z   200       5430 http://Maps.google.com/favicon.ico REPI "
+                + "http://maps.google.com/robots.txt image/x-icon #040 20161121131051607+18 sha1:JETDNF";
+        String[] lines = {DEDUP_CRAWL_STRING, DEDUP_CRAWL_STRING2, DEDUP_CRAWL_STRING3, MULTI_ANNOTATED_STRIMG.trim(),
+                NAS_2598_STRING, NAS_2598_STRING2,
+                prefix + " - le:duplicate:\"f.arc,1\",duplicate:",
+                prefix + " - aduplicate:duplicate:\"f.arc,1\",x",
+                prefix + " - duplicate:\"f.arc,1\"",
+                prefix + " - duplicate:\"f.arc,\",x",
+                prefix + " - duplicate:\"f.arc,1,\",x",
+                prefix + " - duplicate:f.arc,1\",x",
+                prefix + " - duplicate:\"f\"g,1\"2,3\",x",
+                prefix + " -",
+                prefix.replace("sha1:JETDNF", "sha1:sha1:Asha1:") + " - duplicate:\"f.arc,1\",x",
+                prefix.replace("2016-11-21", "2016-02-30") + " - duplicate:\"f.arc,1\",x",
+                prefix.replace("2016-11-21", "2016-1-21") + " - duplicate:\"f.arc,1\",x",
+                prefix.replace(".640Z", ".640Zjunk") + " - duplicate:\"f.arc,1\",x",
+                prefix.replace("2016-11-21T13:10:51.640Z", "garbage") + " - duplicate:\"f.arc,1\",x",
+                " " + prefix + " - duplicate:\"f.arc,1\",x",
+                prefix.replace(' ', '\t') + " - duplicate:\"f.arc,1\",x",
+                "no duplicate here", "2016 duplicate:"};
+        for (String line : lines) {
+            assertEquals("Should convert '" + line + "' like the regular expressions",
+                    adaptLineWithRegularExpressions(adapter.canonicalizer, line), adapter.adaptLine(line));
+        }
+    }
+
+    @Test
+    public void testAdaptStreamInParallel() {
+        byte[] crawlLog = syntheticCrawlLog(3 * DeduplicateToCDXAdapter.CHUNK_SIZE / 300);
+        DeduplicateToCDXAdapter adapter = new DeduplicateToCDXAdapter();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (String line : new String(crawlLog).split("\r\n|\r|\n")) {
+            String cdxLine = adaptLineWithRegularExpressions(adapter.canonicalizer, line);
+            if (cdxLine != null) {
+                byte[] bytes = (cdxLine + "\n").getBytes();
+                expected.write(bytes, 0, bytes.length);
+            }
+        }
+        ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+        adapter.adaptStream(new ByteArrayInputStream(crawlLog), sequential);
+        ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+        adapter.adaptStream(new ByteArrayInputStream(crawlLog), parallel, 4);
+        assertTrue("Should produce cdx lines", expected.size() > 0);
+        assertArrayEquals(expected.toByteArray(), sequential.toByteArray());
+        assertArrayEquals("Chunks should be written in order", expected.toByteArray(), parallel.toByteArray());
+    }
+
+    /**
+     * Benchmark of converting a synthetic crawl log with the regular expressions formerly used, and with the adapter
+     * on one and on four threads. The number of lines can be changed with the system property
+     * "dedup.benchmark.lines".
+     */
+    @Test
+    @Category(SlowTest.class)
+    public void benchmarkAdaptStream() throws IOException {
+        int lines = Integer.getInteger("dedup.benchmark.lines", 1000000);
+        byte[] crawlLog = syntheticCrawlLog(lines);
+        DeduplicateToCDXAdapter adapter = new DeduplicateToCDXAdapter();
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(crawlLog)));
+            OutputStream regexOutput = new ByteArrayOutputStream();
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                String cdxLine = adaptLineWithRegularExpressions(adapter.canonicalizer, line);
+                if (cdxLine != null) {
+                    regexOutput.write((cdxLine + "\n").getBytes());
+                }
+            }
+            long regexMillis = (System.nanoTime() - start) / 1000000;
+            start = System.nanoTime();
+            adapter.adaptStream(new ByteArrayInputStream(crawlLog), new ByteArrayOutputStream());
+            long sequentialMillis = (System.nanoTime() - start) / 1000000;
+            start = System.nanoTime();
+            adapter.adaptStream(new ByteArrayInputStream(crawlLog), new ByteArrayOutputStream(), 4);
+            long parallelMillis = (System.nanoTime() - start) / 1000000;
+            System.out.println("Round " + round + ": converted " + lines + " crawl log lines in " + regexMillis
+                    + " ms with regular expressions, " + sequentialMillis + " ms with the adapter and "
+                    + parallelMillis + " ms with the adapter on 4 threads");
+        }
+    }
+
+    /** Generates crawl log lines of about 300 bytes, mostly duplicates, with varying line terminators. */
+    private static byte[] syntheticCrawlLog(int lines) {
+        String[] terminators = {"\n", "\r\n", "\r"};
+        StringBuilder crawlLog = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            crawlLog.append("2016-12-05T10:11:38.808Z   200       2026 http://www.w3.org/Icons/").append(i)
+                    .append(".png EI http://www.w3.org/Icons/valid image/png #041 20161205101137572+1226 ")
+                    .append("sha1:C3PH3IWTSURQ7XILQRHDIDDGAD2ORRPH www.kaarefc.dk ");
+            if (i % 10 == 0) {
+                crawlLog.append("content-size:2408");
+            } else {
+                crawlLog.append("duplicate:\"2-1-20161205100306320-00000-4320~kb-test-har-004.kb.dk~8173.arc,")
+                        .append(i * 1000L).append(",20161205100315930\",content-size:2408");
+            }
+            crawlLog.append(terminators[i % terminators.length]);
+        }
+        return crawlLog.toString().getBytes();
+    }
+
+    /** The conversion as done with regular expressions before the adapter scanned lines as bytes. */
+    private static String adaptLineWithRegularExpressions(UrlCanonicalizer canonicalizer, String line) {
+        if (line == null || !line.contains("duplicate:")) {
+            return null;
+        }
+        try {
+            String[] crawlElements = line.split("\\s+");
+            StringBuilder result = new StringBuilder();
+            result.append(canonicalizer.urlStringToKey(crawlElements[3])).append(' ');
+            result.append(FastDateFormat.getInstance("yyyyMMddHHmmss").format(
+                    FastDateFormat.getInstance("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").parse(crawlElements[0])));
+            result.append(' ').append(crawlElements[3]).append(' ').append(crawlElements[6]).append(' ');
+            result.append(crawlElements[1]).append(' ').append(crawlElements[9].replaceAll("sha1:", "")).append(" - ");
+            String duplicateRecord = crawlElements[11];
+            if (!duplicateRecord.startsWith("duplicate:")) {
+                String[] parts = duplicateRecord.split("duplicate:");
+                if (parts.length == 2) {
+                    duplicateRecord = "duplicate:" + parts[1];
+                }
+            }
+            Matcher m = Pattern.compile("duplicate:\"([^,]*),([^,]*)\",(.*)").matcher(duplicateRecord);
+            Matcher m1 = Pattern.compile("duplicate:\"([^,]*),([^,]*),([^,]*)\",(.*)").matcher(duplicateRecord);
+            if (m.matches()) {
+                result.append(m.group(2)).append(' ').append(m.group(1));
+            } else if (m1.matches()) {
+                result.append(m1.group(2)).append(' ').append(m1.group(1));
+            } else {
+                return null;
+            }
+            return result.toString();
+        } catch (Exception e) {
+            return null;
+        }
+    }
 }